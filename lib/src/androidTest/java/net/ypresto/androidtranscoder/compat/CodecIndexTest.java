@@ -0,0 +1,131 @@
+package net.ypresto.androidtranscoder.compat;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+public class CodecIndexTest extends TestCase {
+    private static final String AVC = "video/avc";
+    private static final String AAC = "audio/mp4a-latm";
+    private static final String FINGERPRINT = "vendor/device:12/build:user/release-keys";
+
+    private static CodecIndex.Codec video(String name, boolean encoder, boolean hardware, int... profileLevels) {
+        return new CodecIndex.Codec(name, AVC, encoder, hardware, 64, 1920, 64, 1088, 16, 16,
+                1, 40000000, 16, profileLevels);
+    }
+
+    private static CodecIndex.Codec audio(String name, boolean encoder) {
+        return new CodecIndex.Codec(name, AAC, encoder, false, 1, Integer.MAX_VALUE, 1, Integer.MAX_VALUE,
+                1, 1, 8000, 510000, -1, new int[0]);
+    }
+
+    private static CodecIndex createIndex() {
+        return new CodecIndex(Arrays.asList(
+                video("OMX.vendor.avc.encoder", true, true, 1, 0x200, 8, 0x800, 8, 0x1000),
+                video("OMX.google.h264.encoder", true, false, 1, 0x100),
+                video("OMX.vendor.avc.decoder", false, true, 8, 0x8000),
+                audio("OMX.google.aac.encoder", true),
+                audio("OMX.google.aac.decoder", false)));
+    }
+
+    public void testLookupKeepsOrder() {
+        CodecIndex index = createIndex();
+        List<CodecIndex.Codec> encoders = index.getEncoders(AVC);
+        assertEquals(2, encoders.size());
+        assertEquals("OMX.vendor.avc.encoder", encoders.get(0).name);
+        assertEquals("OMX.google.h264.encoder", encoders.get(1).name);
+        assertEquals(1, index.getDecoders(AVC).size());
+        assertEquals("OMX.google.aac.decoder", index.getDecoders(AAC).get(0).name);
+        assertEquals(5, index.getCodecs().size());
+    }
+
+    public void testMissingType() {
+        CodecIndex index = createIndex();
+        assertTrue(index.getEncoders("video/hevc").isEmpty());
+        assertTrue(index.getDecoders("video/hevc").isEmpty());
+    }
+
+    public void testImmutable() {
+        CodecIndex index = createIndex();
+        try {
+            index.getEncoders(AVC).clear();
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+        try {
+            index.getCodecs().remove(0);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    public void testProfileLevels() {
+        CodecIndex.Codec codec = createIndex().getEncoders(AVC).get(0);
+        assertTrue(codec.hasProfileLevels());
+        assertEquals(0x200, codec.getMaxLevel(1));
+        assertEquals(0x1000, codec.getMaxLevel(8));
+        assertEquals(-1, codec.getMaxLevel(2));
+        assertFalse(createIndex().getEncoders(AAC).get(0).hasProfileLevels());
+    }
+
+    public void testSizeSupported() {
+        CodecIndex.Codec codec = createIndex().getEncoders(AVC).get(0);
+        assertTrue(codec.isSizeSupported(1280, 720));
+        assertFalse(codec.isSizeSupported(1280, 722));
+        assertFalse(codec.isSizeSupported(3840, 2160));
+        assertFalse(codec.isSizeSupported(32, 32));
+    }
+
+    public void testRoundTrip() throws IOException {
+        CodecIndex index = createIndex();
+        StringWriter writer = new StringWriter();
+        index.write(writer, FINGERPRINT);
+        CodecIndex read = CodecIndex.read(new StringReader(writer.toString()), FINGERPRINT);
+        assertNotNull(read);
+        assertEquals(index.getCodecs().size(), read.getCodecs().size());
+        for (int i = 0; i < index.getCodecs().size(); i++) {
+            CodecIndex.Codec a = index.getCodecs().get(i);
+            CodecIndex.Codec b = read.getCodecs().get(i);
+            assertEquals(a.name, b.name);
+            assertEquals(a.mimeType, b.mimeType);
+            assertEquals(a.encoder, b.encoder);
+            assertEquals(a.hardware, b.hardware);
+            assertEquals(a.maxWidth, b.maxWidth);
+            assertEquals(a.maxHeight, b.maxHeight);
+            assertEquals(a.widthAlignment, b.widthAlignment);
+            assertEquals(a.maxBitRate, b.maxBitRate);
+            assertEquals(a.maxInstances, b.maxInstances);
+            assertEquals(a.getMaxLevel(8), b.getMaxLevel(8));
+            assertEquals(a.hasProfileLevels(), b.hasProfileLevels());
+        }
+        assertEquals("OMX.vendor.avc.encoder", read.getEncoders(AVC).get(0).name);
+    }
+
+    public void testOtherBuildIsDiscarded() throws IOException {
+        StringWriter writer = new StringWriter();
+        createIndex().write(writer, FINGERPRINT);
+        assertNull(CodecIndex.read(new StringReader(writer.toString()), "vendor/device:13/other"));
+        assertNull(CodecIndex.read(new StringReader(""), FINGERPRINT));
+    }
+
+    public void testCorruptCacheThrows() {
+        String cache = "version\t1\nfingerprint\t" + FINGERPRINT + "\nOMX.broken\tvideo/avc\t1\n";
+        try {
+            CodecIndex.read(new StringReader(cache), FINGERPRINT);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testSoftwareNames() {
+        assertTrue(CodecIndex.isSoftwareName("OMX.google.h264.encoder"));
+        assertTrue(CodecIndex.isSoftwareName("c2.android.avc.encoder"));
+        assertTrue(CodecIndex.isSoftwareName("OMX.SEC.avc.sw.dec"));
+        assertFalse(CodecIndex.isSoftwareName("OMX.qcom.video.encoder.avc"));
+        assertFalse(CodecIndex.isSoftwareName("c2.exynos.h264.encoder"));
+    }
+}
@@ -0,0 +1,75 @@
+package net.ypresto.androidtranscoder.compat;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CodecSelectorTest extends TestCase {
+    private static final String AVC = "video/avc";
+
+    private static CodecIndex.Codec codec(String name, boolean hardware, int maxWidth) {
+        return new CodecIndex.Codec(name, AVC, true, hardware, 64, maxWidth, 64, maxWidth, 2, 2,
+                1, 40000000, 16, new int[0]);
+    }
+
+    private static List<String> names(List<CodecIndex.Codec> codecs) {
+        List<String> names = new ArrayList<>();
+        for (CodecIndex.Codec codec : codecs) names.add(codec.name);
+        return names;
+    }
+
+    public void testHardwareFirst() {
+        CodecSelector selector = new CodecSelector();
+        List<CodecIndex.Codec> candidates = Arrays.asList(
+                codec("sw", false, 4096), codec("hw", true, 4096));
+        assertEquals(Arrays.asList("hw", "sw"), names(selector.rank(candidates, 1280, 720)));
+    }
+
+    public void testCapabilitiesFit() {
+        CodecSelector selector = new CodecSelector();
+        List<CodecIndex.Codec> candidates = Arrays.asList(
+                codec("hw-small", true, 1920), codec("hw-large", true, 4096), codec("sw", false, 4096));
+        assertEquals(Arrays.asList("hw-small", "hw-large", "sw"), names(selector.rank(candidates, 1280, 720)));
+        assertEquals(Arrays.asList("hw-large", "hw-small", "sw"), names(selector.rank(candidates, 3840, 2160)));
+    }
+
+    public void testThroughput() {
+        CodecSelector selector = new CodecSelector();
+        List<CodecIndex.Codec> candidates = Arrays.asList(
+                codec("hw-a", true, 4096), codec("hw-b", true, 4096), codec("sw", false, 4096));
+        selector.onThroughput("hw-b", 100000000);
+        selector.onThroughput("hw-a", 50000000);
+        // Faster software codecs still come after hardware ones.
+        selector.onThroughput("sw", 200000000);
+        assertEquals(Arrays.asList("hw-b", "hw-a", "sw"), names(selector.rank(candidates, 1280, 720)));
+    }
+
+    public void testFailuresComeLast() {
+        CodecSelector selector = new CodecSelector();
+        List<CodecIndex.Codec> candidates = Arrays.asList(
+                codec("hw", true, 4096), codec("sw", false, 4096));
+        selector.onFailure("hw", AVC, 1280, 720);
+        assertEquals(Arrays.asList("sw", "hw"), names(selector.rank(candidates, 1280, 720)));
+        // Failures are specific to the size.
+        assertEquals(Arrays.asList("hw", "sw"), names(selector.rank(candidates, 640, 360)));
+    }
+
+    public void testTiesKeepPlatformOrder() {
+        CodecSelector selector = new CodecSelector();
+        List<CodecIndex.Codec> candidates = Arrays.asList(
+                codec("b", true, 4096), codec("a", true, 4096), codec("c", true, 4096));
+        assertEquals(Arrays.asList("b", "a", "c"), names(selector.rank(candidates, 0, 0)));
+    }
+
+    public void testThroughputIsAveraged() {
+        CodecSelector selector = new CodecSelector();
+        List<CodecIndex.Codec> candidates = Arrays.asList(
+                codec("hw-a", true, 4096), codec("hw-b", true, 4096));
+        selector.onThroughput("hw-a", 100);
+        selector.onThroughput("hw-b", 80);
+        selector.onThroughput("hw-a", 40);
+        assertEquals(Arrays.asList("hw-b", "hw-a"), names(selector.rank(candidates, 1280, 720)));
+    }
+}
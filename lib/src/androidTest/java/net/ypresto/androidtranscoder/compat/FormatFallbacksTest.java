@@ -0,0 +1,138 @@
+package net.ypresto.androidtranscoder.compat;
+
+import android.media.MediaFormat;
+
+import net.ypresto.androidtranscoder.utils.MediaFormatConstants;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class FormatFallbacksTest extends TestCase {
+    private static final String FINGERPRINT = "vendor/device:12/build:user/release-keys";
+    private static final int HIGH = 8;
+    private static final int MAIN = 2;
+    private static final int BASELINE = 1;
+
+    private static MediaFormat format(int width, int height, int profile, int bitRate) {
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormatConstants.MIMETYPE_VIDEO_AVC, width, height);
+        format.setInteger(MediaFormatConstants.KEY_PROFILE, profile);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        return format;
+    }
+
+    // High, Main, Baseline, then Baseline with a capped bit rate if the bit rate is high.
+    private static List<MediaFormat> ladder(int bitRate) {
+        MediaFormat high = format(1920, 1080, HIGH, bitRate);
+        MediaFormat main = format(1920, 1080, MAIN, bitRate);
+        MediaFormat baseline = format(1920, 1080, BASELINE, bitRate);
+        if (bitRate <= 20000000) return Arrays.asList(high, main, baseline);
+        return Arrays.asList(high, main, baseline, format(1920, 1080, BASELINE, 20000000));
+    }
+
+    private static List<MediaFormat> otherLadder() {
+        return Arrays.asList(format(1280, 720, MAIN, 4000000), format(1280, 720, BASELINE, 4000000));
+    }
+
+    private static void configure(FormatFallbacks fallbacks, List<MediaFormat> formats, int index, int times) {
+        for (int i = 0; i < times; i++) {
+            fallbacks.onConfigured(formats, index);
+        }
+    }
+
+    public void testStartsFromRequestedFormat() {
+        FormatFallbacks fallbacks = new FormatFallbacks();
+        assertEquals(0, fallbacks.getStart(ladder(8000000)));
+    }
+
+    public void testRemembersConfirmedFallback() {
+        FormatFallbacks fallbacks = new FormatFallbacks();
+        fallbacks.onConfigured(ladder(8000000), 2);
+        // A single failure may have had another cause.
+        assertEquals(0, fallbacks.getStart(ladder(8000000)));
+        fallbacks.onConfigured(ladder(8000000), 2);
+        assertEquals(2, fallbacks.getStart(ladder(8000000)));
+        assertEquals(0, fallbacks.getStart(otherLadder()));
+        // The requested format works again, e.g. with another codec.
+        fallbacks.onConfigured(ladder(8000000), 0);
+        assertEquals(0, fallbacks.getStart(ladder(8000000)));
+    }
+
+    public void testFallbackIsFoundInOtherLadder() {
+        FormatFallbacks fallbacks = new FormatFallbacks();
+        configure(fallbacks, ladder(8000000), 1, FormatFallbacks.CONFIRMATIONS);
+        assertEquals(1, fallbacks.getStart(ladder(40000000)));
+    }
+
+    public void testCappedFallbackIsNotUsedWithoutCap() {
+        FormatFallbacks fallbacks = new FormatFallbacks();
+        configure(fallbacks, ladder(40000000), 3, FormatFallbacks.CONFIRMATIONS);
+        assertEquals(3, fallbacks.getStart(ladder(40000000)));
+        // Same key, but this ladder has no capped format: index 3 would be out of range.
+        assertEquals(0, fallbacks.getStart(ladder(8000000)));
+    }
+
+    public void testRetriesRequestedFormat() {
+        FormatFallbacks fallbacks = new FormatFallbacks();
+        configure(fallbacks, ladder(8000000), 2, FormatFallbacks.CONFIRMATIONS);
+        int retries = 0;
+        for (int i = 0; i < FormatFallbacks.RETRY_INTERVAL * 3; i++) {
+            int start = fallbacks.getStart(ladder(8000000));
+            if (start == 0) {
+                retries++;
+                // The requested format is still rejected.
+                fallbacks.onConfigured(ladder(8000000), 2);
+            } else {
+                assertEquals(2, start);
+            }
+        }
+        assertEquals(3, retries);
+    }
+
+    public void testRoundTrip() throws IOException {
+        FormatFallbacks fallbacks = new FormatFallbacks();
+        configure(fallbacks, ladder(8000000), 2, FormatFallbacks.CONFIRMATIONS);
+        configure(fallbacks, otherLadder(), 1, FormatFallbacks.CONFIRMATIONS);
+        StringWriter writer = new StringWriter();
+        fallbacks.write(writer, FINGERPRINT);
+        Map<String, String> read = FormatFallbacks.read(new StringReader(writer.toString()), FINGERPRINT);
+        assertNotNull(read);
+        assertEquals(2, read.size());
+        List<MediaFormat> ladder = ladder(8000000);
+        assertEquals(FormatFallbacks.getRelaxation(ladder.get(0), ladder.get(2)),
+                read.get(FormatFallbacks.getKey(ladder.get(0))));
+    }
+
+    public void testUnconfirmedFallbackIsNotWritten() throws IOException {
+        FormatFallbacks fallbacks = new FormatFallbacks();
+        fallbacks.onConfigured(ladder(8000000), 2);
+        StringWriter writer = new StringWriter();
+        fallbacks.write(writer, FINGERPRINT);
+        Map<String, String> read = FormatFallbacks.read(new StringReader(writer.toString()), FINGERPRINT);
+        assertNotNull(read);
+        assertTrue(read.isEmpty());
+    }
+
+    public void testOtherBuildIsDiscarded() throws IOException {
+        FormatFallbacks fallbacks = new FormatFallbacks();
+        configure(fallbacks, ladder(8000000), 2, FormatFallbacks.CONFIRMATIONS);
+        StringWriter writer = new StringWriter();
+        fallbacks.write(writer, FINGERPRINT);
+        assertNull(FormatFallbacks.read(new StringReader(writer.toString()), "vendor/device:13/other"));
+        assertNull(FormatFallbacks.read(new StringReader(""), FINGERPRINT));
+    }
+
+    public void testCorruptCacheThrows() {
+        String cache = "version\t2\nfingerprint\t" + FINGERPRINT + "\nvideo/avc/1920x1080/8/-1/-1\n";
+        try {
+            FormatFallbacks.read(new StringReader(cache), FINGERPRINT);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package net.ypresto.androidtranscoder.remix;
+
+import junit.framework.TestCase;
+
+import java.nio.ShortBuffer;
+
+public class AudioMixerTest extends TestCase {
+
+    public void testMix() {
+        ShortBuffer target = ShortBuffer.wrap(new short[]{100, 200, 300, 400});
+        ShortBuffer source = ShortBuffer.wrap(new short[]{10, 20, 30, 40});
+        int mixed = AudioMixer.mix(source, target, 0, 4, 1F);
+        assertEquals(4, mixed);
+        assertEquals(4, source.position());
+        assertEquals(0, target.position());
+        assertArrayEquals(new short[]{110, 220, 330, 440}, target.array());
+    }
+
+    public void testGain() {
+        ShortBuffer target = ShortBuffer.wrap(new short[]{0, 0, 1000, -1000});
+        ShortBuffer source = ShortBuffer.wrap(new short[]{1000, -1000, 100, 100});
+        AudioMixer.mix(source, target, 0, 4, 0.5F);
+        assertArrayEquals(new short[]{500, -500, 1050, -950}, target.array());
+    }
+
+    public void testSaturation() {
+        ShortBuffer target = ShortBuffer.wrap(new short[]{30000, -30000, Short.MAX_VALUE, Short.MIN_VALUE});
+        ShortBuffer source = ShortBuffer.wrap(new short[]{10000, -10000, Short.MAX_VALUE, Short.MIN_VALUE});
+        AudioMixer.mix(source, target, 0, 4, 1F);
+        assertArrayEquals(new short[]{Short.MAX_VALUE, Short.MIN_VALUE, Short.MAX_VALUE, Short.MIN_VALUE},
+                target.array());
+    }
+
+    public void testRanges() {
+        ShortBuffer target = ShortBuffer.wrap(new short[6]);
+        ShortBuffer source = ShortBuffer.wrap(new short[]{1, 2, 3, 4, 5});
+
+        // Source is longer than the target range.
+        assertEquals(2, AudioMixer.mix(source, target, 1, 3, 1F));
+        assertEquals(2, source.position());
+        // Target range is longer than the source.
+        assertEquals(3, AudioMixer.mix(source, target, 3, 6, 1F));
+        assertFalse(source.hasRemaining());
+        assertEquals(0, AudioMixer.mix(source, target, 0, 6, 1F));
+        assertArrayEquals(new short[]{0, 1, 2, 3, 4, 5}, target.array());
+    }
+
+    private static void assertArrayEquals(short[] expected, short[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Index " + i, expected[i], actual[i]);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package net.ypresto.androidtranscoder.remix;
+
+import junit.framework.TestCase;
+
+import java.nio.ShortBuffer;
+
+public class AudioResamplerTest extends TestCase {
+
+    // Streams the input in chunks of the given size, like BackgroundAudioDecoder does.
+    private static short[] resample(short[] input, int inputRate, int outputRate, int channels, int chunk) {
+        AudioResampler resampler = new AudioResampler(inputRate, outputRate, channels);
+        ShortBuffer out = ShortBuffer.allocate(resampler.getMaxOutputSize(input.length) * 2);
+        for (int offset = 0; offset < input.length; offset += chunk) {
+            ShortBuffer in = ShortBuffer.wrap(input, offset, Math.min(chunk, input.length - offset));
+            assertTrue(out.remaining() >= resampler.getMaxOutputSize(in.remaining()));
+            resampler.resample(in, out);
+            assertFalse(in.hasRemaining());
+        }
+        out.flip();
+        short[] output = new short[out.remaining()];
+        out.get(output);
+        return output;
+    }
+
+    private static short[] ramp(int frames, int channels) {
+        short[] samples = new short[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < channels; c++) samples[i * channels + c] = (short) (i * 10 * (c == 0 ? 1 : -1));
+        }
+        return samples;
+    }
+
+    public void testSameRateIsUnchanged() {
+        short[] input = ramp(1000, 2);
+        short[] output = resample(input, 44100, 44100, 2, 334);
+        assertEquals(input.length, output.length);
+        for (int i = 0; i < input.length; i++) assertEquals(input[i], output[i]);
+    }
+
+    public void testDuration() {
+        short[] input = ramp(44100, 1);
+        int frames = resample(input, 44100, 48000, 1, 1024).length;
+        assertEquals(48000, frames, 2);
+        frames = resample(input, 44100, 22050, 1, 1000).length;
+        assertEquals(22050, frames, 2);
+    }
+
+    public void testInterpolatesAcrossChunks() {
+        // A ramp stays a ramp, also between chunks, and channels are not mixed up.
+        short[] output = resample(ramp(1000, 2), 2, 3, 2, 14);
+        for (int i = 0; i < output.length / 2; i++) {
+            double expected = i * 2D / 3 * 10;
+            assertEquals("frame " + i, expected, output[i * 2], 1);
+            assertEquals("frame " + i, -expected, output[i * 2 + 1], 1);
+        }
+    }
+
+    public void testInvalidRate() {
+        try {
+            new AudioResampler(0, 48000, 2);
+            fail("should throw");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package net.ypresto.androidtranscoder.remix;
+
+import net.ypresto.androidtranscoder.utils.Logger;
+
+import junit.framework.TestCase;
+
+import java.nio.ShortBuffer;
+
+public class TimeStretcherTest extends TestCase {
+    private static final String TAG = "TimeStretcherTest";
+    private static final Logger LOG = new Logger(TAG);
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int SECONDS = 10;
+
+    public void testDuration() {
+        for (float speed : new float[]{0.5F, 1F, 1.25F, 1.5F, 2F}) {
+            short[] output = stretch(sine(440, 2), 2, speed, 1000);
+            int expected = Math.round(SECONDS * SAMPLE_RATE / speed);
+            int actual = output.length / 2;
+            // Allow for one sequence of difference.
+            assertTrue("speed " + speed + ": expected " + expected + ", got " + actual,
+                    Math.abs(expected - actual) < SAMPLE_RATE / 25);
+        }
+    }
+
+    public void testPitchIsPreserved() {
+        for (float speed : new float[]{1.25F, 2F}) {
+            short[] output = stretch(sine(440, 1), 1, speed, 777);
+            double frequency = zeroCrossings(output) / 2D / ((double) output.length / SAMPLE_RATE);
+            assertEquals("speed " + speed, 440, frequency, 440 * 0.02);
+        }
+    }
+
+    public void testEnergyIsPreserved() {
+        // Cross-fading correlated segments should neither cancel nor boost the signal.
+        short[] input = sine(440, 1);
+        short[] output = stretch(input, 1, 1.5F, 1024);
+        double ratioDb = 10 * Math.log10(meanSquare(output) / meanSquare(input));
+        assertEquals(0, ratioDb, 0.5);
+    }
+
+    public void testStereoChannelsStayAligned() {
+        // Large chunks, so that several sequences are processed per call.
+        short[] output = stretch(sine(440, 2), 2, 1.5F, 4096);
+        for (int i = 0; i < output.length; i += 2) {
+            assertEquals("frame " + i / 2, output[i], output[i + 1]);
+        }
+    }
+
+    public void testThroughput() {
+        // Only reported, since the speed depends on the device and its load.
+        short[] input = sine(440, 2);
+        long start = System.nanoTime();
+        stretch(input, 2, 1.5F, 4096);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        LOG.i("Stereo 44.1 kHz at 1.5x: " + SECONDS / seconds + "x realtime.");
+    }
+
+    public void testInvalidSpeed() {
+        try {
+            new TimeStretcher(SAMPLE_RATE, 2, 10F);
+            fail("should throw");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    private static short[] sine(double frequency, int channels) {
+        short[] samples = new short[SECONDS * SAMPLE_RATE * channels];
+        for (int i = 0; i < SECONDS * SAMPLE_RATE; i++) {
+            short sample = (short) (10000 * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+            for (int c = 0; c < channels; c++) samples[i * channels + c] = sample;
+        }
+        return samples;
+    }
+
+    // Streams the input in chunks of the given size, like AudioChannel does.
+    private static short[] stretch(short[] input, int channels, float speed, int chunk) {
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, channels, speed);
+        ShortBuffer in = ShortBuffer.wrap(input);
+        ShortBuffer out = ShortBuffer.allocate((int) (input.length / speed) + SAMPLE_RATE * channels);
+        ShortBuffer outChunk = ShortBuffer.allocate(chunk * channels);
+        while (in.hasRemaining()) {
+            int limit = Math.min(in.limit(), in.position() + chunk * channels);
+            ShortBuffer slice = (ShortBuffer) in.duplicate().limit(limit);
+            stretcher.queueInput(slice);
+            in.position(slice.position());
+            drain(stretcher, outChunk, out);
+        }
+        stretcher.queueEndOfStream();
+        while (!stretcher.isDrained()) drain(stretcher, outChunk, out);
+        short[] result = new short[out.position()];
+        out.flip();
+        out.get(result);
+        return result;
+    }
+
+    private static void drain(TimeStretcher stretcher, ShortBuffer chunk, ShortBuffer out) {
+        while (stretcher.hasOutput()) {
+            chunk.clear();
+            stretcher.readOutput(chunk);
+            chunk.flip();
+            out.put(chunk);
+        }
+    }
+
+    private static double meanSquare(short[] samples) {
+        double sum = 0;
+        for (short sample : samples) sum += (double) sample * sample;
+        return sum / samples.length;
+    }
+
+    private static int zeroCrossings(short[] samples) {
+        int count = 0;
+        for (int i = 1; i < samples.length; i++) {
+            if ((samples[i - 1] < 0) != (samples[i] < 0)) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,154 @@
+package net.ypresto.androidtranscoder.strategy;
+
+import android.media.MediaFormat;
+
+import junit.framework.TestCase;
+
+import net.ypresto.androidtranscoder.transcode.framerate.FrameRateConverter;
+import net.ypresto.androidtranscoder.utils.AvcSpsUtils;
+import net.ypresto.androidtranscoder.utils.MediaFormatConstants;
+
+import java.nio.ByteBuffer;
+
+public class DefaultVideoStrategyTest extends TestCase {
+    // High 4.0, 1920x1080, 30 fps. The level is at index 3.
+    private static final byte[] HIGH_SPS = {
+            0x67, 0x64, 0x00, 0x28, (byte) 0xad, (byte) 0x84, 0x0f, (byte) 0xff, (byte) 0xf8, 0x0d,
+            (byte) 0x94, 0x07, (byte) 0x80, 0x22, 0x7e, 0x5c, 0x05, (byte) 0xa8, 0x08, 0x08,
+            0x0a, 0x00, 0x00, 0x03, 0x00, 0x02, 0x00, 0x00, 0x03, 0x00,
+            0x79, (byte) 0xd1, (byte) 0x80, 0x00, 0x7a, 0x12, 0x00, 0x00, (byte) 0xf4, 0x24,
+            0x5e, (byte) 0xf7, (byte) 0xc0, (byte) 0xf1, (byte) 0x83, 0x19, 0x60};
+
+    private static MediaFormat input(int level, int bitRate) {
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormatConstants.MIMETYPE_VIDEO_AVC, 1920, 1080);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, 30);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 10);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        byte[] csd = new byte[HIGH_SPS.length + 4];
+        csd[3] = 1;
+        System.arraycopy(HIGH_SPS, 0, csd, 4, HIGH_SPS.length);
+        csd[7] = (byte) level;
+        format.setByteBuffer(MediaFormatConstants.KEY_AVC_SPS, ByteBuffer.wrap(csd));
+        return format;
+    }
+
+    private static DeviceProfile high41() {
+        return new DeviceProfile.Builder(AvcSpsUtils.PROFILE_IDC_HIGH, 41).build();
+    }
+
+    private static void assertPassThrough(DefaultVideoStrategy strategy, MediaFormat input) {
+        try {
+            strategy.createOutputFormat(input);
+            fail("Expected a pass through.");
+        } catch (OutputStrategyException e) {
+            assertEquals(OutputStrategyException.TYPE_ALREADY_COMPRESSED, e.getType());
+        }
+    }
+
+    public void testFittingInputIsPassedThrough() throws OutputStrategyException {
+        DefaultVideoStrategy strategy = DefaultVideoStrategy.atMost(1080, 1920).build();
+        assertPassThrough(strategy, input(51, 8000000));
+    }
+
+    public void testDeviceProfileRejectsFittingInput() throws OutputStrategyException {
+        // The input fits the resizer, but its level is too high for the device.
+        DefaultVideoStrategy strategy = DefaultVideoStrategy.atMost(1080, 1920).passThroughFor(high41()).build();
+        MediaFormat output = strategy.createOutputFormat(input(51, 8000000));
+        assertNotNull(output);
+        assertEquals(1920, output.getInteger(MediaFormat.KEY_WIDTH));
+    }
+
+    public void testDeviceProfileAcceptsLargeInput() {
+        // The input is bigger than requested, but the device can play it.
+        DefaultVideoStrategy strategy = DefaultVideoStrategy.atMost(720).passThroughFor(high41()).build();
+        assertPassThrough(strategy, input(40, 8000000));
+    }
+
+    public void testDeviceProfileRejectionIsNotUndoneByCeiling() throws OutputStrategyException {
+        // The requested bit rate is above the input one, which would pass it through.
+        DefaultVideoStrategy strategy = DefaultVideoStrategy.atMost(1080, 1920)
+                .bitRate(10000000)
+                .neverBigger(0.1F)
+                .passThroughFor(high41())
+                .build();
+        MediaFormat output = strategy.createOutputFormat(input(51, 8000000));
+        assertEquals(7200000, output.getInteger(MediaFormat.KEY_BIT_RATE));
+    }
+
+    public void testCeilingCapsBitRate() throws OutputStrategyException {
+        DefaultVideoStrategy strategy = DefaultVideoStrategy.atMost(720).bitRate(10000000).neverBigger(0.1F).build();
+        MediaFormat output = strategy.createOutputFormat(input(40, 8000000));
+        assertEquals(7200000, output.getInteger(MediaFormat.KEY_BIT_RATE));
+    }
+
+    public void testCeilingKeepsSmallerBitRate() throws OutputStrategyException {
+        DefaultVideoStrategy strategy = DefaultVideoStrategy.atMost(720).bitRate(2000000).neverBigger(0.1F).build();
+        MediaFormat output = strategy.createOutputFormat(input(40, 8000000));
+        assertEquals(2000000, output.getInteger(MediaFormat.KEY_BIT_RATE));
+    }
+
+    public void testCeilingPassesThroughWhenOnlyIFrameIntervalDiffers() {
+        // Size and frame rate are done, and the output would not be smaller.
+        DefaultVideoStrategy strategy = DefaultVideoStrategy.atMost(1080, 1920)
+                .iFrameInterval(20F).bitRate(10000000).neverBigger(0.1F).build();
+        assertPassThrough(strategy, input(40, 8000000));
+    }
+
+    public void testCeilingDoesNotPassThroughWhenResizing() throws OutputStrategyException {
+        DefaultVideoStrategy strategy = DefaultVideoStrategy.atMost(720)
+                .iFrameInterval(20F).bitRate(10000000).neverBigger(0.1F).build();
+        MediaFormat output = strategy.createOutputFormat(input(40, 8000000));
+        assertEquals(1280, output.getInteger(MediaFormat.KEY_WIDTH));
+        assertEquals(7200000, output.getInteger(MediaFormat.KEY_BIT_RATE));
+    }
+
+    public void testCeilingDoesNotPassThroughWhenReducingFrameRate() throws OutputStrategyException {
+        DefaultVideoStrategy strategy = DefaultVideoStrategy.atMost(1080, 1920)
+                .frameRate(24).iFrameInterval(20F).bitRate(10000000).neverBigger(0.1F).build();
+        MediaFormat output = strategy.createOutputFormat(input(40, 8000000));
+        assertEquals(24, output.getInteger(MediaFormat.KEY_FRAME_RATE));
+        assertEquals(7200000, output.getInteger(MediaFormat.KEY_BIT_RATE));
+    }
+
+    public void testCeilingWithUnknownInputBitRate() throws OutputStrategyException {
+        MediaFormat input = input(40, 0);
+        input.removeKey(MediaFormat.KEY_BIT_RATE);
+        DefaultVideoStrategy strategy = DefaultVideoStrategy.atMost(720).bitRate(10000000).neverBigger(0.1F).build();
+        assertEquals(10000000, strategy.createOutputFormat(input).getInteger(MediaFormat.KEY_BIT_RATE));
+    }
+
+    public void testNeverBiggerMarginBounds() {
+        DefaultVideoStrategy.Builder builder = DefaultVideoStrategy.atMost(720);
+        builder.neverBigger(0F);
+        try {
+            builder.neverBigger(-0.1F);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            builder.neverBigger(1F);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testFrameRateConverterDuplicatesFrames() throws OutputStrategyException {
+        DefaultVideoStrategy strategy = DefaultVideoStrategy.atMost(720).frameRate(30).duplicateFrames(true).build();
+        MediaFormat output = strategy.createOutputFormat(input(40, 8000000));
+        FrameRateConverter converter = strategy.createFrameRateConverter(output);
+        assertTrue(converter.onFrame(0));
+        // A 100ms gap is filled with the previous frame.
+        assertTrue(converter.onFrame(100000));
+        assertEquals(2, converter.getRepeatCount());
+    }
+
+    public void testFrameRateConverterOnlyDropsByDefault() throws OutputStrategyException {
+        DefaultVideoStrategy strategy = DefaultVideoStrategy.atMost(720).frameRate(30).build();
+        MediaFormat output = strategy.createOutputFormat(input(40, 8000000));
+        FrameRateConverter converter = strategy.createFrameRateConverter(output);
+        assertTrue(converter.onFrame(0));
+        assertTrue(converter.onFrame(100000));
+        assertEquals(0, converter.getRepeatCount());
+        assertFalse(converter.onFrame(110000));
+    }
+}
@@ -0,0 +1,96 @@
+package net.ypresto.androidtranscoder.strategy;
+
+import junit.framework.TestCase;
+
+import net.ypresto.androidtranscoder.utils.AvcPps;
+import net.ypresto.androidtranscoder.utils.AvcSps;
+import net.ypresto.androidtranscoder.utils.AvcSpsUtils;
+
+import java.nio.ByteBuffer;
+
+public class DeviceProfileTest extends TestCase {
+    // Baseline 1.0, 128x96, with a PPS without slice groups.
+    private static final byte[] BASELINE_SPS = {0x67, 0x42, 0x00, 0x0a, (byte) 0xf8, 0x41, (byte) 0xa2};
+    private static final byte[] BASELINE_PPS = {0x68, (byte) 0xce, 0x38, (byte) 0x80};
+    // High 4.0, 1920x1080, 30 fps, 2 reorder frames.
+    private static final byte[] HIGH_SPS = {
+            0x67, 0x64, 0x00, 0x28, (byte) 0xad, (byte) 0x84, 0x0f, (byte) 0xff, (byte) 0xf8, 0x0d,
+            (byte) 0x94, 0x07, (byte) 0x80, 0x22, 0x7e, 0x5c, 0x05, (byte) 0xa8, 0x08, 0x08,
+            0x0a, 0x00, 0x00, 0x03, 0x00, 0x02, 0x00, 0x00, 0x03, 0x00,
+            0x79, (byte) 0xd1, (byte) 0x80, 0x00, 0x7a, 0x12, 0x00, 0x00, (byte) 0xf4, 0x24,
+            0x5e, (byte) 0xf7, (byte) 0xc0, (byte) 0xf1, (byte) 0x83, 0x19, 0x60};
+
+    public void testCompliant() {
+        DeviceProfile profile = new DeviceProfile.Builder(AvcSpsUtils.PROFILE_IDC_HIGH, 41).build();
+        assertNull(profile.getIncompatibility(sps(HIGH_SPS), null, 8000000, 30));
+        assertNull(profile.getIncompatibility(sps(BASELINE_SPS), pps(BASELINE_PPS), 0, 0));
+    }
+
+    public void testProfile() {
+        DeviceProfile main = new DeviceProfile.Builder(AvcSpsUtils.PROFILE_IDC_MAIN, 41).build();
+        assertNotNull(main.getIncompatibility(sps(HIGH_SPS), null, 0, 0));
+        // Baseline may use slice groups, unless flagged as Constrained Baseline.
+        assertNotNull(main.getIncompatibility(sps(BASELINE_SPS), null, 0, 0));
+        byte[] constrained = BASELINE_SPS.clone();
+        constrained[2] = 0x40;
+        assertNull(main.getIncompatibility(sps(constrained), null, 0, 0));
+    }
+
+    public void testLevel() {
+        assertNotNull(new DeviceProfile.Builder(AvcSpsUtils.PROFILE_IDC_HIGH, 31).build()
+                .getIncompatibility(sps(HIGH_SPS), null, 0, 0));
+        // Level 1b is above 1.0.
+        byte[] level1b = BASELINE_SPS.clone();
+        level1b[2] = 0x10;
+        level1b[3] = 11;
+        assertNotNull(new DeviceProfile.Builder(AvcSpsUtils.PROFILE_IDC_BASELINE, 10).build()
+                .getIncompatibility(sps(level1b), null, 0, 0));
+        assertNull(new DeviceProfile.Builder(AvcSpsUtils.PROFILE_IDC_BASELINE, 11).build()
+                .getIncompatibility(sps(level1b), null, 0, 0));
+    }
+
+    public void testBFrames() {
+        DeviceProfile profile = new DeviceProfile.Builder(AvcSpsUtils.PROFILE_IDC_HIGH, 41)
+                .allowBFrames(false).build();
+        assertNotNull(profile.getIncompatibility(sps(HIGH_SPS), null, 0, 0));
+        assertNull(profile.getIncompatibility(sps(BASELINE_SPS), pps(BASELINE_PPS), 0, 0));
+    }
+
+    public void testLimits() {
+        DeviceProfile.Builder builder = new DeviceProfile.Builder(AvcSpsUtils.PROFILE_IDC_HIGH, 41);
+        DeviceProfile bitRate = builder.maxBitRate(5000000).build();
+        assertNotNull(bitRate.getIncompatibility(sps(HIGH_SPS), null, 8000000, 0));
+        // Unknown bit rates comply.
+        assertNull(bitRate.getIncompatibility(sps(HIGH_SPS), null, 0, 0));
+
+        DeviceProfile size = new DeviceProfile.Builder(AvcSpsUtils.PROFILE_IDC_HIGH, 41).maxSize(1280, 720).build();
+        assertNotNull(size.getIncompatibility(sps(HIGH_SPS), null, 0, 0));
+        DeviceProfile fullHd = new DeviceProfile.Builder(AvcSpsUtils.PROFILE_IDC_HIGH, 41).maxSize(1920, 1080).build();
+        assertNull(fullHd.getIncompatibility(sps(HIGH_SPS), null, 0, 0));
+
+        // The SPS frame rate is used if the format has none.
+        DeviceProfile frameRate = new DeviceProfile.Builder(AvcSpsUtils.PROFILE_IDC_HIGH, 41).maxFrameRate(25).build();
+        assertNotNull(frameRate.getIncompatibility(sps(HIGH_SPS), null, 0, 0));
+        assertNull(frameRate.getIncompatibility(sps(HIGH_SPS), null, 0, 24));
+    }
+
+    public void testInvalidProfile() {
+        try {
+            new DeviceProfile.Builder(AvcSpsUtils.PROFILE_IDC_EXTENDED, 30);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static AvcSps sps(byte[] data) {
+        AvcSps sps = new AvcSps();
+        assertTrue(sps.parse(ByteBuffer.wrap(data), 0, data.length));
+        return sps;
+    }
+
+    private static AvcPps pps(byte[] data) {
+        AvcPps pps = new AvcPps();
+        assertTrue(pps.parse(ByteBuffer.wrap(data), 0, data.length));
+        return pps;
+    }
+}
@@ -0,0 +1,89 @@
+package net.ypresto.androidtranscoder.transcode.opengl;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class GlFilterChainTest extends TestCase {
+
+    private static class TestFilter extends GlFilter {
+        private final boolean mPerPixel;
+        private final String mName;
+
+        private TestFilter(String name, boolean perPixel) {
+            mName = name;
+            mPerPixel = perPixel;
+        }
+
+        @Override
+        public boolean isPerPixel() {
+            return mPerPixel;
+        }
+
+        @Override
+        public String getDeclarations(String prefix) {
+            return "uniform float " + prefix + mName + ";";
+        }
+
+        @Override
+        public String getColorCode(String prefix) {
+            return "color.rgb *= " + prefix + mName + ";";
+        }
+    }
+
+    public void testNoFilters() {
+        List<List<GlFilter>> passes = GlFilterChain.groupPasses(Collections.<GlFilter>emptyList());
+        assertEquals(1, passes.size());
+        assertTrue(passes.get(0).isEmpty());
+    }
+
+    public void testPerPixelFiltersAreFused() {
+        GlFilter a = new TestFilter("a", true);
+        GlFilter b = new TestFilter("b", true);
+        GlFilter c = new TestFilter("c", true);
+        List<List<GlFilter>> passes = GlFilterChain.groupPasses(Arrays.asList(a, b, c));
+        assertEquals(1, passes.size());
+        assertEquals(Arrays.asList(a, b, c), passes.get(0));
+    }
+
+    public void testNeighbourFiltersStartPasses() {
+        GlFilter blur1 = new TestFilter("blur1", false);
+        GlFilter a = new TestFilter("a", true);
+        GlFilter blur2 = new TestFilter("blur2", false);
+        GlFilter b = new TestFilter("b", true);
+        GlFilter c = new TestFilter("c", true);
+        List<List<GlFilter>> passes = GlFilterChain.groupPasses(Arrays.asList(blur1, a, blur2, b, c));
+        assertEquals(2, passes.size());
+        assertEquals(Arrays.asList(blur1, a), passes.get(0));
+        assertEquals(Arrays.asList(blur2, b, c), passes.get(1));
+
+        passes = GlFilterChain.groupPasses(Arrays.asList(a, blur1, blur2));
+        assertEquals(3, passes.size());
+        assertEquals(Collections.singletonList(a), passes.get(0));
+        assertEquals(Collections.singletonList(blur1), passes.get(1));
+        assertEquals(Collections.singletonList(blur2), passes.get(2));
+    }
+
+    public void testFragmentShader() {
+        List<GlFilter> filters = new ArrayList<>();
+        filters.add(new TestFilter("a", true));
+        filters.add(new TestFilter("b", true));
+        String external = GlFilterChain.buildFragmentShader(filters, Arrays.asList("f0_", "f1_"), true);
+        assertTrue(external.startsWith("#extension GL_OES_EGL_image_external : require\n"));
+        assertTrue(external.contains("uniform samplerExternalOES sTexture;"));
+        assertTrue(external.contains("uniform float f0_a;"));
+        assertTrue(external.contains("uniform float f1_b;"));
+        // Filters are applied in order, before writing the color.
+        int a = external.indexOf("color.rgb *= f0_a;");
+        int b = external.indexOf("color.rgb *= f1_b;");
+        int end = external.indexOf("gl_FragColor = color;");
+        assertTrue(a > 0 && a < b && b < end);
+
+        String offscreen = GlFilterChain.buildFragmentShader(filters, Arrays.asList("f2_", "f3_"), false);
+        assertFalse(offscreen.contains("#extension"));
+        assertTrue(offscreen.contains("uniform sampler2D sTexture;"));
+    }
+}
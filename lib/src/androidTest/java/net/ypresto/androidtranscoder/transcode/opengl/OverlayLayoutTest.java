@@ -0,0 +1,57 @@
+package net.ypresto.androidtranscoder.transcode.opengl;
+
+import junit.framework.TestCase;
+
+public class OverlayLayoutTest extends TestCase {
+    private static final float EPSILON = 1e-5F;
+
+    public void testResolveSize() {
+        int[] size = new int[2];
+        OverlayLayout.resolveSize(0, 0, 200, 100, size);
+        assertEquals(200, size[0]);
+        assertEquals(100, size[1]);
+        OverlayLayout.resolveSize(100, 0, 200, 100, size);
+        assertEquals(100, size[0]);
+        assertEquals(50, size[1]);
+        OverlayLayout.resolveSize(0, 20, 200, 100, size);
+        assertEquals(40, size[0]);
+        assertEquals(20, size[1]);
+        OverlayLayout.resolveSize(30, 30, 200, 100, size);
+        assertEquals(30, size[0]);
+        assertEquals(30, size[1]);
+    }
+
+    public void testPosition() {
+        // Start edge.
+        assertEquals(16, OverlayLayout.position(0F, 16, 100, 1280));
+        // End edge: the margin is measured from the right or bottom.
+        assertEquals(1280 - 100 - 16, OverlayLayout.position(1F, 16, 100, 1280));
+        // Centered: the margin does not apply.
+        assertEquals(590, OverlayLayout.position(0.5F, 16, 100, 1280));
+    }
+
+    public void testMatrixCoversWholeOutput() {
+        float[] matrix = new float[16];
+        OverlayLayout.setMatrix(matrix, 0, 0, 1280, 720, 1280, 720);
+        float[] identity = new float[16];
+        identity[0] = identity[5] = identity[10] = identity[15] = 1;
+        for (int i = 0; i < 16; i++) assertEquals(identity[i], matrix[i], EPSILON);
+    }
+
+    public void testMatrixMapsCorners() {
+        float[] matrix = new float[16];
+        // Bottom right quarter of the output.
+        OverlayLayout.setMatrix(matrix, 640, 360, 640, 360, 1280, 720);
+        assertCorner(matrix, -1, -1, 0, -1);
+        assertCorner(matrix, 1, 1, 1, 0);
+        // A small rectangle at the top left.
+        OverlayLayout.setMatrix(matrix, 0, 0, 128, 72, 1280, 720);
+        assertCorner(matrix, -1, 1, -1, 1);
+        assertCorner(matrix, 1, -1, -0.8F, 0.8F);
+    }
+
+    private static void assertCorner(float[] m, float x, float y, float expectedX, float expectedY) {
+        assertEquals(expectedX, m[0] * x + m[4] * y + m[12], EPSILON);
+        assertEquals(expectedY, m[1] * x + m[5] * y + m[13], EPSILON);
+    }
+}
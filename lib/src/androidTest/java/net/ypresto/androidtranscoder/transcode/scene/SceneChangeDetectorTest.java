@@ -0,0 +1,92 @@
+package net.ypresto.androidtranscoder.transcode.scene;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class SceneChangeDetectorTest extends TestCase {
+    private static final int PIXELS = 32 * 32;
+    private static final long FRAME_US = 33333;
+
+    public void testFirstFrameIsNotACut() {
+        SceneChangeDetector detector = new SceneChangeDetector(0.4F, 0);
+        assertFalse(detector.onFrame(solid(0), PIXELS, 0));
+    }
+
+    public void testSameSceneWithNoise() {
+        SceneChangeDetector detector = new SceneChangeDetector(0.4F, 0);
+        Random random = new Random(1);
+        for (int i = 0; i < 30; i++) {
+            assertFalse(detector.onFrame(noisy(100, 8, random), PIXELS, i * FRAME_US));
+        }
+    }
+
+    public void testCut() {
+        SceneChangeDetector detector = new SceneChangeDetector(0.4F, 0);
+        Random random = new Random(2);
+        assertFalse(detector.onFrame(noisy(40, 8, random), PIXELS, 0));
+        assertFalse(detector.onFrame(noisy(40, 8, random), PIXELS, FRAME_US));
+        assertTrue(detector.onFrame(noisy(200, 8, random), PIXELS, 2 * FRAME_US));
+        assertFalse(detector.onFrame(noisy(200, 8, random), PIXELS, 3 * FRAME_US));
+    }
+
+    public void testFadeIsNotACut() {
+        SceneChangeDetector detector = new SceneChangeDetector(0.4F, 0);
+        Random random = new Random(3);
+        // A fade shifts the histogram a little on each frame.
+        for (int i = 0; i < 50; i++) {
+            assertFalse(detector.onFrame(noisy(200 - i * 3, 24, random), PIXELS, i * FRAME_US));
+        }
+    }
+
+    public void testMinInterval() {
+        SceneChangeDetector detector = new SceneChangeDetector(0.4F, 500000);
+        assertFalse(detector.onFrame(solid(0), PIXELS, 0));
+        assertTrue(detector.onFrame(solid(255), PIXELS, FRAME_US));
+        // Flashes right after a cut are ignored.
+        assertFalse(detector.onFrame(solid(0), PIXELS, 2 * FRAME_US));
+        assertFalse(detector.onFrame(solid(255), PIXELS, 3 * FRAME_US));
+        assertTrue(detector.onFrame(solid(0), PIXELS, FRAME_US + 500000));
+    }
+
+    public void testDifference() {
+        int[] a = new int[32];
+        int[] b = new int[32];
+        a[0] = 10;
+        b[0] = 10;
+        assertEquals(0F, SceneChangeDetector.getDifference(a, b, 10), 1e-6F);
+        b[0] = 0;
+        b[31] = 10;
+        assertEquals(1F, SceneChangeDetector.getDifference(a, b, 10), 1e-6F);
+        b[0] = 5;
+        b[31] = 5;
+        assertEquals(0.5F, SceneChangeDetector.getDifference(a, b, 10), 1e-6F);
+    }
+
+    public void testBufferIsUnchanged() {
+        ByteBuffer buffer = solid(128);
+        buffer.position(7);
+        new SceneChangeDetector(0.4F, 0).onFrame(buffer, PIXELS, 0);
+        assertEquals(7, buffer.position());
+    }
+
+    private static ByteBuffer solid(int gray) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(PIXELS * 4);
+        for (int i = 0; i < PIXELS; i++) {
+            buffer.put((byte) gray).put((byte) gray).put((byte) gray).put((byte) 255);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static ByteBuffer noisy(int gray, int amplitude, Random random) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(PIXELS * 4);
+        for (int i = 0; i < PIXELS; i++) {
+            int value = Math.max(0, Math.min(255, gray + random.nextInt(2 * amplitude + 1) - amplitude));
+            buffer.put((byte) value).put((byte) value).put((byte) value).put((byte) 255);
+        }
+        buffer.clear();
+        return buffer;
+    }
+}
@@ -0,0 +1,67 @@
+package net.ypresto.androidtranscoder.transcode.thumbnail;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ThumbnailScheduleTest extends TestCase {
+    private static final long FRAME_US = 33333;
+
+    public void testTimes() {
+        ThumbnailSchedule schedule = new ThumbnailSchedule(new long[]{1000000, 0, 500000}, Integer.MAX_VALUE);
+        List<Long> captured = capture(schedule, 60);
+        assertEquals(3, captured.size());
+        assertEquals(0L, (long) captured.get(0));
+        // First frame at or after the requested time.
+        assertEquals(16 * FRAME_US, (long) captured.get(1));
+        assertEquals(31 * FRAME_US, (long) captured.get(2));
+        assertTrue(schedule.isDone());
+    }
+
+    public void testInterval() {
+        ThumbnailSchedule schedule = new ThumbnailSchedule(200000, Integer.MAX_VALUE);
+        List<Long> captured = capture(schedule, 300);
+        // 10 seconds of frames, one every 200ms.
+        assertEquals(50, captured.size());
+        for (int i = 0; i < captured.size(); i++) {
+            long time = captured.get(i);
+            assertTrue(time >= i * 200000L && time < i * 200000L + FRAME_US);
+        }
+        assertFalse(schedule.isDone());
+    }
+
+    public void testSparseFramesCoverSeveralTimes() {
+        // One frame every second, for 10 seconds, as in key frame only mode.
+        ThumbnailSchedule schedule = new ThumbnailSchedule(100000, Integer.MAX_VALUE);
+        int count = 0;
+        for (int i = 0; i < 10; i++) {
+            if (schedule.onFrame(i * 1000000L)) count++;
+        }
+        assertEquals(10, count);
+    }
+
+    public void testMaxCount() {
+        ThumbnailSchedule schedule = new ThumbnailSchedule(100000, 4);
+        assertEquals(4, capture(schedule, 300).size());
+        assertEquals(4, schedule.getCount());
+        assertTrue(schedule.isDone());
+    }
+
+    public void testStartAfterRequestedTimes() {
+        // Trimmed input: the first frame comes after several requested times.
+        ThumbnailSchedule schedule = new ThumbnailSchedule(new long[]{0, 100000, 200000, 5000000}, Integer.MAX_VALUE);
+        assertTrue(schedule.onFrame(3000000));
+        assertFalse(schedule.onFrame(4000000));
+        assertTrue(schedule.onFrame(5000000));
+        assertTrue(schedule.isDone());
+    }
+
+    private static List<Long> capture(ThumbnailSchedule schedule, int frames) {
+        List<Long> captured = new ArrayList<>();
+        for (int i = 0; i < frames; i++) {
+            if (schedule.onFrame(i * FRAME_US)) captured.add(i * FRAME_US);
+        }
+        return captured;
+    }
+}
@@ -0,0 +1,72 @@
+package net.ypresto.androidtranscoder.transcode.transform;
+
+import junit.framework.TestCase;
+
+public class TransformPlannerTest extends TestCase {
+    private static final float EPSILON = 1e-5F;
+
+    public void testIdentity() {
+        float[] matrix = TransformPlanner.plan(1920, 1080, 0, 1280, 720, TransformPlanner.SCALE_STRETCH).mvpMatrix;
+        assertPoint(matrix, -1, -1, -1, -1);
+        assertPoint(matrix, 1, 1, 1, 1);
+        // Same aspect ratio: all modes are the same.
+        assertEquals(matrix, TransformPlanner.plan(1920, 1080, 0, 1280, 720, TransformPlanner.SCALE_CROP).mvpMatrix);
+        assertEquals(matrix, TransformPlanner.plan(1920, 1080, 0, 1280, 720, TransformPlanner.SCALE_FIT).mvpMatrix);
+    }
+
+    public void testRotation() {
+        // Clockwise: the bottom-left corner of the frame goes to the top-left.
+        float[] matrix = TransformPlanner.plan(1920, 1080, 90, 720, 1280, TransformPlanner.SCALE_FIT).mvpMatrix;
+        assertPoint(matrix, -1, -1, -1, 1);
+        assertPoint(matrix, 1, -1, -1, -1);
+        assertPoint(matrix, 1, 1, 1, -1);
+
+        matrix = TransformPlanner.plan(1920, 1080, 180, 1920, 1080, TransformPlanner.SCALE_STRETCH).mvpMatrix;
+        assertPoint(matrix, -1, -1, 1, 1);
+
+        matrix = TransformPlanner.plan(1920, 1080, 270, 1080, 1920, TransformPlanner.SCALE_CROP).mvpMatrix;
+        assertPoint(matrix, -1, -1, 1, -1);
+        assertEquals(270, TransformPlanner.plan(1920, 1080, -90, 1080, 1920, TransformPlanner.SCALE_CROP).rotation);
+    }
+
+    public void testFit() {
+        // 16:9 in a square: full width, 9/16 of the height.
+        float[] matrix = TransformPlanner.plan(1920, 1080, 0, 720, 720, TransformPlanner.SCALE_FIT).mvpMatrix;
+        assertPoint(matrix, 1, 1, 1, 9F / 16);
+        // Rotated 16:9 in 16:9: 9/16 of the height is the full width, so (9/16)^2 of the width.
+        matrix = TransformPlanner.plan(1920, 1080, 90, 1920, 1080, TransformPlanner.SCALE_FIT).mvpMatrix;
+        assertPoint(matrix, 1, -1, -(81F / 256), -1);
+    }
+
+    public void testCrop() {
+        // 16:9 in a square: full height, 16/9 of the width.
+        float[] matrix = TransformPlanner.plan(1920, 1080, 0, 720, 720, TransformPlanner.SCALE_CROP).mvpMatrix;
+        assertPoint(matrix, 1, 1, 16F / 9, 1);
+        // 4:3 in 16:9: full width, height overflows.
+        matrix = TransformPlanner.plan(640, 480, 0, 1280, 720, TransformPlanner.SCALE_CROP).mvpMatrix;
+        assertPoint(matrix, 1, 1, 1, (1280F / 640 * 480) / 720);
+    }
+
+    public void testInvalidRotation() {
+        try {
+            TransformPlanner.normalizeRotation(45);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, TransformPlanner.normalizeRotation(-360));
+        assertEquals(90, TransformPlanner.normalizeRotation(450));
+    }
+
+    private static void assertPoint(float[] matrix, float x, float y, float expectedX, float expectedY) {
+        // Column-major, z = 0 and w = 1.
+        float outX = matrix[0] * x + matrix[4] * y + matrix[12];
+        float outY = matrix[1] * x + matrix[5] * y + matrix[13];
+        assertEquals(expectedX, outX, EPSILON);
+        assertEquals(expectedY, outY, EPSILON);
+    }
+
+    private static void assertEquals(float[] expected, float[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) assertEquals(expected[i], actual[i], EPSILON);
+    }
+}
@@ -0,0 +1,69 @@
+package net.ypresto.androidtranscoder.utils;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class HevcCsdUtilsTest extends TestCase {
+    // Parameter sets as written by x265: headers are real, payloads are truncated.
+    private static final byte[] VPS = {0x40, 0x01, 0x0c, 0x01, (byte) 0xff, (byte) 0xff};
+    private static final byte[] SPS = {0x42, 0x01, 0x01, 0x01, 0x60, 0x00, 0x00};
+    private static final byte[] SPS_MAIN_10 = {0x42, 0x01, 0x01, 0x02, 0x60, 0x00, 0x00};
+    private static final byte[] PPS = {0x44, 0x01, (byte) 0xc1, 0x72, (byte) 0xb4, 0x62};
+
+    public void testSplitFourByteStartCodes() {
+        List<ByteBuffer> nals = HevcCsdUtils.splitNals(csd(new byte[]{0, 0, 0, 1}, VPS, SPS, PPS));
+        assertEquals(3, nals.size());
+        assertEquals(ByteBuffer.wrap(VPS), nals.get(0));
+        assertEquals(ByteBuffer.wrap(SPS), nals.get(1));
+        assertEquals(ByteBuffer.wrap(PPS), nals.get(2));
+    }
+
+    public void testSplitThreeByteStartCodes() {
+        List<ByteBuffer> nals = HevcCsdUtils.splitNals(csd(new byte[]{0, 0, 1}, VPS, SPS, PPS));
+        assertEquals(3, nals.size());
+        assertEquals(ByteBuffer.wrap(VPS), nals.get(0));
+        assertEquals(ByteBuffer.wrap(PPS), nals.get(2));
+    }
+
+    public void testSplitKeepsBuffer() {
+        ByteBuffer buffer = csd(new byte[]{0, 0, 0, 1}, VPS, SPS, PPS);
+        int limit = buffer.limit();
+        assertEquals(3, HevcCsdUtils.splitNals(buffer).size());
+        assertEquals(0, buffer.position());
+        assertEquals(limit, buffer.limit());
+    }
+
+    public void testSplitNoStartCode() {
+        assertTrue(HevcCsdUtils.splitNals(ByteBuffer.wrap(VPS)).isEmpty());
+        assertTrue(HevcCsdUtils.splitNals(ByteBuffer.allocate(0)).isEmpty());
+    }
+
+    public void testFindNal() {
+        ByteBuffer buffer = csd(new byte[]{0, 0, 0, 1}, VPS, SPS, PPS);
+        assertEquals(ByteBuffer.wrap(SPS), HevcCsdUtils.findNal(buffer, HevcCsdUtils.NAL_TYPE_SPS));
+        assertEquals(ByteBuffer.wrap(PPS), HevcCsdUtils.findNal(buffer, HevcCsdUtils.NAL_TYPE_PPS));
+        assertNull(HevcCsdUtils.findNal(csd(new byte[]{0, 0, 0, 1}, VPS, PPS), HevcCsdUtils.NAL_TYPE_SPS));
+    }
+
+    public void testNalType() {
+        assertEquals(HevcCsdUtils.NAL_TYPE_VPS, HevcCsdUtils.getNalType(VPS[0]));
+        assertEquals(HevcCsdUtils.NAL_TYPE_SPS, HevcCsdUtils.getNalType(SPS[0]));
+        assertEquals(HevcCsdUtils.NAL_TYPE_PPS, HevcCsdUtils.getNalType(PPS[0]));
+    }
+
+    public void testProfileIdc() {
+        assertEquals(HevcCsdUtils.PROFILE_IDC_MAIN, HevcCsdUtils.getProfileIdc(ByteBuffer.wrap(SPS)));
+        assertEquals(HevcCsdUtils.PROFILE_IDC_MAIN_10, HevcCsdUtils.getProfileIdc(ByteBuffer.wrap(SPS_MAIN_10)));
+    }
+
+    private static ByteBuffer csd(byte[] startCode, byte[]... nals) {
+        int size = 0;
+        for (byte[] nal : nals) size += startCode.length + nal.length;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] nal : nals) buffer.put(startCode).put(nal);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,99 @@
+package net.ypresto.androidtranscoder.validator;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class TranscodeCostModelTest extends TestCase {
+    private static final long DURATION_US = 10000000;
+    private static final int BIT_RATE = 2000000;
+
+    public void testDefaults() {
+        TranscodeCostModel model = new TranscodeCostModel();
+        assertEquals(BIT_RATE / 8 * 10, model.predictVideoBytes(1280, 720, BIT_RATE, DURATION_US));
+        assertEquals((long) (TranscodeCostModel.DEFAULT_BYTES_PER_PIXEL_SECOND * 1280 * 720 * 10),
+                model.predictVideoBytes(1280, 720, 0, DURATION_US));
+        // Realtime 1080p by default.
+        assertEquals(DURATION_US, model.predictEncodeTimeUs(1920, 1080, 30, DURATION_US));
+        assertEquals(0, model.getSampleCount());
+    }
+
+    public void testFirstSampleReplacesDefaults() {
+        TranscodeCostModel model = new TranscodeCostModel();
+        // The encoder overshoots by 20% and runs at 2x realtime.
+        long bytes = (long) (BIT_RATE / 8 * 10 * 1.2);
+        model.onVideoEncoded(1280, 720, BIT_RATE, DURATION_US, bytes, 300, DURATION_US / 2);
+        assertEquals(1, model.getSampleCount());
+        assertEquals(bytes, model.predictVideoBytes(1280, 720, BIT_RATE, DURATION_US), 1);
+        assertEquals(bytes, model.predictVideoBytes(1280, 720, 0, DURATION_US), 1);
+        assertEquals(DURATION_US / 2, model.predictEncodeTimeUs(1280, 720, 30, DURATION_US), 1);
+        // Throughput is in pixels, so it applies to other sizes.
+        assertEquals(DURATION_US / 8, model.predictEncodeTimeUs(640, 360, 30, DURATION_US), 1);
+    }
+
+    public void testConvergence() {
+        TranscodeCostModel model = new TranscodeCostModel();
+        model.onVideoEncoded(1280, 720, BIT_RATE, DURATION_US, BIT_RATE / 8 * 10 * 2, 300, DURATION_US);
+        for (int i = 0; i < 30; i++) {
+            model.onVideoEncoded(1280, 720, BIT_RATE, DURATION_US, BIT_RATE / 8 * 10, 300, DURATION_US);
+        }
+        long predicted = model.predictVideoBytes(1280, 720, BIT_RATE, DURATION_US);
+        assertEquals(BIT_RATE / 8 * 10, predicted, BIT_RATE / 8 * 10 / 100);
+    }
+
+    public void testOutliersAreSmoothed() {
+        TranscodeCostModel model = new TranscodeCostModel();
+        for (int i = 0; i < 10; i++) {
+            model.onVideoEncoded(1280, 720, BIT_RATE, DURATION_US, BIT_RATE / 8 * 10, 300, DURATION_US);
+        }
+        // A job that was slowed down by something else.
+        model.onVideoEncoded(1280, 720, BIT_RATE, DURATION_US, BIT_RATE / 8 * 10, 300, DURATION_US * 10);
+        long predicted = model.predictEncodeTimeUs(1280, 720, 30, DURATION_US);
+        assertTrue(predicted > DURATION_US);
+        assertTrue(predicted < DURATION_US * 2);
+    }
+
+    public void testInvalidSamplesAreIgnored() {
+        TranscodeCostModel model = new TranscodeCostModel();
+        model.onVideoEncoded(1280, 720, BIT_RATE, DURATION_US, 0, 300, DURATION_US);
+        model.onVideoEncoded(1280, 720, BIT_RATE, DURATION_US, 1000, 0, DURATION_US);
+        model.onVideoEncoded(1280, 720, BIT_RATE, 0, 1000, 300, DURATION_US);
+        assertEquals(0, model.getSampleCount());
+    }
+
+    public void testSaveAndLoad() throws IOException {
+        File file = File.createTempFile("cost", ".properties");
+        assertTrue(file.delete());
+        try {
+            TranscodeCostModel model = TranscodeCostModel.fromFile(file);
+            model.onVideoEncoded(1280, 720, BIT_RATE, DURATION_US, BIT_RATE / 8 * 10 * 2, 300, DURATION_US * 3);
+            assertTrue(file.exists());
+            TranscodeCostModel loaded = TranscodeCostModel.fromFile(file);
+            assertEquals(1, loaded.getSampleCount());
+            assertEquals(model.predictVideoBytes(1280, 720, BIT_RATE, DURATION_US),
+                    loaded.predictVideoBytes(1280, 720, BIT_RATE, DURATION_US));
+            assertEquals(model.predictEncodeTimeUs(1280, 720, 30, DURATION_US),
+                    loaded.predictEncodeTimeUs(1280, 720, 30, DURATION_US));
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    public void testCorruptFileUsesDefaults() throws IOException {
+        File file = File.createTempFile("cost", ".properties");
+        try {
+            FileOutputStream stream = new FileOutputStream(file);
+            stream.write("sizeRatio=abc\n".getBytes("UTF-8"));
+            stream.close();
+            TranscodeCostModel model = TranscodeCostModel.fromFile(file);
+            assertEquals(0, model.getSampleCount());
+            assertEquals(BIT_RATE / 8 * 10, model.predictVideoBytes(1280, 720, BIT_RATE, DURATION_US));
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+}
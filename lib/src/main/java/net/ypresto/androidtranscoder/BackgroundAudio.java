@@ -0,0 +1,82 @@
+package net.ypresto.androidtranscoder;
+
+import net.ypresto.androidtranscoder.source.DataSource;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A secondary audio source, for example background music, that is mixed into the
+ * output audio track while transcoding. See
+ * {@link MediaTranscoderOptions.Builder#setBackgroundAudio(BackgroundAudio)}.
+ *
+ * The source is decoded alongside the main audio track and summed to it, so the
+ * output is produced in a single pass. Mono and stereo sources are remixed to the output
+ * channel count, and resampled to the output sample rate if it differs.
+ */
+@SuppressWarnings("WeakerAccess")
+public class BackgroundAudio {
+
+    private BackgroundAudio() {}
+
+    public DataSource dataSource;
+    public float gain;
+    public boolean loop;
+    public long offsetUs;
+
+    public static class Builder {
+        private DataSource dataSource;
+        private float gain = 1F;
+        private boolean loop = false;
+        private long offsetUs = 0;
+
+        public Builder(@NonNull DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        /**
+         * Sets the linear gain applied to the background samples before mixing.
+         * Defaults to 1.
+         *
+         * @param gain the linear gain
+         * @return this for chaining
+         */
+        public Builder setGain(float gain) {
+            if (gain < 0) throw new IllegalArgumentException("Gain can't be negative.");
+            this.gain = gain;
+            return this;
+        }
+
+        /**
+         * Whether the background audio should restart when it ends, until the main
+         * audio track ends. Defaults to false.
+         *
+         * @param loop true to loop
+         * @return this for chaining
+         */
+        public Builder setLoop(boolean loop) {
+            this.loop = loop;
+            return this;
+        }
+
+        /**
+         * Sets the output time at which the background audio starts. Defaults to 0.
+         *
+         * @param offsetUs the offset in microseconds
+         * @return this for chaining
+         */
+        public Builder setOffsetUs(long offsetUs) {
+            if (offsetUs < 0) throw new IllegalArgumentException("Offset can't be negative.");
+            this.offsetUs = offsetUs;
+            return this;
+        }
+
+        public BackgroundAudio build() {
+            BackgroundAudio audio = new BackgroundAudio();
+            audio.dataSource = dataSource;
+            audio.gain = gain;
+            audio.loop = loop;
+            audio.offsetUs = offsetUs;
+            return audio;
+        }
+    }
+}
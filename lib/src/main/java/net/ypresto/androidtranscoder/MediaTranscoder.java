@@ -33,6 +33,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 public class MediaTranscoder {
     private static final String TAG = "MediaTranscoder";
@@ -106,7 +107,8 @@ public class MediaTranscoder {
     @SuppressWarnings("WeakerAccess")
     public Future<Void> transcode(@NonNull final MediaTranscoderOptions options) {
         final Listener listenerWrapper = new ListenerWrapper(options.listenerHandler,
-                options.listener, options.dataSource);
+                options.listener, options.dataSource,
+                options.backgroundAudio == null ? null : options.backgroundAudio.dataSource);
         return mExecutor.submit(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
@@ -178,8 +180,8 @@ public class MediaTranscoder {
     }
 
     /**
-     * Wraps a Listener and a DataSource object, ensuring that the source
-     * is released when transcoding ends, fails or is canceled.
+     * Wraps a Listener and the DataSource objects, ensuring that the sources
+     * are released when transcoding ends, fails or is canceled.
      *
      * It posts events on the given handler.
      */
@@ -188,11 +190,19 @@ public class MediaTranscoder {
         private Handler mHandler;
         private Listener mListener;
         private DataSource mDataSource;
+        private DataSource mBackgroundDataSource;
 
-        private ListenerWrapper(@NonNull Handler handler, @NonNull Listener listener, @NonNull DataSource source) {
+        private ListenerWrapper(@NonNull Handler handler, @NonNull Listener listener,
+                                @NonNull DataSource source, @Nullable DataSource backgroundSource) {
             mHandler = handler;
             mListener = listener;
             mDataSource = source;
+            mBackgroundDataSource = backgroundSource;
+        }
+
+        private void releaseSources() {
+            mDataSource.release();
+            if (mBackgroundDataSource != null) mBackgroundDataSource.release();
         }
 
         @Override
@@ -200,7 +210,7 @@ public class MediaTranscoder {
             mHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    mDataSource.release();
+                    releaseSources();
                     mListener.onTranscodeCanceled();
                 }
             });
@@ -211,7 +221,7 @@ public class MediaTranscoder {
             mHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    mDataSource.release();
+                    releaseSources();
                     mListener.onTranscodeCompleted(successCode);
                 }
             });
@@ -222,7 +232,7 @@ public class MediaTranscoder {
             mHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    mDataSource.release();
+                    releaseSources();
                     mListener.onTranscodeFailed(exception);
                 }
             });
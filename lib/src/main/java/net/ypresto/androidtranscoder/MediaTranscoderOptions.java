@@ -5,6 +5,7 @@ import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 
+import net.ypresto.androidtranscoder.remix.TimeStretcher;
 import net.ypresto.androidtranscoder.source.DataSource;
 import net.ypresto.androidtranscoder.source.FileDescriptorDataSource;
 import net.ypresto.androidtranscoder.source.FilePathDataSource;
@@ -12,10 +13,13 @@ import net.ypresto.androidtranscoder.source.UriDataSource;
 import net.ypresto.androidtranscoder.strategy.DefaultAudioStrategy;
 import net.ypresto.androidtranscoder.strategy.DefaultVideoStrategies;
 import net.ypresto.androidtranscoder.strategy.OutputStrategy;
+import net.ypresto.androidtranscoder.transcode.opengl.GlFilter;
 import net.ypresto.androidtranscoder.validator.DefaultValidator;
 import net.ypresto.androidtranscoder.validator.Validator;
 
 import java.io.FileDescriptor;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Future;
 
 import androidx.annotation.NonNull;
@@ -27,6 +31,16 @@ import androidx.annotation.Nullable;
 @SuppressWarnings("WeakerAccess")
 public class MediaTranscoderOptions {
 
+    /**
+     * Constant for {@link Builder#setAudioLoudnessTarget(float)}: audio loudness is not changed.
+     */
+    public static final float LOUDNESS_TARGET_NONE = Float.NaN;
+
+    /**
+     * Constant for {@link Builder#setAudioLoudnessTarget(float)}: the EBU R128 target level.
+     */
+    public static final float LOUDNESS_TARGET_EBU_R128 = -23F;
+
     private MediaTranscoderOptions() {}
 
     public String outPath;
@@ -36,6 +50,18 @@ public class MediaTranscoderOptions {
     public MediaTranscoder.Listener listener;
     public Handler listenerHandler;
     public Validator validator;
+    public float audioLoudnessTarget;
+    public float speed;
+    public BackgroundAudio backgroundAudio;
+    public SilenceDetection silenceDetection;
+    public boolean audioOnly;
+    public boolean skipNonReferenceFrames;
+    public boolean keyFramesOnly;
+    public long keyFrameStrideUs;
+    public List<Rendition> renditions;
+    public Thumbnails thumbnails;
+    public List<GlFilter> videoFilters;
+    public List<Overlay> overlays;
 
     public static class Builder {
         private String outPath;
@@ -45,6 +71,18 @@ public class MediaTranscoderOptions {
         private OutputStrategy audioOutputStrategy;
         private OutputStrategy videoOutputStrategy;
         private Validator validator;
+        private float audioLoudnessTarget = LOUDNESS_TARGET_NONE;
+        private float speed = 1F;
+        private BackgroundAudio backgroundAudio;
+        private SilenceDetection silenceDetection;
+        private boolean audioOnly;
+        private boolean skipNonReferenceFrames;
+        private boolean keyFramesOnly;
+        private long keyFrameStrideUs;
+        private List<Rendition> renditions = new ArrayList<>();
+        private Thumbnails thumbnails;
+        private List<GlFilter> videoFilters = new ArrayList<>();
+        private List<Overlay> overlays = new ArrayList<>();
 
         Builder(@NonNull String outPath) {
             this.outPath = outPath;
@@ -94,6 +132,60 @@ public class MediaTranscoderOptions {
             return this;
         }
 
+        /**
+         * Adds an output file with its own video strategy, e.g. to produce several resolutions
+         * at once. The video track is decoded only once, and the audio track is processed only
+         * once and written to all outputs, which is much faster than separate transcodings.
+         * Both the main and the additional strategies must transcode the video track.
+         * Frames are written at the frame rate of the main output.
+         *
+         * @param outPath the path of the additional output
+         * @param videoOutputStrategy the video strategy of the additional output
+         * @return this for chaining
+         */
+        public Builder addRendition(@NonNull String outPath, @NonNull OutputStrategy videoOutputStrategy) {
+            this.renditions.add(new Rendition(outPath, videoOutputStrategy));
+            return this;
+        }
+
+        /**
+         * Extracts thumbnails or a sprite sheet from the frames being transcoded, without
+         * decoding them again. Has no effect if the video track is not transcoded.
+         *
+         * @param thumbnails the thumbnail settings, or null for none
+         * @return this for chaining
+         */
+        public Builder setThumbnails(@Nullable Thumbnails thumbnails) {
+            this.thumbnails = thumbnails;
+            return this;
+        }
+
+        /**
+         * Adds a filter applied to video frames while they are drawn. Consecutive per-pixel
+         * filters are merged in a single shader, so they cost about as much as one.
+         * The video track must be transcoded, or the transcode fails.
+         *
+         * @param filter the filter, applied after the ones already added
+         * @return this for chaining
+         */
+        public Builder addVideoFilter(@NonNull GlFilter filter) {
+            this.videoFilters.add(filter);
+            return this;
+        }
+
+        /**
+         * Adds an image or text drawn over the video, like a watermark. Overlays are drawn
+         * in the order they are added, on the main output and on renditions.
+         * The video track must be transcoded, or the transcode fails.
+         *
+         * @param overlay the overlay
+         * @return this for chaining
+         */
+        public Builder addOverlay(@NonNull Overlay overlay) {
+            this.overlays.add(overlay);
+            return this;
+        }
+
         public Builder setListener(@NonNull MediaTranscoder.Listener listener) {
             this.listener = listener;
             return this;
@@ -116,6 +208,8 @@ public class MediaTranscoderOptions {
          * Sets a validator to understand whether the transcoding process should
          * stop before being started, based on the tracks status. Will default to
          * {@link net.ypresto.androidtranscoder.validator.DefaultValidator}.
+         * A {@link net.ypresto.androidtranscoder.validator.PlanValidator} is also given the
+         * formats and duration, e.g. {@link net.ypresto.androidtranscoder.validator.SavingsValidator}.
          *
          * @param validator the validator
          * @return this for chaining
@@ -125,6 +219,126 @@ public class MediaTranscoderOptions {
             return this;
         }
 
+        /**
+         * Normalizes the audio track to the given integrated loudness (EBU R128 / ITU-R BS.1770).
+         * The input loudness is measured with a quick audio-only scan before transcoding,
+         * then the gain is applied while encoding, so audio is encoded once.
+         * Has no effect if the audio track is not compressed (e.g. passed through).
+         * Defaults to {@link #LOUDNESS_TARGET_NONE}.
+         *
+         * @param targetLufs the target loudness in LUFS, e.g. {@link #LOUDNESS_TARGET_EBU_R128}
+         * @return this for chaining
+         */
+        public Builder setAudioLoudnessTarget(float targetLufs) {
+            this.audioLoudnessTarget = targetLufs;
+            return this;
+        }
+
+        /**
+         * Changes the playback speed of the output, e.g. 2 for a file that plays twice
+         * as fast and lasts half the time. Audio is time-stretched, so its pitch is preserved.
+         * Video frames are retimed and dropped as needed to respect the output frame rate.
+         * Audio can not be passed through when speed is changed. Defaults to 1.
+         *
+         * @param speed the speed, in [{@link TimeStretcher#MIN_SPEED}, {@link TimeStretcher#MAX_SPEED}]
+         * @return this for chaining
+         */
+        public Builder setSpeed(float speed) {
+            if (speed < TimeStretcher.MIN_SPEED || speed > TimeStretcher.MAX_SPEED) {
+                throw new IllegalArgumentException("Speed must be in [" + TimeStretcher.MIN_SPEED
+                        + ", " + TimeStretcher.MAX_SPEED + "]");
+            }
+            this.speed = speed;
+            return this;
+        }
+
+        /**
+         * Mixes a secondary audio source, like background music, into the output audio
+         * track in the same pass. Has no effect if the audio track is not compressed
+         * (e.g. passed through) or absent. The source is released with the main one.
+         *
+         * @param backgroundAudio the background audio, or null for none
+         * @return this for chaining
+         */
+        public Builder setBackgroundAudio(@Nullable BackgroundAudio backgroundAudio) {
+            this.backgroundAudio = backgroundAudio;
+            return this;
+        }
+
+        /**
+         * Detects silent ranges in the audio track with a quick audio-only scan before
+         * transcoding, to report them and optionally trim leading and trailing silence
+         * from both tracks. See {@link SilenceDetection}.
+         *
+         * @param silenceDetection the silence detection settings, or null for none
+         * @return this for chaining
+         */
+        public Builder setSilenceDetection(@Nullable SilenceDetection silenceDetection) {
+            this.silenceDetection = silenceDetection;
+            return this;
+        }
+
+        /**
+         * Writes the audio track only, e.g. to produce a M4A file. Only the audio track
+         * is read, video codecs and GL are never initialized, and passed-through audio
+         * is copied in large batches. The video output strategy is ignored.
+         * Use {@link net.ypresto.androidtranscoder.strategy.PassThroughTrackStrategy} as
+         * audio output strategy to copy audio without transcoding. Defaults to false.
+         *
+         * @param audioOnly true to write the audio track only
+         * @return this for chaining
+         */
+        public Builder setAudioOnly(boolean audioOnly) {
+            this.audioOnly = audioOnly;
+            return this;
+        }
+
+        /**
+         * Whether H.264 frames that no other frame depends on should be left out of decoding
+         * when they would be dropped anyway to meet the output frame rate, e.g. when going
+         * from 60 to 30 fps. This can save a large part of the decoding time.
+         * Has no effect if the video track is not transcoded. Defaults to false.
+         *
+         * @param skipNonReferenceFrames true to skip decoding
+         * @return this for chaining
+         */
+        public Builder setSkipNonReferenceFrames(boolean skipNonReferenceFrames) {
+            this.skipNonReferenceFrames = skipNonReferenceFrames;
+            return this;
+        }
+
+        /**
+         * Decodes key frames only and writes them one after the other at the output frame
+         * rate, e.g. for time-lapses or fast preview proxies of long recordings. Frames in
+         * between are not even read. The audio track is removed and the speed is ignored.
+         * The video track must be transcoded. Defaults to false.
+         *
+         * @param keyFramesOnly true to decode key frames only
+         * @return this for chaining
+         * @see #setKeyFrameStrideUs(long)
+         */
+        public Builder setKeyFramesOnly(boolean keyFramesOnly) {
+            this.keyFramesOnly = keyFramesOnly;
+            return this;
+        }
+
+        /**
+         * Sets the minimum distance between key frames decoded in key frame only mode.
+         * For example, 10 seconds gives one output frame per 10 seconds of input, at most.
+         * Defaults to 0, which decodes all key frames.
+         *
+         * @param keyFrameStrideUs the minimum distance in microseconds
+         * @return this for chaining
+         * @see #setKeyFramesOnly(boolean)
+         */
+        public Builder setKeyFrameStrideUs(long keyFrameStrideUs) {
+            if (keyFrameStrideUs < 0) {
+                throw new IllegalArgumentException("Invalid key frame stride: " + keyFrameStrideUs);
+            }
+            this.keyFrameStrideUs = keyFrameStrideUs;
+            return this;
+        }
+
         @SuppressWarnings("WeakerAccess")
         public MediaTranscoderOptions build() {
             if (listener == null) throw new IllegalStateException("listener can't be null");
@@ -146,6 +360,18 @@ public class MediaTranscoderOptions {
             options.audioOutputStrategy = audioOutputStrategy;
             options.videoOutputStrategy = videoOutputStrategy;
             options.validator = validator;
+            options.audioLoudnessTarget = audioLoudnessTarget;
+            options.speed = speed;
+            options.backgroundAudio = backgroundAudio;
+            options.silenceDetection = silenceDetection;
+            options.audioOnly = audioOnly;
+            options.skipNonReferenceFrames = skipNonReferenceFrames;
+            options.keyFramesOnly = keyFramesOnly;
+            options.keyFrameStrideUs = keyFrameStrideUs;
+            options.renditions = new ArrayList<>(renditions);
+            options.thumbnails = thumbnails;
+            options.videoFilters = new ArrayList<>(videoFilters);
+            options.overlays = new ArrayList<>(overlays);
             return options;
         }
 
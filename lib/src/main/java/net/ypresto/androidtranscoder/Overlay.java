@@ -0,0 +1,142 @@
+package net.ypresto.androidtranscoder;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * An image or a text drawn over the video, like a watermark. See
+ * {@link MediaTranscoderOptions.Builder#addOverlay(Overlay)}.
+ *
+ * Overlays are composited on the GPU right after each frame is drawn, so they cost no
+ * extra encode. Images are uploaded once; texts are drawn again only when they change.
+ * Position and size are in pixels of each output, so they apply to renditions as well.
+ */
+@SuppressWarnings("WeakerAccess")
+public class Overlay {
+
+    private Overlay() {}
+
+    public Bitmap bitmap;
+    public TextProvider textProvider;
+    public Paint textPaint;
+    public float gravityX;
+    public float gravityY;
+    public int marginX;
+    public int marginY;
+    public int width;
+    public int height;
+    public float alpha;
+
+    public interface TextProvider {
+        /**
+         * Called on the transcoding thread for each frame of a text overlay.
+         * Returning the same text as the previous frame is cheap.
+         *
+         * @param presentationTimeUs the output timestamp of the frame
+         * @return the text, or null to draw nothing
+         */
+        @Nullable
+        String getText(long presentationTimeUs);
+    }
+
+    public static class Builder {
+        private Bitmap bitmap;
+        private TextProvider textProvider;
+        private Paint textPaint;
+        private float gravityX = 0F;
+        private float gravityY = 0F;
+        private int marginX = 0;
+        private int marginY = 0;
+        private int width = 0;
+        private int height = 0;
+        private float alpha = 1F;
+
+        /**
+         * Creates an image overlay. The bitmap must not be recycled before transcoding ends.
+         *
+         * @param bitmap the image
+         */
+        public Builder(@NonNull Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+
+        /**
+         * Creates a text overlay, drawn with the given paint.
+         *
+         * @param textProvider provides the text of each frame
+         * @param textPaint the paint, which sets the text size and color
+         */
+        public Builder(@NonNull TextProvider textProvider, @NonNull Paint textPaint) {
+            this.textProvider = textProvider;
+            this.textPaint = textPaint;
+        }
+
+        /**
+         * Places the overlay in the output. Gravity 0 aligns it with the left or top edge,
+         * 1 with the right or bottom edge and 0.5 centers it. Margins are measured from the
+         * aligned edge, inwards. Defaults to the top left corner with no margins.
+         *
+         * @param gravityX the horizontal gravity
+         * @param gravityY the vertical gravity
+         * @param marginX the horizontal margin in pixels
+         * @param marginY the vertical margin in pixels
+         * @return this for chaining
+         */
+        public Builder setPosition(float gravityX, float gravityY, int marginX, int marginY) {
+            if (gravityX < 0 || gravityX > 1 || gravityY < 0 || gravityY > 1) {
+                throw new IllegalArgumentException("Invalid gravity: " + gravityX + ", " + gravityY);
+            }
+            this.gravityX = gravityX;
+            this.gravityY = gravityY;
+            this.marginX = marginX;
+            this.marginY = marginY;
+            return this;
+        }
+
+        /**
+         * Sets the size of the overlay in the output. Defaults to the size of the image or text.
+         *
+         * @param width the width in pixels, or 0 to keep the aspect ratio
+         * @param height the height in pixels, or 0 to keep the aspect ratio
+         * @return this for chaining
+         */
+        public Builder setSize(int width, int height) {
+            if (width < 0 || height < 0) {
+                throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+            }
+            this.width = width;
+            this.height = height;
+            return this;
+        }
+
+        /**
+         * Sets the opacity of the overlay. Defaults to 1.
+         *
+         * @param alpha the opacity, from 0 to 1
+         * @return this for chaining
+         */
+        public Builder setAlpha(float alpha) {
+            if (alpha < 0 || alpha > 1) throw new IllegalArgumentException("Invalid alpha: " + alpha);
+            this.alpha = alpha;
+            return this;
+        }
+
+        public Overlay build() {
+            Overlay overlay = new Overlay();
+            overlay.bitmap = bitmap;
+            overlay.textProvider = textProvider;
+            overlay.textPaint = textPaint;
+            overlay.gravityX = gravityX;
+            overlay.gravityY = gravityY;
+            overlay.marginX = marginX;
+            overlay.marginY = marginY;
+            overlay.width = width;
+            overlay.height = height;
+            overlay.alpha = alpha;
+            return overlay;
+        }
+    }
+}
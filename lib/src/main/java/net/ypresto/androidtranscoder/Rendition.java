@@ -0,0 +1,24 @@
+package net.ypresto.androidtranscoder;
+
+import net.ypresto.androidtranscoder.strategy.OutputStrategy;
+
+import androidx.annotation.NonNull;
+
+/**
+ * An additional output of the same transcoding, e.g. a lower resolution of an adaptive
+ * bitrate ladder. See {@link MediaTranscoderOptions.Builder#addRendition(String, OutputStrategy)}.
+ *
+ * The video track is decoded once and drawn to the encoders of all outputs, and the audio
+ * track is processed once and written to all of them, so the ladder takes a single pass.
+ */
+@SuppressWarnings("WeakerAccess")
+public class Rendition {
+
+    public final String outPath;
+    public final OutputStrategy videoOutputStrategy;
+
+    Rendition(@NonNull String outPath, @NonNull OutputStrategy videoOutputStrategy) {
+        this.outPath = outPath;
+        this.videoOutputStrategy = videoOutputStrategy;
+    }
+}
@@ -0,0 +1,118 @@
+package net.ypresto.androidtranscoder;
+
+import net.ypresto.androidtranscoder.remix.SilenceDetector;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Settings for silence detection on the audio track. See
+ * {@link MediaTranscoderOptions.Builder#setSilenceDetection(SilenceDetection)}.
+ *
+ * Silent ranges are detected with a quick audio-only scan before transcoding.
+ * They can be reported to a {@link SilenceDetector.Listener}, and leading or trailing
+ * silence can be trimmed from both tracks, which reduces output size and encoding time.
+ */
+@SuppressWarnings("WeakerAccess")
+public class SilenceDetection {
+
+    private SilenceDetection() {}
+
+    public int mode;
+    public float thresholdDb;
+    public long minDurationUs;
+    public boolean trimLeading;
+    public boolean trimTrailing;
+    public SilenceDetector.Listener listener;
+
+    public static class Builder {
+        private int mode = SilenceDetector.MODE_RMS;
+        private float thresholdDb = -50F;
+        private long minDurationUs = 500000;
+        private boolean trimLeading = false;
+        private boolean trimTrailing = false;
+        private SilenceDetector.Listener listener;
+
+        public Builder() {}
+
+        /**
+         * Whether the level of audio is measured as RMS or peak.
+         * Defaults to {@link SilenceDetector#MODE_RMS}.
+         *
+         * @param mode either {@link SilenceDetector#MODE_RMS} or {@link SilenceDetector#MODE_PEAK}
+         * @return this for chaining
+         */
+        public Builder setMode(int mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * Sets the level under which audio is considered silent. Defaults to -50 dBFS.
+         *
+         * @param thresholdDb the threshold in dBFS
+         * @return this for chaining
+         */
+        public Builder setThresholdDb(float thresholdDb) {
+            this.thresholdDb = thresholdDb;
+            return this;
+        }
+
+        /**
+         * Sets the minimum duration of silent ranges. Defaults to 500 milliseconds.
+         *
+         * @param minDurationUs the minimum duration in microseconds
+         * @return this for chaining
+         */
+        public Builder setMinDurationUs(long minDurationUs) {
+            this.minDurationUs = minDurationUs;
+            return this;
+        }
+
+        /**
+         * Whether silence at the start should be removed from both tracks.
+         * Has no effect if the video track is passed through. Defaults to false.
+         *
+         * @param trimLeading true to trim
+         * @return this for chaining
+         */
+        public Builder setTrimLeading(boolean trimLeading) {
+            this.trimLeading = trimLeading;
+            return this;
+        }
+
+        /**
+         * Whether silence at the end should be removed from both tracks.
+         * Has no effect if the video track is passed through. Defaults to false.
+         *
+         * @param trimTrailing true to trim
+         * @return this for chaining
+         */
+        public Builder setTrimTrailing(boolean trimTrailing) {
+            this.trimTrailing = trimTrailing;
+            return this;
+        }
+
+        /**
+         * Sets a listener for the detected silent ranges. It is called on the
+         * transcoding thread, before transcoding starts. Timestamps refer to the input.
+         *
+         * @param listener the listener
+         * @return this for chaining
+         */
+        public Builder setListener(@Nullable SilenceDetector.Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public SilenceDetection build() {
+            SilenceDetection detection = new SilenceDetection();
+            detection.mode = mode;
+            detection.thresholdDb = thresholdDb;
+            detection.minDurationUs = minDurationUs;
+            detection.trimLeading = trimLeading;
+            detection.trimTrailing = trimTrailing;
+            detection.listener = listener;
+            return detection;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package net.ypresto.androidtranscoder;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Settings for thumbnail extraction while transcoding. See
+ * {@link MediaTranscoderOptions.Builder#setThumbnails(Thumbnails)}.
+ *
+ * Thumbnails are read back from frames that are rendered to the encoder anyway, so no
+ * extra seek or decode is needed. Each one is the first rendered frame at or after a
+ * requested input timestamp. They can be delivered one by one, or as a single sprite sheet.
+ * Bitmaps can be saved as JPEG with {@link Bitmap#compress(Bitmap.CompressFormat, int, java.io.OutputStream)}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class Thumbnails {
+
+    private Thumbnails() {}
+
+    public long[] timesUs;
+    public long intervalUs;
+    public int width;
+    public int height;
+    public int spriteColumns;
+    public int spriteRows;
+    public boolean reuseBitmap;
+    public Listener listener;
+
+    public interface Listener {
+        /**
+         * Called for each thumbnail, on the transcoding thread, unless a sprite sheet is requested.
+         *
+         * @param presentationTimeUs the input timestamp of the frame
+         * @param bitmap the thumbnail, owned by the listener, or only valid during the call
+         *               if {@link Builder#setReuseBitmap(boolean)} is set
+         */
+        void onThumbnail(long presentationTimeUs, @NonNull Bitmap bitmap);
+
+        /**
+         * Called once on the transcoding thread, when the sprite sheet is full or the video
+         * track ends, if a sprite sheet is requested. Tiles are laid out row by row.
+         *
+         * @param spriteSheet the sprite sheet, owned by the listener
+         * @param presentationTimesUs the input timestamps of the tiles
+         */
+        void onSpriteSheet(@NonNull Bitmap spriteSheet, @NonNull long[] presentationTimesUs);
+    }
+
+    public static class Builder {
+        private long[] timesUs;
+        private long intervalUs = 1000000;
+        private int width = 160;
+        private int height = 0;
+        private int spriteColumns = 0;
+        private int spriteRows = 0;
+        private boolean reuseBitmap = false;
+        private Listener listener;
+
+        public Builder(@NonNull Listener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Captures frames at the given input timestamps. Overrides the interval.
+         *
+         * @param timesUs the timestamps in microseconds
+         * @return this for chaining
+         */
+        public Builder setTimesUs(@Nullable long... timesUs) {
+            this.timesUs = timesUs;
+            return this;
+        }
+
+        /**
+         * Captures a frame at every multiple of the given interval of input.
+         * Defaults to 1 second.
+         *
+         * @param intervalUs the interval in microseconds
+         * @return this for chaining
+         */
+        public Builder setIntervalUs(long intervalUs) {
+            if (intervalUs <= 0) throw new IllegalArgumentException("Invalid interval: " + intervalUs);
+            this.intervalUs = intervalUs;
+            return this;
+        }
+
+        /**
+         * Sets the size of thumbnails. Defaults to 160 pixels wide.
+         *
+         * @param width the width in pixels
+         * @param height the height in pixels, or 0 to keep the aspect ratio of the output
+         * @return this for chaining
+         */
+        public Builder setSize(int width, int height) {
+            if (width <= 0 || height < 0) {
+                throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+            }
+            this.width = width;
+            this.height = height;
+            return this;
+        }
+
+        /**
+         * Delivers thumbnails as a single sprite sheet with the given grid, instead of one
+         * by one. At most columns * rows thumbnails are captured.
+         *
+         * @param columns the number of columns
+         * @param rows the number of rows
+         * @return this for chaining
+         */
+        public Builder setSpriteSheet(int columns, int rows) {
+            if (columns <= 0 || rows <= 0) {
+                throw new IllegalArgumentException("Invalid sprite sheet: " + columns + "x" + rows);
+            }
+            this.spriteColumns = columns;
+            this.spriteRows = rows;
+            return this;
+        }
+
+        /**
+         * Passes the same bitmap to every {@link Listener#onThumbnail(long, Bitmap)} call,
+         * instead of a new one each time. The bitmap is then only valid during the call, so
+         * the listener must compress or copy it before returning, and must not recycle it.
+         * Saves an allocation per thumbnail. Has no effect with a sprite sheet. Defaults to false.
+         *
+         * @param reuseBitmap true to reuse the bitmap
+         * @return this for chaining
+         */
+        public Builder setReuseBitmap(boolean reuseBitmap) {
+            this.reuseBitmap = reuseBitmap;
+            return this;
+        }
+
+        public Thumbnails build() {
+            Thumbnails thumbnails = new Thumbnails();
+            thumbnails.timesUs = timesUs;
+            thumbnails.intervalUs = intervalUs;
+            thumbnails.width = width;
+            thumbnails.height = height;
+            thumbnails.spriteColumns = spriteColumns;
+            thumbnails.spriteRows = spriteRows;
+            thumbnails.reuseBitmap = reuseBitmap;
+            thumbnails.listener = listener;
+            return thumbnails;
+        }
+    }
+}
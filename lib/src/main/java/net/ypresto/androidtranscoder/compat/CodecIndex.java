@@ -0,0 +1,410 @@
+package net.ypresto.androidtranscoder.compat;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Range;
+
+import net.ypresto.androidtranscoder.utils.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A process-wide, immutable index of the codecs on this device, by mime type.
+ *
+ * Enumerating codecs and their capabilities is slow, so this is done once, lazily, and
+ * the result can be saved to a file with {@link #setCacheFile(File)}. The file is keyed
+ * by the build fingerprint, so it is discarded after a system update.
+ * Codecs of each type are in the order of {@link MediaCodecList}, which is the order
+ * of preference of the platform. Video capabilities, which can't be saved, are read
+ * once for all codecs when first needed, see {@link #getVideoCapabilities(Codec)}.
+ */
+public class CodecIndex {
+    private static final String TAG = "CodecIndex";
+    private static final Logger LOG = new Logger(TAG);
+
+    private static final String CACHE_VERSION = "1";
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String SEPARATOR = "\t";
+
+    private static final Object sLock = new Object();
+    private static File sCacheFile;
+    private static volatile CodecIndex sInstance;
+
+    /**
+     * The capabilities of a codec for one mime type. Values that the platform
+     * does not expose are the widest possible, and max instances is -1.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static class Codec {
+        public final String name;
+        public final String mimeType;
+        public final boolean encoder;
+        public final boolean hardware;
+        public final int minWidth;
+        public final int maxWidth;
+        public final int minHeight;
+        public final int maxHeight;
+        public final int widthAlignment;
+        public final int heightAlignment;
+        public final int minBitRate;
+        public final int maxBitRate;
+        public final int maxInstances;
+        // Pairs of profile and level.
+        private final int[] mProfileLevels;
+
+        Codec(@NonNull String name, @NonNull String mimeType, boolean encoder, boolean hardware,
+              int minWidth, int maxWidth, int minHeight, int maxHeight,
+              int widthAlignment, int heightAlignment, int minBitRate, int maxBitRate,
+              int maxInstances, @NonNull int[] profileLevels) {
+            this.name = name;
+            this.mimeType = mimeType;
+            this.encoder = encoder;
+            this.hardware = hardware;
+            this.minWidth = minWidth;
+            this.maxWidth = maxWidth;
+            this.minHeight = minHeight;
+            this.maxHeight = maxHeight;
+            this.widthAlignment = widthAlignment;
+            this.heightAlignment = heightAlignment;
+            this.minBitRate = minBitRate;
+            this.maxBitRate = maxBitRate;
+            this.maxInstances = maxInstances;
+            mProfileLevels = profileLevels;
+        }
+
+        /**
+         * Whether the size is within range and aligned. Sizes are not checked against
+         * each other, e.g. a codec might support 1920 wide or high, but not both.
+         */
+        public boolean isSizeSupported(int width, int height) {
+            return width >= minWidth && width <= maxWidth && height >= minHeight && height <= maxHeight
+                    && width % widthAlignment == 0 && height % heightAlignment == 0;
+        }
+
+        /**
+         * Returns the highest level declared for the given profile, or -1 if the profile
+         * is not declared. Level constants of {@link MediaCodecInfo.CodecProfileLevel} grow with the level.
+         */
+        public int getMaxLevel(int profile) {
+            int maxLevel = -1;
+            for (int i = 0; i < mProfileLevels.length; i += 2) {
+                if (mProfileLevels[i] == profile) maxLevel = Math.max(maxLevel, mProfileLevels[i + 1]);
+            }
+            return maxLevel;
+        }
+
+        public boolean hasProfileLevels() {
+            return mProfileLevels.length > 0;
+        }
+    }
+
+    private final List<Codec> mCodecs;
+    private final Map<String, List<Codec>> mEncoders;
+    private final Map<String, List<Codec>> mDecoders;
+    private Map<String, MediaCodecInfo.VideoCapabilities> mVideoCapabilities;
+
+    CodecIndex(@NonNull List<Codec> codecs) {
+        mCodecs = Collections.unmodifiableList(new ArrayList<>(codecs));
+        Map<String, List<Codec>> encoders = new LinkedHashMap<>();
+        Map<String, List<Codec>> decoders = new LinkedHashMap<>();
+        for (Codec codec : mCodecs) {
+            Map<String, List<Codec>> map = codec.encoder ? encoders : decoders;
+            List<Codec> list = map.get(codec.mimeType);
+            if (list == null) {
+                list = new ArrayList<>();
+                map.put(codec.mimeType, list);
+            }
+            list.add(codec);
+        }
+        mEncoders = freeze(encoders);
+        mDecoders = freeze(decoders);
+    }
+
+    /**
+     * Sets the file where the index is saved, so that it is not built again in later
+     * processes. Must be called before the index is first used, e.g. in Application.onCreate().
+     *
+     * @param file a file in the app storage, or null to keep the index in memory only
+     */
+    public static void setCacheFile(@Nullable File file) {
+        synchronized (sLock) {
+            sCacheFile = file;
+        }
+    }
+
+    /**
+     * Returns the index, loading or building it on the first call.
+     */
+    @NonNull
+    public static CodecIndex get() {
+        CodecIndex index = sInstance;
+        if (index != null) return index;
+        synchronized (sLock) {
+            if (sInstance == null) sInstance = load();
+            return sInstance;
+        }
+    }
+
+    /**
+     * Returns the encoders for the given mime type, in order of preference. Never null.
+     */
+    @NonNull
+    public List<Codec> getEncoders(@NonNull String mimeType) {
+        List<Codec> list = mEncoders.get(mimeType);
+        return list != null ? list : Collections.<Codec>emptyList();
+    }
+
+    /**
+     * Returns the decoders for the given mime type, in order of preference. Never null.
+     */
+    @NonNull
+    public List<Codec> getDecoders(@NonNull String mimeType) {
+        List<Codec> list = mDecoders.get(mimeType);
+        return list != null ? list : Collections.<Codec>emptyList();
+    }
+
+    @NonNull
+    public List<Codec> getCodecs() {
+        return mCodecs;
+    }
+
+    /**
+     * Returns the platform video capabilities of a codec, e.g. to check achievable frame rates.
+     *
+     * @return the capabilities, or null for audio codecs or before Android 5.0
+     */
+    @Nullable
+    public synchronized MediaCodecInfo.VideoCapabilities getVideoCapabilities(@NonNull Codec codec) {
+        if (Build.VERSION.SDK_INT < 21) return null;
+        if (mVideoCapabilities == null) {
+            long startMs = System.currentTimeMillis();
+            mVideoCapabilities = enumerateVideoCapabilities();
+            LOG.i("Read video capabilities in " + (System.currentTimeMillis() - startMs) + "ms.");
+        }
+        return mVideoCapabilities.get(codec.name + SEPARATOR + codec.mimeType);
+    }
+
+    private static CodecIndex load() {
+        File file = sCacheFile;
+        if (file != null && file.exists()) {
+            Reader reader = null;
+            try {
+                reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+                CodecIndex index = read(reader, Build.FINGERPRINT);
+                if (index != null) return index;
+            } catch (IOException | RuntimeException e) {
+                LOG.w("Could not read the codec index cache.", e);
+            } finally {
+                close(reader);
+            }
+        }
+        long startMs = System.currentTimeMillis();
+        CodecIndex index = new CodecIndex(enumerate());
+        LOG.i("Indexed " + index.mCodecs.size() + " codecs in " + (System.currentTimeMillis() - startMs) + "ms.");
+        if (file != null) {
+            Writer writer = null;
+            try {
+                writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+                index.write(writer, Build.FINGERPRINT);
+            } catch (IOException e) {
+                LOG.w("Could not write the codec index cache.", e);
+            } finally {
+                close(writer);
+            }
+        }
+        return index;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static List<Codec> enumerate() {
+        MediaCodecInfo[] infos;
+        if (Build.VERSION.SDK_INT >= 21) {
+            infos = new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos();
+        } else {
+            infos = new MediaCodecInfo[MediaCodecList.getCodecCount()];
+            for (int i = 0; i < infos.length; i++) infos[i] = MediaCodecList.getCodecInfoAt(i);
+        }
+        List<Codec> codecs = new ArrayList<>();
+        for (MediaCodecInfo info : infos) {
+            boolean hardware = !isSoftwareName(info.getName());
+            for (String type : info.getSupportedTypes()) {
+                MediaCodecInfo.CodecCapabilities capabilities;
+                try {
+                    capabilities = info.getCapabilitiesForType(type);
+                } catch (IllegalArgumentException e) {
+                    // Some devices list types they can't describe.
+                    LOG.w("Skipping " + info.getName() + " for " + type, e);
+                    continue;
+                }
+                codecs.add(createCodec(info, type, hardware, capabilities));
+            }
+        }
+        return codecs;
+    }
+
+    private static Map<String, MediaCodecInfo.VideoCapabilities> enumerateVideoCapabilities() {
+        Map<String, MediaCodecInfo.VideoCapabilities> capabilities = new HashMap<>();
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            for (String type : info.getSupportedTypes()) {
+                if (!type.startsWith("video/")) continue;
+                try {
+                    MediaCodecInfo.VideoCapabilities video = info.getCapabilitiesForType(type).getVideoCapabilities();
+                    if (video != null) capabilities.put(info.getName() + SEPARATOR + type, video);
+                } catch (IllegalArgumentException e) {
+                    LOG.w("Skipping " + info.getName() + " for " + type, e);
+                }
+            }
+        }
+        return capabilities;
+    }
+
+    private static Codec createCodec(MediaCodecInfo info, String type, boolean hardware,
+                                     MediaCodecInfo.CodecCapabilities capabilities) {
+        int minWidth = 1, maxWidth = Integer.MAX_VALUE, minHeight = 1, maxHeight = Integer.MAX_VALUE;
+        int widthAlignment = 1, heightAlignment = 1;
+        int minBitRate = 1, maxBitRate = Integer.MAX_VALUE;
+        int maxInstances = -1;
+        if (Build.VERSION.SDK_INT >= 21) {
+            MediaCodecInfo.VideoCapabilities video = capabilities.getVideoCapabilities();
+            Range<Integer> bitRates = null;
+            if (video != null) {
+                minWidth = video.getSupportedWidths().getLower();
+                maxWidth = video.getSupportedWidths().getUpper();
+                minHeight = video.getSupportedHeights().getLower();
+                maxHeight = video.getSupportedHeights().getUpper();
+                widthAlignment = video.getWidthAlignment();
+                heightAlignment = video.getHeightAlignment();
+                bitRates = video.getBitrateRange();
+            } else if (capabilities.getAudioCapabilities() != null) {
+                bitRates = capabilities.getAudioCapabilities().getBitrateRange();
+            }
+            if (bitRates != null) {
+                minBitRate = bitRates.getLower();
+                maxBitRate = bitRates.getUpper();
+            }
+        }
+        if (Build.VERSION.SDK_INT >= 23) maxInstances = capabilities.getMaxSupportedInstances();
+        MediaCodecInfo.CodecProfileLevel[] levels = capabilities.profileLevels;
+        int[] profileLevels = new int[levels == null ? 0 : levels.length * 2];
+        for (int i = 0; i < profileLevels.length; i += 2) {
+            profileLevels[i] = levels[i / 2].profile;
+            profileLevels[i + 1] = levels[i / 2].level;
+        }
+        return new Codec(info.getName(), type, info.isEncoder(), hardware,
+                minWidth, maxWidth, minHeight, maxHeight, widthAlignment, heightAlignment,
+                minBitRate, maxBitRate, maxInstances, profileLevels);
+    }
+
+    // MediaCodecInfo.isHardwareAccelerated() is API 29, above compileSdkVersion, but
+    // software codecs follow naming conventions.
+    static boolean isSoftwareName(@NonNull String name) {
+        String lower = name.toLowerCase(Locale.US);
+        return lower.startsWith("omx.google.") || lower.startsWith("c2.android.") || lower.startsWith("c2.google.")
+                || lower.startsWith("omx.ffmpeg.") || lower.contains(".sw.") || lower.endsWith(".sw");
+    }
+
+    /**
+     * Writes the index in a line based format: a header, then one codec per line.
+     */
+    void write(@NonNull Writer writer, @NonNull String fingerprint) throws IOException {
+        BufferedWriter buffered = new BufferedWriter(writer);
+        buffered.write(KEY_VERSION + SEPARATOR + CACHE_VERSION + "\n");
+        buffered.write(KEY_FINGERPRINT + SEPARATOR + fingerprint + "\n");
+        for (Codec codec : mCodecs) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(codec.name).append(SEPARATOR)
+                    .append(codec.mimeType).append(SEPARATOR)
+                    .append(codec.encoder ? 1 : 0).append(SEPARATOR)
+                    .append(codec.hardware ? 1 : 0).append(SEPARATOR)
+                    .append(codec.minWidth).append(SEPARATOR)
+                    .append(codec.maxWidth).append(SEPARATOR)
+                    .append(codec.minHeight).append(SEPARATOR)
+                    .append(codec.maxHeight).append(SEPARATOR)
+                    .append(codec.widthAlignment).append(SEPARATOR)
+                    .append(codec.heightAlignment).append(SEPARATOR)
+                    .append(codec.minBitRate).append(SEPARATOR)
+                    .append(codec.maxBitRate).append(SEPARATOR)
+                    .append(codec.maxInstances).append(SEPARATOR);
+            for (int i = 0; i < codec.mProfileLevels.length; i++) {
+                if (i > 0) builder.append(',');
+                builder.append(codec.mProfileLevels[i]);
+            }
+            buffered.write(builder.append('\n').toString());
+        }
+        buffered.flush();
+    }
+
+    /**
+     * Reads an index written by {@link #write(Writer, String)}.
+     *
+     * @return the index, or null if it was written by another version or build
+     * @throws IOException if the index could not be read
+     */
+    @Nullable
+    static CodecIndex read(@NonNull Reader reader, @NonNull String fingerprint) throws IOException {
+        BufferedReader buffered = new BufferedReader(reader);
+        if (!(KEY_VERSION + SEPARATOR + CACHE_VERSION).equals(buffered.readLine())) return null;
+        if (!(KEY_FINGERPRINT + SEPARATOR + fingerprint).equals(buffered.readLine())) return null;
+        List<Codec> codecs = new ArrayList<>();
+        String line;
+        while ((line = buffered.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            // Keep the trailing empty field of codecs with no profile levels.
+            String[] fields = line.split(SEPARATOR, -1);
+            if (fields.length != 14) throw new IOException("Invalid line: " + line);
+            int[] profileLevels;
+            if (fields[13].isEmpty()) {
+                profileLevels = new int[0];
+            } else {
+                String[] values = fields[13].split(",");
+                if (values.length % 2 != 0) throw new IOException("Invalid profile levels: " + line);
+                profileLevels = new int[values.length];
+                for (int i = 0; i < values.length; i++) profileLevels[i] = Integer.parseInt(values[i]);
+            }
+            codecs.add(new Codec(fields[0], fields[1], "1".equals(fields[2]), "1".equals(fields[3]),
+                    Integer.parseInt(fields[4]), Integer.parseInt(fields[5]),
+                    Integer.parseInt(fields[6]), Integer.parseInt(fields[7]),
+                    Integer.parseInt(fields[8]), Integer.parseInt(fields[9]),
+                    Integer.parseInt(fields[10]), Integer.parseInt(fields[11]),
+                    Integer.parseInt(fields[12]), profileLevels));
+        }
+        return new CodecIndex(codecs);
+    }
+
+    private static Map<String, List<Codec>> freeze(Map<String, List<Codec>> map) {
+        for (Map.Entry<String, List<Codec>> entry : map.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static void close(@Nullable Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignore) {
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package net.ypresto.androidtranscoder.compat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Ranks the codecs that can handle a format, and remembers how they did.
+ *
+ * Candidates that failed to configure for the same type and size come last. The others are
+ * ranked hardware first, then those whose capabilities fit the size, then by the throughput
+ * recorded on this device. Ties keep the order of the platform.
+ * Outcomes are kept for the process lifetime. Thread safe.
+ */
+public class CodecSelector {
+
+    private static final CodecSelector sInstance = new CodecSelector();
+
+    private final Set<String> mFailures = new HashSet<>();
+    private final Map<String, Double> mThroughputs = new HashMap<>();
+
+    CodecSelector() {}
+
+    @NonNull
+    public static CodecSelector get() {
+        return sInstance;
+    }
+
+    /**
+     * Returns the candidates in the order they should be tried.
+     *
+     * @param candidates codecs for the mime type, in the order of the platform
+     * @param width the video width, or 0 for audio
+     * @param height the video height, or 0 for audio
+     * @return a new list
+     */
+    @NonNull
+    public List<CodecIndex.Codec> rank(@NonNull List<CodecIndex.Codec> candidates, final int width, final int height) {
+        final Set<String> failures = new HashSet<>();
+        final Map<String, Double> throughputs = new HashMap<>();
+        synchronized (this) {
+            for (CodecIndex.Codec codec : candidates) {
+                if (mFailures.contains(getKey(codec.name, codec.mimeType, width, height))) failures.add(codec.name);
+                Double throughput = mThroughputs.get(codec.name);
+                if (throughput != null) throughputs.put(codec.name, throughput);
+            }
+        }
+        List<CodecIndex.Codec> ranked = new ArrayList<>(candidates);
+        // Stable, so ties keep the order of the platform.
+        Collections.sort(ranked, new Comparator<CodecIndex.Codec>() {
+            @Override
+            public int compare(CodecIndex.Codec a, CodecIndex.Codec b) {
+                int result = compareFlags(failures.contains(a.name), failures.contains(b.name));
+                if (result != 0) return result;
+                result = compareFlags(b.hardware, a.hardware);
+                if (result != 0) return result;
+                if (width > 0 && height > 0) {
+                    result = compareFlags(b.isSizeSupported(width, height), a.isSizeSupported(width, height));
+                    if (result != 0) return result;
+                }
+                return Double.compare(getThroughput(throughputs, b.name), getThroughput(throughputs, a.name));
+            }
+        });
+        return ranked;
+    }
+
+    /**
+     * Records that a codec could not be configured, so that it is tried last for
+     * the same type and size.
+     */
+    public synchronized void onFailure(@NonNull String name, @NonNull String mimeType, int width, int height) {
+        mFailures.add(getKey(name, mimeType, width, height));
+    }
+
+    /**
+     * Records the throughput of a codec in a completed transcode. Successive
+     * values are averaged.
+     *
+     * @param pixelsPerSecond the number of pixels processed per second
+     */
+    public synchronized void onThroughput(@NonNull String name, double pixelsPerSecond) {
+        if (pixelsPerSecond <= 0) return;
+        Double previous = mThroughputs.get(name);
+        mThroughputs.put(name, previous == null ? pixelsPerSecond : (previous + pixelsPerSecond) / 2);
+    }
+
+    // Boolean.compare() is API 19. False comes first.
+    private static int compareFlags(boolean a, boolean b) {
+        return a == b ? 0 : a ? 1 : -1;
+    }
+
+    private static double getThroughput(Map<String, Double> throughputs, String name) {
+        Double throughput = throughputs.get(name);
+        return throughput == null ? 0 : throughput;
+    }
+
+    private static String getKey(String name, String mimeType, int width, int height) {
+        return name + "/" + mimeType + "/" + width + "x" + height;
+    }
+}
@@ -0,0 +1,234 @@
+package net.ypresto.androidtranscoder.compat;
+
+import android.media.MediaFormat;
+import android.os.Build;
+
+import net.ypresto.androidtranscoder.utils.Logger;
+import net.ypresto.androidtranscoder.utils.MediaFormatConstants;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Remembers which fallback format an encoder could be configured with, for each requested
+ * format, so that later transcodes start from it instead of failing on the same formats again.
+ *
+ * Fallbacks are remembered by what they change in the requested format, e.g. a lower profile
+ * or a capped bit rate, so the ladder of formats may differ between transcodes. A fallback
+ * is used only once it has been needed twice in a row, and the requested format is tried
+ * again every {@link #RETRY_INTERVAL} transcodes, in case the failure was caused by
+ * something else, e.g. another app holding the encoder.
+ *
+ * Entries are kept for the process lifetime, and can be saved to a file with
+ * {@link #setCacheFile(File)}. The file is keyed by the build fingerprint, so it is
+ * discarded after a system update, which may fix or change the codecs. Thread safe.
+ */
+public class FormatFallbacks {
+    private static final String TAG = "FormatFallbacks";
+    private static final Logger LOG = new Logger(TAG);
+
+    static final int CONFIRMATIONS = 2;
+    static final int RETRY_INTERVAL = 10;
+
+    private static final String CACHE_VERSION = "2";
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String SEPARATOR = "\t";
+    private static final String CAPPED_BIT_RATE = "/capped";
+
+    private static final FormatFallbacks sInstance = new FormatFallbacks();
+
+    private static class Entry {
+        final String relaxation;
+        int hits;
+        int uses;
+
+        Entry(String relaxation, int hits) {
+            this.relaxation = relaxation;
+            this.hits = hits;
+        }
+    }
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private File mCacheFile;
+
+    FormatFallbacks() {}
+
+    @NonNull
+    public static FormatFallbacks get() {
+        return sInstance;
+    }
+
+    /**
+     * Sets the file where fallbacks are saved, so that they are known to later processes,
+     * and loads it. Should be called before the first transcode, e.g. in Application.onCreate().
+     *
+     * @param file a file in the app storage, or null to keep fallbacks in memory only
+     */
+    public static void setCacheFile(@Nullable File file) {
+        sInstance.load(file);
+    }
+
+    /**
+     * Returns the key of a requested format: the fields which make encoders reject it.
+     */
+    @NonNull
+    static String getKey(@NonNull MediaFormat format) {
+        return format.getString(MediaFormat.KEY_MIME)
+                + "/" + getInteger(format, MediaFormat.KEY_WIDTH) + "x" + getInteger(format, MediaFormat.KEY_HEIGHT)
+                + "/" + getInteger(format, MediaFormatConstants.KEY_PROFILE)
+                + "/" + getInteger(format, MediaFormatConstants.KEY_LEVEL)
+                + "/" + getInteger(format, MediaFormat.KEY_BITRATE_MODE);
+    }
+
+    /**
+     * Returns what a fallback changes in the requested format. It does not depend on the
+     * position of the fallback in the ladder, nor on the actual bit rates.
+     */
+    @NonNull
+    static String getRelaxation(@NonNull MediaFormat requested, @NonNull MediaFormat fallback) {
+        String relaxation = getKey(fallback);
+        if (getInteger(fallback, MediaFormat.KEY_BIT_RATE) < getInteger(requested, MediaFormat.KEY_BIT_RATE)) {
+            relaxation += CAPPED_BIT_RATE;
+        }
+        return relaxation;
+    }
+
+    /**
+     * Returns the index of the first format to try: 0 for the requested format, or the
+     * fallback that worked the last times.
+     *
+     * @param formats the requested format, followed by the fallbacks
+     */
+    public synchronized int getStart(@NonNull List<MediaFormat> formats) {
+        MediaFormat requested = formats.get(0);
+        Entry entry = mEntries.get(getKey(requested));
+        if (entry == null || entry.hits < CONFIRMATIONS) return 0;
+        if (++entry.uses % RETRY_INTERVAL == 0) return 0;
+        for (int i = 1; i < formats.size(); i++) {
+            if (entry.relaxation.equals(getRelaxation(requested, formats.get(i)))) return i;
+        }
+        return 0;
+    }
+
+    /**
+     * Records the format that an encoder was configured with.
+     *
+     * @param formats the requested format, followed by the fallbacks
+     * @param index the index of the format that worked
+     */
+    public synchronized void onConfigured(@NonNull List<MediaFormat> formats, int index) {
+        MediaFormat requested = formats.get(0);
+        String key = getKey(requested);
+        Entry entry = mEntries.get(key);
+        if (index == 0) {
+            if (entry == null) return;
+            mEntries.remove(key);
+            if (entry.hits >= CONFIRMATIONS) save();
+            return;
+        }
+        String relaxation = getRelaxation(requested, formats.get(index));
+        if (entry == null || !entry.relaxation.equals(relaxation)) {
+            boolean saved = entry != null && entry.hits >= CONFIRMATIONS;
+            mEntries.put(key, new Entry(relaxation, 1));
+            if (saved) save();
+        } else if (++entry.hits == CONFIRMATIONS) {
+            save();
+        }
+    }
+
+    private synchronized void load(@Nullable File file) {
+        mCacheFile = file;
+        if (file == null || !file.exists()) return;
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            Map<String, String> relaxations = read(reader, Build.FINGERPRINT);
+            if (relaxations == null) return;
+            for (Map.Entry<String, String> relaxation : relaxations.entrySet()) {
+                mEntries.put(relaxation.getKey(), new Entry(relaxation.getValue(), CONFIRMATIONS));
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.w("Could not read the format fallbacks cache.", e);
+        } finally {
+            close(reader);
+        }
+    }
+
+    private void save() {
+        if (mCacheFile == null) return;
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(mCacheFile), "UTF-8");
+            write(writer, Build.FINGERPRINT);
+        } catch (IOException e) {
+            LOG.w("Could not write the format fallbacks cache.", e);
+        } finally {
+            close(writer);
+        }
+    }
+
+    /**
+     * Writes the confirmed fallbacks in a line based format: a header, then one key
+     * and relaxation per line.
+     */
+    synchronized void write(@NonNull Writer writer, @NonNull String fingerprint) throws IOException {
+        BufferedWriter buffered = new BufferedWriter(writer);
+        buffered.write(KEY_VERSION + SEPARATOR + CACHE_VERSION + "\n");
+        buffered.write(KEY_FINGERPRINT + SEPARATOR + fingerprint + "\n");
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            if (entry.getValue().hits < CONFIRMATIONS) continue;
+            buffered.write(entry.getKey() + SEPARATOR + entry.getValue().relaxation + "\n");
+        }
+        buffered.flush();
+    }
+
+    /**
+     * Reads fallbacks written by {@link #write(Writer, String)}.
+     *
+     * @return the relaxations by key, or null if they were written by another version or build
+     * @throws IOException if they could not be read
+     */
+    @Nullable
+    static Map<String, String> read(@NonNull Reader reader, @NonNull String fingerprint) throws IOException {
+        BufferedReader buffered = new BufferedReader(reader);
+        if (!(KEY_VERSION + SEPARATOR + CACHE_VERSION).equals(buffered.readLine())) return null;
+        if (!(KEY_FINGERPRINT + SEPARATOR + fingerprint).equals(buffered.readLine())) return null;
+        Map<String, String> relaxations = new HashMap<>();
+        String line;
+        while ((line = buffered.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            String[] fields = line.split(SEPARATOR);
+            if (fields.length != 2) throw new IOException("Invalid line: " + line);
+            relaxations.put(fields[0], fields[1]);
+        }
+        return relaxations;
+    }
+
+    private static int getInteger(MediaFormat format, String key) {
+        return format.containsKey(key) ? format.getInteger(key) : -1;
+    }
+
+    private static void close(@Nullable Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignore) {
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package net.ypresto.androidtranscoder.compat;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+import net.ypresto.androidtranscoder.utils.Logger;
+import net.ypresto.androidtranscoder.utils.MediaFormatConstants;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Creates and configures codecs, applying throughput hints where the device accepts them.
+ *
+ * Codecs are picked from the {@link CodecIndex} in the order given by the {@link CodecSelector}.
+ * If one fails to configure, the next one is tried, and the failure is recorded so that
+ * later codecs for the same format skip it.
+ *
+ * {@link MediaFormatConstants#KEY_OPERATING_RATE} and {@link MediaFormatConstants#KEY_PRIORITY}
+ * make some codecs fail to configure. When that happens the codec is created again with the
+ * hints reset to realtime values, and its name is remembered so that later codecs
+ * of the same kind skip the failing attempt.
+ */
+public class MediaCodecCompat {
+    private static final String TAG = "MediaCodecCompat";
+    private static final Logger LOG = new Logger(TAG);
+
+    // Above this, some codecs reject the operating rate.
+    private static final int MAX_OPERATING_RATE = Short.MAX_VALUE;
+    private static final int DEFAULT_FRAME_RATE = 30;
+
+    private static final Set<String> sRejectingHints = new HashSet<>();
+
+    /**
+     * Requests non realtime priority and the highest operating rate.
+     *
+     * @param format the format to be passed to {@link MediaCodec#configure(MediaFormat, Surface, android.media.MediaCrypto, int)}
+     */
+    public static void setThroughputHints(@NonNull MediaFormat format) {
+        format.setInteger(MediaFormatConstants.KEY_PRIORITY, MediaFormatConstants.PRIORITY_NON_REALTIME);
+        format.setInteger(MediaFormatConstants.KEY_OPERATING_RATE, MAX_OPERATING_RATE);
+    }
+
+    /**
+     * Copies throughput hints, if any, e.g. from an encoder format to the decoder one.
+     */
+    public static void copyThroughputHints(@NonNull MediaFormat from, @NonNull MediaFormat to) {
+        if (hasThroughputHints(from)) setThroughputHints(to);
+    }
+
+    public static boolean hasThroughputHints(@NonNull MediaFormat format) {
+        return format.containsKey(MediaFormatConstants.KEY_PRIORITY)
+                && format.getInteger(MediaFormatConstants.KEY_PRIORITY) == MediaFormatConstants.PRIORITY_NON_REALTIME;
+    }
+
+    /**
+     * Creates a codec for the mime type of the format and configures it, trying the
+     * candidates in order until one can be configured.
+     * If throughput hints make configuration fail, retries without them.
+     *
+     * @param format the format, whose hints may be reset
+     * @param surface the output surface of a decoder, or null
+     * @param encoder true for an encoder
+     * @return the configured codec
+     */
+    @NonNull
+    public static MediaCodec createAndConfigure(@NonNull MediaFormat format, @Nullable Surface surface, boolean encoder) {
+        return createAndConfigure(format, surface, encoder, true);
+    }
+
+    /**
+     * Same as {@link #createAndConfigure(MediaFormat, Surface, boolean)}, but failures can be
+     * left unrecorded. This is for formats that are tried before a fallback one: their rejection
+     * says nothing about the codec, which should still be preferred for the fallback.
+     *
+     * @param recordFailures false to not demote codecs that fail, nor remember that they
+     *                       reject throughput hints
+     */
+    @NonNull
+    public static MediaCodec createAndConfigure(@NonNull MediaFormat format, @Nullable Surface surface,
+                                                boolean encoder, boolean recordFailures) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        int width = 0, height = 0;
+        if (mime.startsWith("video/")) {
+            width = format.getInteger(MediaFormat.KEY_WIDTH);
+            height = format.getInteger(MediaFormat.KEY_HEIGHT);
+        }
+        CodecIndex index = CodecIndex.get();
+        List<CodecIndex.Codec> candidates = encoder ? index.getEncoders(mime) : index.getDecoders(mime);
+        if (candidates.isEmpty()) {
+            // Let the platform pick, e.g. aliases that are not indexed.
+            return configure(create(mime, encoder), format, surface, encoder, recordFailures);
+        }
+        RuntimeException failure = null;
+        for (CodecIndex.Codec candidate : CodecSelector.get().rank(candidates, width, height)) {
+            MediaCodec codec;
+            try {
+                codec = MediaCodec.createByCodecName(candidate.name);
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.w("Could not create " + candidate.name, e);
+                if (recordFailures) CodecSelector.get().onFailure(candidate.name, mime, width, height);
+                continue;
+            }
+            try {
+                return configure(codec, format, surface, encoder, recordFailures);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // The codec was released by configure().
+                LOG.w("Could not configure " + candidate.name + ", trying the next codec.", e);
+                if (recordFailures) CodecSelector.get().onFailure(candidate.name, mime, width, height);
+                failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+        throw new IllegalStateException("No codec could be created for " + mime);
+    }
+
+    // Configures the codec, retrying without throughput hints if needed. Releases it on failure.
+    private static MediaCodec configure(@NonNull MediaCodec codec, @NonNull MediaFormat format,
+                                        @Nullable Surface surface, boolean encoder, boolean recordFailures) {
+        int flags = encoder ? MediaCodec.CONFIGURE_FLAG_ENCODE : 0;
+        if (!hasThroughputHints(format)) return configureOrRelease(codec, format, surface, flags);
+        String name = codec.getName();
+        synchronized (sRejectingHints) {
+            if (sRejectingHints.contains(name)) {
+                resetThroughputHints(format);
+                return configureOrRelease(codec, format, surface, flags);
+            }
+        }
+        try {
+            codec.configure(format, surface, null, flags);
+            return codec;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // MediaCodec.CodecException is an IllegalStateException.
+            LOG.w("Codec " + name + " rejected throughput hints, retrying without them.", e);
+            if (recordFailures) {
+                synchronized (sRejectingHints) {
+                    sRejectingHints.add(name);
+                }
+            }
+            codec.release();
+        }
+        resetThroughputHints(format);
+        try {
+            codec = MediaCodec.createByCodecName(name);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return configureOrRelease(codec, format, surface, flags);
+    }
+
+    private static MediaCodec configureOrRelease(MediaCodec codec, MediaFormat format, Surface surface, int flags) {
+        try {
+            codec.configure(format, surface, null, flags);
+            return codec;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            codec.release();
+            throw e;
+        }
+    }
+
+    // MediaFormat.removeKey() is API 29, so set the values that codecs assume by default.
+    private static void resetThroughputHints(MediaFormat format) {
+        format.setInteger(MediaFormatConstants.KEY_PRIORITY, MediaFormatConstants.PRIORITY_REALTIME);
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        int rate;
+        if (mime.startsWith("audio/")) {
+            rate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        } else if (format.containsKey(MediaFormat.KEY_FRAME_RATE)) {
+            rate = format.getInteger(MediaFormat.KEY_FRAME_RATE);
+        } else {
+            rate = DEFAULT_FRAME_RATE;
+        }
+        format.setInteger(MediaFormatConstants.KEY_OPERATING_RATE, rate);
+    }
+
+    private static MediaCodec create(String mime, boolean encoder) {
+        try {
+            return encoder ? MediaCodec.createEncoderByType(mime) : MediaCodec.createDecoderByType(mime);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private MediaCodecCompat() {
+        throw new RuntimeException();
+    }
+}
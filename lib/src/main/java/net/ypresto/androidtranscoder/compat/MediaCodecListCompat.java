@@ -19,13 +19,13 @@ import android.media.MediaCodecInfo;
 import android.media.MediaCodecList;
 import android.media.MediaFormat;
 
-import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
  * This class emulates basic behavior of MediaCodecList in API level &gt;= 21.
- * TODO: implement delegate to MediaCodecList in newer API.
+ * Lookups go through the {@link CodecIndex}, so codecs are only enumerated once per process.
  */
 public class MediaCodecListCompat {
     public static final int REGULAR_CODECS = 0;
@@ -47,15 +47,9 @@ public class MediaCodecListCompat {
 
     private String findCoderForFormat(MediaFormat format, boolean findEncoder) {
         String mimeType = format.getString(MediaFormat.KEY_MIME);
-        Iterator<MediaCodecInfo> iterator = new MediaCodecInfoIterator();
-        while (iterator.hasNext()) {
-            MediaCodecInfo codecInfo = iterator.next();
-            if (codecInfo.isEncoder() != findEncoder) continue;
-            if (Arrays.asList(codecInfo.getSupportedTypes()).contains(mimeType)) {
-                return codecInfo.getName();
-            }
-        }
-        return null;
+        CodecIndex index = CodecIndex.get();
+        List<CodecIndex.Codec> codecs = findEncoder ? index.getEncoders(mimeType) : index.getDecoders(mimeType);
+        return codecs.isEmpty() ? null : codecs.get(0).name;
     }
 
     public final MediaCodecInfo[] getCodecInfos() {
@@ -0,0 +1,143 @@
+package net.ypresto.androidtranscoder.engine;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import net.ypresto.androidtranscoder.compat.MediaCodecBufferCompatWrapper;
+import net.ypresto.androidtranscoder.source.DataSource;
+import net.ypresto.androidtranscoder.utils.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decodes an audio track before the actual transcoding and feeds the samples
+ * to one or more {@link Analyzer}s, for example to measure loudness or detect
+ * silence, so that the results can be applied in a single encoding pass.
+ *
+ * This uses its own extractor with only the audio track selected, so video samples
+ * are never read, and an audio decoder only: no encoder, muxer or GL.
+ */
+class AudioScanner {
+    private static final String TAG = "AudioScanner";
+    private static final Logger LOG = new Logger(TAG);
+
+    private static final long TIMEOUT_US = 10000;
+
+    interface Analyzer {
+        /**
+         * Called once, before any sample.
+         */
+        void onFormat(int sampleRate, int channelCount);
+
+        /**
+         * Called with consecutive chunks of interleaved samples.
+         * The buffer position can be moved.
+         */
+        void onSamples(@NonNull ShortBuffer samples);
+
+        /**
+         * Called after the last sample.
+         */
+        void onEndOfStream();
+    }
+
+    private final DataSource mDataSource;
+    private final int mTrackIndex;
+    private final List<Analyzer> mAnalyzers = new ArrayList<>();
+
+    AudioScanner(@NonNull DataSource dataSource, int trackIndex) {
+        mDataSource = dataSource;
+        mTrackIndex = trackIndex;
+    }
+
+    void addAnalyzer(@NonNull Analyzer analyzer) {
+        mAnalyzers.add(analyzer);
+    }
+
+    /**
+     * Decodes the whole track, feeding the analyzers. Blocks the current thread.
+     *
+     * @throws IOException if the source could not be opened
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    void scan() throws IOException, InterruptedException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec decoder = null;
+        boolean decoderStarted = false;
+        try {
+            mDataSource.apply(extractor);
+            extractor.selectTrack(mTrackIndex);
+            MediaFormat inputFormat = extractor.getTrackFormat(mTrackIndex);
+            decoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
+            decoder.configure(inputFormat, null, null, 0);
+            decoder.start();
+            decoderStarted = true;
+            decode(extractor, decoder);
+        } finally {
+            if (decoder != null) {
+                if (decoderStarted) decoder.stop();
+                decoder.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private void decode(MediaExtractor extractor, MediaCodec decoder) throws InterruptedException {
+        MediaCodecBufferCompatWrapper buffers = new MediaCodecBufferCompatWrapper(decoder);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean hasFormat = false;
+        boolean extractorEOS = false;
+        long startTime = System.currentTimeMillis();
+        while (true) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            if (!extractorEOS) {
+                int index = decoder.dequeueInputBuffer(TIMEOUT_US);
+                if (index >= 0) {
+                    int size = extractor.readSampleData(buffers.getInputBuffer(index), 0);
+                    if (size < 0) {
+                        extractorEOS = true;
+                        decoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                    } else {
+                        decoder.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+
+            int index = decoder.dequeueOutputBuffer(info, TIMEOUT_US);
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                if (hasFormat) throw new RuntimeException("Audio format changed while scanning.");
+                MediaFormat format = decoder.getOutputFormat();
+                int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                for (Analyzer analyzer : mAnalyzers) analyzer.onFormat(sampleRate, channelCount);
+                hasFormat = true;
+            } else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                buffers.onOutputBuffersChanged();
+            } else if (index >= 0) {
+                if (!hasFormat) throw new RuntimeException("Buffer received before format!");
+                if (info.size > 0) {
+                    ByteBuffer data = buffers.getOutputBuffer(index);
+                    data.clear();
+                    data.position(info.offset).limit(info.offset + info.size);
+                    ShortBuffer samples = data.slice().order(data.order()).asShortBuffer();
+                    for (int i = 0; i < mAnalyzers.size(); i++) {
+                        samples.rewind();
+                        mAnalyzers.get(i).onSamples(samples);
+                    }
+                }
+                decoder.releaseOutputBuffer(index, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break;
+            }
+        }
+        for (Analyzer analyzer : mAnalyzers) analyzer.onEndOfStream();
+        LOG.i("Scanned audio in " + (System.currentTimeMillis() - startTime) + "ms.");
+    }
+}
@@ -0,0 +1,77 @@
+package net.ypresto.androidtranscoder.engine;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import net.ypresto.androidtranscoder.source.DataSource;
+import net.ypresto.androidtranscoder.utils.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Measures the average bit rate of a track whose format does not declare it,
+ * by adding up the size of its samples. Samples are read but not decoded, and with
+ * their own extractor, so this costs about as much as copying the track.
+ */
+class BitRateScanner {
+    private static final String TAG = "BitRateScanner";
+    private static final Logger LOG = new Logger(TAG);
+
+    static final long BITRATE_UNKNOWN = -1;
+
+    // Used when the format has no max input size.
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Returns the bit rate declared by the format, or measures it.
+     *
+     * @param dataSource the source, opened again
+     * @param trackIndex the track to be measured
+     * @return the bit rate in bits per second, or {@link #BITRATE_UNKNOWN}
+     * @throws IOException if the source could not be opened
+     */
+    static long getBitRate(@NonNull DataSource dataSource, int trackIndex) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            dataSource.apply(extractor);
+            MediaFormat format = extractor.getTrackFormat(trackIndex);
+            if (format.containsKey(MediaFormat.KEY_BIT_RATE)) return format.getInteger(MediaFormat.KEY_BIT_RATE);
+            extractor.selectTrack(trackIndex);
+            int bufferSize = format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE) ?
+                    format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : DEFAULT_BUFFER_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+            long bytes = 0;
+            long firstUs = -1, lastUs = -1;
+            int samples = 0;
+            while (true) {
+                buffer.clear();
+                int size = extractor.readSampleData(buffer, 0);
+                if (size < 0) break;
+                long timeUs = extractor.getSampleTime();
+                if (firstUs < 0) firstUs = timeUs;
+                lastUs = Math.max(lastUs, timeUs);
+                bytes += size;
+                samples++;
+                extractor.advance();
+            }
+            // The last sample lasts about as long as the average one.
+            long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ?
+                    format.getLong(MediaFormat.KEY_DURATION) :
+                    samples > 1 ? (lastUs - firstUs) * samples / (samples - 1) : 0;
+            if (durationUs <= 0) return BITRATE_UNKNOWN;
+            long bitRate = bytes * 8 * 1000000 / durationUs;
+            LOG.v("Measured bit rate of track " + trackIndex + ": " + bitRate + " (" + samples + " samples)");
+            return bitRate;
+        } finally {
+            extractor.release();
+        }
+    }
+
+    private BitRateScanner() {
+        throw new RuntimeException();
+    }
+}
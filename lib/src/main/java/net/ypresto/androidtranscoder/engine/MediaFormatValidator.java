@@ -22,6 +22,7 @@ import net.ypresto.androidtranscoder.utils.Logger;
 import net.ypresto.androidtranscoder.utils.MediaFormatConstants;
 import net.ypresto.androidtranscoder.utils.AvcCsdUtils;
 import net.ypresto.androidtranscoder.utils.AvcSpsUtils;
+import net.ypresto.androidtranscoder.utils.HevcCsdUtils;
 
 import java.nio.ByteBuffer;
 
@@ -36,8 +37,12 @@ class MediaFormatValidator {
         String mime = format.getString(MediaFormat.KEY_MIME);
         // Refer: http://developer.android.com/guide/appendix/media-formats.html#core
         // Refer: http://en.wikipedia.org/wiki/MPEG-4_Part_14#Data_streams
+        if (MediaFormatConstants.MIMETYPE_VIDEO_HEVC.equals(mime)) {
+            validateHevcOutputFormat(format);
+            return;
+        }
         if (!MediaFormatConstants.MIMETYPE_VIDEO_AVC.equals(mime)) {
-            throw new InvalidOutputFormatException("Video codecs other than AVC is not supported, actual mime type: " + mime);
+            throw new InvalidOutputFormatException("Video codecs other than AVC and HEVC are not supported, actual mime type: " + mime);
         }
 
         // The original lib by ypresto was throwing when detected a non-baseline profile.
@@ -55,6 +60,20 @@ class MediaFormatValidator {
         }
     }
 
+    // MediaMuxer builds the hvcC box from csd-0, which must hold all parameter sets.
+    private static void validateHevcOutputFormat(MediaFormat format) {
+        ByteBuffer spsBuffer;
+        try {
+            HevcCsdUtils.getParameterSet(format, HevcCsdUtils.NAL_TYPE_VPS);
+            spsBuffer = HevcCsdUtils.getParameterSet(format, HevcCsdUtils.NAL_TYPE_SPS);
+            HevcCsdUtils.getParameterSet(format, HevcCsdUtils.NAL_TYPE_PPS);
+        } catch (IllegalStateException e) {
+            throw new InvalidOutputFormatException("Invalid HEVC output format: " + e.getMessage());
+        }
+        int profileIdc = HevcCsdUtils.getProfileIdc(spsBuffer);
+        LOG.i("Output H.265 profile: " + HevcCsdUtils.getProfileName(profileIdc));
+    }
+
     static void validateAudioOutputFormat(@Nullable MediaFormat format) {
         if (format == null) return;
         String mime = format.getString(MediaFormat.KEY_MIME);
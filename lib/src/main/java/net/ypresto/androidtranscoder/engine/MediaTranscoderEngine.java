@@ -22,18 +22,33 @@ import android.media.MediaMuxer;
 import android.os.Build;
 
 import net.ypresto.androidtranscoder.MediaTranscoderOptions;
+import net.ypresto.androidtranscoder.Rendition;
+import net.ypresto.androidtranscoder.SilenceDetection;
+import net.ypresto.androidtranscoder.compat.CodecSelector;
+import net.ypresto.androidtranscoder.remix.LoudnessMeter;
+import net.ypresto.androidtranscoder.remix.SilenceDetector;
 import net.ypresto.androidtranscoder.source.DataSource;
+import net.ypresto.androidtranscoder.strategy.DefaultVideoStrategy;
+import net.ypresto.androidtranscoder.strategy.OutputStrategy;
 import net.ypresto.androidtranscoder.strategy.OutputStrategyException;
 import net.ypresto.androidtranscoder.transcode.AudioTrackTranscoder;
 import net.ypresto.androidtranscoder.transcode.NoOpTrackTranscoder;
 import net.ypresto.androidtranscoder.transcode.PassThroughTrackTranscoder;
 import net.ypresto.androidtranscoder.transcode.TrackTranscoder;
 import net.ypresto.androidtranscoder.transcode.VideoTrackTranscoder;
+import net.ypresto.androidtranscoder.transcode.bitrate.SizeBudgetController;
+import net.ypresto.androidtranscoder.transcode.transform.VideoTransform;
 import net.ypresto.androidtranscoder.utils.ISO6709LocationParser;
 import net.ypresto.androidtranscoder.utils.Logger;
+import net.ypresto.androidtranscoder.validator.PlanValidator;
+import net.ypresto.androidtranscoder.validator.TranscodePlan;
 import net.ypresto.androidtranscoder.validator.ValidatorException;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import androidx.annotation.NonNull;
 
@@ -48,15 +63,25 @@ public class MediaTranscoderEngine {
     private static final double PROGRESS_UNKNOWN = -1.0;
     private static final long SLEEP_TO_WAIT_TRACK_TRANSCODERS = 10;
     private static final long PROGRESS_INTERVAL_STEPS = 10;
+    private static final double MAX_LOUDNESS_GAIN_DB = 20;
+    private static final int AUDIO_ONLY_BATCH_SIZE = 64;
+    // Assumed for passthrough audio whose format has no bit rate.
+    private static final long AUDIO_BIT_RATE_UNKNOWN = 128000;
     private DataSource mDataSource;
     private TrackTranscoder mVideoTrackTranscoder;
     private TrackTranscoder mAudioTrackTranscoder;
     private TracksInfo mTracksInfo;
     private MediaExtractor mExtractor;
     private MediaMuxer mMuxer;
+    private final List<MediaMuxer> mRenditionMuxers = new ArrayList<>();
     private volatile double mProgress;
     private ProgressCallback mProgressCallback;
     private long mDurationUs;
+    private float mSpeed = 1F;
+    private MediaFormat mVideoOutputFormat;
+    private MediaFormat mAudioOutputFormat;
+    private TranscodePlan mPlan;
+    private boolean mKeyFramesOnly;
 
     /**
      * Do not use this constructor unless you know what you are doing.
@@ -96,15 +121,29 @@ public class MediaTranscoderEngine {
         if (mDataSource == null) {
             throw new IllegalStateException("Data source is not set.");
         }
+        long startTimeMs = System.currentTimeMillis();
         try {
             // NOTE: use single extractor to keep from running out audio track fast.
             mExtractor = new MediaExtractor();
             mDataSource.apply(mExtractor);
             mMuxer = new MediaMuxer(options.outPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-            setupMetadata();
+            if (options.audioOnly && !options.renditions.isEmpty()) {
+                LOG.w("Renditions ignored in audio-only mode.");
+            } else {
+                for (Rendition rendition : options.renditions) {
+                    mRenditionMuxers.add(new MediaMuxer(rendition.outPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4));
+                }
+            }
+            if (!options.audioOnly) setupMetadata();
             setupTrackTranscoders(options);
+            setupAudioAnalysis(options);
+            setupSizeBudget(options);
+            long pipelinesStartUs = System.nanoTime() / 1000;
             runPipelines();
             mMuxer.stop();
+            for (MediaMuxer muxer : mRenditionMuxers) muxer.stop();
+            notifyPlanValidator(options, System.nanoTime() / 1000 - pipelinesStartUs);
+            logThroughput(options.outPath, System.currentTimeMillis() - startTimeMs);
         } finally {
             try {
                 if (mVideoTrackTranscoder != null) {
@@ -132,6 +171,14 @@ public class MediaTranscoderEngine {
             } catch (RuntimeException e) {
                 LOG.e("Failed to release muxer.", e);
             }
+            for (MediaMuxer muxer : mRenditionMuxers) {
+                try {
+                    muxer.release();
+                } catch (RuntimeException e) {
+                    LOG.e("Failed to release rendition muxer.", e);
+                }
+            }
+            mRenditionMuxers.clear();
         }
     }
 
@@ -141,7 +188,9 @@ public class MediaTranscoderEngine {
 
         String rotationString = mediaMetadataRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
         try {
-            mMuxer.setOrientationHint(Integer.parseInt(rotationString));
+            int rotation = Integer.parseInt(rotationString);
+            mMuxer.setOrientationHint(rotation);
+            for (MediaMuxer muxer : mRenditionMuxers) muxer.setOrientationHint(rotation);
         } catch (NumberFormatException e) {
             // skip
         }
@@ -152,6 +201,7 @@ public class MediaTranscoderEngine {
                 float[] location = new ISO6709LocationParser().parse(locationString);
                 if (location != null) {
                     mMuxer.setLocation(location[0], location[1]);
+                    for (MediaMuxer muxer : mRenditionMuxers) muxer.setLocation(location[0], location[1]);
                 } else {
                     LOG.v("Failed to parse the location metadata: " + locationString);
                 }
@@ -166,9 +216,28 @@ public class MediaTranscoderEngine {
         LOG.v("Duration (us): " + mDurationUs);
     }
 
+    // MediaMetadataRetriever is slow and only needed for video metadata:
+    // in audio-only mode, take the duration from the audio track.
+    private void setupAudioOnlyMetadata() {
+        MediaFormat format = mTracksInfo.audioTrackFormat;
+        if (format != null && format.containsKey(MediaFormat.KEY_DURATION)) {
+            mDurationUs = format.getLong(MediaFormat.KEY_DURATION);
+        } else {
+            mDurationUs = -1;
+        }
+        LOG.v("Duration (us): " + mDurationUs);
+    }
+
     @SuppressWarnings("CaughtExceptionImmediatelyRethrown")
     private void setupTrackTranscoders(MediaTranscoderOptions options) {
         mTracksInfo = TracksInfo.fromExtractor(mExtractor);
+        mSpeed = options.speed;
+        mKeyFramesOnly = options.keyFramesOnly && !options.audioOnly;
+        if (mKeyFramesOnly && mSpeed != 1F) {
+            LOG.w("Speed ignored, only key frames are decoded.");
+            mSpeed = 1F;
+        }
+        if (options.audioOnly) setupAudioOnlyMetadata();
         QueuedMuxer queuedMuxer = new QueuedMuxer(mMuxer, mTracksInfo, new QueuedMuxer.Listener() {
             @Override
             public void onDetermineOutputFormat() {
@@ -182,8 +251,12 @@ public class MediaTranscoderEngine {
         if (!mTracksInfo.hasVideo()) {
             mVideoTrackTranscoder = new NoOpTrackTranscoder();
             videoStatus = TrackStatus.ABSENT;
+        } else if (options.audioOnly) {
+            mVideoTrackTranscoder = new NoOpTrackTranscoder();
+            videoStatus = TrackStatus.REMOVING;
         } else {
             try {
+                setupInputBitRate(options);
                 MediaFormat videoFormat = options.videoOutputStrategy.createOutputFormat(mTracksInfo.videoTrackFormat);
                 if (videoFormat == null) {
                     mVideoTrackTranscoder = new NoOpTrackTranscoder();
@@ -193,8 +266,20 @@ public class MediaTranscoderEngine {
                             mTracksInfo.videoTrackIndex, queuedMuxer, QueuedMuxer.SampleType.VIDEO);
                     videoStatus = TrackStatus.PASS_THROUGH;
                 } else {
-                    mVideoTrackTranscoder = new VideoTrackTranscoder(mExtractor,
-                            mTracksInfo.videoTrackIndex, videoFormat, queuedMuxer);
+                    VideoTransform transform = createVideoTransform(options.videoOutputStrategy, videoFormat, mMuxer);
+                    VideoTrackTranscoder videoTrackTranscoder = new VideoTrackTranscoder(mExtractor,
+                            mTracksInfo.videoTrackIndex, videoFormat, queuedMuxer, transform);
+                    videoTrackTranscoder.setSkipNonReferenceFrames(options.skipNonReferenceFrames);
+                    if (mKeyFramesOnly) videoTrackTranscoder.setKeyFramesOnly(options.keyFrameStrideUs);
+                    setupRenditions(videoTrackTranscoder, options.renditions, queuedMuxer);
+                    if (options.thumbnails != null) videoTrackTranscoder.setThumbnails(options.thumbnails);
+                    if (!options.videoFilters.isEmpty()) videoTrackTranscoder.setFilters(options.videoFilters);
+                    if (!options.overlays.isEmpty()) videoTrackTranscoder.setOverlays(options.overlays);
+                    setupSceneChangeKeyFrames(videoTrackTranscoder, options.videoOutputStrategy);
+                    setupFallbackFormats(videoTrackTranscoder, options.videoOutputStrategy, videoFormat);
+                    setupFrameRateConverter(videoTrackTranscoder, options.videoOutputStrategy, videoFormat);
+                    mVideoTrackTranscoder = videoTrackTranscoder;
+                    mVideoOutputFormat = videoFormat;
                     videoStatus = TrackStatus.COMPRESSING;
                 }
             } catch (OutputStrategyException strategyException) {
@@ -209,12 +294,36 @@ public class MediaTranscoderEngine {
             }
         }
         mTracksInfo.videoTrackStatus = videoStatus;
+        if (!mRenditionMuxers.isEmpty() && videoStatus != TrackStatus.COMPRESSING) {
+            throw new InvalidOutputFormatException("Renditions need the video track to be transcoded.");
+        }
+        if (options.thumbnails != null && videoStatus != TrackStatus.COMPRESSING) {
+            LOG.w("Thumbnails ignored, video track is not being transcoded.");
+        }
+        if (!options.videoFilters.isEmpty() && videoStatus != TrackStatus.COMPRESSING) {
+            throw new InvalidOutputFormatException("Video filters need the video track to be transcoded.");
+        }
+        if (!options.overlays.isEmpty() && videoStatus != TrackStatus.COMPRESSING) {
+            throw new InvalidOutputFormatException("Overlays need the video track to be transcoded.");
+        }
+        if (mKeyFramesOnly && videoStatus != TrackStatus.COMPRESSING) {
+            throw new InvalidOutputFormatException("Key frame only mode needs the video track to be transcoded.");
+        }
+        setupSpeed(mVideoTrackTranscoder);
         mVideoTrackTranscoder.setup();
+        if (videoStatus == TrackStatus.COMPRESSING) {
+            // The encoder might have been configured with a fallback format.
+            mVideoOutputFormat = ((VideoTrackTranscoder) mVideoTrackTranscoder).getOutputFormat();
+        }
 
         // Audio format.
         if (!mTracksInfo.hasAudio()) {
             mAudioTrackTranscoder = new NoOpTrackTranscoder();
             audioStatus = TrackStatus.ABSENT;
+        } else if (mKeyFramesOnly) {
+            // Skipped frames leave nothing to sync the audio with.
+            mAudioTrackTranscoder = new NoOpTrackTranscoder();
+            audioStatus = TrackStatus.REMOVING;
         } else {
             try {
                 MediaFormat audioFormat = options.audioOutputStrategy.createOutputFormat(mTracksInfo.audioTrackFormat);
@@ -228,6 +337,7 @@ public class MediaTranscoderEngine {
                 } else {
                     mAudioTrackTranscoder = new AudioTrackTranscoder(mExtractor,
                             mTracksInfo.audioTrackIndex, audioFormat, queuedMuxer);
+                    mAudioOutputFormat = audioFormat;
                     audioStatus = TrackStatus.COMPRESSING;
                 }
             } catch (OutputStrategyException strategyException) {
@@ -242,9 +352,34 @@ public class MediaTranscoderEngine {
             }
         }
         mTracksInfo.audioTrackStatus = audioStatus;
+        if (options.audioOnly) {
+            if (!audioStatus.isTranscoding()) {
+                throw new InvalidOutputFormatException("Audio-only output requested, but there is no audio to write.");
+            }
+            if (mAudioTrackTranscoder instanceof PassThroughTrackTranscoder) {
+                // Audio is the only track, no need to interleave.
+                ((PassThroughTrackTranscoder) mAudioTrackTranscoder).setBatchSize(AUDIO_ONLY_BATCH_SIZE);
+            }
+        }
+        if (audioStatus == TrackStatus.PASS_THROUGH && mSpeed != 1F) {
+            throw new InvalidOutputFormatException("Audio pass-through is not supported when changing speed.");
+        }
+        setupSpeed(mAudioTrackTranscoder);
+        if (options.backgroundAudio != null) {
+            if (audioStatus == TrackStatus.COMPRESSING) {
+                ((AudioTrackTranscoder) mAudioTrackTranscoder).setBackgroundAudio(options.backgroundAudio);
+            } else {
+                LOG.w("Background audio ignored, audio track is not being compressed.");
+            }
+        }
         mAudioTrackTranscoder.setup();
 
-        if (!options.validator.validate(videoStatus, audioStatus)) {
+        if (options.validator instanceof PlanValidator) {
+            mPlan = createPlan(videoStatus, audioStatus);
+            if (!((PlanValidator) options.validator).validate(mPlan)) {
+                throw new ValidatorException("Validator returned false.");
+            }
+        } else if (!options.validator.validate(videoStatus, audioStatus)) {
             throw new ValidatorException("Validator returned false.");
         }
 
@@ -252,6 +387,213 @@ public class MediaTranscoderEngine {
         if (audioStatus.isTranscoding()) mExtractor.selectTrack(mTracksInfo.audioTrackIndex);
     }
 
+    // Lets the strategy or validator compare sizes when the container does not declare the input bit rate.
+    private void setupInputBitRate(MediaTranscoderOptions options) {
+        OutputStrategy strategy = options.videoOutputStrategy;
+        boolean needed = strategy instanceof DefaultVideoStrategy && ((DefaultVideoStrategy) strategy).needsInputBitRate();
+        if (!needed && !(options.validator instanceof PlanValidator)) return;
+        MediaFormat format = mTracksInfo.videoTrackFormat;
+        if (format.containsKey(MediaFormat.KEY_BIT_RATE)) return;
+        long bitRate;
+        try {
+            bitRate = BitRateScanner.getBitRate(mDataSource, mTracksInfo.videoTrackIndex);
+        } catch (IOException e) {
+            LOG.w("Could not measure the input bit rate.", e);
+            return;
+        }
+        if (bitRate > 0) format.setInteger(MediaFormat.KEY_BIT_RATE, (int) Math.min(bitRate, Integer.MAX_VALUE));
+    }
+
+    private TranscodePlan createPlan(TrackStatus videoStatus, TrackStatus audioStatus) {
+        TranscodePlan plan = new TranscodePlan();
+        plan.videoStatus = videoStatus;
+        plan.audioStatus = audioStatus;
+        plan.videoInputFormat = mTracksInfo.videoTrackFormat;
+        plan.audioInputFormat = mTracksInfo.audioTrackFormat;
+        if (videoStatus == TrackStatus.COMPRESSING) plan.videoOutputFormat = mVideoOutputFormat;
+        if (audioStatus == TrackStatus.COMPRESSING) plan.audioOutputFormat = mAudioOutputFormat;
+        plan.inputDurationUs = mDurationUs;
+        plan.outputDurationUs = mDurationUs > 0 ? (long) (mDurationUs / mSpeed) : -1;
+        return plan;
+    }
+
+    // Lets the validator learn. Trimming is only known now, so the output duration is updated.
+    private void notifyPlanValidator(MediaTranscoderOptions options, long elapsedUs) {
+        // In key frame only mode, the output duration is unrelated to the input one.
+        if (mPlan == null || mKeyFramesOnly) return;
+        if (mDurationUs > 0) mPlan.outputDurationUs = (long) (mDurationUs / mSpeed);
+        long videoBytes = 0;
+        int videoFrames = 0;
+        if (mVideoTrackTranscoder instanceof VideoTrackTranscoder) {
+            videoBytes = ((VideoTrackTranscoder) mVideoTrackTranscoder).getWrittenBytes();
+            videoFrames = ((VideoTrackTranscoder) mVideoTrackTranscoder).getRenderedFrameCount();
+        }
+        ((PlanValidator) options.validator).onTranscodeCompleted(mPlan, videoBytes, videoFrames, elapsedUs);
+    }
+
+    // Each rendition gets its own encoder and muxer. The main muxer forwards audio to them.
+    private void setupRenditions(VideoTrackTranscoder videoTrackTranscoder, List<Rendition> renditions,
+                                 QueuedMuxer mainMuxer) {
+        for (int i = 0; i < mRenditionMuxers.size(); i++) {
+            Rendition rendition = renditions.get(i);
+            MediaFormat format = rendition.videoOutputStrategy.createOutputFormat(mTracksInfo.videoTrackFormat);
+            if (format == null || format == mTracksInfo.videoTrackFormat) {
+                throw new InvalidOutputFormatException("Rendition " + rendition.outPath + " must transcode the video track.");
+            }
+            QueuedMuxer muxer = new QueuedMuxer(mRenditionMuxers.get(i), mTracksInfo, new QueuedMuxer.Listener() {
+                @Override
+                public void onDetermineOutputFormat() {
+                    // The audio track is the one of the main output.
+                    MediaFormatValidator.validateAudioOutputFormat(mAudioTrackTranscoder.getDeterminedFormat());
+                }
+            });
+            VideoTransform transform = createVideoTransform(rendition.videoOutputStrategy, format, mRenditionMuxers.get(i));
+            videoTrackTranscoder.addRendition(format, muxer, transform);
+            mainMuxer.addAudioMirror(muxer);
+        }
+    }
+
+    // Done last, since trimming and speed change the output duration.
+    private void setupSizeBudget(MediaTranscoderOptions options) {
+        if (!(mVideoTrackTranscoder instanceof VideoTrackTranscoder)) return;
+        if (!(options.videoOutputStrategy instanceof DefaultVideoStrategy)) return;
+        long targetBytes = ((DefaultVideoStrategy) options.videoOutputStrategy).getTargetFileSize();
+        if (targetBytes <= 0) return;
+        if (mDurationUs <= 0 || mKeyFramesOnly) {
+            LOG.w("Target file size ignored, the output duration is unknown.");
+            return;
+        }
+        VideoTrackTranscoder videoTrackTranscoder = (VideoTrackTranscoder) mVideoTrackTranscoder;
+        long durationUs = (long) (mDurationUs / mSpeed);
+        long audioBitRate = getAudioBitRate();
+        long budget = SizeBudgetController.estimateVideoBudget(targetBytes, durationUs, audioBitRate,
+                videoTrackTranscoder.getFrameRate());
+        LOG.i("Target file size: " + targetBytes + " bytes, video budget: " + budget + " bytes, audio: "
+                + audioBitRate + " bps.");
+        videoTrackTranscoder.setSizeBudget(new SizeBudgetController(budget, durationUs));
+    }
+
+    private long getAudioBitRate() {
+        MediaFormat format;
+        switch (mTracksInfo.audioTrackStatus) {
+            case COMPRESSING: format = mAudioOutputFormat; break;
+            case PASS_THROUGH: format = mTracksInfo.audioTrackFormat; break;
+            default: return 0;
+        }
+        if (format.containsKey(MediaFormat.KEY_BIT_RATE)) return format.getInteger(MediaFormat.KEY_BIT_RATE);
+        return AUDIO_BIT_RATE_UNKNOWN;
+    }
+
+    // Cuts are the same for all outputs, so the main strategy decides for renditions too.
+    private void setupSceneChangeKeyFrames(VideoTrackTranscoder videoTrackTranscoder, OutputStrategy strategy) {
+        if (!(strategy instanceof DefaultVideoStrategy)) return;
+        float threshold = ((DefaultVideoStrategy) strategy).getSceneChangeThreshold();
+        if (threshold <= 0) return;
+        // Key frames are requested with MediaCodec.setParameters(), which is API 19.
+        if (Build.VERSION.SDK_INT < 19) {
+            LOG.w("Scene change key frames ignored, not supported before Android 4.4.");
+            return;
+        }
+        videoTrackTranscoder.setSceneChangeKeyFrames(threshold);
+    }
+
+    private void setupFallbackFormats(VideoTrackTranscoder videoTrackTranscoder, OutputStrategy strategy,
+                                      MediaFormat outputFormat) {
+        if (!(strategy instanceof DefaultVideoStrategy)) return;
+        videoTrackTranscoder.setFallbackFormats(((DefaultVideoStrategy) strategy).createFallbackFormats(outputFormat));
+    }
+
+    private void setupFrameRateConverter(VideoTrackTranscoder videoTrackTranscoder, OutputStrategy strategy,
+                                         MediaFormat outputFormat) {
+        if (!(strategy instanceof DefaultVideoStrategy)) return;
+        videoTrackTranscoder.setFrameRateConverter(((DefaultVideoStrategy) strategy).createFrameRateConverter(outputFormat));
+    }
+
+    // When frames are rotated while drawing, the output must not be rotated again by players.
+    private VideoTransform createVideoTransform(OutputStrategy strategy, MediaFormat outputFormat, MediaMuxer muxer) {
+        if (!(strategy instanceof DefaultVideoStrategy)) return null;
+        VideoTransform transform = ((DefaultVideoStrategy) strategy).createTransform(mTracksInfo.videoTrackFormat, outputFormat);
+        if (transform != null && transform.rotation != 0) muxer.setOrientationHint(0);
+        return transform;
+    }
+
+    private void setupSpeed(TrackTranscoder transcoder) {
+        if (mSpeed == 1F) return;
+        if (transcoder instanceof VideoTrackTranscoder) {
+            ((VideoTrackTranscoder) transcoder).setSpeed(mSpeed);
+        } else if (transcoder instanceof AudioTrackTranscoder) {
+            ((AudioTrackTranscoder) transcoder).setSpeed(mSpeed);
+        } else if (transcoder instanceof PassThroughTrackTranscoder) {
+            ((PassThroughTrackTranscoder) transcoder).setSpeed(mSpeed);
+        }
+    }
+
+    // Scans the audio track once for all the analysis that must happen before transcoding.
+    private void setupAudioAnalysis(MediaTranscoderOptions options) throws IOException, InterruptedException {
+        LoudnessAnalyzer loudnessAnalyzer = null;
+        if (!Float.isNaN(options.audioLoudnessTarget)) {
+            if (mTracksInfo.audioTrackStatus == TrackStatus.COMPRESSING) {
+                loudnessAnalyzer = new LoudnessAnalyzer();
+            } else {
+                LOG.w("Loudness target ignored, audio track is not being compressed.");
+            }
+        }
+        SilenceAnalyzer silenceAnalyzer = null;
+        if (options.silenceDetection != null) {
+            if (mTracksInfo.hasAudio()) {
+                silenceAnalyzer = new SilenceAnalyzer(options.silenceDetection);
+            } else {
+                LOG.w("Silence detection ignored, there is no audio track.");
+            }
+        }
+        if (loudnessAnalyzer == null && silenceAnalyzer == null) return;
+
+        AudioScanner scanner = new AudioScanner(mDataSource, mTracksInfo.audioTrackIndex);
+        if (loudnessAnalyzer != null) scanner.addAnalyzer(loudnessAnalyzer);
+        if (silenceAnalyzer != null) scanner.addAnalyzer(silenceAnalyzer);
+        scanner.scan();
+
+        if (loudnessAnalyzer != null) {
+            double loudness = loudnessAnalyzer.getLoudness();
+            float gain = LoudnessMeter.computeGain(loudness, options.audioLoudnessTarget, MAX_LOUDNESS_GAIN_DB);
+            LOG.i("Input loudness: " + loudness + " LUFS, target: " + options.audioLoudnessTarget + " LUFS, gain: " + gain);
+            ((AudioTrackTranscoder) mAudioTrackTranscoder).setGain(gain);
+        }
+        if (silenceAnalyzer != null) {
+            SilenceDetection detection = options.silenceDetection;
+            setupTrim(detection.trimLeading ? silenceAnalyzer.mLeadingEndUs : 0,
+                    detection.trimTrailing ? silenceAnalyzer.mTrailingStartUs : Long.MAX_VALUE);
+        }
+    }
+
+    private void setupTrim(long startUs, long endUs) {
+        if (startUs == 0 && endUs == Long.MAX_VALUE) return;
+        if (mTracksInfo.videoTrackStatus == TrackStatus.PASS_THROUGH) {
+            // Can't cut in the middle of a GOP without decoding.
+            LOG.w("Silence trimming ignored, video track is passed through.");
+            return;
+        }
+        if (endUs <= startUs) {
+            LOG.w("Silence trimming ignored, audio is silent.");
+            return;
+        }
+        LOG.i("Trimming to [" + startUs + ", " + endUs + "] us.");
+        setupTrim(mVideoTrackTranscoder, startUs, endUs);
+        setupTrim(mAudioTrackTranscoder, startUs, endUs);
+        if (startUs > 0) mExtractor.seekTo(startUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        if (mDurationUs > 0) mDurationUs = Math.min(mDurationUs, endUs) - startUs;
+    }
+
+    private void setupTrim(TrackTranscoder transcoder, long startUs, long endUs) {
+        if (transcoder instanceof VideoTrackTranscoder) {
+            ((VideoTrackTranscoder) transcoder).setTrim(startUs, endUs);
+        } else if (transcoder instanceof AudioTrackTranscoder) {
+            ((AudioTrackTranscoder) transcoder).setTrim(startUs, endUs);
+        } else if (transcoder instanceof PassThroughTrackTranscoder) {
+            ((PassThroughTrackTranscoder) transcoder).setTrim(startUs, endUs);
+        }
+    }
+
     private void runPipelines() throws InterruptedException {
         long loopCount = 0;
         if (mDurationUs <= 0) {
@@ -275,10 +617,35 @@ public class MediaTranscoderEngine {
         }
     }
 
+    private void logThroughput(String outPath, long elapsedMs) {
+        double seconds = Math.max(elapsedMs, 1) / 1000D;
+        long bytes = new File(outPath).length();
+        String realtime = mDurationUs > 0 ? ((mDurationUs / 1000000D / seconds) + "x realtime") : "unknown duration";
+        LOG.i("Transcoded in " + elapsedMs + "ms: " + bytes + " bytes, "
+                + (bytes / seconds / 1024 / 1024) + " MB/s, " + realtime + ".");
+        if (mVideoTrackTranscoder instanceof VideoTrackTranscoder) {
+            // Compare with the output frame rate to see whether codecs run faster than realtime.
+            VideoTrackTranscoder videoTrackTranscoder = (VideoTrackTranscoder) mVideoTrackTranscoder;
+            int frames = videoTrackTranscoder.getRenderedFrameCount();
+            LOG.i("Rendered " + frames + " video frames, " + (frames / seconds) + " fps.");
+            // Lets later transcodes prefer the fastest codecs.
+            MediaFormat input = mTracksInfo.videoTrackFormat;
+            CodecSelector.get().onThroughput(videoTrackTranscoder.getDecoderName(), frames / seconds
+                    * input.getInteger(MediaFormat.KEY_WIDTH) * input.getInteger(MediaFormat.KEY_HEIGHT));
+            CodecSelector.get().onThroughput(videoTrackTranscoder.getEncoderName(), frames / seconds
+                    * mVideoOutputFormat.getInteger(MediaFormat.KEY_WIDTH) * mVideoOutputFormat.getInteger(MediaFormat.KEY_HEIGHT));
+        }
+    }
+
     private double getTranscoderProgress(TrackTranscoder transcoder, TrackStatus status) {
         if (!status.isTranscoding()) return 0.0;
         if (transcoder.isFinished()) return 1.0;
-        return Math.min(1.0, (double) transcoder.getWrittenPresentationTimeUs() / mDurationUs);
+        if (mKeyFramesOnly && transcoder instanceof VideoTrackTranscoder) {
+            // Output timestamps are unrelated to the input ones.
+            return Math.min(1.0, (double) ((VideoTrackTranscoder) transcoder).getReadPresentationTimeUs() / mDurationUs);
+        }
+        // Written timestamps are scaled by speed, while duration is the input one.
+        return Math.min(1.0, (double) transcoder.getWrittenPresentationTimeUs() * mSpeed / mDurationUs);
     }
 
     private int getTranscodersCount() {
@@ -288,6 +655,73 @@ public class MediaTranscoderEngine {
         return (count > 0) ? count : 1;
     }
 
+    private static class LoudnessAnalyzer implements AudioScanner.Analyzer {
+        private LoudnessMeter mMeter;
+
+        @Override
+        public void onFormat(int sampleRate, int channelCount) {
+            if (channelCount != 1 && channelCount != 2) {
+                LOG.w("Can not measure loudness of " + channelCount + " channels audio.");
+                return;
+            }
+            mMeter = new LoudnessMeter(sampleRate, channelCount);
+        }
+
+        @Override
+        public void onSamples(@NonNull ShortBuffer samples) {
+            if (mMeter != null) mMeter.addSamples(samples);
+        }
+
+        @Override
+        public void onEndOfStream() {
+        }
+
+        private double getLoudness() {
+            return mMeter == null ? Double.NEGATIVE_INFINITY : mMeter.getIntegratedLoudness();
+        }
+    }
+
+    // Forwards silent ranges to the user listener, and keeps track of leading and trailing silence.
+    private static class SilenceAnalyzer implements AudioScanner.Analyzer, SilenceDetector.Listener {
+        private final SilenceDetection mDetection;
+        private SilenceDetector mDetector;
+        private long mLastStartUs;
+        private long mLastEndUs = -1;
+        private long mLeadingEndUs = 0;
+        private long mTrailingStartUs = Long.MAX_VALUE;
+
+        private SilenceAnalyzer(SilenceDetection detection) {
+            mDetection = detection;
+        }
+
+        @Override
+        public void onFormat(int sampleRate, int channelCount) {
+            mDetector = new SilenceDetector(sampleRate, channelCount, mDetection.mode,
+                    mDetection.thresholdDb, mDetection.minDurationUs, this);
+        }
+
+        @Override
+        public void onSamples(@NonNull ShortBuffer samples) {
+            mDetector.addSamples(samples);
+        }
+
+        @Override
+        public void onEndOfStream() {
+            if (mDetector == null) return;
+            mDetector.finish();
+            if (mLastEndUs == mDetector.getPositionUs()) mTrailingStartUs = mLastStartUs;
+        }
+
+        @Override
+        public void onSilenceDetected(long startUs, long endUs) {
+            LOG.v("Silence detected: [" + startUs + ", " + endUs + "] us.");
+            if (startUs == 0) mLeadingEndUs = endUs;
+            mLastStartUs = startUs;
+            mLastEndUs = endUs;
+            if (mDetection.listener != null) mDetection.listener.onSilenceDetected(startUs, endUs);
+        }
+    }
+
     public interface ProgressCallback {
         /**
          * Called to notify progress. Same thread which initiated transcode is used.
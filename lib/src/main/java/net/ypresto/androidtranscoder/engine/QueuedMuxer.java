@@ -46,6 +46,7 @@ public class QueuedMuxer {
     private int mAudioTrackIndex;
     private ByteBuffer mByteBuffer;
     private final List<SampleInfo> mSampleInfoList;
+    private final List<QueuedMuxer> mAudioMirrors = new ArrayList<>();
     private boolean mMuxerStarted;
 
     QueuedMuxer(@NonNull MediaMuxer muxer, @NonNull TracksInfo info, @NonNull Listener listener) {
@@ -55,6 +56,16 @@ public class QueuedMuxer {
         mSampleInfoList = new ArrayList<>();
     }
 
+    /**
+     * Writes the audio track to the given muxer too, so that several outputs share
+     * a single audio transcoder.
+     *
+     * @param muxer the muxer of another output
+     */
+    void addAudioMirror(@NonNull QueuedMuxer muxer) {
+        mAudioMirrors.add(muxer);
+    }
+
     /**
      * Called by {@link net.ypresto.androidtranscoder.transcode.TrackTranscoder}s
      * anytime the encoder output format changes (might actually be just once).
@@ -69,6 +80,7 @@ public class QueuedMuxer {
                 break;
             case AUDIO:
                 mAudioFormat = format;
+                for (QueuedMuxer mirror : mAudioMirrors) mirror.setOutputFormat(sampleType, format);
                 break;
             default:
                 throw new AssertionError();
@@ -106,7 +118,7 @@ public class QueuedMuxer {
             int offset = 0;
             for (SampleInfo sampleInfo : mSampleInfoList) {
                 sampleInfo.writeToBufferInfo(bufferInfo, offset);
-                writeSampleData(sampleInfo.mSampleType, mByteBuffer, bufferInfo);
+                writeSample(sampleInfo.mSampleType, mByteBuffer, bufferInfo);
                 offset += sampleInfo.mSize;
             }
             mSampleInfoList.clear();
@@ -115,6 +127,14 @@ public class QueuedMuxer {
     }
 
     public void writeSampleData(SampleType sampleType, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) {
+        if (sampleType == SampleType.AUDIO) {
+            // Position and limit are set from bufferInfo, so the buffer can be written again.
+            for (QueuedMuxer mirror : mAudioMirrors) mirror.writeSample(sampleType, byteBuf, bufferInfo);
+        }
+        writeSample(sampleType, byteBuf, bufferInfo);
+    }
+
+    private void writeSample(SampleType sampleType, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) {
         if (mMuxerStarted) {
             mMuxer.writeSampleData(getTrackIndexForSampleType(sampleType), byteBuf, bufferInfo);
         } else {
@@ -0,0 +1,42 @@
+package net.ypresto.androidtranscoder.remix;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Sums two 16 bit PCM streams with the same sample rate and channel count.
+ * The result saturates at the 16 bit range instead of wrapping around.
+ */
+public class AudioMixer {
+
+    private AudioMixer() {}
+
+    /**
+     * Adds the remaining samples of source, scaled by gain, to the samples of target
+     * in the [from, to) absolute range. Stops when either range is exhausted.
+     * The source position is moved, the target position is not. Does not allocate.
+     *
+     * @param source the samples to be added
+     * @param target the samples to be mixed in place
+     * @param from first target index, inclusive
+     * @param to last target index, exclusive
+     * @param gain linear gain applied to source samples
+     * @return the number of samples that were mixed
+     */
+    public static int mix(final ShortBuffer source, final ShortBuffer target,
+                          final int from, final int to, final float gain) {
+        final int count = Math.min(source.remaining(), to - from);
+        final int sourceStart = source.position();
+        for (int i = 0; i < count; i++) {
+            final int sample = target.get(from + i) + Math.round(source.get(sourceStart + i) * gain);
+            target.put(from + i, saturate(sample));
+        }
+        source.position(sourceStart + count);
+        return count;
+    }
+
+    private static short saturate(final int sample) {
+        if (sample > Short.MAX_VALUE) return Short.MAX_VALUE;
+        if (sample < Short.MIN_VALUE) return Short.MIN_VALUE;
+        return (short) sample;
+    }
+}
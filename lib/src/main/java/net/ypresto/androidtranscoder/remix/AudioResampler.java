@@ -0,0 +1,70 @@
+package net.ypresto.androidtranscoder.remix;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Changes the sample rate of interleaved 16 bit PCM by linear interpolation.
+ * This is cheap and good enough for close rates, e.g. 44.1 kHz to 48 kHz, but it
+ * aliases when downsampling by large ratios.
+ *
+ * This works on streaming chunks: the last frame of each chunk is kept, so that the
+ * next one is interpolated from it, and input can be passed in chunks of any size.
+ */
+public class AudioResampler {
+
+    private final int mChannels;
+    private final double mStep; // input frames per output frame
+    private final short[] mLast;
+    // Input position of the next output frame, where 0 is the last frame of the previous chunk.
+    private double mPosition = 1;
+
+    public AudioResampler(int inputSampleRate, int outputSampleRate, int channelCount) {
+        if (inputSampleRate <= 0 || outputSampleRate <= 0) {
+            throw new IllegalArgumentException("Invalid sample rates: " + inputSampleRate + ", " + outputSampleRate);
+        }
+        mChannels = channelCount;
+        mStep = (double) inputSampleRate / outputSampleRate;
+        mLast = new short[channelCount];
+    }
+
+    /**
+     * Returns the number of samples that {@link #resample(ShortBuffer, ShortBuffer)}
+     * can write at most for the given number of input samples.
+     */
+    public int getMaxOutputSize(int inputSize) {
+        return ((int) Math.ceil(inputSize / mChannels / mStep) + 1) * mChannels;
+    }
+
+    /**
+     * Consumes all the given samples and writes the resampled ones.
+     *
+     * @param input interleaved samples, whole frames only
+     * @param output a buffer with at least {@link #getMaxOutputSize(int)} samples remaining
+     */
+    public void resample(ShortBuffer input, ShortBuffer output) {
+        int frames = input.remaining() / mChannels;
+        int offset = input.position();
+        double position = mPosition;
+        while (position <= frames) {
+            int index = (int) position; // frame at or before the output one, 0 being mLast
+            float fraction = (float) (position - index);
+            for (int c = 0; c < mChannels; c++) {
+                int from = index == 0 ? mLast[c] : input.get(offset + (index - 1) * mChannels + c);
+                if (fraction == 0) {
+                    output.put((short) from);
+                    continue;
+                }
+                int to = input.get(offset + index * mChannels + c);
+                output.put((short) Math.round(from + (to - from) * fraction));
+            }
+            position += mStep;
+        }
+        if (frames > 0) {
+            mPosition = position - frames;
+            for (int c = 0; c < mChannels; c++) {
+                mLast[c] = input.get(offset + (frames - 1) * mChannels + c);
+            }
+        }
+        input.position(offset + frames * mChannels);
+    }
+}
@@ -0,0 +1,221 @@
+package net.ypresto.androidtranscoder.remix;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Measures the integrated loudness of interleaved 16 bit PCM, as defined by
+ * ITU-R BS.1770 / EBU R128: K-weighting, 400ms blocks with 75% overlap,
+ * absolute gate at -70 LUFS and relative gate at -10 LU.
+ *
+ * The meter is streaming and uses a fixed amount of memory no matter the input
+ * length: instead of keeping every block, gated blocks are accumulated into a
+ * loudness histogram with {@link #HISTOGRAM_STEP_LU} resolution. Each bin keeps
+ * the exact energy sum of its blocks, so the only approximation is which side of
+ * the relative gate the blocks of a single bin fall on.
+ *
+ * Only mono and stereo inputs are supported, all channels having weight 1.
+ */
+public class LoudnessMeter {
+
+    public static final double ABSOLUTE_GATE_LUFS = -70;
+    public static final double RELATIVE_GATE_LU = -10;
+    public static final double HISTOGRAM_STEP_LU = 0.1;
+    private static final double HISTOGRAM_MAX_LUFS = 5;
+    private static final int HISTOGRAM_SIZE =
+            (int) Math.round((HISTOGRAM_MAX_LUFS - ABSOLUTE_GATE_LUFS) / HISTOGRAM_STEP_LU);
+
+    private static final int SUB_BLOCKS_PER_BLOCK = 4; // 400ms block, 100ms hop.
+    private static final double SHORT_NORMALIZE = 1D / 32768D;
+
+    private final int mChannelCount;
+    private final int mSubBlockSize; // frames
+    private final Biquad[] mShelvingFilters;
+    private final Biquad[] mHighPassFilters;
+
+    private final double[] mSubBlockEnergies = new double[SUB_BLOCKS_PER_BLOCK];
+    private int mSubBlockCount;
+    private double mCurrentEnergy;
+    private int mCurrentFrames;
+    private int mCurrentChannel;
+
+    private final long[] mHistogramCounts = new long[HISTOGRAM_SIZE];
+    private final double[] mHistogramEnergies = new double[HISTOGRAM_SIZE];
+
+    public LoudnessMeter(int sampleRate, int channelCount) {
+        if (channelCount != 1 && channelCount != 2) {
+            throw new IllegalArgumentException("Channel count (" + channelCount + ") not supported.");
+        }
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("Invalid sample rate: " + sampleRate);
+        }
+        mChannelCount = channelCount;
+        mSubBlockSize = sampleRate / 10;
+        mShelvingFilters = new Biquad[channelCount];
+        mHighPassFilters = new Biquad[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            mShelvingFilters[i] = Biquad.highShelf(sampleRate);
+            mHighPassFilters[i] = Biquad.highPass(sampleRate);
+        }
+    }
+
+    /**
+     * Feeds the remaining interleaved samples of the given buffer to the meter.
+     * The buffer position is moved to its limit. Does not allocate.
+     *
+     * @param samples interleaved samples
+     */
+    public void addSamples(ShortBuffer samples) {
+        int position = samples.position();
+        int limit = samples.limit();
+        for (int i = position; i < limit; i++) {
+            double sample = samples.get(i) * SHORT_NORMALIZE;
+            int channel = mCurrentChannel;
+            double filtered = mHighPassFilters[channel].process(mShelvingFilters[channel].process(sample));
+            mCurrentEnergy += filtered * filtered;
+            if (++mCurrentChannel == mChannelCount) {
+                mCurrentChannel = 0;
+                if (++mCurrentFrames == mSubBlockSize) onSubBlockCompleted();
+            }
+        }
+        samples.position(limit);
+    }
+
+    private void onSubBlockCompleted() {
+        mSubBlockEnergies[mSubBlockCount % SUB_BLOCKS_PER_BLOCK] = mCurrentEnergy / mSubBlockSize;
+        mSubBlockCount++;
+        mCurrentEnergy = 0;
+        mCurrentFrames = 0;
+        if (mSubBlockCount < SUB_BLOCKS_PER_BLOCK) return;
+
+        double blockEnergy = 0;
+        for (double energy : mSubBlockEnergies) blockEnergy += energy;
+        blockEnergy /= SUB_BLOCKS_PER_BLOCK;
+        double blockLoudness = energyToLoudness(blockEnergy);
+        if (blockLoudness < ABSOLUTE_GATE_LUFS) return;
+        int bin = (int) ((blockLoudness - ABSOLUTE_GATE_LUFS) / HISTOGRAM_STEP_LU);
+        if (bin >= HISTOGRAM_SIZE) bin = HISTOGRAM_SIZE - 1;
+        mHistogramCounts[bin]++;
+        mHistogramEnergies[bin] += blockEnergy;
+    }
+
+    /**
+     * Returns the gated integrated loudness of all samples fed so far.
+     *
+     * @return loudness in LUFS, or {@link Double#NEGATIVE_INFINITY} if no block passed the gates
+     */
+    public double getIntegratedLoudness() {
+        long count = 0;
+        double energy = 0;
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            count += mHistogramCounts[i];
+            energy += mHistogramEnergies[i];
+        }
+        if (count == 0) return Double.NEGATIVE_INFINITY;
+
+        double relativeGate = energyToLoudness(energy / count) + RELATIVE_GATE_LU;
+        int firstBin = (int) Math.ceil((relativeGate - ABSOLUTE_GATE_LUFS) / HISTOGRAM_STEP_LU);
+        if (firstBin < 0) firstBin = 0;
+        count = 0;
+        energy = 0;
+        for (int i = firstBin; i < HISTOGRAM_SIZE; i++) {
+            count += mHistogramCounts[i];
+            energy += mHistogramEnergies[i];
+        }
+        if (count == 0) return Double.NEGATIVE_INFINITY;
+        return energyToLoudness(energy / count);
+    }
+
+    /**
+     * Clears all the state, as if the meter was just created.
+     */
+    public void reset() {
+        for (int i = 0; i < mChannelCount; i++) {
+            mShelvingFilters[i].reset();
+            mHighPassFilters[i].reset();
+        }
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            mHistogramCounts[i] = 0;
+            mHistogramEnergies[i] = 0;
+        }
+        mSubBlockCount = 0;
+        mCurrentEnergy = 0;
+        mCurrentFrames = 0;
+        mCurrentChannel = 0;
+    }
+
+    private static double energyToLoudness(double energy) {
+        return -0.691 + 10 * Math.log10(energy);
+    }
+
+    /**
+     * Computes the linear gain that brings the given loudness to the target loudness.
+     *
+     * @param loudness measured loudness in LUFS
+     * @param targetLoudness desired loudness in LUFS
+     * @param maxGainDb upper bound for the gain, in dB
+     * @return linear gain, 1 if loudness could not be measured
+     */
+    public static float computeGain(double loudness, double targetLoudness, double maxGainDb) {
+        if (Double.isInfinite(loudness) || Double.isNaN(loudness)) return 1F;
+        double gainDb = Math.min(targetLoudness - loudness, maxGainDb);
+        return (float) Math.pow(10, gainDb / 20);
+    }
+
+    /**
+     * Direct form I biquad. Coefficients of the K-weighting stages are derived
+     * for any sample rate from the analog prototypes, as done by libebur128.
+     */
+    private static class Biquad {
+        private final double b0, b1, b2, a1, a2;
+        private double x1, x2, y1, y2;
+
+        private Biquad(double b0, double b1, double b2, double a1, double a2) {
+            this.b0 = b0;
+            this.b1 = b1;
+            this.b2 = b2;
+            this.a1 = a1;
+            this.a2 = a2;
+        }
+
+        // Stage 1: head related shelving filter.
+        private static Biquad highShelf(int sampleRate) {
+            double f0 = 1681.974450955533;
+            double gain = 3.999843853973347;
+            double q = 0.7071752369554196;
+            double k = Math.tan(Math.PI * f0 / sampleRate);
+            double vh = Math.pow(10, gain / 20);
+            double vb = Math.pow(vh, 0.4996667741545416);
+            double a0 = 1 + k / q + k * k;
+            return new Biquad(
+                    (vh + vb * k / q + k * k) / a0,
+                    2 * (k * k - vh) / a0,
+                    (vh - vb * k / q + k * k) / a0,
+                    2 * (k * k - 1) / a0,
+                    (1 - k / q + k * k) / a0);
+        }
+
+        // Stage 2: RLB high pass filter.
+        private static Biquad highPass(int sampleRate) {
+            double f0 = 38.13547087602444;
+            double q = 0.5003270373238773;
+            double k = Math.tan(Math.PI * f0 / sampleRate);
+            double a0 = 1 + k / q + k * k;
+            return new Biquad(1, -2, 1,
+                    2 * (k * k - 1) / a0,
+                    (1 - k / q + k * k) / a0);
+        }
+
+        private double process(double x) {
+            double y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+            x2 = x1;
+            x1 = x;
+            y2 = y1;
+            y1 = y;
+            return y;
+        }
+
+        private void reset() {
+            x1 = x2 = y1 = y2 = 0;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package net.ypresto.androidtranscoder.remix;
+
+import java.nio.ShortBuffer;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Detects silent ranges in interleaved 16 bit PCM, in a streaming fashion.
+ *
+ * Samples are grouped into {@link #WINDOW_MS} windows, whose level (RMS or peak,
+ * over all channels) is compared to the threshold. Silence starts at the first window
+ * below the threshold and ends at the first window above threshold + {@link #HYSTERESIS_DB},
+ * so that levels hovering around the threshold do not split a range. Ranges shorter than
+ * the minimum duration are not reported.
+ *
+ * Timestamps are relative to the first sample. Levels are compared in the linear
+ * domain, and {@link #addSamples(ShortBuffer)} does not allocate.
+ */
+public class SilenceDetector {
+
+    public interface Listener {
+        /**
+         * Called when a silent range is detected.
+         *
+         * @param startUs start of the silent range, relative to the first sample
+         * @param endUs end of the silent range, relative to the first sample
+         */
+        void onSilenceDetected(long startUs, long endUs);
+    }
+
+    /**
+     * Compares the root mean square of each window with the threshold.
+     */
+    public static final int MODE_RMS = 0;
+
+    /**
+     * Compares the peak of each window with the threshold.
+     */
+    public static final int MODE_PEAK = 1;
+
+    public static final int WINDOW_MS = 10;
+    public static final float HYSTERESIS_DB = 3F;
+
+    private static final long MICROSECS_PER_SEC = 1000000;
+    private static final double FULL_SCALE = 32768D;
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mMode;
+    private final long mMinDurationUs;
+    private final Listener mListener;
+    private final int mWindowFrames;
+    private final double mEnterThreshold; // mean square or peak, depending on mode
+    private final double mExitThreshold;
+
+    private long mWindowStartFrame;
+    private int mCurrentFrames;
+    private int mCurrentChannel;
+    private long mCurrentSquares;
+    private int mCurrentPeak;
+
+    private boolean mIsSilent;
+    private long mSilenceStartFrame;
+
+    /**
+     * @param sampleRate input sample rate
+     * @param channelCount input channel count
+     * @param mode either {@link #MODE_RMS} or {@link #MODE_PEAK}
+     * @param thresholdDb level under which audio is silent, in dBFS
+     * @param minDurationUs minimum duration of the reported ranges
+     * @param listener receives the silent ranges
+     */
+    public SilenceDetector(int sampleRate, int channelCount, int mode, float thresholdDb,
+                           long minDurationUs, @NonNull Listener listener) {
+        if (sampleRate <= 0) throw new IllegalArgumentException("Invalid sample rate: " + sampleRate);
+        if (channelCount <= 0) throw new IllegalArgumentException("Invalid channel count: " + channelCount);
+        if (mode != MODE_RMS && mode != MODE_PEAK) throw new IllegalArgumentException("Invalid mode: " + mode);
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mMode = mode;
+        mMinDurationUs = minDurationUs;
+        mListener = listener;
+        mWindowFrames = Math.max(1, sampleRate * WINDOW_MS / 1000);
+        mEnterThreshold = dbToLinear(thresholdDb);
+        mExitThreshold = dbToLinear(thresholdDb + HYSTERESIS_DB);
+    }
+
+    private double dbToLinear(double db) {
+        double amplitude = Math.pow(10, db / 20) * FULL_SCALE;
+        return mMode == MODE_RMS ? amplitude * amplitude : amplitude;
+    }
+
+    /**
+     * Feeds the remaining interleaved samples of the given buffer to the detector.
+     * The buffer position is moved to its limit. Does not allocate.
+     *
+     * @param samples interleaved samples
+     */
+    public void addSamples(ShortBuffer samples) {
+        int position = samples.position();
+        int limit = samples.limit();
+        for (int i = position; i < limit; i++) {
+            int sample = samples.get(i);
+            mCurrentSquares += sample * sample;
+            int abs = sample < 0 ? -sample : sample;
+            if (abs > mCurrentPeak) mCurrentPeak = abs;
+            if (++mCurrentChannel == mChannelCount) {
+                mCurrentChannel = 0;
+                if (++mCurrentFrames == mWindowFrames) onWindowCompleted();
+            }
+        }
+        samples.position(limit);
+    }
+
+    /**
+     * Signals the end of the stream: the last partial window is processed,
+     * and a silent range that lasts until the end is reported.
+     */
+    public void finish() {
+        if (mCurrentFrames > 0) onWindowCompleted();
+        if (mIsSilent) {
+            mIsSilent = false;
+            reportSilence(mSilenceStartFrame, mWindowStartFrame);
+        }
+    }
+
+    /**
+     * Returns the duration of the samples fed so far, counting complete windows only
+     * until {@link #finish()} is called.
+     */
+    public long getPositionUs() {
+        return framesToUs(mWindowStartFrame);
+    }
+
+    /**
+     * Clears all the state, as if the detector was just created.
+     */
+    public void reset() {
+        mWindowStartFrame = 0;
+        mCurrentFrames = 0;
+        mCurrentChannel = 0;
+        mCurrentSquares = 0;
+        mCurrentPeak = 0;
+        mIsSilent = false;
+        mSilenceStartFrame = 0;
+    }
+
+    private void onWindowCompleted() {
+        double level = mMode == MODE_RMS
+                ? (double) mCurrentSquares / ((long) mCurrentFrames * mChannelCount)
+                : mCurrentPeak;
+        if (!mIsSilent && level < mEnterThreshold) {
+            mIsSilent = true;
+            mSilenceStartFrame = mWindowStartFrame;
+        } else if (mIsSilent && level > mExitThreshold) {
+            mIsSilent = false;
+            reportSilence(mSilenceStartFrame, mWindowStartFrame);
+        }
+        mWindowStartFrame += mCurrentFrames;
+        mCurrentFrames = 0;
+        mCurrentSquares = 0;
+        mCurrentPeak = 0;
+    }
+
+    private void reportSilence(long startFrame, long endFrame) {
+        long startUs = framesToUs(startFrame);
+        long endUs = framesToUs(endFrame);
+        if (endUs - startUs >= mMinDurationUs) {
+            mListener.onSilenceDetected(startUs, endUs);
+        }
+    }
+
+    private long framesToUs(long frames) {
+        return frames * MICROSECS_PER_SEC / mSampleRate;
+    }
+}
@@ -0,0 +1,229 @@
+package net.ypresto.androidtranscoder.remix;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Changes the speed of interleaved 16 bit PCM without changing its pitch,
+ * using WSOLA (waveform similarity overlap-add), in the same flavor as SoundTouch.
+ *
+ * Input is cut into sequences that are cross-faded with the tail of the previous
+ * one, at the offset (within a small seek window) where the two waveforms are most
+ * similar. Sequences are read every {@code speed * (sequence - overlap)} frames, but
+ * written every {@code sequence - overlap} frames, which changes the duration.
+ *
+ * This works on streaming chunks: both the input and output buffers have a fixed size
+ * that only depends on sample rate, channel count and speed. Callers should
+ * alternate {@link #queueInput(ShortBuffer)} and {@link #readOutput(ShortBuffer)},
+ * then call {@link #queueEndOfStream()} and keep reading until {@link #isDrained()}.
+ */
+public class TimeStretcher {
+
+    public static final float MIN_SPEED = 0.25F;
+    public static final float MAX_SPEED = 4F;
+
+    private static final int SEQUENCE_MS = 40;
+    private static final int SEEK_WINDOW_MS = 15;
+    private static final int OVERLAP_MS = 8;
+    private static final int COARSE_SEEK_STEP = 4;
+
+    private final int mChannels;
+    private final float mSpeed;
+    private final int mSequence; // frames
+    private final int mSeekWindow; // frames
+    private final int mOverlap; // frames
+    private final float mNominalSkip; // frames
+    private final int mRequiredFrames; // input frames needed to process a sequence
+
+    private final short[] mInput;
+    private int mInputFrames;
+    private final short[] mMid;
+    private final short[] mOutput;
+    private int mOutputStart; // frames
+    private int mOutputEnd; // frames
+
+    private float mSkipFraction;
+    private boolean mIsFirstSequence = true;
+    private boolean mIsEndOfStream;
+    private boolean mIsFlushed;
+
+    public TimeStretcher(int sampleRate, int channelCount, float speed) {
+        if (speed < MIN_SPEED || speed > MAX_SPEED) {
+            throw new IllegalArgumentException("Speed must be in [" + MIN_SPEED + ", " + MAX_SPEED + "]");
+        }
+        mChannels = channelCount;
+        mSpeed = speed;
+        mSequence = sampleRate * SEQUENCE_MS / 1000;
+        mSeekWindow = sampleRate * SEEK_WINDOW_MS / 1000;
+        mOverlap = sampleRate * OVERLAP_MS / 1000;
+        mNominalSkip = speed * (mSequence - mOverlap);
+        mRequiredFrames = Math.max(mSeekWindow + mSequence, (int) Math.ceil(mNominalSkip));
+        int inputFrames = 2 * (mSeekWindow + mSequence) + (int) Math.ceil(mNominalSkip);
+        mInput = new short[inputFrames * channelCount];
+        mMid = new short[mOverlap * channelCount];
+        // At the end of stream we flush the mid buffer and all the pending input.
+        mOutput = new short[(inputFrames + mOverlap) * channelCount];
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * Copies as many samples as possible from the given buffer, moving its position.
+     * Less than {@code input.remaining()} samples might be consumed if the internal
+     * buffer is full: in this case, {@link #readOutput(ShortBuffer)} should be called.
+     *
+     * @param input interleaved samples
+     */
+    public void queueInput(ShortBuffer input) {
+        if (mIsEndOfStream) throw new IllegalStateException("End of stream was already queued.");
+        int frames = Math.min(input.remaining() / mChannels, mInput.length / mChannels - mInputFrames);
+        input.get(mInput, mInputFrames * mChannels, frames * mChannels);
+        mInputFrames += frames;
+    }
+
+    /**
+     * Signals that no more input will be queued. The pending input will be
+     * returned by the next calls to {@link #readOutput(ShortBuffer)}.
+     */
+    public void queueEndOfStream() {
+        mIsEndOfStream = true;
+    }
+
+    /**
+     * Whether the end of stream was queued and all the output was read.
+     */
+    public boolean isDrained() {
+        return mIsFlushed && mOutputStart == mOutputEnd;
+    }
+
+    /**
+     * Processes the queued input and returns true if some output can be read.
+     */
+    public boolean hasOutput() {
+        process();
+        return mOutputStart < mOutputEnd;
+    }
+
+    /**
+     * Writes as many output samples as possible into the given buffer, moving its position.
+     *
+     * @param output the output buffer
+     * @return the number of frames (samples per channel) that were written
+     */
+    public int readOutput(ShortBuffer output) {
+        int written = 0;
+        while (true) {
+            process();
+            int frames = Math.min(mOutputEnd - mOutputStart, output.remaining() / mChannels);
+            if (frames == 0) return written;
+            output.put(mOutput, mOutputStart * mChannels, frames * mChannels);
+            mOutputStart += frames;
+            written += frames;
+        }
+    }
+
+    // Produces a new sequence into the output buffer, if it's empty and there's enough input.
+    private void process() {
+        if (mOutputStart < mOutputEnd) return;
+        mOutputStart = 0;
+        mOutputEnd = 0;
+        if (mInputFrames >= mRequiredFrames) {
+            processSequence();
+        } else if (mIsEndOfStream && !mIsFlushed) {
+            flush();
+        }
+    }
+
+    private void processSequence() {
+        int offset;
+        if (mIsFirstSequence) {
+            offset = 0;
+            writeOutput(mInput, 0, mSequence - mOverlap);
+            mIsFirstSequence = false;
+        } else {
+            offset = seekBestOverlap();
+            crossFadeOutput(offset);
+            writeOutput(mInput, offset + mOverlap, mSequence - 2 * mOverlap);
+        }
+        System.arraycopy(mInput, (offset + mSequence - mOverlap) * mChannels, mMid, 0, mMid.length);
+
+        mSkipFraction += mNominalSkip;
+        int skip = (int) mSkipFraction;
+        mSkipFraction -= skip;
+        consumeInput(skip);
+    }
+
+    private void flush() {
+        if (!mIsFirstSequence) {
+            writeOutput(mMid, 0, mOverlap);
+        }
+        // Not enough input for a full sequence. Keep the start of it with the right duration.
+        writeOutput(mInput, 0, Math.min(mInputFrames, Math.round(mInputFrames / mSpeed)));
+        consumeInput(mInputFrames);
+        mIsFlushed = true;
+    }
+
+    private void writeOutput(short[] source, int frame, int frames) {
+        frames = Math.min(frames, source.length / mChannels - frame);
+        System.arraycopy(source, frame * mChannels, mOutput, mOutputEnd * mChannels, frames * mChannels);
+        mOutputEnd += frames;
+    }
+
+    private void crossFadeOutput(int offset) {
+        int out = mOutputEnd * mChannels;
+        int in = offset * mChannels;
+        for (int i = 0; i < mOverlap; i++) {
+            for (int c = 0; c < mChannels; c++) {
+                int index = i * mChannels + c;
+                mOutput[out + index] = (short) ((mMid[index] * (mOverlap - i) + mInput[in + index] * i) / mOverlap);
+            }
+        }
+        mOutputEnd += mOverlap;
+    }
+
+    private void consumeInput(int frames) {
+        int remaining = (mInputFrames - frames) * mChannels;
+        System.arraycopy(mInput, frames * mChannels, mInput, 0, remaining);
+        mInputFrames -= frames;
+    }
+
+    // Coarse search on every COARSE_SEEK_STEP offsets, then refine around the best one.
+    private int seekBestOverlap() {
+        int best = 0;
+        double bestCorrelation = -Double.MAX_VALUE;
+        for (int offset = 0; offset < mSeekWindow; offset += COARSE_SEEK_STEP) {
+            double correlation = correlation(offset);
+            if (correlation > bestCorrelation) {
+                bestCorrelation = correlation;
+                best = offset;
+            }
+        }
+        int coarseBest = best;
+        int from = Math.max(0, coarseBest - COARSE_SEEK_STEP + 1);
+        int to = Math.min(mSeekWindow - 1, coarseBest + COARSE_SEEK_STEP - 1);
+        for (int offset = from; offset <= to; offset++) {
+            if (offset == coarseBest) continue;
+            double correlation = correlation(offset);
+            if (correlation > bestCorrelation) {
+                bestCorrelation = correlation;
+                best = offset;
+            }
+        }
+        return best;
+    }
+
+    // Normalized cross-correlation between the mid buffer and the input at offset.
+    private double correlation(int offset) {
+        long cross = 0;
+        long norm = 0;
+        int start = offset * mChannels;
+        int length = mOverlap * mChannels;
+        for (int i = 0; i < length; i++) {
+            int sample = mInput[start + i];
+            cross += mMid[i] * sample;
+            norm += sample * sample;
+        }
+        return cross / Math.sqrt(norm + 1D);
+    }
+}
@@ -2,6 +2,9 @@ package net.ypresto.androidtranscoder.strategy;
 
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
+import android.os.Build;
+
+import net.ypresto.androidtranscoder.compat.MediaCodecCompat;
 
 import net.ypresto.androidtranscoder.utils.MediaFormatConstants;
 
@@ -17,9 +20,20 @@ public class DefaultAudioStrategy implements OutputStrategy {
     public static final int AUDIO_CHANNELS_AS_IS = -1;
 
     private int channels;
+    private boolean throughputMode;
 
     public DefaultAudioStrategy(int channels) {
+        this(channels, false);
+    }
+
+    /**
+     * @param channels the output channel count, or {@link #AUDIO_CHANNELS_AS_IS}
+     * @param throughputMode whether codecs should run as fast as possible instead of at
+     *                       playback speed. Has no effect before Android 6.0.
+     */
+    public DefaultAudioStrategy(int channels, boolean throughputMode) {
         this.channels = channels;
+        this.throughputMode = throughputMode;
     }
 
     @Nullable
@@ -31,6 +45,9 @@ public class DefaultAudioStrategy implements OutputStrategy {
                 inputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE), outputChannels);
         format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
         format.setInteger(MediaFormat.KEY_BIT_RATE, inputFormat.getInteger(MediaFormat.KEY_BIT_RATE));
+        if (throughputMode && Build.VERSION.SDK_INT >= 23) {
+            MediaCodecCompat.setThroughputHints(format);
+        }
         return format;
     }
 }
@@ -1,5 +1,7 @@
 package net.ypresto.androidtranscoder.strategy;
 
+import net.ypresto.androidtranscoder.utils.MediaFormatConstants;
+
 /**
  * Contains presets and utilities for defining a {@link DefaultVideoStrategy}.
  */
@@ -20,6 +22,20 @@ public class DefaultVideoStrategies {
                 .build();
     }
 
+    /**
+     * A {@link DefaultVideoStrategy} that uses 720x1280 with HEVC, at a lower
+     * bit rate than {@link #for720x1280()}. Falls back to AVC, at the bit rate
+     * of {@link #for720x1280()}, where HEVC is not available.
+     */
+    public static DefaultVideoStrategy for720x1280Hevc() {
+        return DefaultVideoStrategy.exact(720, 1280)
+                .videoCodec(MediaFormatConstants.MIMETYPE_VIDEO_HEVC)
+                .bitRate(1200L * 1000)
+                .frameRate(30)
+                .iFrameInterval(3F)
+                .build();
+    }
+
     /**
      * A {@link DefaultVideoStrategy} that uses 360x480 (3:4),
      * ensured to work for 3:4 videos as explained by
@@ -4,6 +4,8 @@ import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.os.Build;
 
+import net.ypresto.androidtranscoder.compat.CodecIndex;
+import net.ypresto.androidtranscoder.compat.MediaCodecCompat;
 import net.ypresto.androidtranscoder.strategy.size.AtMostResizer;
 import net.ypresto.androidtranscoder.strategy.size.ExactResizer;
 import net.ypresto.androidtranscoder.strategy.size.ExactSize;
@@ -12,24 +14,45 @@ import net.ypresto.androidtranscoder.strategy.size.MultiResizer;
 import net.ypresto.androidtranscoder.strategy.size.PassThroughResizer;
 import net.ypresto.androidtranscoder.strategy.size.Size;
 import net.ypresto.androidtranscoder.strategy.size.Resizer;
+import net.ypresto.androidtranscoder.transcode.bitrate.SizeBudgetController;
+import net.ypresto.androidtranscoder.transcode.framerate.FrameRateConverter;
+import net.ypresto.androidtranscoder.transcode.framerate.GridFrameRateConverter;
+import net.ypresto.androidtranscoder.transcode.transform.TransformPlanner;
+import net.ypresto.androidtranscoder.transcode.transform.VideoTransform;
+import net.ypresto.androidtranscoder.utils.AvcPps;
+import net.ypresto.androidtranscoder.utils.AvcSps;
+import net.ypresto.androidtranscoder.utils.AvcSpsUtils;
 import net.ypresto.androidtranscoder.utils.Logger;
 import net.ypresto.androidtranscoder.utils.MediaFormatConstants;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 /**
- * An {@link OutputStrategy} for video that converts it AVC with the given size.
- * The input and output aspect ratio must match.
+ * An {@link OutputStrategy} for video that converts it AVC, or HEVC if requested and available, with the given size.
+ * The input and output aspect ratio must match, unless a scale mode is set.
+ * Frames can also be rotated according to the input rotation, see {@link #createTransform(MediaFormat, MediaFormat)}.
+ * With a {@link DeviceProfile}, inputs that the target device can play are passed through.
  */
 public class DefaultVideoStrategy implements OutputStrategy {
     private final static String TAG = "DefaultVideoStrategy";
     private final static Logger LOG = new Logger(TAG);
 
-    private final static String MIME_TYPE = MediaFormatConstants.MIMETYPE_VIDEO_AVC;
     public final static long BITRATE_UNKNOWN = Long.MIN_VALUE;
     public final static float DEFAULT_I_FRAME_INTERVAL = 3;
     public final static int DEFAULT_FRAME_RATE = 30;
+    public final static float DEFAULT_SCENE_CHANGE_THRESHOLD = 0.4F;
+    public final static float DEFAULT_NEVER_BIGGER_MARGIN = 0.1F;
+    // HEVC needs about 40% less bits than AVC for the same quality.
+    private final static float HEVC_BIT_RATE_RATIO = 0.6F;
+    // MediaMuxer writes HEVC from Android 7.0.
+    private final static int HEVC_MIN_SDK = 24;
+    // Reserved for audio when computing the initial bit rate for a target size.
+    private final static long TARGET_SIZE_AUDIO_BIT_RATE = 128000;
 
     /**
      * Holds configuration values.
@@ -40,6 +63,16 @@ public class DefaultVideoStrategy implements OutputStrategy {
         private long targetBitRate;
         private int targetFrameRate;
         private float targetIFrameInterval;
+        private boolean duplicateFrames;
+        private boolean applyRotation;
+        private int scaleMode;
+        private boolean throughputMode;
+        private float sceneChangeThreshold;
+        private long targetFileSize;
+        private boolean neverBigger;
+        private float neverBiggerMargin;
+        private String mimeType;
+        private DeviceProfile deviceProfile;
     }
 
     /**
@@ -83,6 +116,16 @@ public class DefaultVideoStrategy implements OutputStrategy {
         private int targetFrameRate = DEFAULT_FRAME_RATE;
         private long targetBitRate = BITRATE_UNKNOWN;
         private float targetIFrameInterval = DEFAULT_I_FRAME_INTERVAL;
+        private boolean duplicateFrames = false;
+        private boolean applyRotation = false;
+        private int scaleMode = TransformPlanner.SCALE_STRETCH;
+        private boolean throughputMode = false;
+        private float sceneChangeThreshold = 0F;
+        private long targetFileSize = 0;
+        private boolean neverBigger = false;
+        private float neverBiggerMargin = DEFAULT_NEVER_BIGGER_MARGIN;
+        private String mimeType = MediaFormatConstants.MIMETYPE_VIDEO_AVC;
+        private DeviceProfile deviceProfile = null;
 
         public Builder() {
         }
@@ -124,6 +167,18 @@ public class DefaultVideoStrategy implements OutputStrategy {
             return this;
         }
 
+        /**
+         * Whether gaps in the input, e.g. in variable frame rate recordings, are filled by
+         * repeating the previous frame, so that the output has a constant frame rate.
+         * Defaults to false, which only drops frames above the frame rate.
+         * @param duplicateFrames true to repeat frames
+         * @return this for chaining
+         */
+        public Builder duplicateFrames(boolean duplicateFrames) {
+            this.duplicateFrames = duplicateFrames;
+            return this;
+        }
+
         /**
          * The interval between I-frames in seconds.
          * @param iFrameInterval desired i-frame interval
@@ -134,12 +189,138 @@ public class DefaultVideoStrategy implements OutputStrategy {
             return this;
         }
 
+        /**
+         * Whether frames should be rotated according to the input rotation, instead
+         * of keeping it as an orientation hint, which some players ignore.
+         * The output size is then in the displayed orientation. Defaults to false.
+         * @param applyRotation true to rotate frames
+         * @return this for chaining
+         */
+        public Builder applyRotation(boolean applyRotation) {
+            this.applyRotation = applyRotation;
+            return this;
+        }
+
+        /**
+         * How frames are scaled when the output aspect ratio is different, e.g. with
+         * an {@link ExactResizer}. Defaults to {@link TransformPlanner#SCALE_STRETCH}.
+         * @param scaleMode one of {@link TransformPlanner#SCALE_STRETCH},
+         *                  {@link TransformPlanner#SCALE_CROP} or {@link TransformPlanner#SCALE_FIT}
+         * @return this for chaining
+         */
+        public Builder scaleMode(int scaleMode) {
+            this.scaleMode = scaleMode;
+            return this;
+        }
+
+        /**
+         * Whether codecs should run as fast as possible instead of at playback speed,
+         * which many hardware codecs do by default. Has no effect before Android 6.0.
+         * Defaults to false.
+         * @param throughputMode true for offline, faster than realtime transcoding
+         * @return this for chaining
+         */
+        public Builder throughputMode(boolean throughputMode) {
+            this.throughputMode = throughputMode;
+            return this;
+        }
+
+        /**
+         * Requests key frames at scene cuts, on top of the regular interval, so that
+         * new scenes do not have to be predicted from unrelated frames. Cuts are detected
+         * by comparing luma histograms of consecutive frames. Has no effect before Android 4.4.
+         * Disabled by default.
+         * @param threshold the histogram difference above which frames are cuts, between 0 and 1,
+         *                  e.g. {@link #DEFAULT_SCENE_CHANGE_THRESHOLD}, or 0 to disable
+         * @return this for chaining
+         */
+        public Builder sceneChangeKeyFrames(float threshold) {
+            if (threshold < 0 || threshold > 1) {
+                throw new IllegalArgumentException("Invalid threshold: " + threshold);
+            }
+            this.sceneChangeThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Computes the bit rate so that the output file fits in the given size, taking
+         * audio and muxing overhead into account, and corrects it while encoding to
+         * compensate for encoder errors. Overrides the bit rate. Disabled by default.
+         * @param bytes the maximum file size, or 0 to disable
+         * @return this for chaining
+         */
+        public Builder targetFileSize(long bytes) {
+            if (bytes < 0) throw new IllegalArgumentException("Invalid target file size: " + bytes);
+            this.targetFileSize = bytes;
+            return this;
+        }
+
+        /**
+         * Makes sure that the output bit rate is smaller than the input one by at least
+         * the given margin. The bit rate is capped when the video must be transcoded anyway,
+         * e.g. because of its codec or rotation, and the track is passed through otherwise,
+         * even if it is bigger than the requested size. If the input format has no bit rate,
+         * the engine measures it, reading the track once more. Disabled by default.
+         * @param margin the fraction by which the output bit rate must be smaller, between 0 and 1,
+         *               e.g. {@link #DEFAULT_NEVER_BIGGER_MARGIN}
+         * @return this for chaining
+         */
+        public Builder neverBigger(float margin) {
+            if (margin < 0 || margin >= 1) throw new IllegalArgumentException("Invalid margin: " + margin);
+            this.neverBigger = true;
+            this.neverBiggerMargin = margin;
+            return this;
+        }
+
+        /**
+         * The output codec. HEVC gives smaller files for the same quality, but it is only
+         * used from Android 7.0 and if a hardware encoder supports the output size:
+         * otherwise, the strategy falls back to AVC. When falling back, an explicit bit rate
+         * is raised so that quality is kept, so it should be the one wanted for HEVC.
+         * Defaults to AVC.
+         * @param mimeType {@link MediaFormatConstants#MIMETYPE_VIDEO_AVC} or {@link MediaFormatConstants#MIMETYPE_VIDEO_HEVC}
+         * @return this for chaining
+         */
+        public Builder videoCodec(@NonNull String mimeType) {
+            if (!MediaFormatConstants.MIMETYPE_VIDEO_AVC.equals(mimeType)
+                    && !MediaFormatConstants.MIMETYPE_VIDEO_HEVC.equals(mimeType)) {
+                throw new IllegalArgumentException("Unsupported video codec: " + mimeType);
+            }
+            this.mimeType = mimeType;
+            return this;
+        }
+
+        /**
+         * Passes the input through if the given device can play it, judging from its parsed
+         * SPS and PPS, bit rate and frame rate, instead of comparing it with the requested
+         * size, frame rate and I-frame interval. Inputs are still transcoded if they must be
+         * rotated or fit a target file size. When transcoding, the encoder is restricted to
+         * the profile and level, and the bit rate and frame rate are capped, but the output
+         * size still comes from the resizers. Disabled by default.
+         * @param deviceProfile the target device, or null to disable
+         * @return this for chaining
+         */
+        public Builder passThroughFor(@Nullable DeviceProfile deviceProfile) {
+            this.deviceProfile = deviceProfile;
+            return this;
+        }
+
         public Options options() {
             Options options = new Options();
             options.resizer = resizer;
             options.targetFrameRate = targetFrameRate;
             options.targetBitRate = targetBitRate;
             options.targetIFrameInterval = targetIFrameInterval;
+            options.duplicateFrames = duplicateFrames;
+            options.applyRotation = applyRotation;
+            options.scaleMode = scaleMode;
+            options.throughputMode = throughputMode;
+            options.sceneChangeThreshold = sceneChangeThreshold;
+            options.targetFileSize = targetFileSize;
+            options.neverBigger = neverBigger;
+            options.neverBiggerMargin = neverBiggerMargin;
+            options.mimeType = mimeType;
+            options.deviceProfile = deviceProfile;
             return options;
         }
 
@@ -157,13 +338,14 @@ public class DefaultVideoStrategy implements OutputStrategy {
     @Nullable
     @Override
     public MediaFormat createOutputFormat(@NonNull MediaFormat inputFormat) throws OutputStrategyException {
-        boolean typeDone = inputFormat.getString(MediaFormat.KEY_MIME).equals(MIME_TYPE);
-
         // Compute output size.
         int inWidth = inputFormat.getInteger(MediaFormat.KEY_WIDTH);
         int inHeight = inputFormat.getInteger(MediaFormat.KEY_HEIGHT);
         LOG.i("Input width&height: " + inWidth + "x" + inHeight);
-        Size inSize = new ExactSize(inWidth, inHeight);
+        int rotation = getAppliedRotation(inputFormat);
+        boolean rotated = rotation == 90 || rotation == 270;
+        // Resizers should not see the input orientation, see Resizer.
+        Size inSize = new Size(inWidth, inHeight);
         Size outSize;
         try {
             outSize = options.resizer.getOutputSize(inSize);
@@ -174,7 +356,7 @@ public class DefaultVideoStrategy implements OutputStrategy {
         if (outSize instanceof ExactSize) {
             outWidth = ((ExactSize) outSize).getWidth();
             outHeight = ((ExactSize) outSize).getHeight();
-        } else if (inWidth >= inHeight) {
+        } else if (rotated ? inHeight >= inWidth : inWidth >= inHeight) {
             outWidth = outSize.getMajor();
             outHeight = outSize.getMinor();
         } else {
@@ -184,6 +366,10 @@ public class DefaultVideoStrategy implements OutputStrategy {
         LOG.i("Output width&height: " + outWidth + "x" + outHeight);
         boolean sizeDone = inSize.getMinor() <= outSize.getMinor();
 
+        // Compute output codec, which depends on the size.
+        String mimeType = getMimeType(outWidth, outHeight);
+        boolean typeDone = inputFormat.getString(MediaFormat.KEY_MIME).equals(mimeType);
+
         // Compute output frame rate. It can't be bigger than input frame rate.
         int inputFrameRate, outFrameRate;
         if (inputFormat.containsKey(MediaFormat.KEY_FRAME_RATE)) {
@@ -193,6 +379,10 @@ public class DefaultVideoStrategy implements OutputStrategy {
             inputFrameRate = -1;
             outFrameRate = options.targetFrameRate;
         }
+        DeviceProfile deviceProfile = options.deviceProfile;
+        if (deviceProfile != null && deviceProfile.getMaxFrameRate() > 0) {
+            outFrameRate = Math.min(outFrameRate, (int) deviceProfile.getMaxFrameRate());
+        }
         boolean frameRateDone = inputFrameRate <= outFrameRate;
 
         // Compute i frame.
@@ -203,15 +393,35 @@ public class DefaultVideoStrategy implements OutputStrategy {
         boolean frameIntervalDone = inputIFrameInterval >= options.targetIFrameInterval;
 
         // See if we should go on.
-        if (typeDone && sizeDone && frameRateDone && frameIntervalDone) {
-            throw OutputStrategyException.alreadyCompressed(
-                    "Input minSize: " + inSize.getMinor() + ", desired minSize: " + outSize.getMinor() +
-                    "\nInput frameRate: " + inputFrameRate + ", desired frameRate: " + outFrameRate +
-                    "\nInput iFrameInterval: " + inputIFrameInterval + ", desired iFrameInterval: " + options.targetIFrameInterval);
+        boolean rotationDone = rotation == 0;
+        // The input size is unknown here, so it might not fit.
+        boolean fileSizeDone = options.targetFileSize == 0;
+        // Whether the input could still be passed through if its bit rate is small enough.
+        boolean canPassThrough;
+        if (deviceProfile != null) {
+            // The device profile replaces the comparison with the requested size and frame rate.
+            // Inputs that comply are passed through here, so the others must be transcoded.
+            if (rotationDone && fileSizeDone) {
+                String incompatibility = getIncompatibility(inputFormat, deviceProfile);
+                if (incompatibility == null) {
+                    throw OutputStrategyException.alreadyCompressed("Input can be played by the device profile.");
+                }
+                LOG.i("Input can not be played by the device profile: " + incompatibility);
+            }
+            canPassThrough = false;
+        } else {
+            if (typeDone && sizeDone && frameRateDone && frameIntervalDone && rotationDone && fileSizeDone) {
+                throw OutputStrategyException.alreadyCompressed(
+                        "Input minSize: " + inSize.getMinor() + ", desired minSize: " + outSize.getMinor() +
+                        "\nInput frameRate: " + inputFrameRate + ", desired frameRate: " + outFrameRate +
+                        "\nInput iFrameInterval: " + inputIFrameInterval + ", desired iFrameInterval: " + options.targetIFrameInterval);
+            }
+            // Only the I-frame interval may differ: passing through never changes size or frame rate.
+            canPassThrough = typeDone && sizeDone && frameRateDone && rotationDone && fileSizeDone;
         }
 
         // Create the actual format.
-        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, outWidth, outHeight);
+        MediaFormat format = MediaFormat.createVideoFormat(mimeType, outWidth, outHeight);
         format.setInteger(MediaFormat.KEY_FRAME_RATE, outFrameRate);
         if (Build.VERSION.SDK_INT >= 25) {
             format.setFloat(MediaFormat.KEY_I_FRAME_INTERVAL, options.targetIFrameInterval);
@@ -219,18 +429,279 @@ public class DefaultVideoStrategy implements OutputStrategy {
             format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, (int) Math.ceil(options.targetIFrameInterval));
         }
         format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
-        int outBitRate = (int) (options.targetBitRate == BITRATE_UNKNOWN ?
-                estimateBitRate(outWidth, outHeight, outFrameRate) : options.targetBitRate);
+        int outBitRate;
+        if (options.targetFileSize > 0 && inputFormat.containsKey(MediaFormat.KEY_DURATION)) {
+            // The engine adjusts this once the audio track and the output duration are known.
+            long durationUs = inputFormat.getLong(MediaFormat.KEY_DURATION);
+            long budget = SizeBudgetController.estimateVideoBudget(options.targetFileSize, durationUs,
+                    TARGET_SIZE_AUDIO_BIT_RATE, outFrameRate);
+            outBitRate = SizeBudgetController.getBitRate(budget, durationUs);
+        } else {
+            if (options.targetFileSize > 0) LOG.w("Target file size ignored, input duration is unknown.");
+            boolean hevc = MediaFormatConstants.MIMETYPE_VIDEO_HEVC.equals(mimeType);
+            if (options.targetBitRate == BITRATE_UNKNOWN) {
+                long estimate = estimateBitRate(outWidth, outHeight, outFrameRate);
+                outBitRate = (int) (hevc ? estimate * HEVC_BIT_RATE_RATIO : estimate);
+            } else if (!hevc && !options.mimeType.equals(mimeType)) {
+                outBitRate = (int) (options.targetBitRate / HEVC_BIT_RATE_RATIO);
+            } else {
+                outBitRate = (int) options.targetBitRate;
+            }
+        }
+        if (options.neverBigger) {
+            outBitRate = applyBitRateCeiling(inputFormat, outBitRate, canPassThrough);
+        }
+        if (deviceProfile != null) {
+            if (deviceProfile.getMaxBitRate() > 0) outBitRate = Math.min(outBitRate, deviceProfile.getMaxBitRate());
+            if (MediaFormatConstants.MIMETYPE_VIDEO_AVC.equals(mimeType)) {
+                setProfileLevel(format, deviceProfile);
+                if (!deviceProfile.isBFramesAllowed() && Build.VERSION.SDK_INT >= 29) {
+                    format.setInteger(MediaFormatConstants.KEY_MAX_B_FRAMES, 0);
+                }
+            }
+        }
         format.setInteger(MediaFormat.KEY_BIT_RATE, outBitRate);
+        if (options.throughputMode && Build.VERSION.SDK_INT >= 23) {
+            MediaCodecCompat.setThroughputHints(format);
+        }
         return format;
     }
 
+    /**
+     * Returns the formats to try, in order, if no encoder can be configured with the output
+     * format: lower profiles, then VBR instead of CBR, then a bit rate that encoders accept,
+     * then a size aligned to macroblocks. Each one keeps the relaxations of the previous ones.
+     * Called by the engine after {@link #createOutputFormat(MediaFormat)}.
+     *
+     * @param outputFormat the output format returned by this strategy
+     * @return the fallback formats, possibly empty
+     */
+    @NonNull
+    public List<MediaFormat> createFallbackFormats(@NonNull MediaFormat outputFormat) {
+        List<MediaFormat> formats = new ArrayList<>();
+        String mime = outputFormat.getString(MediaFormat.KEY_MIME);
+        int width = outputFormat.getInteger(MediaFormat.KEY_WIDTH);
+        int height = outputFormat.getInteger(MediaFormat.KEY_HEIGHT);
+        MediaFormat format = outputFormat;
+
+        // High, Main, Baseline, then whatever the encoder picks.
+        if (outputFormat.containsKey(MediaFormatConstants.KEY_PROFILE)) {
+            int profile = outputFormat.getInteger(MediaFormatConstants.KEY_PROFILE);
+            if (MediaFormatConstants.MIMETYPE_VIDEO_AVC.equals(mime)) {
+                int[] lowerProfiles = {
+                        MediaCodecInfo.CodecProfileLevel.AVCProfileMain,
+                        MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline};
+                for (int lowerProfile : lowerProfiles) {
+                    if (lowerProfile >= profile) continue;
+                    format = copyFormat(format, width, height);
+                    format.setInteger(MediaFormatConstants.KEY_PROFILE, lowerProfile);
+                    formats.add(format);
+                }
+            }
+            format = copyFormat(format, width, height, MediaFormatConstants.KEY_PROFILE, MediaFormatConstants.KEY_LEVEL);
+            formats.add(format);
+        }
+
+        if (outputFormat.containsKey(MediaFormat.KEY_BITRATE_MODE)
+                && outputFormat.getInteger(MediaFormat.KEY_BITRATE_MODE) == MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR) {
+            format = copyFormat(format, width, height);
+            format.setInteger(MediaFormat.KEY_BITRATE_MODE, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR);
+            formats.add(format);
+        }
+
+        int maxBitRate = 0;
+        for (CodecIndex.Codec codec : CodecIndex.get().getEncoders(mime)) {
+            maxBitRate = Math.max(maxBitRate, codec.maxBitRate);
+        }
+        int bitRate = outputFormat.getInteger(MediaFormat.KEY_BIT_RATE);
+        if (maxBitRate > 0 && bitRate > maxBitRate) {
+            format = copyFormat(format, width, height);
+            format.setInteger(MediaFormat.KEY_BIT_RATE, maxBitRate);
+            formats.add(format);
+        }
+
+        int alignedWidth = width - width % 16;
+        int alignedHeight = height - height % 16;
+        if ((alignedWidth != width || alignedHeight != height) && alignedWidth > 0 && alignedHeight > 0) {
+            formats.add(copyFormat(format, alignedWidth, alignedHeight));
+        }
+        return formats;
+    }
+
+    /**
+     * Returns the transform to be applied to frames, if any, for the given formats.
+     * Called by the engine after {@link #createOutputFormat(MediaFormat)}.
+     *
+     * @param inputFormat the input format
+     * @param outputFormat the output format returned by this strategy
+     * @return the transform, or null if frames are drawn as they are
+     */
+    @Nullable
+    public VideoTransform createTransform(@NonNull MediaFormat inputFormat, @NonNull MediaFormat outputFormat) {
+        int rotation = getAppliedRotation(inputFormat);
+        if (rotation == 0 && options.scaleMode == TransformPlanner.SCALE_STRETCH) return null;
+        return TransformPlanner.plan(
+                inputFormat.getInteger(MediaFormat.KEY_WIDTH), inputFormat.getInteger(MediaFormat.KEY_HEIGHT),
+                rotation,
+                outputFormat.getInteger(MediaFormat.KEY_WIDTH), outputFormat.getInteger(MediaFormat.KEY_HEIGHT),
+                options.scaleMode);
+    }
+
+    /**
+     * Returns the converter deciding which decoded frames are encoded, and with which
+     * timestamps. Subclasses can override it to use another {@link FrameRateConverter}.
+     * Called by the engine after {@link #createOutputFormat(MediaFormat)}.
+     *
+     * @param outputFormat the output format returned by this strategy
+     * @return the frame rate converter
+     */
+    @NonNull
+    public FrameRateConverter createFrameRateConverter(@NonNull MediaFormat outputFormat) {
+        return new GridFrameRateConverter(outputFormat.getInteger(MediaFormat.KEY_FRAME_RATE), options.duplicateFrames);
+    }
+
+    /**
+     * Returns the scene change threshold, or 0 if key frames should not be placed at scene cuts.
+     */
+    public float getSceneChangeThreshold() {
+        return options.sceneChangeThreshold;
+    }
+
+    /**
+     * Returns the target file size in bytes, or 0 if the bit rate is not computed from it.
+     */
+    public long getTargetFileSize() {
+        return options.targetFileSize;
+    }
+
+    /**
+     * Whether the output bit rate must be smaller than the input one.
+     */
+    public boolean isNeverBigger() {
+        return options.neverBigger;
+    }
+
+    /**
+     * Whether the input bit rate is needed, in which case the engine measures it if
+     * the format does not declare it.
+     */
+    public boolean needsInputBitRate() {
+        return options.neverBigger || (options.deviceProfile != null && options.deviceProfile.getMaxBitRate() > 0);
+    }
+
+    @Nullable
+    private static String getIncompatibility(@NonNull MediaFormat inputFormat, @NonNull DeviceProfile deviceProfile) {
+        String mime = inputFormat.getString(MediaFormat.KEY_MIME);
+        if (!MediaFormatConstants.MIMETYPE_VIDEO_AVC.equals(mime)) return "Codec " + mime;
+        AvcSps sps = new AvcSps();
+        if (!sps.parse(inputFormat)) return "SPS could not be parsed";
+        AvcPps pps = new AvcPps();
+        int bitRate = inputFormat.containsKey(MediaFormat.KEY_BIT_RATE) ? inputFormat.getInteger(MediaFormat.KEY_BIT_RATE) : 0;
+        int frameRate = inputFormat.containsKey(MediaFormat.KEY_FRAME_RATE) ? inputFormat.getInteger(MediaFormat.KEY_FRAME_RATE) : 0;
+        return deviceProfile.getIncompatibility(sps, pps.parse(inputFormat) ? pps : null, bitRate, frameRate);
+    }
+
+    // Encoders pick their profile, often High, unless told otherwise. Profile and level
+    // must be set together, and only if an encoder declares them.
+    private static void setProfileLevel(@NonNull MediaFormat format, @NonNull DeviceProfile deviceProfile) {
+        if (Build.VERSION.SDK_INT < 21 || deviceProfile.getMaxProfileIdc() == AvcSpsUtils.PROFILE_IDC_HIGH) return;
+        int profile = deviceProfile.getMaxProfileIdc() == AvcSpsUtils.PROFILE_IDC_BASELINE
+                ? MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline
+                : MediaCodecInfo.CodecProfileLevel.AVCProfileMain;
+        int encoderLevel = -1;
+        for (CodecIndex.Codec codec : CodecIndex.get().getEncoders(MediaFormatConstants.MIMETYPE_VIDEO_AVC)) {
+            encoderLevel = Math.max(encoderLevel, codec.getMaxLevel(profile));
+        }
+        if (encoderLevel < 0) {
+            LOG.w("No encoder declares the device profile, output might not comply.");
+            return;
+        }
+        format.setInteger(MediaFormatConstants.KEY_PROFILE, profile);
+        format.setInteger(MediaFormatConstants.KEY_LEVEL, Math.min(encoderLevel, getLevelConstant(deviceProfile.getMaxLevel())));
+    }
+
+    // Returns the MediaCodecInfo.CodecProfileLevel.AVCLevel* constant for a level_idc,
+    // which are powers of two in level order.
+    private static int getLevelConstant(int levelIdc) {
+        int[] levels = {10, AvcSps.LEVEL_IDC_1B, 11, 12, 13, 20, 21, 22, 30, 31, 32, 40, 41, 42, 50, 51, 52};
+        int constant = 1;
+        for (int level : levels) {
+            if (level == levelIdc) return constant;
+            constant <<= 1;
+        }
+        return constant >> 1;
+    }
+
+    // Falls back to AVC if HEVC can't be muxed or encoded in hardware at this size.
+    @NonNull
+    private String getMimeType(int width, int height) {
+        if (!MediaFormatConstants.MIMETYPE_VIDEO_HEVC.equals(options.mimeType)) return options.mimeType;
+        if (Build.VERSION.SDK_INT < HEVC_MIN_SDK) {
+            LOG.i("HEVC output needs Android 7.0, using AVC.");
+            return MediaFormatConstants.MIMETYPE_VIDEO_AVC;
+        }
+        for (CodecIndex.Codec codec : CodecIndex.get().getEncoders(MediaFormatConstants.MIMETYPE_VIDEO_HEVC)) {
+            if (codec.hardware && (codec.isSizeSupported(width, height) || codec.isSizeSupported(height, width))) {
+                return MediaFormatConstants.MIMETYPE_VIDEO_HEVC;
+            }
+        }
+        LOG.i("No hardware HEVC encoder for " + width + "x" + height + ", using AVC.");
+        return MediaFormatConstants.MIMETYPE_VIDEO_AVC;
+    }
+
+    private int applyBitRateCeiling(@NonNull MediaFormat inputFormat, int outBitRate, boolean canPassThrough)
+            throws OutputStrategyException {
+        if (!inputFormat.containsKey(MediaFormat.KEY_BIT_RATE)) {
+            LOG.w("Input bit rate is unknown, the output might be bigger.");
+            return outBitRate;
+        }
+        int inBitRate = inputFormat.getInteger(MediaFormat.KEY_BIT_RATE);
+        int ceiling = (int) (inBitRate * (1 - options.neverBiggerMargin));
+        if (outBitRate <= ceiling) return outBitRate;
+        if (canPassThrough) {
+            throw OutputStrategyException.alreadyCompressed(
+                    "Input bitRate: " + inBitRate + ", desired bitRate: " + outBitRate +
+                    "\nThe output would not be smaller by " + options.neverBiggerMargin);
+        }
+        LOG.i("Output bit rate capped from " + outBitRate + " to " + ceiling + ", input bit rate: " + inBitRate);
+        return ceiling;
+    }
+
+    private int getAppliedRotation(@NonNull MediaFormat inputFormat) {
+        if (!options.applyRotation || !inputFormat.containsKey(MediaFormatConstants.KEY_ROTATION_DEGREES)) return 0;
+        return TransformPlanner.normalizeRotation(inputFormat.getInteger(MediaFormatConstants.KEY_ROTATION_DEGREES));
+    }
+
     // Depends on the codec, but for AVC this is a reasonable default ?
     // https://stackoverflow.com/a/5220554/4288782
     private static long estimateBitRate(int width, int height, int frameRate) {
         return (long) (0.07F * 2 * width * height * frameRate);
     }
 
+    // MediaFormat(MediaFormat) is API 29, so copy the keys that this strategy sets.
+    @NonNull
+    private static MediaFormat copyFormat(@NonNull MediaFormat input, int width, int height,
+                                          @NonNull String... excludedKeys) {
+        MediaFormat output = MediaFormat.createVideoFormat(input.getString(MediaFormat.KEY_MIME), width, height);
+        List<String> excluded = Arrays.asList(excludedKeys);
+        String[] keys = {
+                MediaFormat.KEY_FRAME_RATE, MediaFormat.KEY_COLOR_FORMAT, MediaFormat.KEY_BIT_RATE,
+                MediaFormat.KEY_BITRATE_MODE, MediaFormatConstants.KEY_PROFILE, MediaFormatConstants.KEY_LEVEL,
+                MediaFormatConstants.KEY_MAX_B_FRAMES, MediaFormatConstants.KEY_PRIORITY,
+                MediaFormatConstants.KEY_OPERATING_RATE};
+        for (String key : keys) {
+            if (!excluded.contains(key)) copyInteger(input, output, key, null);
+        }
+        if (input.containsKey(MediaFormat.KEY_I_FRAME_INTERVAL)) {
+            if (Build.VERSION.SDK_INT >= 25) {
+                output.setFloat(MediaFormat.KEY_I_FRAME_INTERVAL, input.getFloat(MediaFormat.KEY_I_FRAME_INTERVAL));
+            } else {
+                output.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, input.getInteger(MediaFormat.KEY_I_FRAME_INTERVAL));
+            }
+        }
+        return output;
+    }
+
     private static void copyInteger(@NonNull MediaFormat input, @NonNull MediaFormat output,
                                     @NonNull String key, @Nullable Integer fallback) {
         if (input.containsKey(key)) {
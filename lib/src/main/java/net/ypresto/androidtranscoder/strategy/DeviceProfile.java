@@ -0,0 +1,190 @@
+package net.ypresto.androidtranscoder.strategy;
+
+import net.ypresto.androidtranscoder.utils.AvcPps;
+import net.ypresto.androidtranscoder.utils.AvcSps;
+import net.ypresto.androidtranscoder.utils.AvcSpsUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Describes the H.264 streams that a target device or player can play: the highest profile
+ * and level, and optional limits on bit rate, size, frame rate and B-frames.
+ * See {@link DefaultVideoStrategy.Builder#passThroughFor(DeviceProfile)}.
+ */
+public class DeviceProfile {
+    public final static int UNLIMITED = 0;
+
+    private int maxProfileIdc;
+    private int maxLevel;
+    private int maxBitRate;
+    private int maxMajor;
+    private int maxMinor;
+    private float maxFrameRate;
+    private boolean allowBFrames;
+
+    private DeviceProfile() {}
+
+    public static class Builder {
+        private int maxProfileIdc;
+        private int maxLevel;
+        private int maxBitRate = UNLIMITED;
+        private int maxMajor = UNLIMITED;
+        private int maxMinor = UNLIMITED;
+        private float maxFrameRate = UNLIMITED;
+        private boolean allowBFrames = true;
+
+        /**
+         * @param maxProfileIdc the highest profile, one of {@link AvcSpsUtils#PROFILE_IDC_BASELINE},
+         *                      {@link AvcSpsUtils#PROFILE_IDC_MAIN} or {@link AvcSpsUtils#PROFILE_IDC_HIGH}
+         * @param maxLevel the highest level_idc, e.g. 31 for level 3.1
+         */
+        public Builder(int maxProfileIdc, int maxLevel) {
+            if (maxProfileIdc != AvcSpsUtils.PROFILE_IDC_BASELINE && maxProfileIdc != AvcSpsUtils.PROFILE_IDC_MAIN
+                    && maxProfileIdc != AvcSpsUtils.PROFILE_IDC_HIGH) {
+                throw new IllegalArgumentException("Unsupported profile: " + maxProfileIdc);
+            }
+            if (maxLevel <= 0) throw new IllegalArgumentException("Invalid level: " + maxLevel);
+            this.maxProfileIdc = maxProfileIdc;
+            this.maxLevel = maxLevel;
+        }
+
+        /**
+         * The highest bit rate. Inputs whose bit rate is unknown are assumed to comply.
+         * @param bitRate bits per second, or {@link #UNLIMITED}
+         * @return this for chaining
+         */
+        public Builder maxBitRate(int bitRate) {
+            this.maxBitRate = bitRate;
+            return this;
+        }
+
+        /**
+         * The largest frame size, in either orientation.
+         * @param major the largest dimension, or {@link #UNLIMITED}
+         * @param minor the smallest dimension, or {@link #UNLIMITED}
+         * @return this for chaining
+         */
+        public Builder maxSize(int major, int minor) {
+            this.maxMajor = major;
+            this.maxMinor = minor;
+            return this;
+        }
+
+        /**
+         * The highest frame rate.
+         * @param frameRate frames per second, or {@link #UNLIMITED}
+         * @return this for chaining
+         */
+        public Builder maxFrameRate(float frameRate) {
+            this.maxFrameRate = frameRate;
+            return this;
+        }
+
+        /**
+         * Whether frames can be reordered, which needs B-frames support in players
+         * and more decoder memory. Defaults to true.
+         * @param allowBFrames false to require streams without B-frames
+         * @return this for chaining
+         */
+        public Builder allowBFrames(boolean allowBFrames) {
+            this.allowBFrames = allowBFrames;
+            return this;
+        }
+
+        public DeviceProfile build() {
+            DeviceProfile profile = new DeviceProfile();
+            profile.maxProfileIdc = maxProfileIdc;
+            profile.maxLevel = maxLevel;
+            profile.maxBitRate = maxBitRate;
+            profile.maxMajor = maxMajor;
+            profile.maxMinor = maxMinor;
+            profile.maxFrameRate = maxFrameRate;
+            profile.allowBFrames = allowBFrames;
+            return profile;
+        }
+    }
+
+    public int getMaxProfileIdc() {
+        return maxProfileIdc;
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    public int getMaxBitRate() {
+        return maxBitRate;
+    }
+
+    public float getMaxFrameRate() {
+        return maxFrameRate;
+    }
+
+    public boolean isBFramesAllowed() {
+        return allowBFrames;
+    }
+
+    /**
+     * Checks a stream against this profile.
+     *
+     * @param sps the parsed SPS of the stream
+     * @param pps the parsed PPS of the stream, or null if unknown
+     * @param bitRate the stream bit rate, or 0 if unknown
+     * @param frameRate the stream frame rate, or 0 if unknown
+     * @return why the stream does not comply, or null if it does
+     */
+    @Nullable
+    String getIncompatibility(@NonNull AvcSps sps, @Nullable AvcPps pps, int bitRate, float frameRate) {
+        if (!isProfileSupported(sps, pps)) {
+            return "Profile " + AvcSpsUtils.getProfileName((byte) sps.getProfileIdc()) + " is above "
+                    + AvcSpsUtils.getProfileName((byte) maxProfileIdc);
+        }
+        // Only High profiles above High allow other formats, but check anyway.
+        if (sps.getChromaFormatIdc() != AvcSps.CHROMA_FORMAT_420 || sps.getBitDepthLuma() != 8) {
+            return "Chroma format " + sps.getChromaFormatIdc() + ", bit depth " + sps.getBitDepthLuma();
+        }
+        // Allowed from Main profile, but hardware decoders often can't deinterlace.
+        if (sps.isInterlaced()) return "Interlaced";
+        if (getLevelOrder(sps.getLevel()) > getLevelOrder(maxLevel)) {
+            return "Level " + sps.getLevel() + " is above " + maxLevel;
+        }
+        if (!allowBFrames && sps.getMaxNumReorderFrames() > 0) {
+            return "Frames can be reordered by " + sps.getMaxNumReorderFrames();
+        }
+        if (maxBitRate > 0 && bitRate > maxBitRate) {
+            return "Bit rate " + bitRate + " is above " + maxBitRate;
+        }
+        int major = Math.max(sps.getWidth(), sps.getHeight());
+        int minor = Math.min(sps.getWidth(), sps.getHeight());
+        if ((maxMajor > 0 && major > maxMajor) || (maxMinor > 0 && minor > maxMinor)) {
+            return "Size " + sps.getWidth() + "x" + sps.getHeight() + " is above " + maxMajor + "x" + maxMinor;
+        }
+        if (frameRate <= 0) frameRate = Math.max(sps.getFrameRate(), 0);
+        if (maxFrameRate > 0 && frameRate > maxFrameRate) {
+            return "Frame rate " + frameRate + " is above " + maxFrameRate;
+        }
+        return null;
+    }
+
+    // Baseline streams without slice groups, or flagged as Constrained Baseline,
+    // can be played by Main and High decoders.
+    private boolean isProfileSupported(@NonNull AvcSps sps, @Nullable AvcPps pps) {
+        int profileIdc = sps.getProfileIdc();
+        if (profileIdc == maxProfileIdc) return true;
+        switch (profileIdc) {
+            case AvcSpsUtils.PROFILE_IDC_BASELINE:
+                boolean constrained = (sps.getConstraintFlags() & 0x40) != 0;
+                return constrained || (pps != null && pps.getNumSliceGroups() == 1);
+            case AvcSpsUtils.PROFILE_IDC_MAIN:
+                return maxProfileIdc == AvcSpsUtils.PROFILE_IDC_HIGH;
+            default:
+                return false;
+        }
+    }
+
+    // Level 1b is between 1.0 and 1.1.
+    private static int getLevelOrder(int level) {
+        return level == AvcSps.LEVEL_IDC_1B ? 105 : level * 10;
+    }
+}
@@ -0,0 +1,103 @@
+package net.ypresto.androidtranscoder.strategy.size;
+
+import android.media.MediaCodecInfo;
+import android.os.Build;
+import android.util.Range;
+
+import net.ypresto.androidtranscoder.compat.CodecIndex;
+import net.ypresto.androidtranscoder.compat.CodecSelector;
+import net.ypresto.androidtranscoder.utils.Logger;
+import net.ypresto.androidtranscoder.utils.MediaFormatConstants;
+
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A {@link Resizer} that adapts the size to the encoder that will be used, which is
+ * the first one the codec selection would try: the size is aligned as the encoder requires,
+ * kept within its limits and, from Android 5.0, reduced until the encoder can reach
+ * the given frame rate. The aspect ratio is kept as close as alignment allows.
+ *
+ * Should come last in a {@link MultiResizer}. Since sizes have no orientation, the size
+ * is fitted to the encoder limits in both orientations, and the larger result is kept.
+ */
+public class CapabilityResizer implements Resizer {
+    private static final String TAG = "CapabilityResizer";
+    private static final Logger LOG = new Logger(TAG);
+
+    private final String mimeType;
+    private final int frameRate;
+
+    /**
+     * Adapts the size to the AVC encoder.
+     * @param frameRate the output frame rate
+     */
+    public CapabilityResizer(int frameRate) {
+        this(MediaFormatConstants.MIMETYPE_VIDEO_AVC, frameRate);
+    }
+
+    /**
+     * @param mimeType the output mime type
+     * @param frameRate the output frame rate
+     */
+    public CapabilityResizer(@NonNull String mimeType, int frameRate) {
+        if (frameRate <= 0) throw new IllegalArgumentException("Invalid frame rate: " + frameRate);
+        this.mimeType = mimeType;
+        this.frameRate = frameRate;
+    }
+
+    @NonNull
+    @Override
+    public Size getOutputSize(@NonNull Size inputSize) {
+        List<CodecIndex.Codec> encoders = CodecIndex.get().getEncoders(mimeType);
+        if (encoders.isEmpty()) throw new IllegalStateException("No encoder for " + mimeType);
+        int major = inputSize.getMajor();
+        int minor = inputSize.getMinor();
+        CodecIndex.Codec codec = CodecSelector.get().rank(encoders, major, minor).get(0);
+        MediaCodecInfo.VideoCapabilities capabilities = CodecIndex.get().getVideoCapabilities(codec);
+        // Limits differ between axes, so fit both orientations and keep the larger size.
+        int[] landscape = fit(codec, capabilities, major, minor);
+        int[] portrait = fit(codec, capabilities, minor, major);
+        int[] size = portrait != null && (landscape == null || portrait[0] * portrait[1] > landscape[0] * landscape[1])
+                ? portrait : landscape;
+        if (size == null) {
+            throw new IllegalStateException("No size supported by " + codec.name + " for " + major + "x" + minor);
+        }
+        Size outputSize = new Size(size[0], size[1]);
+        if (outputSize.getMajor() != major || outputSize.getMinor() != minor) {
+            LOG.i("Size adapted to " + codec.name + ": " + outputSize.getMajor() + "x" + outputSize.getMinor());
+        }
+        return outputSize;
+    }
+
+    @Nullable
+    private int[] fit(@NonNull final CodecIndex.Codec codec,
+                      @Nullable final MediaCodecInfo.VideoCapabilities capabilities, int width, int height) {
+        return SizeFitter.fit(width, height, Math.max(2, codec.widthAlignment), Math.max(2, codec.heightAlignment),
+                codec.maxWidth, codec.maxHeight, new SizeFitter.Constraint() {
+                    @Override
+                    public boolean accept(int width, int height) {
+                        return isSupported(codec, capabilities, width, height);
+                    }
+                });
+    }
+
+    private boolean isSupported(@NonNull CodecIndex.Codec codec,
+                                @Nullable MediaCodecInfo.VideoCapabilities capabilities,
+                                int width, int height) {
+        if (!codec.isSizeSupported(width, height)) return false;
+        if (capabilities == null || Build.VERSION.SDK_INT < 21) return true;
+        if (Build.VERSION.SDK_INT >= 23) {
+            try {
+                // Measured by the vendor, which is what full speed means.
+                Range<Double> achievable = capabilities.getAchievableFrameRatesFor(width, height);
+                if (achievable != null) return achievable.getUpper() >= frameRate;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+        return capabilities.areSizeAndRateSupported(width, height, frameRate);
+    }
+}
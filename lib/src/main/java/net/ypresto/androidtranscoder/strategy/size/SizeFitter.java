@@ -0,0 +1,69 @@
+package net.ypresto.androidtranscoder.strategy.size;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Finds the largest size, not bigger than the requested one, that keeps its aspect ratio
+ * as close as alignment allows and that an encoder accepts.
+ */
+class SizeFitter {
+
+    interface Constraint {
+        /**
+         * Whether the encoder can encode this size, e.g. at the desired frame rate.
+         * Called with aligned sizes within bounds only.
+         */
+        boolean accept(int width, int height);
+    }
+
+    /**
+     * Tries each aligned value of the smaller dimension, from the requested one downwards,
+     * and the aligned value of the other dimension that is nearest to the aspect ratio.
+     *
+     * @param width the requested width
+     * @param height the requested height
+     * @param widthAlignment the encoder width alignment
+     * @param heightAlignment the encoder height alignment
+     * @param maxWidth the maximum width
+     * @param maxHeight the maximum height
+     * @param constraint further checks, or null
+     * @return width and height, or null if no size fits
+     */
+    @Nullable
+    static int[] fit(int width, int height, int widthAlignment, int heightAlignment,
+                     int maxWidth, int maxHeight, @Nullable Constraint constraint) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        boolean landscape = width >= height;
+        // Iterate on the minor dimension, which has fewer values.
+        int minor = landscape ? height : width;
+        int major = landscape ? width : height;
+        int minorAlignment = landscape ? heightAlignment : widthAlignment;
+        int majorAlignment = landscape ? widthAlignment : heightAlignment;
+        int maxMinor = landscape ? maxHeight : maxWidth;
+        int maxMajor = landscape ? maxWidth : maxHeight;
+        double ratio = (double) major / minor;
+        int[] result = new int[2];
+        for (int outMinor = alignDown(Math.min(minor, maxMinor), minorAlignment); outMinor > 0;
+             outMinor -= minorAlignment) {
+            int outMajor = alignNearest(outMinor * ratio, majorAlignment);
+            if (outMajor > major) outMajor -= majorAlignment;
+            if (outMajor <= 0 || outMajor > maxMajor) continue;
+            result[0] = landscape ? outMajor : outMinor;
+            result[1] = landscape ? outMinor : outMajor;
+            if (constraint == null || constraint.accept(result[0], result[1])) return result;
+        }
+        return null;
+    }
+
+    static int alignDown(int value, int alignment) {
+        return value - value % alignment;
+    }
+
+    static int alignNearest(double value, int alignment) {
+        return (int) Math.round(value / alignment) * alignment;
+    }
+
+    private SizeFitter() {
+        throw new RuntimeException();
+    }
+}
@@ -5,6 +5,7 @@ import android.media.MediaFormat;
 
 import net.ypresto.androidtranscoder.compat.MediaCodecBufferCompatWrapper;
 import net.ypresto.androidtranscoder.remix.AudioRemixer;
+import net.ypresto.androidtranscoder.remix.TimeStretcher;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -18,6 +19,17 @@ import java.util.Queue;
  *
  * We currently support upmixing from mono to stereo & downmixing from stereo to mono.
  * Sample rate conversion is not supported yet.
+ *
+ * A constant gain can also be applied to the remixed samples, for example to normalize
+ * loudness to a target value measured beforehand. See {@link #setGain(float)}.
+ *
+ * When the speed is changed with {@link #setSpeed(float)}, remixed samples go through a
+ * {@link TimeStretcher} before reaching the encoder, and output timestamps are computed
+ * from the number of stretched samples.
+ *
+ * Finally, a {@link BackgroundAudioDecoder} can be set to mix background audio into
+ * the samples sent to the encoder. This happens after stretching, so the background
+ * audio keeps its speed.
  */
 class AudioChannel {
 
@@ -31,6 +43,8 @@ class AudioChannel {
 
     private static final int BYTES_PER_SHORT = 2;
     private static final long MICROSECS_PER_SEC = 1000000;
+    private static final float NO_GAIN = 1F;
+    private static final float NO_SPEED_CHANGE = 1F;
 
     private final Queue<AudioBuffer> mEmptyBuffers = new ArrayDeque<>();
     private final Queue<AudioBuffer> mFilledBuffers = new ArrayDeque<>();
@@ -44,6 +58,16 @@ class AudioChannel {
     private int mOutputChannelCount;
 
     private AudioRemixer mRemixer;
+    private float mGain = NO_GAIN;
+    private float mSpeed = NO_SPEED_CHANGE;
+
+    private TimeStretcher mStretcher;
+    private ShortBuffer mStretchBuffer; // remixed samples not yet consumed by mStretcher
+    private long mStretchStartUs = -1;
+    private long mStretchedFrames;
+    private boolean mIsStretchEndOfStreamQueued;
+
+    private BackgroundAudioDecoder mBackground;
 
     private final MediaCodecBufferCompatWrapper mDecoderBuffers;
     private final MediaCodecBufferCompatWrapper mEncoderBuffers;
@@ -63,6 +87,35 @@ class AudioChannel {
         mEncoderBuffers = new MediaCodecBufferCompatWrapper(mEncoder);
     }
 
+    /**
+     * Sets a linear gain to be applied to all samples before encoding.
+     * Samples are clipped to the 16 bit range.
+     *
+     * @param gain the linear gain, 1 for no change
+     */
+    public void setGain(final float gain) {
+        mGain = gain;
+    }
+
+    /**
+     * Sets the playback speed of the output. Must be called before
+     * {@link #setActualDecodedFormat(MediaFormat)}.
+     *
+     * @param speed the speed, 1 for no change
+     */
+    public void setSpeed(final float speed) {
+        mSpeed = speed;
+    }
+
+    /**
+     * Sets the background audio to be mixed into the output samples.
+     *
+     * @param background the background decoder, already set up
+     */
+    public void setBackgroundAudio(final BackgroundAudioDecoder background) {
+        mBackground = background;
+    }
+
     public void setActualDecodedFormat(final MediaFormat decodedFormat) {
         mActualDecodedFormat = decodedFormat;
 
@@ -94,6 +147,10 @@ class AudioChannel {
         }
 
         mOverflowBuffer.presentationTimeUs = 0;
+
+        if (mSpeed != NO_SPEED_CHANGE) {
+            mStretcher = new TimeStretcher(mInputSampleRate, mOutputChannelCount, mSpeed);
+        }
     }
 
     public void drainDecoderBufferAndQueue(final int bufferIndex, final long presentationTimeUs) {
@@ -121,11 +178,19 @@ class AudioChannel {
                     .asShortBuffer();
             mOverflowBuffer.data.clear().flip();
         }
+        if (mStretcher != null && mStretchBuffer == null) {
+            // Large enough for the remixed samples, even when upmixing.
+            mStretchBuffer = ShortBuffer.allocate(data.capacity());
+            mStretchBuffer.clear().flip();
+        }
 
         mFilledBuffers.add(buffer);
     }
 
     public boolean feedEncoder(long timeoutUs) {
+        if (mStretcher != null) {
+            return feedEncoderStretched(timeoutUs);
+        }
         final boolean hasOverflow = mOverflowBuffer.data != null && mOverflowBuffer.data.hasRemaining();
         if (mFilledBuffers.isEmpty() && !hasOverflow) {
             // No audio data - Bail out
@@ -166,10 +231,72 @@ class AudioChannel {
         return true;
     }
 
-    private static long sampleCountToDurationUs(final int sampleCount,
+    private boolean feedEncoderStretched(long timeoutUs) {
+        if (mIsStretchEndOfStreamQueued) return false;
+        fillStretcher();
+        final boolean hasOutput = mStretcher.hasOutput();
+        if (!hasOutput && !mStretcher.isDrained()) {
+            // Stretcher needs more input - Bail out
+            return false;
+        }
+
+        final int encoderInBuffIndex = mEncoder.dequeueInputBuffer(timeoutUs);
+        if (encoderInBuffIndex < 0) {
+            // Encoder is full - Bail out
+            return false;
+        }
+
+        if (!hasOutput) {
+            mEncoder.queueInputBuffer(encoderInBuffIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            mIsStretchEndOfStreamQueued = true;
+            return false;
+        }
+
+        final ShortBuffer outBuffer = mEncoderBuffers.getInputBuffer(encoderInBuffIndex).asShortBuffer();
+        outBuffer.clear();
+        final long presentationTimeUs = mStretchStartUs + sampleCountToDurationUs(
+                mStretchedFrames * mOutputChannelCount, mInputSampleRate, mOutputChannelCount);
+        mStretchedFrames += mStretcher.readOutput(outBuffer);
+        mixBackground(outBuffer, 0, outBuffer.position());
+        mEncoder.queueInputBuffer(encoderInBuffIndex,
+                0, outBuffer.position() * BYTES_PER_SHORT,
+                presentationTimeUs, 0);
+        return true;
+    }
+
+    // Remixes decoded buffers and moves them into the stretcher, until it's full.
+    private void fillStretcher() {
+        while (true) {
+            if (mStretchBuffer != null && mStretchBuffer.hasRemaining()) {
+                mStretcher.queueInput(mStretchBuffer);
+                if (mStretchBuffer.hasRemaining()) return;
+            }
+
+            final AudioBuffer inBuffer = mFilledBuffers.poll();
+            if (inBuffer == null) return;
+            if (inBuffer.bufferIndex == BUFFER_INDEX_END_OF_STREAM) {
+                mStretcher.queueEndOfStream();
+                return;
+            }
+            if (mStretchStartUs < 0) {
+                mStretchStartUs = (long) (inBuffer.presentationTimeUs / mSpeed);
+            }
+
+            final ShortBuffer inBuff = inBuffer.data;
+            inBuff.clear();
+            mStretchBuffer.clear();
+            mRemixer.remix(inBuff, mStretchBuffer);
+            applyGain(mStretchBuffer, 0, mStretchBuffer.position());
+            mStretchBuffer.flip();
+            mDecoder.releaseOutputBuffer(inBuffer.bufferIndex, false);
+            mEmptyBuffers.add(inBuffer);
+        }
+    }
+
+    private static long sampleCountToDurationUs(final long sampleCount,
                                                 final int sampleRate,
                                                 final int channelCount) {
-        return (sampleCount / (sampleRate * MICROSECS_PER_SEC)) / channelCount;
+        return sampleCount * MICROSECS_PER_SEC / ((long) sampleRate * channelCount);
     }
 
     private long drainOverflow(final ShortBuffer outBuff) {
@@ -212,6 +339,8 @@ class AudioChannel {
             // Limit inBuff to outBuff's capacity
             inBuff.limit(outBuff.capacity());
             mRemixer.remix(inBuff, outBuff);
+            applyGain(outBuff, 0, outBuff.position());
+            mixBackground(outBuff, 0, outBuff.position());
 
             // Reset limit to its own capacity & Keep position
             inBuff.limit(inBuff.capacity());
@@ -220,7 +349,10 @@ class AudioChannel {
             // NOTE: We should only reach this point when overflow buffer is empty
             final long consumedDurationUs =
                     sampleCountToDurationUs(inBuff.position(), mInputSampleRate, mInputChannelCount);
+            final int overflowStart = overflowBuff.position();
             mRemixer.remix(inBuff, overflowBuff);
+            applyGain(overflowBuff, overflowStart, overflowBuff.position());
+            mixBackground(overflowBuff, overflowStart, overflowBuff.position());
 
             // Seal off overflowBuff & mark limit
             overflowBuff.flip();
@@ -228,8 +360,22 @@ class AudioChannel {
         } else {
             // No overflow
             mRemixer.remix(inBuff, outBuff);
+            applyGain(outBuff, 0, outBuff.position());
+            mixBackground(outBuff, 0, outBuff.position());
         }
 
         return input.presentationTimeUs;
     }
+
+    private void mixBackground(final ShortBuffer buff, final int from, final int to) {
+        if (mBackground != null) mBackground.mix(buff, from, to);
+    }
+
+    private void applyGain(final ShortBuffer buff, final int from, final int to) {
+        if (mGain == NO_GAIN) return;
+        for (int i = from; i < to; i++) {
+            final int sample = Math.round(buff.get(i) * mGain);
+            buff.put(i, (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample)));
+        }
+    }
 }
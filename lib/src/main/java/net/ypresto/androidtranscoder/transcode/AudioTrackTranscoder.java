@@ -4,10 +4,11 @@ import android.media.MediaCodec;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 
+import net.ypresto.androidtranscoder.BackgroundAudio;
 import net.ypresto.androidtranscoder.compat.MediaCodecBufferCompatWrapper;
+import net.ypresto.androidtranscoder.compat.MediaCodecCompat;
 import net.ypresto.androidtranscoder.engine.QueuedMuxer;
 
-import java.io.IOException;
 
 public class AudioTrackTranscoder implements TrackTranscoder {
 
@@ -39,6 +40,12 @@ public class AudioTrackTranscoder implements TrackTranscoder {
     private boolean mEncoderStarted;
 
     private AudioChannel mAudioChannel;
+    private float mGain = 1F;
+    private float mSpeed = 1F;
+    private BackgroundAudio mBackgroundAudio;
+    private BackgroundAudioDecoder mBackgroundDecoder;
+    private long mTrimStartUs = 0;
+    private long mTrimEndUs = Long.MAX_VALUE;
 
     public AudioTrackTranscoder(MediaExtractor extractor, int trackIndex,
                                 MediaFormat outputFormat, QueuedMuxer muxer) {
@@ -51,28 +58,72 @@ public class AudioTrackTranscoder implements TrackTranscoder {
     @Override
     public void setup() {
         mExtractor.selectTrack(mTrackIndex);
-        try {
-            mEncoder = MediaCodec.createEncoderByType(mOutputFormat.getString(MediaFormat.KEY_MIME));
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        }
-        mEncoder.configure(mOutputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mEncoder = MediaCodecCompat.createAndConfigure(mOutputFormat, null, true);
         mEncoder.start();
         mEncoderStarted = true;
         mEncoderBuffers = new MediaCodecBufferCompatWrapper(mEncoder);
 
         final MediaFormat inputFormat = mExtractor.getTrackFormat(mTrackIndex);
-        try {
-            mDecoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        }
-        mDecoder.configure(inputFormat, null, null, 0);
+        MediaCodecCompat.copyThroughputHints(mOutputFormat, inputFormat);
+        mDecoder = MediaCodecCompat.createAndConfigure(inputFormat, null, false);
         mDecoder.start();
         mDecoderStarted = true;
         mDecoderBuffers = new MediaCodecBufferCompatWrapper(mDecoder);
 
         mAudioChannel = new AudioChannel(mDecoder, mEncoder, mOutputFormat);
+        mAudioChannel.setGain(mGain);
+        mAudioChannel.setSpeed(mSpeed);
+
+        if (mBackgroundAudio != null) {
+            mBackgroundDecoder = new BackgroundAudioDecoder(mBackgroundAudio,
+                    mOutputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                    mOutputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+            mBackgroundDecoder.setup();
+            mAudioChannel.setBackgroundAudio(mBackgroundDecoder);
+        }
+    }
+
+    /**
+     * Mixes the given background audio into the output.
+     * Must be called before {@link #setup()}.
+     *
+     * @param backgroundAudio the background audio
+     */
+    public void setBackgroundAudio(BackgroundAudio backgroundAudio) {
+        mBackgroundAudio = backgroundAudio;
+    }
+
+    /**
+     * Changes the playback speed of the output, without changing its pitch.
+     * Must be called before {@link #setup()}.
+     *
+     * @param speed the speed, 1 for no change
+     */
+    public void setSpeed(float speed) {
+        mSpeed = speed;
+    }
+
+    /**
+     * Sets a linear gain to be applied to decoded samples before encoding.
+     * Can be called before or after {@link #setup()}.
+     *
+     * @param gain the linear gain, 1 for no change
+     */
+    public void setGain(float gain) {
+        mGain = gain;
+        if (mAudioChannel != null) mAudioChannel.setGain(gain);
+    }
+
+    /**
+     * Restricts the output to the given range of the input, in microseconds.
+     * Timestamps are shifted so that the output starts at 0.
+     *
+     * @param startUs first input timestamp to be written
+     * @param endUs last input timestamp to be written
+     */
+    public void setTrim(long startUs, long endUs) {
+        mTrimStartUs = startUs;
+        mTrimEndUs = endUs;
     }
 
     @Override
@@ -107,6 +158,11 @@ public class AudioTrackTranscoder implements TrackTranscoder {
 
         final int result = mDecoder.dequeueInputBuffer(timeoutUs);
         if (result < 0) return DRAIN_STATE_NONE;
+        if (trackIndex == mTrackIndex && mExtractor.getSampleTime() > mTrimEndUs) {
+            // Stop reading this track, so that the other one can go on.
+            mExtractor.unselectTrack(mTrackIndex);
+            trackIndex = -1;
+        }
         if (trackIndex < 0) {
             mIsExtractorEOS = true;
             mDecoder.queueInputBuffer(result, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
@@ -136,8 +192,11 @@ public class AudioTrackTranscoder implements TrackTranscoder {
         if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
             mIsDecoderEOS = true;
             mAudioChannel.drainDecoderBufferAndQueue(AudioChannel.BUFFER_INDEX_END_OF_STREAM, 0);
+        } else if (mBufferInfo.presentationTimeUs < mTrimStartUs || mBufferInfo.presentationTimeUs > mTrimEndUs) {
+            // Out of the trim range.
+            mDecoder.releaseOutputBuffer(result, false);
         } else if (mBufferInfo.size > 0) {
-            mAudioChannel.drainDecoderBufferAndQueue(result, mBufferInfo.presentationTimeUs);
+            mAudioChannel.drainDecoderBufferAndQueue(result, mBufferInfo.presentationTimeUs - mTrimStartUs);
         }
 
         return DRAIN_STATE_CONSUMED;
@@ -193,6 +252,10 @@ public class AudioTrackTranscoder implements TrackTranscoder {
 
     @Override
     public void release() {
+        if (mBackgroundDecoder != null) {
+            mBackgroundDecoder.release();
+            mBackgroundDecoder = null;
+        }
         if (mDecoder != null) {
             if (mDecoderStarted) mDecoder.stop();
             mDecoder.release();
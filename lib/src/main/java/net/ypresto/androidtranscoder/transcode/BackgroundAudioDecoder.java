@@ -0,0 +1,300 @@
+package net.ypresto.androidtranscoder.transcode;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import net.ypresto.androidtranscoder.BackgroundAudio;
+import net.ypresto.androidtranscoder.compat.MediaCodecBufferCompatWrapper;
+import net.ypresto.androidtranscoder.remix.AudioMixer;
+import net.ypresto.androidtranscoder.remix.AudioRemixer;
+import net.ypresto.androidtranscoder.remix.AudioResampler;
+import net.ypresto.androidtranscoder.utils.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Decodes a {@link BackgroundAudio} with its own extractor and decoder, and mixes it
+ * into the samples that {@link AudioChannel} sends to the encoder.
+ *
+ * The source is decoded on its own thread, remixed to the output channel count and
+ * resampled to the output sample rate if needed, into a few chunks that are handed to
+ * {@link #mix(ShortBuffer, int, int)} and recycled. If no chunk is ready when mixing,
+ * it waits for the decoding thread; if all chunks are waiting to be mixed, the decoding
+ * thread waits for the mixing one.
+ */
+class BackgroundAudioDecoder {
+    private static final String TAG = "BackgroundAudioDecoder";
+    private static final Logger LOG = new Logger(TAG);
+
+    private static final long TIMEOUT_US = 10000;
+    private static final long MICROSECS_PER_SEC = 1000000;
+    private static final int CHUNK_COUNT = 4;
+    // Queued after the last chunk.
+    private static final ShortBuffer END_OF_STREAM = ShortBuffer.allocate(0);
+
+    private final BackgroundAudio mAudio;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final long mOffsetSamples;
+
+    // Used by the decoding thread only, once started.
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private MediaExtractor mExtractor;
+    private MediaCodec mDecoder;
+    private MediaCodecBufferCompatWrapper mDecoderBuffers;
+    private boolean mDecoderStarted;
+    private boolean mIsExtractorEOS;
+    private boolean mIsDecoderEOS;
+    private boolean mHasDecodedSinceLoop;
+    private AudioRemixer mRemixer;
+    private AudioResampler mResampler;
+    private ShortBuffer mRemixed = ShortBuffer.allocate(0);
+
+    private final BlockingQueue<ShortBuffer> mFreeChunks = new ArrayBlockingQueue<>(CHUNK_COUNT);
+    private final BlockingQueue<ShortBuffer> mDecodedChunks = new ArrayBlockingQueue<>(CHUNK_COUNT + 1);
+    private Thread mThread;
+    private volatile RuntimeException mError;
+
+    // Used by the mixing thread only.
+    private long mSkippedSamples;
+    private ShortBuffer mPending; // decoded samples not mixed yet
+    private boolean mIsFinished;
+
+    BackgroundAudioDecoder(BackgroundAudio audio, int sampleRate, int channelCount) {
+        mAudio = audio;
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mOffsetSamples = audio.offsetUs * sampleRate / MICROSECS_PER_SEC * channelCount;
+    }
+
+    /**
+     * Checks the source and starts decoding it, so that a source that can't be mixed
+     * fails here rather than in the middle of the transcode.
+     */
+    void setup() {
+        mExtractor = new MediaExtractor();
+        try {
+            mAudio.dataSource.apply(mExtractor);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        MediaFormat inputFormat = null;
+        for (int i = 0; i < mExtractor.getTrackCount(); i++) {
+            MediaFormat format = mExtractor.getTrackFormat(i);
+            if (format.getString(MediaFormat.KEY_MIME).startsWith("audio/")) {
+                mExtractor.selectTrack(i);
+                inputFormat = format;
+                break;
+            }
+        }
+        if (inputFormat == null) {
+            throw new IllegalStateException("Background audio source has no audio track.");
+        }
+        checkChannelCount(inputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+        try {
+            mDecoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        mDecoder.configure(inputFormat, null, null, 0);
+        mDecoder.start();
+        mDecoderStarted = true;
+        mDecoderBuffers = new MediaCodecBufferCompatWrapper(mDecoder);
+
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            mFreeChunks.add(ShortBuffer.allocate(0));
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decode();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Mixes background samples into the [from, to) range of the given buffer.
+     * Must be called on consecutive ranges of the output stream, in order.
+     */
+    void mix(ShortBuffer buffer, int from, int to) {
+        int index = from;
+        if (mSkippedSamples < mOffsetSamples) {
+            int skip = (int) Math.min(to - index, mOffsetSamples - mSkippedSamples);
+            mSkippedSamples += skip;
+            index += skip;
+        }
+        while (index < to && !mIsFinished) {
+            if (mPending != null && mPending.hasRemaining()) {
+                index += AudioMixer.mix(mPending, buffer, index, to, mAudio.gain);
+                continue;
+            }
+            if (mPending != null) mFreeChunks.add(mPending);
+            try {
+                mPending = mDecodedChunks.take();
+            } catch (InterruptedException e) {
+                // The transcode is being canceled, let the engine notice.
+                Thread.currentThread().interrupt();
+                mPending = null;
+                return;
+            }
+            if (mPending == END_OF_STREAM) {
+                mIsFinished = true;
+                if (mError != null) throw new IllegalStateException("Could not decode the background audio.", mError);
+            }
+        }
+    }
+
+    void release() {
+        if (mThread != null) {
+            mThread.interrupt();
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mThread = null;
+        }
+        if (mDecoder != null) {
+            if (mDecoderStarted) mDecoder.stop();
+            mDecoder.release();
+            mDecoder = null;
+        }
+        if (mExtractor != null) {
+            mExtractor.release();
+            mExtractor = null;
+        }
+    }
+
+    // Runs on the decoding thread until the end of the source, or until released.
+    private void decode() {
+        try {
+            while (!mIsDecoderEOS) {
+                if (Thread.interrupted()) return;
+                drainExtractor();
+                drainDecoder();
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (RuntimeException e) {
+            mError = e;
+        }
+        // There is always room for it, since there are only CHUNK_COUNT chunks.
+        mDecodedChunks.add(END_OF_STREAM);
+    }
+
+    private void drainExtractor() {
+        if (mIsExtractorEOS) return;
+        int result = mDecoder.dequeueInputBuffer(TIMEOUT_US);
+        if (result < 0) return;
+        int sampleSize = mExtractor.readSampleData(mDecoderBuffers.getInputBuffer(result), 0);
+        if (sampleSize < 0) {
+            mIsExtractorEOS = true;
+            mDecoder.queueInputBuffer(result, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        } else {
+            mDecoder.queueInputBuffer(result, 0, sampleSize, mExtractor.getSampleTime(), 0);
+            mExtractor.advance();
+        }
+    }
+
+    private void drainDecoder() throws InterruptedException {
+        int result = mDecoder.dequeueOutputBuffer(mBufferInfo, TIMEOUT_US);
+        switch (result) {
+            case MediaCodec.INFO_TRY_AGAIN_LATER:
+                return;
+            case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
+                setDecodedFormat(mDecoder.getOutputFormat());
+                return;
+            case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED:
+                mDecoderBuffers.onOutputBuffersChanged();
+                return;
+        }
+        if (mBufferInfo.size > 0) {
+            if (mRemixer == null) throw new RuntimeException("Buffer received before format!");
+            ByteBuffer data = mDecoderBuffers.getOutputBuffer(result);
+            data.clear();
+            data.position(mBufferInfo.offset).limit(mBufferInfo.offset + mBufferInfo.size);
+            ShortBuffer samples = data.slice().order(data.order()).asShortBuffer();
+            ShortBuffer chunk;
+            try {
+                chunk = mFreeChunks.take();
+            } catch (InterruptedException e) {
+                mDecoder.releaseOutputBuffer(result, false);
+                throw e;
+            }
+            mDecodedChunks.add(convert(samples, chunk));
+            mHasDecodedSinceLoop = true;
+        }
+        mDecoder.releaseOutputBuffer(result, false);
+        if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            onEndOfStream();
+        }
+    }
+
+    // Remixes and resamples the decoded samples into the chunk, growing it if needed.
+    private ShortBuffer convert(ShortBuffer samples, ShortBuffer chunk) {
+        // Large enough for the remixed samples, even when upmixing.
+        int remixedSize = samples.remaining() * 2;
+        if (mResampler == null) {
+            if (chunk.capacity() < remixedSize) chunk = ShortBuffer.allocate(remixedSize);
+            chunk.clear();
+            mRemixer.remix(samples, chunk);
+            chunk.flip();
+            return chunk;
+        }
+        if (mRemixed.capacity() < remixedSize) mRemixed = ShortBuffer.allocate(remixedSize);
+        mRemixed.clear();
+        mRemixer.remix(samples, mRemixed);
+        mRemixed.flip();
+        int resampledSize = mResampler.getMaxOutputSize(mRemixed.remaining());
+        if (chunk.capacity() < resampledSize) chunk = ShortBuffer.allocate(resampledSize);
+        chunk.clear();
+        mResampler.resample(mRemixed, chunk);
+        chunk.flip();
+        return chunk;
+    }
+
+    private void setDecodedFormat(MediaFormat format) {
+        int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        checkChannelCount(channelCount);
+        if (channelCount > mChannelCount) {
+            mRemixer = AudioRemixer.DOWNMIX;
+        } else if (channelCount < mChannelCount) {
+            mRemixer = AudioRemixer.UPMIX;
+        } else {
+            mRemixer = AudioRemixer.PASSTHROUGH;
+        }
+        int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        if (sampleRate != mSampleRate) {
+            LOG.i("Resampling background audio from " + sampleRate + " to " + mSampleRate + " Hz.");
+            mResampler = new AudioResampler(sampleRate, mSampleRate, mChannelCount);
+        } else {
+            mResampler = null;
+        }
+    }
+
+    private static void checkChannelCount(int channelCount) {
+        if (channelCount != 1 && channelCount != 2) {
+            throw new UnsupportedOperationException("Background audio channel count (" + channelCount + ") not supported.");
+        }
+    }
+
+    private void onEndOfStream() {
+        // Stop if the source produced no samples at all, or we would loop forever.
+        if (!mAudio.loop || !mHasDecodedSinceLoop) {
+            LOG.v("Background audio finished.");
+            mIsDecoderEOS = true;
+            return;
+        }
+        LOG.v("Background audio finished, looping.");
+        mExtractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+        mDecoder.flush();
+        mIsExtractorEOS = false;
+        mHasDecodedSinceLoop = false;
+    }
+}
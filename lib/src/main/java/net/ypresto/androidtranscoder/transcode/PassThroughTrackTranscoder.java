@@ -37,6 +37,10 @@ public class PassThroughTrackTranscoder implements TrackTranscoder {
     private boolean mIsEOS;
     private MediaFormat mActualOutputFormat;
     private long mWrittenPresentationTimeUs;
+    private float mSpeed = 1F;
+    private long mTrimStartUs = 0;
+    private long mTrimEndUs = Long.MAX_VALUE;
+    private int mBatchSize = 1;
 
     public PassThroughTrackTranscoder(MediaExtractor extractor, int trackIndex,
                                       QueuedMuxer muxer, QueuedMuxer.SampleType sampleType) {
@@ -51,6 +55,40 @@ public class PassThroughTrackTranscoder implements TrackTranscoder {
         mBuffer = ByteBuffer.allocateDirect(mBufferSize).order(ByteOrder.nativeOrder());
     }
 
+    /**
+     * Changes the playback speed of the output by scaling the presentation timestamps.
+     * Only makes sense for video: audio samples would be played at the original speed.
+     *
+     * @param speed the speed, 1 for no change
+     */
+    public void setSpeed(float speed) {
+        mSpeed = speed;
+    }
+
+    /**
+     * Restricts the output to the given range of the input, in microseconds.
+     * Timestamps are shifted so that the output starts at 0. Samples are not
+     * decoded, so this only makes sense for tracks where all samples are sync samples.
+     *
+     * @param startUs first input timestamp to be written
+     * @param endUs last input timestamp to be written
+     */
+    public void setTrim(long startUs, long endUs) {
+        mTrimStartUs = startUs;
+        mTrimEndUs = endUs;
+    }
+
+    /**
+     * Sets the maximum number of samples copied by each {@link #stepPipeline()} call.
+     * Larger batches reduce the pipeline overhead when this is the only track,
+     * but would starve the other track otherwise. Defaults to 1.
+     *
+     * @param batchSize the number of samples
+     */
+    public void setBatchSize(int batchSize) {
+        mBatchSize = batchSize;
+    }
+
     @Override
     public void setup() {
     }
@@ -60,11 +98,25 @@ public class PassThroughTrackTranscoder implements TrackTranscoder {
         return mActualOutputFormat;
     }
 
-    @SuppressLint("Assert")
     @Override
     public boolean stepPipeline() {
+        boolean busy = false;
+        for (int i = 0; i < mBatchSize; i++) {
+            if (!stepSample()) break;
+            busy = true;
+        }
+        return busy;
+    }
+
+    @SuppressLint("Assert")
+    private boolean stepSample() {
         if (mIsEOS) return false;
         int trackIndex = mExtractor.getSampleTrackIndex();
+        if (trackIndex == mTrackIndex && mExtractor.getSampleTime() > mTrimEndUs) {
+            // Stop reading this track, so that the other one can go on.
+            mExtractor.unselectTrack(mTrackIndex);
+            trackIndex = -1;
+        }
         if (trackIndex < 0) {
             mBuffer.clear();
             mBufferInfo.set(0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
@@ -73,13 +125,18 @@ public class PassThroughTrackTranscoder implements TrackTranscoder {
             return true;
         }
         if (trackIndex != mTrackIndex) return false;
+        if (mExtractor.getSampleTime() < mTrimStartUs) {
+            mExtractor.advance();
+            return true;
+        }
 
         mBuffer.clear();
         int sampleSize = mExtractor.readSampleData(mBuffer, 0);
         assert sampleSize <= mBufferSize;
         boolean isKeyFrame = (mExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0;
         int flags = isKeyFrame ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0;
-        mBufferInfo.set(0, sampleSize, mExtractor.getSampleTime(), flags);
+        long presentationTimeUs = (long) ((mExtractor.getSampleTime() - mTrimStartUs) / mSpeed);
+        mBufferInfo.set(0, sampleSize, presentationTimeUs, flags);
         mMuxer.writeSampleData(mSampleType, mBuffer, mBufferInfo);
         mWrittenPresentationTimeUs = mBufferInfo.presentationTimeUs;
 
@@ -0,0 +1,274 @@
+package net.ypresto.androidtranscoder.transcode;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.os.Bundle;
+
+import net.ypresto.androidtranscoder.compat.MediaCodecBufferCompatWrapper;
+import net.ypresto.androidtranscoder.compat.FormatFallbacks;
+import net.ypresto.androidtranscoder.compat.MediaCodecCompat;
+import net.ypresto.androidtranscoder.engine.QueuedMuxer;
+import net.ypresto.androidtranscoder.transcode.bitrate.SizeBudgetController;
+import net.ypresto.androidtranscoder.transcode.opengl.InputSurface;
+import net.ypresto.androidtranscoder.transcode.opengl.OutputSurface;
+import net.ypresto.androidtranscoder.transcode.opengl.OverlayRenderer;
+import net.ypresto.androidtranscoder.transcode.transform.VideoTransform;
+import net.ypresto.androidtranscoder.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A video encoder fed through an {@link InputSurface}, writing to its own muxer.
+ * {@link VideoTrackTranscoder} has one per output, all drawn from the same decoded frames.
+ */
+class VideoEncoder {
+    private static final String TAG = "VideoEncoder";
+    private static final Logger LOG = new Logger(TAG);
+
+    private MediaFormat mOutputFormat;
+    private List<MediaFormat> mFallbackFormats = Collections.emptyList();
+    private final QueuedMuxer mMuxer;
+    private final float[] mMvpMatrix;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private MediaCodec mEncoder;
+    private MediaCodecBufferCompatWrapper mEncoderBuffers;
+    private InputSurface mEncoderInputSurfaceWrapper;
+    private MediaFormat mActualOutputFormat;
+    private boolean mIsEncoderEOS;
+    private boolean mEncoderStarted;
+    private long mWrittenPresentationTimeUs;
+    private long mWrittenBytes;
+    private int mWidth;
+    private int mHeight;
+    private SizeBudgetController mSizeBudget;
+
+    VideoEncoder(@NonNull MediaFormat outputFormat, @NonNull QueuedMuxer muxer, @Nullable VideoTransform transform) {
+        mOutputFormat = outputFormat;
+        mMuxer = muxer;
+        mMvpMatrix = transform != null ? transform.mvpMatrix : null;
+    }
+
+    /**
+     * Sets the formats to try if the encoder can't be configured with the output format.
+     * Must be called before {@link #setup}.
+     */
+    void setFallbackFormats(@NonNull List<MediaFormat> fallbackFormats) {
+        mFallbackFormats = fallbackFormats;
+    }
+
+    /**
+     * Creates and starts the encoder.
+     *
+     * @param sharedContext the input surface whose EGL context should be used, or null to create
+     *                      a new one and make it current
+     */
+    void setup(@Nullable InputSurface sharedContext) {
+        mEncoder = createEncoder();
+        if (sharedContext == null) {
+            mEncoderInputSurfaceWrapper = new InputSurface(mEncoder.createInputSurface());
+            mEncoderInputSurfaceWrapper.makeCurrent();
+        } else {
+            mEncoderInputSurfaceWrapper = new InputSurface(mEncoder.createInputSurface(), sharedContext);
+        }
+        mWidth = mOutputFormat.getInteger(MediaFormat.KEY_WIDTH);
+        mHeight = mOutputFormat.getInteger(MediaFormat.KEY_HEIGHT);
+        mEncoder.start();
+        mEncoderStarted = true;
+        mEncoderBuffers = new MediaCodecBufferCompatWrapper(mEncoder);
+    }
+
+    // Tries the output format, then the fallbacks, from the one that worked last time.
+    private MediaCodec createEncoder() {
+        if (mFallbackFormats.isEmpty()) return MediaCodecCompat.createAndConfigure(mOutputFormat, null, true);
+        List<MediaFormat> formats = new ArrayList<>();
+        formats.add(mOutputFormat);
+        formats.addAll(mFallbackFormats);
+        int start = FormatFallbacks.get().getStart(formats);
+        boolean transientFailure = false;
+        RuntimeException failure = null;
+        for (int i = start; i < formats.size(); i++) {
+            MediaFormat format = formats.get(i);
+            MediaCodec encoder;
+            try {
+                // Codecs rejecting a format may accept the next one: only the last one tells.
+                encoder = MediaCodecCompat.createAndConfigure(format, null, true, i == formats.size() - 1);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                LOG.w("Could not configure an encoder with " + format, e);
+                transientFailure |= isTransient(e);
+                failure = e;
+                continue;
+            }
+            if (i > 0) LOG.i("Encoder configured with fallback format " + format);
+            // Failures due to other codecs in use say nothing about the format.
+            if (!transientFailure) FormatFallbacks.get().onConfigured(formats, i);
+            mOutputFormat = format;
+            return encoder;
+        }
+        throw failure;
+    }
+
+    private static boolean isTransient(RuntimeException e) {
+        return Build.VERSION.SDK_INT >= 21 && e instanceof MediaCodec.CodecException
+                && ((MediaCodec.CodecException) e).isTransient();
+    }
+
+    /**
+     * Returns the format the encoder was configured with, which is a fallback one if the
+     * output format was rejected.
+     */
+    MediaFormat getOutputFormat() {
+        return mOutputFormat;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    @Nullable
+    float[] getMvpMatrix() {
+        return mMvpMatrix;
+    }
+
+    InputSurface getInputSurface() {
+        return mEncoderInputSurfaceWrapper;
+    }
+
+    /**
+     * Draws the current decoder output and sends it to the encoder.
+     *
+     * @param decoderOutput the decoder output surface
+     * @param overlays the overlays drawn over the frame, or null for none
+     * @param presentationTimeUs the output timestamp
+     * @param switchSurface whether this surface must be made current first, when
+     *                      the EGL context is shared with other encoders
+     */
+    void drawFrame(OutputSurface decoderOutput, @Nullable OverlayRenderer overlays, long presentationTimeUs,
+                   boolean switchSurface) {
+        if (switchSurface) {
+            mEncoderInputSurfaceWrapper.makeCurrent();
+            GLES20.glViewport(0, 0, mWidth, mHeight);
+        }
+        decoderOutput.drawImage(mMvpMatrix);
+        if (overlays != null) overlays.draw(presentationTimeUs, mWidth, mHeight);
+        mEncoderInputSurfaceWrapper.setPresentationTime(presentationTimeUs * 1000);
+        mEncoderInputSurfaceWrapper.swapBuffers();
+    }
+
+    /**
+     * Makes the next frame a key frame. Must be called before {@link #drawFrame}.
+     * Does nothing before Android 4.4, where parameters can't be changed while encoding.
+     */
+    void requestSyncFrame() {
+        if (Build.VERSION.SDK_INT < 19) return;
+        Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        mEncoder.setParameters(parameters);
+    }
+
+    /**
+     * Adjusts the bit rate while encoding to meet the given budget. Can be called after {@link #setup}.
+     * Before Android 4.4, the bit rate can't be changed while encoding, so the configured one is kept.
+     */
+    void setSizeBudget(SizeBudgetController sizeBudget) {
+        if (Build.VERSION.SDK_INT < 19) {
+            LOG.w("Bit rate can't be corrected before Android 4.4, keeping "
+                    + mOutputFormat.getInteger(MediaFormat.KEY_BIT_RATE) + " bps.");
+            return;
+        }
+        mSizeBudget = sizeBudget;
+        if (mEncoder != null) setBitRate(sizeBudget.getBitRate());
+    }
+
+    private void setBitRate(int bitRate) {
+        if (Build.VERSION.SDK_INT < 19) return;
+        Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+        mEncoder.setParameters(parameters);
+    }
+
+    void signalEndOfInputStream() {
+        mEncoder.signalEndOfInputStream();
+    }
+
+    int drain(long timeoutUs) {
+        if (mIsEncoderEOS) return VideoTrackTranscoder.DRAIN_STATE_NONE;
+        int result = mEncoder.dequeueOutputBuffer(mBufferInfo, timeoutUs);
+        switch (result) {
+            case MediaCodec.INFO_TRY_AGAIN_LATER:
+                return VideoTrackTranscoder.DRAIN_STATE_NONE;
+            case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
+                if (mActualOutputFormat != null)
+                    throw new RuntimeException("Video output format changed twice.");
+                mActualOutputFormat = mEncoder.getOutputFormat();
+                mMuxer.setOutputFormat(QueuedMuxer.SampleType.VIDEO, mActualOutputFormat);
+                return VideoTrackTranscoder.DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
+            case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED:
+                mEncoderBuffers.onOutputBuffersChanged();
+                return VideoTrackTranscoder.DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
+        }
+        if (mActualOutputFormat == null) {
+            throw new RuntimeException("Could not determine actual output format.");
+        }
+
+        if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            mIsEncoderEOS = true;
+            mBufferInfo.set(0, 0, 0, mBufferInfo.flags);
+        }
+        if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            // SPS or PPS, which should be passed by MediaFormat.
+            mEncoder.releaseOutputBuffer(result, false);
+            return VideoTrackTranscoder.DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
+        }
+        mMuxer.writeSampleData(QueuedMuxer.SampleType.VIDEO, mEncoderBuffers.getOutputBuffer(result), mBufferInfo);
+        if (mSizeBudget != null && mSizeBudget.onSample(mBufferInfo.size, mBufferInfo.presentationTimeUs)) {
+            setBitRate(mSizeBudget.getBitRate());
+        }
+        mWrittenPresentationTimeUs = mBufferInfo.presentationTimeUs;
+        mWrittenBytes += mBufferInfo.size;
+        mEncoder.releaseOutputBuffer(result, false);
+        return VideoTrackTranscoder.DRAIN_STATE_CONSUMED;
+    }
+
+    MediaFormat getDeterminedFormat() {
+        return mActualOutputFormat;
+    }
+
+    String getName() {
+        return mEncoder.getName();
+    }
+
+    long getWrittenBytes() {
+        return mWrittenBytes;
+    }
+
+    long getWrittenPresentationTimeUs() {
+        return mWrittenPresentationTimeUs;
+    }
+
+    boolean isFinished() {
+        return mIsEncoderEOS;
+    }
+
+    void release() {
+        if (mEncoderInputSurfaceWrapper != null) {
+            mEncoderInputSurfaceWrapper.release();
+            mEncoderInputSurfaceWrapper = null;
+        }
+        if (mEncoder != null) {
+            if (mEncoderStarted) mEncoder.stop();
+            mEncoder.release();
+            mEncoder = null;
+        }
+    }
+}
@@ -19,78 +19,211 @@ import android.media.MediaCodec;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 
+import net.ypresto.androidtranscoder.Overlay;
+import net.ypresto.androidtranscoder.Thumbnails;
 import net.ypresto.androidtranscoder.compat.MediaCodecBufferCompatWrapper;
+import net.ypresto.androidtranscoder.compat.MediaCodecCompat;
 import net.ypresto.androidtranscoder.engine.QueuedMuxer;
-import net.ypresto.androidtranscoder.transcode.TrackTranscoder;
+import net.ypresto.androidtranscoder.transcode.bitrate.SizeBudgetController;
+import net.ypresto.androidtranscoder.transcode.framerate.FrameRateConverter;
+import net.ypresto.androidtranscoder.transcode.framerate.GridFrameRateConverter;
+import net.ypresto.androidtranscoder.transcode.opengl.GlFilter;
 import net.ypresto.androidtranscoder.transcode.opengl.InputSurface;
 import net.ypresto.androidtranscoder.transcode.opengl.OutputSurface;
+import net.ypresto.androidtranscoder.transcode.opengl.OverlayRenderer;
+import net.ypresto.androidtranscoder.transcode.scene.SceneChangeTap;
+import net.ypresto.androidtranscoder.transcode.thumbnail.ThumbnailTap;
+import net.ypresto.androidtranscoder.transcode.transform.VideoTransform;
+import net.ypresto.androidtranscoder.utils.AvcNalUtils;
 import net.ypresto.androidtranscoder.utils.Logger;
 import net.ypresto.androidtranscoder.utils.MediaFormatConstants;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 // Refer: https://android.googlesource.com/platform/cts/+/lollipop-release/tests/tests/media/src/android/media/cts/ExtractDecodeEditEncodeMuxTest.java
 public class VideoTrackTranscoder implements TrackTranscoder {
     private static final String TAG = "VideoTrackTranscoder";
     private static final Logger LOG = new Logger(TAG);
 
-    private static final int DRAIN_STATE_NONE = 0;
-    private static final int DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY = 1;
-    private static final int DRAIN_STATE_CONSUMED = 2;
+    static final int DRAIN_STATE_NONE = 0;
+    static final int DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY = 1;
+    static final int DRAIN_STATE_CONSUMED = 2;
+    // How many recently queued frames are compared against when skipping non-reference ones.
+    // Covers the reordering window of common B-frame structures.
+    private static final int QUEUED_TIMES_SIZE = 16;
 
     private final MediaExtractor mExtractor;
     private final int mTrackIndex;
-    private final MediaFormat mOutputFormat;
-    private final QueuedMuxer mMuxer;
     private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
     private MediaCodec mDecoder;
-    private MediaCodec mEncoder;
     private MediaCodecBufferCompatWrapper mDecoderBuffers;
-    private MediaCodecBufferCompatWrapper mEncoderBuffers;
+    // The first one is the main output, the others are additional renditions.
+    private final List<VideoEncoder> mEncoders = new ArrayList<>();
 
-    private MediaFormat mActualOutputFormat;
     private OutputSurface mDecoderOutputSurfaceWrapper;
-    private InputSurface mEncoderInputSurfaceWrapper;
     private boolean mIsExtractorEOS;
     private boolean mIsDecoderEOS;
-    private boolean mIsEncoderEOS;
     private boolean mDecoderStarted;
-    private boolean mEncoderStarted;
-    private long mWrittenPresentationTimeUs;
+    private float mSpeed = 1F;
+    private long mTrimStartUs = 0;
+    private long mTrimEndUs = Long.MAX_VALUE;
 
-    // A step is defined as the microseconds between two frame.
-    // The average step is basically 1 / frame rate.
-    private float mAvgStep = 0;
-    private float mTargetAvgStep;
-    private int mRenderedSteps = -1; // frames - 1
-    private long mLastRenderedUs;
-    private long mLastStep;
+    private FrameRateConverter mFrameRateConverter;
+    private boolean mSkipNonReferenceFrames;
+    private final long[] mQueuedOutputTimesUs = new long[QUEUED_TIMES_SIZE];
+    private int mQueuedCount;
+    private int mHeldInputIndex = -1;
+    private int mSkippedFrames;
+    private final int mFrameRate;
+    private boolean mKeyFramesOnly;
+    private long mKeyFrameStrideUs;
+    private long mNextKeyFrameUs = Long.MIN_VALUE;
+    private long mReadPresentationTimeUs;
+    private long mRetimedFrames;
+    private ThumbnailTap mThumbnailTap;
+    private SceneChangeTap mSceneChangeTap;
+    private List<GlFilter> mFilters;
+    private OverlayRenderer mOverlayRenderer;
+    private final boolean mThroughputHints;
+    private int mRenderedFrameCount;
 
     public VideoTrackTranscoder(MediaExtractor extractor, int trackIndex,
                                 MediaFormat outputFormat, QueuedMuxer muxer) {
+        this(extractor, trackIndex, outputFormat, muxer, null);
+    }
+
+    /**
+     * @param transform the transform applied to frames, e.g. rotation or crop, or null for none
+     */
+    public VideoTrackTranscoder(MediaExtractor extractor, int trackIndex,
+                                MediaFormat outputFormat, QueuedMuxer muxer, @Nullable VideoTransform transform) {
         mExtractor = extractor;
         mTrackIndex = trackIndex;
-        mOutputFormat = outputFormat;
-        mMuxer = muxer;
+        mEncoders.add(new VideoEncoder(outputFormat, muxer, transform));
+        mThroughputHints = MediaCodecCompat.hasThroughputHints(outputFormat);
+
+        mFrameRate = outputFormat.getInteger(MediaFormat.KEY_FRAME_RATE);
+        mFrameRateConverter = new GridFrameRateConverter(mFrameRate);
+    }
+
+    /**
+     * Replaces the default {@link GridFrameRateConverter}, which only drops frames.
+     * Must be called before frames are decoded.
+     *
+     * @param converter the frame rate converter
+     */
+    public void setFrameRateConverter(@NonNull FrameRateConverter converter) {
+        mFrameRateConverter = converter;
+    }
+
+    /**
+     * Whether H.264 frames that are not referenced by others should not be decoded at all,
+     * when the frame rate converter would drop them anyway. This saves decoder time when
+     * reducing the frame rate. Has no effect for other formats.
+     *
+     * @param skip true to skip
+     */
+    public void setSkipNonReferenceFrames(boolean skip) {
+        mSkipNonReferenceFrames = skip;
+    }
+
+    /**
+     * Decodes key frames only, at most one every given interval of input, and shows them one
+     * after the other at the output frame rate. Other samples are skipped by seeking the
+     * extractor to the next sync sample, so they are not even read.
+     * The speed is ignored in this mode.
+     *
+     * @param strideUs minimum distance between decoded key frames, 0 to decode all of them
+     */
+    public void setKeyFramesOnly(long strideUs) {
+        mKeyFramesOnly = true;
+        mKeyFrameStrideUs = strideUs;
+    }
 
-        int frameRate = outputFormat.getInteger(MediaFormat.KEY_FRAME_RATE);
-        mTargetAvgStep = (1F / frameRate) * 1000 * 1000;
+    /**
+     * Returns the presentation time of the last sample passed to the decoder, relative to the
+     * trim start. Unlike {@link #getWrittenPresentationTimeUs()}, this is in input time.
+     *
+     * @return the presentation time in microseconds
+     */
+    public long getReadPresentationTimeUs() {
+        return mReadPresentationTimeUs;
+    }
+
+    /**
+     * Adds an output with its own format and muxer. Frames are decoded once and drawn
+     * to the encoders of all outputs, at the frame rate of the main one.
+     * Must be called before {@link #setup()}.
+     *
+     * @param outputFormat the format of the additional output
+     * @param muxer the muxer of the additional output
+     * @param transform the transform applied to frames of this output, or null for none
+     */
+    public void addRendition(MediaFormat outputFormat, QueuedMuxer muxer, @Nullable VideoTransform transform) {
+        mEncoders.add(new VideoEncoder(outputFormat, muxer, transform));
+    }
+
+    /**
+     * Captures thumbnails from the rendered frames. Must be called before {@link #setup()}.
+     *
+     * @param thumbnails the thumbnail settings
+     */
+    public void setThumbnails(Thumbnails thumbnails) {
+        mThumbnailTap = new ThumbnailTap(thumbnails);
+    }
+
+    /**
+     * Draws frames through the given filters, for all outputs and thumbnails.
+     * Must be called before {@link #setup()}.
+     *
+     * @param filters the filters, in the order they are applied
+     */
+    public void setFilters(List<GlFilter> filters) {
+        mFilters = filters;
+    }
+
+    /**
+     * Draws the given overlays over each frame, for all outputs. Must be called before {@link #setup()}.
+     *
+     * @param overlays the overlays, drawn in order
+     */
+    public void setOverlays(List<Overlay> overlays) {
+        mOverlayRenderer = new OverlayRenderer(overlays);
+    }
+
+    /**
+     * Requests a key frame from all encoders at each scene cut, detected on a tiny copy
+     * of rendered frames. Must be called before {@link #setup()}.
+     *
+     * @param threshold the histogram difference above which frames are cuts, between 0 and 1
+     */
+    public void setSceneChangeKeyFrames(float threshold) {
+        mSceneChangeTap = new SceneChangeTap(threshold);
+    }
+
+    /**
+     * Adjusts the bit rate of the main output while encoding, to meet the given budget.
+     *
+     * @param sizeBudget the budget of the video track
+     */
+    public void setSizeBudget(SizeBudgetController sizeBudget) {
+        mEncoders.get(0).setSizeBudget(sizeBudget);
     }
 
     @Override
     public void setup() {
         mExtractor.selectTrack(mTrackIndex);
-        try {
-            mEncoder = MediaCodec.createEncoderByType(mOutputFormat.getString(MediaFormat.KEY_MIME));
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
+        InputSurface mainSurface = null;
+        for (VideoEncoder encoder : mEncoders) {
+            // All encoders share the EGL context of the main one, which owns the decoder texture.
+            encoder.setup(mainSurface);
+            if (mainSurface == null) mainSurface = encoder.getInputSurface();
         }
-        mEncoder.configure(mOutputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-        mEncoderInputSurfaceWrapper = new InputSurface(mEncoder.createInputSurface());
-        mEncoderInputSurfaceWrapper.makeCurrent();
-        mEncoder.start();
-        mEncoderStarted = true;
-        mEncoderBuffers = new MediaCodecBufferCompatWrapper(mEncoder);
 
         MediaFormat inputFormat = mExtractor.getTrackFormat(mTrackIndex);
         if (inputFormat.containsKey(MediaFormatConstants.KEY_ROTATION_DEGREES)) {
@@ -99,21 +232,51 @@ public class VideoTrackTranscoder implements TrackTranscoder {
             // refer: https://android.googlesource.com/platform/frameworks/av/+blame/lollipop-release/media/libstagefright/Utils.cpp
             inputFormat.setInteger(MediaFormatConstants.KEY_ROTATION_DEGREES, 0);
         }
+        if (!MediaFormatConstants.MIMETYPE_VIDEO_AVC.equals(inputFormat.getString(MediaFormat.KEY_MIME))) {
+            mSkipNonReferenceFrames = false;
+        }
         mDecoderOutputSurfaceWrapper = new OutputSurface();
-        try {
-            mDecoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
+        if (mFilters != null && !mFilters.isEmpty()) {
+            mDecoderOutputSurfaceWrapper.setFilters(mFilters,
+                    inputFormat.getInteger(MediaFormat.KEY_WIDTH), inputFormat.getInteger(MediaFormat.KEY_HEIGHT));
+        }
+        if (mOverlayRenderer != null) mOverlayRenderer.setup();
+        if (mSceneChangeTap != null) mSceneChangeTap.setup();
+        if (mThumbnailTap != null) {
+            mThumbnailTap.setup(mEncoders.get(0).getWidth(), mEncoders.get(0).getHeight());
         }
-        mDecoder.configure(inputFormat, mDecoderOutputSurfaceWrapper.getSurface(), null, 0);
+        if (mThroughputHints) MediaCodecCompat.setThroughputHints(inputFormat);
+        mDecoder = MediaCodecCompat.createAndConfigure(inputFormat, mDecoderOutputSurfaceWrapper.getSurface(), false);
         mDecoder.start();
         mDecoderStarted = true;
         mDecoderBuffers = new MediaCodecBufferCompatWrapper(mDecoder);
     }
 
+    /**
+     * Changes the playback speed of the output by scaling the presentation timestamps.
+     * Frames are dropped to respect the output frame rate, if needed.
+     *
+     * @param speed the speed, 1 for no change
+     */
+    public void setSpeed(float speed) {
+        mSpeed = speed;
+    }
+
+    /**
+     * Restricts the output to the given range of the input, in microseconds.
+     * Timestamps are shifted so that the output starts at 0.
+     *
+     * @param startUs first input timestamp to be written
+     * @param endUs last input timestamp to be written
+     */
+    public void setTrim(long startUs, long endUs) {
+        mTrimStartUs = startUs;
+        mTrimEndUs = endUs;
+    }
+
     @Override
     public MediaFormat getDeterminedFormat() {
-        return mActualOutputFormat;
+        return mEncoders.get(0).getDeterminedFormat();
     }
 
     @Override
@@ -121,7 +284,9 @@ public class VideoTrackTranscoder implements TrackTranscoder {
         boolean busy = false;
 
         int status;
-        while (drainEncoder(0) != DRAIN_STATE_NONE) busy = true;
+        for (VideoEncoder encoder : mEncoders) {
+            while (encoder.drain(0) != DRAIN_STATE_NONE) busy = true;
+        }
         do {
             status = drainDecoder(0);
             if (status != DRAIN_STATE_NONE) busy = true;
@@ -134,35 +299,95 @@ public class VideoTrackTranscoder implements TrackTranscoder {
 
     @Override
     public long getWrittenPresentationTimeUs() {
-        return mWrittenPresentationTimeUs;
+        long writtenPresentationTimeUs = Long.MAX_VALUE;
+        for (VideoEncoder encoder : mEncoders) {
+            writtenPresentationTimeUs = Math.min(writtenPresentationTimeUs, encoder.getWrittenPresentationTimeUs());
+        }
+        return writtenPresentationTimeUs;
+    }
+
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    /**
+     * Returns the number of frames sent to the encoders so far, repeated ones included.
+     */
+    public int getRenderedFrameCount() {
+        return mRenderedFrameCount;
+    }
+
+    /**
+     * Sets the formats to try, in order, if the main encoder can't be configured with
+     * the output format. Must be called before {@link #setup()}.
+     *
+     * @param fallbackFormats the fallback formats
+     */
+    public void setFallbackFormats(@NonNull List<MediaFormat> fallbackFormats) {
+        mEncoders.get(0).setFallbackFormats(fallbackFormats);
+    }
+
+    /**
+     * Returns the format the main encoder was configured with. Must be called after {@link #setup()}.
+     */
+    public MediaFormat getOutputFormat() {
+        return mEncoders.get(0).getOutputFormat();
+    }
+
+    /**
+     * Returns the names of the main encoder and of the decoder. Must be called after {@link #setup()}.
+     */
+    public String getEncoderName() {
+        return mEncoders.get(0).getName();
+    }
+
+    public String getDecoderName() {
+        return mDecoder.getName();
+    }
+
+    /**
+     * Returns the number of bytes written to the main output so far.
+     */
+    public long getWrittenBytes() {
+        return mEncoders.get(0).getWrittenBytes();
     }
 
     @Override
     public boolean isFinished() {
-        return mIsEncoderEOS;
+        for (VideoEncoder encoder : mEncoders) {
+            if (!encoder.isFinished()) return false;
+        }
+        return true;
     }
 
     // TODO: CloseGuard
     @Override
     public void release() {
+        if (mThumbnailTap != null) {
+            mThumbnailTap.release();
+            mThumbnailTap = null;
+        }
+        if (mSceneChangeTap != null) {
+            mSceneChangeTap.release();
+            mSceneChangeTap = null;
+        }
+        if (mOverlayRenderer != null) {
+            mOverlayRenderer.release();
+            mOverlayRenderer = null;
+        }
         if (mDecoderOutputSurfaceWrapper != null) {
             mDecoderOutputSurfaceWrapper.release();
             mDecoderOutputSurfaceWrapper = null;
         }
-        if (mEncoderInputSurfaceWrapper != null) {
-            mEncoderInputSurfaceWrapper.release();
-            mEncoderInputSurfaceWrapper = null;
+        // Renditions first, since they use the EGL context of the main output.
+        for (int i = mEncoders.size() - 1; i >= 0; i--) {
+            mEncoders.get(i).release();
         }
         if (mDecoder != null) {
             if (mDecoderStarted) mDecoder.stop();
             mDecoder.release();
             mDecoder = null;
         }
-        if (mEncoder != null) {
-            if (mEncoderStarted) mEncoder.stop();
-            mEncoder.release();
-            mEncoder = null;
-        }
     }
 
     private int drainExtractor(long timeoutUs) {
@@ -171,20 +396,76 @@ public class VideoTrackTranscoder implements TrackTranscoder {
         if (trackIndex >= 0 && trackIndex != mTrackIndex) {
             return DRAIN_STATE_NONE;
         }
-        int result = mDecoder.dequeueInputBuffer(timeoutUs);
+        // Reuse the input buffer of a skipped frame, if any.
+        int result = mHeldInputIndex >= 0 ? mHeldInputIndex : mDecoder.dequeueInputBuffer(timeoutUs);
+        mHeldInputIndex = -1;
         if (result < 0) return DRAIN_STATE_NONE;
+        if (trackIndex == mTrackIndex && mExtractor.getSampleTime() > mTrimEndUs) {
+            // Stop reading this track, so that the other one can go on.
+            mExtractor.unselectTrack(mTrackIndex);
+            trackIndex = -1;
+        }
         if (trackIndex < 0) {
             mIsExtractorEOS = true;
             mDecoder.queueInputBuffer(result, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            if (mSkippedFrames > 0) LOG.i("Skipped decoding " + mSkippedFrames + " non-reference frames.");
             return DRAIN_STATE_NONE;
         }
-        int sampleSize = mExtractor.readSampleData(mDecoderBuffers.getInputBuffer(result), 0);
+        if (mKeyFramesOnly && !isWantedKeyFrame()) {
+            // Only happens when the seek falls short: filter samples up to the next key frame.
+            mHeldInputIndex = result;
+            mExtractor.advance();
+            return DRAIN_STATE_CONSUMED;
+        }
+        ByteBuffer inputBuffer = mDecoderBuffers.getInputBuffer(result);
+        int sampleSize = mExtractor.readSampleData(inputBuffer, 0);
+        long sampleTimeUs = mExtractor.getSampleTime();
+        if (mSkipNonReferenceFrames) {
+            if (shouldSkipSample(inputBuffer, sampleSize, sampleTimeUs)) {
+                mHeldInputIndex = result;
+                mSkippedFrames++;
+                mExtractor.advance();
+                return DRAIN_STATE_CONSUMED;
+            }
+            if (sampleTimeUs >= mTrimStartUs) {
+                mQueuedOutputTimesUs[mQueuedCount++ % QUEUED_TIMES_SIZE] = toOutputTimeUs(sampleTimeUs);
+            }
+        }
         boolean isKeyFrame = (mExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0;
-        mDecoder.queueInputBuffer(result, 0, sampleSize, mExtractor.getSampleTime(), isKeyFrame ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0);
-        mExtractor.advance();
+        mDecoder.queueInputBuffer(result, 0, sampleSize, sampleTimeUs, isKeyFrame ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0);
+        mReadPresentationTimeUs = sampleTimeUs - mTrimStartUs;
+        if (mKeyFramesOnly) {
+            mNextKeyFrameUs = sampleTimeUs + Math.max(mKeyFrameStrideUs, 1);
+            mExtractor.seekTo(mNextKeyFrameUs, MediaExtractor.SEEK_TO_NEXT_SYNC);
+        } else {
+            mExtractor.advance();
+        }
         return DRAIN_STATE_CONSUMED;
     }
 
+    private boolean isWantedKeyFrame() {
+        if ((mExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) == 0) return false;
+        return mExtractor.getSampleTime() >= Math.max(mNextKeyFrameUs, mTrimStartUs);
+    }
+
+    // Whether the sample can be left out: no other frame depends on it, and it would not be
+    // rendered because it is out of the trim range or another queued frame wins its slot.
+    private boolean shouldSkipSample(ByteBuffer buffer, int size, long sampleTimeUs) {
+        if (!AvcNalUtils.isNonReferenceFrame(buffer, 0, size)) return false;
+        if (sampleTimeUs < mTrimStartUs) return true;
+        long outputTimeUs = toOutputTimeUs(sampleTimeUs);
+        int count = Math.min(mQueuedCount, QUEUED_TIMES_SIZE);
+        for (int i = 0; i < count; i++) {
+            if (mFrameRateConverter.isDroppedBy(outputTimeUs, mQueuedOutputTimesUs[i])) return true;
+        }
+        return false;
+    }
+
+    private long toOutputTimeUs(long presentationTimeUs) {
+        long timeUs = presentationTimeUs - mTrimStartUs;
+        return mSpeed != 1F ? (long) (timeUs / mSpeed) : timeUs;
+    }
+
     private int drainDecoder(long timeoutUs) {
         if (mIsDecoderEOS) return DRAIN_STATE_NONE;
         int result = mDecoder.dequeueOutputBuffer(mBufferInfo, timeoutUs);
@@ -196,88 +477,49 @@ public class VideoTrackTranscoder implements TrackTranscoder {
                 return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
         }
         if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-            mEncoder.signalEndOfInputStream();
+            for (VideoEncoder encoder : mEncoders) encoder.signalEndOfInputStream();
+            if (mThumbnailTap != null) mThumbnailTap.finish();
             mIsDecoderEOS = true;
             mBufferInfo.size = 0;
         }
-        boolean doRender = shouldRenderFrame();
+        if (mBufferInfo.presentationTimeUs < mTrimStartUs || mBufferInfo.presentationTimeUs > mTrimEndUs) {
+            mBufferInfo.size = 0; // Out of the trim range, don't render.
+        }
+        long inputTimeUs = mBufferInfo.presentationTimeUs;
+        mBufferInfo.presentationTimeUs = toOutputTimeUs(inputTimeUs);
+        if (mKeyFramesOnly && mBufferInfo.size > 0) {
+            // Key frames are shown one after the other, on the output frame rate grid.
+            mBufferInfo.presentationTimeUs = mRetimedFrames++ * 1000000L / mFrameRate;
+        }
+        boolean doRender = mBufferInfo.size > 0 && mFrameRateConverter.onFrame(mBufferInfo.presentationTimeUs);
+        if (doRender) {
+            // Fill the gaps with the previous frame, which is still in the texture.
+            int repeatCount = mFrameRateConverter.getRepeatCount();
+            for (int i = 0; i < repeatCount; i++) {
+                drawFrame(mFrameRateConverter.getRepeatTimeUs(i));
+            }
+        }
         // NOTE: doRender will block if buffer (of encoder) is full.
         // Refer: http://bigflake.com/mediacodec/CameraToMpegTest.java.txt
         mDecoder.releaseOutputBuffer(result, doRender);
         if (doRender) {
             mDecoderOutputSurfaceWrapper.awaitNewImage();
-            mDecoderOutputSurfaceWrapper.drawImage();
-            mEncoderInputSurfaceWrapper.setPresentationTime(mBufferInfo.presentationTimeUs * 1000);
-            mEncoderInputSurfaceWrapper.swapBuffers();
-        }
-        return DRAIN_STATE_CONSUMED;
-    }
-
-    // TODO improve this. as it is now, rendering a frame after dropping many,
-    // will not decrease avgStep but rather increase it (for this single frame; then it starts decreasing).
-    // This has the effect that, when a frame is rendered, the following frame is always rendered,
-    // because the conditions are worse then before. After this second frame things go back to normal,
-    // but this is terrible logic.
-    private boolean shouldRenderFrame() {
-        if (mBufferInfo.size <= 0) return false;
-        if (mRenderedSteps > 0 && mAvgStep < mTargetAvgStep) {
-            // We are rendering too much. Drop this frame.
-            // Always render first 2 frames, we need them to compute the avg.
-            LOG.v("FRAME: Dropping. avg: " + mAvgStep + " target: " + mTargetAvgStep);
-            long newLastStep = mBufferInfo.presentationTimeUs - mLastRenderedUs;
-            float allSteps = (mAvgStep * mRenderedSteps) - mLastStep + newLastStep;
-            mAvgStep = allSteps / mRenderedSteps; // we didn't add a step, just increased the last
-            mLastStep = newLastStep;
-            return false;
-        } else {
-            // Render this frame, since our average step is too long or exact.
-            LOG.v("FRAME: RENDERING. avg: " + mAvgStep + " target: " + mTargetAvgStep + "New stepCount: " + (mRenderedSteps + 1));
-            if (mRenderedSteps >= 0) {
-                // Update the average value, since now we have mLastRenderedUs.
-                long step = mBufferInfo.presentationTimeUs - mLastRenderedUs;
-                float allSteps = (mAvgStep * mRenderedSteps) + step;
-                mAvgStep = allSteps / (mRenderedSteps + 1); // we added a step, so +1
-                mLastStep = step;
+            long outputTimeUs = mFrameRateConverter.getOutputTimeUs();
+            if (mSceneChangeTap != null
+                    && mSceneChangeTap.onFrame(outputTimeUs, mDecoderOutputSurfaceWrapper, mEncoders.get(0).getMvpMatrix())) {
+                for (VideoEncoder encoder : mEncoders) encoder.requestSyncFrame();
             }
-            // Increment both
-            mRenderedSteps++;
-            mLastRenderedUs = mBufferInfo.presentationTimeUs;
-            return true;
+            drawFrame(outputTimeUs);
+            if (mThumbnailTap != null) mThumbnailTap.onFrame(inputTimeUs, mDecoderOutputSurfaceWrapper, mEncoders.get(0).getMvpMatrix());
         }
+        return DRAIN_STATE_CONSUMED;
     }
 
-    private int drainEncoder(long timeoutUs) {
-        if (mIsEncoderEOS) return DRAIN_STATE_NONE;
-        int result = mEncoder.dequeueOutputBuffer(mBufferInfo, timeoutUs);
-        switch (result) {
-            case MediaCodec.INFO_TRY_AGAIN_LATER:
-                return DRAIN_STATE_NONE;
-            case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
-                if (mActualOutputFormat != null)
-                    throw new RuntimeException("Video output format changed twice.");
-                mActualOutputFormat = mEncoder.getOutputFormat();
-                mMuxer.setOutputFormat(QueuedMuxer.SampleType.VIDEO, mActualOutputFormat);
-                return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
-            case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED:
-                mEncoderBuffers.onOutputBuffersChanged();
-                return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
-        }
-        if (mActualOutputFormat == null) {
-            throw new RuntimeException("Could not determine actual output format.");
-        }
-
-        if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-            mIsEncoderEOS = true;
-            mBufferInfo.set(0, 0, 0, mBufferInfo.flags);
+    private void drawFrame(long presentationTimeUs) {
+        mRenderedFrameCount++;
+        boolean switchSurface = mEncoders.size() > 1;
+        for (VideoEncoder encoder : mEncoders) {
+            encoder.drawFrame(mDecoderOutputSurfaceWrapper, mOverlayRenderer, presentationTimeUs, switchSurface);
         }
-        if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-            // SPS or PPS, which should be passed by MediaFormat.
-            mEncoder.releaseOutputBuffer(result, false);
-            return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
-        }
-        mMuxer.writeSampleData(QueuedMuxer.SampleType.VIDEO, mEncoderBuffers.getOutputBuffer(result), mBufferInfo);
-        mWrittenPresentationTimeUs = mBufferInfo.presentationTimeUs;
-        mEncoder.releaseOutputBuffer(result, false);
-        return DRAIN_STATE_CONSUMED;
     }
 }
@@ -0,0 +1,114 @@
+package net.ypresto.androidtranscoder.transcode.bitrate;
+
+/**
+ * Adjusts the video bit rate while encoding, so that the video track ends up close to a
+ * given number of bytes.
+ *
+ * Encoders rarely produce exactly the requested bit rate, and the error depends on the
+ * content. Every second of output, the rate measured since the last update is compared
+ * with the requested one, and the bit rate needed for the remaining budget is corrected
+ * by that ratio. Changes are limited to a factor of 2 per update and ignored below 5%.
+ */
+public class SizeBudgetController {
+    private static final long UPDATE_INTERVAL_US = 1000000;
+    private static final float MAX_CHANGE = 2F;
+    private static final float MIN_CHANGE = 0.05F;
+    private static final int MIN_BIT_RATE = 64000;
+    private static final int MAX_BIT_RATE_FACTOR = 4;
+    // Aim a little under the budget, since the last seconds can not be corrected.
+    private static final float TARGET_RATIO = 0.97F;
+    // Sample tables and headers of an MP4 file, see estimateVideoBudget().
+    private static final int MUXING_HEADER_BYTES = 8192;
+    private static final int MUXING_BYTES_PER_SAMPLE = 12;
+    private static final int AUDIO_SAMPLES_PER_SECOND = 48; // AAC at 48kHz
+
+    private final long mBudgetBytes;
+    private final long mDurationUs;
+    private final int mMaxBitRate;
+    private int mBitRate;
+    private float mEfficiency = 1F;
+    private long mWrittenBytes;
+    private long mLastTimeUs;
+    private long mWindowStartUs;
+    private long mWindowBytes;
+
+    /**
+     * @param budgetBytes the size the video track should have
+     * @param durationUs the output duration
+     */
+    public SizeBudgetController(long budgetBytes, long durationUs) {
+        if (budgetBytes <= 0 || durationUs <= 0) {
+            throw new IllegalArgumentException("Invalid budget: " + budgetBytes + " bytes in " + durationUs + "us");
+        }
+        mBudgetBytes = budgetBytes;
+        mDurationUs = durationUs;
+        mBitRate = getBitRate(budgetBytes, durationUs);
+        mMaxBitRate = Math.max(MIN_BIT_RATE, mBitRate * MAX_BIT_RATE_FACTOR);
+    }
+
+    /**
+     * Returns the bit rate that the encoder should use now.
+     */
+    public int getBitRate() {
+        return mBitRate;
+    }
+
+    public long getWrittenBytes() {
+        return mWrittenBytes;
+    }
+
+    /**
+     * Called for each encoded sample.
+     *
+     * @param size the sample size in bytes
+     * @param presentationTimeUs the sample timestamp
+     * @return true if {@link #getBitRate()} changed and should be sent to the encoder
+     */
+    public boolean onSample(int size, long presentationTimeUs) {
+        mWrittenBytes += size;
+        mWindowBytes += size;
+        // Timestamps are not monotonic with B-frames.
+        mLastTimeUs = Math.max(mLastTimeUs, presentationTimeUs);
+        long windowUs = mLastTimeUs - mWindowStartUs;
+        if (windowUs < UPDATE_INTERVAL_US) return false;
+
+        float measuredBitRate = mWindowBytes * 8F * 1000000F / windowUs;
+        mEfficiency = (mEfficiency + measuredBitRate / mBitRate) / 2F;
+        mWindowStartUs = mLastTimeUs;
+        mWindowBytes = 0;
+
+        long remainingUs = mDurationUs - mLastTimeUs;
+        if (remainingUs < UPDATE_INTERVAL_US) return false;
+        long remainingBytes = Math.max(0, mBudgetBytes - mWrittenBytes);
+        float bitRate = getBitRate(remainingBytes, remainingUs) / mEfficiency;
+        bitRate = Math.max(mBitRate / MAX_CHANGE, Math.min(mBitRate * MAX_CHANGE, bitRate));
+        bitRate = Math.max(MIN_BIT_RATE, Math.min(mMaxBitRate, bitRate));
+        if (Math.abs(bitRate - mBitRate) < mBitRate * MIN_CHANGE) return false;
+        mBitRate = (int) bitRate;
+        return true;
+    }
+
+    /**
+     * Returns the average bit rate that spends the given bytes in the given time.
+     */
+    public static int getBitRate(long bytes, long durationUs) {
+        return (int) Math.min(Integer.MAX_VALUE, bytes * 8 * 1000000 / durationUs);
+    }
+
+    /**
+     * Estimates how many bytes the video track can use for the whole file to fit the target.
+     *
+     * @param targetBytes the maximum size of the file
+     * @param durationUs the output duration
+     * @param audioBitRate the bit rate of the audio track, 0 if there is none
+     * @param frameRate the video frame rate
+     * @return the budget of the video track, at least 1
+     */
+    public static long estimateVideoBudget(long targetBytes, long durationUs, long audioBitRate, int frameRate) {
+        double seconds = durationUs / 1000000D;
+        double audioBytes = audioBitRate * seconds / 8;
+        int samplesPerSecond = frameRate + (audioBitRate > 0 ? AUDIO_SAMPLES_PER_SECOND : 0);
+        double muxingBytes = MUXING_HEADER_BYTES + MUXING_BYTES_PER_SAMPLE * samplesPerSecond * seconds;
+        return Math.max(1, (long) ((targetBytes - audioBytes - muxingBytes) * TARGET_RATIO));
+    }
+}
@@ -0,0 +1,59 @@
+package net.ypresto.androidtranscoder.transcode.framerate;
+
+/**
+ * Decides which decoded frames are rendered to the encoder, and with which timestamps,
+ * so that the output has the desired frame rate. Used by
+ * {@link net.ypresto.androidtranscoder.transcode.VideoTrackTranscoder}.
+ *
+ * Frames are passed in presentation order. Dropped frames are never rendered; gaps can
+ * be filled by rendering the previous frame again, which is still available to the
+ * renderer when the next one arrives.
+ *
+ * See {@link GridFrameRateConverter} for the default implementation.
+ */
+public interface FrameRateConverter {
+
+    /**
+     * Processes the next decoded frame.
+     *
+     * @param presentationTimeUs the frame timestamp
+     * @return true if the frame should be rendered, at {@link #getOutputTimeUs()}
+     */
+    boolean onFrame(long presentationTimeUs);
+
+    /**
+     * Returns the output timestamp of the frame accepted by the last
+     * {@link #onFrame(long)} call.
+     *
+     * @return the output timestamp
+     */
+    long getOutputTimeUs();
+
+    /**
+     * Returns how many times the previously rendered frame should be rendered again,
+     * before the frame accepted by the last {@link #onFrame(long)} call.
+     *
+     * @return the number of repetitions, 0 for none
+     */
+    int getRepeatCount();
+
+    /**
+     * Returns the output timestamp of the given repetition of the previous frame.
+     *
+     * @param index the repetition index, in [0, {@link #getRepeatCount()})
+     * @return the output timestamp
+     */
+    long getRepeatTimeUs(int index);
+
+    /**
+     * Whether a frame with the given timestamp is going to be dropped for sure, knowing that
+     * a frame with the other timestamp is also going to be passed to {@link #onFrame(long)}.
+     * This lets the caller skip decoding frames that are not referenced by others.
+     * Implementations can return false when unsure.
+     *
+     * @param presentationTimeUs the timestamp of the frame to check
+     * @param otherPresentationTimeUs the timestamp of another frame of the stream
+     * @return true if the frame will not be rendered
+     */
+    boolean isDroppedBy(long presentationTimeUs, long otherPresentationTimeUs);
+}
@@ -0,0 +1,98 @@
+package net.ypresto.androidtranscoder.transcode.framerate;
+
+/**
+ * A {@link FrameRateConverter} that maps input timestamps onto a fixed output grid,
+ * starting at the first frame timestamp and spaced by 1 / frame rate.
+ *
+ * Each frame is assigned the grid slot it falls into, where slot k covers
+ * [t(k) - {@link #SLOT_BIAS} * step, t(k) + (1 - {@link #SLOT_BIAS}) * step).
+ * The first frame of a slot is rendered at t(k), the following ones are dropped.
+ * The bias makes the choice stable when input timestamps are jittery or rounded to
+ * milliseconds: e.g. 60 to 30 fps always keeps every other frame.
+ *
+ * This works with variable frame rate input, since only timestamps are used.
+ * When duplication is enabled, empty slots are filled by repeating the previous frame,
+ * which allows up-conversion and gives constant frame rate output.
+ */
+public class GridFrameRateConverter implements FrameRateConverter {
+
+    public static final double SLOT_BIAS = 0.25;
+
+    private static final double MICROSECS_PER_SEC = 1000000D;
+
+    private final double mStepUs;
+    private final boolean mDuplicateFrames;
+
+    private boolean mStarted;
+    private long mFirstUs;
+    private long mLastSlot = -1;
+    private int mRepeatCount;
+
+    /**
+     * Creates a converter that only drops frames.
+     *
+     * @param frameRate the output frame rate
+     */
+    public GridFrameRateConverter(int frameRate) {
+        this(frameRate, false);
+    }
+
+    /**
+     * @param frameRate the output frame rate
+     * @param duplicateFrames whether empty slots should be filled with the previous frame
+     */
+    public GridFrameRateConverter(int frameRate, boolean duplicateFrames) {
+        if (frameRate <= 0) throw new IllegalArgumentException("Invalid frame rate: " + frameRate);
+        mStepUs = MICROSECS_PER_SEC / frameRate;
+        mDuplicateFrames = duplicateFrames;
+    }
+
+    @Override
+    public boolean onFrame(long presentationTimeUs) {
+        if (!mStarted) {
+            mStarted = true;
+            mFirstUs = presentationTimeUs;
+        }
+        long slot = getSlot(presentationTimeUs);
+        if (slot <= mLastSlot) {
+            mRepeatCount = 0;
+            return false;
+        }
+        mRepeatCount = mDuplicateFrames && mLastSlot >= 0 ? (int) (slot - mLastSlot - 1) : 0;
+        mLastSlot = slot;
+        return true;
+    }
+
+    @Override
+    public long getOutputTimeUs() {
+        return getSlotTimeUs(mLastSlot);
+    }
+
+    @Override
+    public int getRepeatCount() {
+        return mRepeatCount;
+    }
+
+    @Override
+    public long getRepeatTimeUs(int index) {
+        return getSlotTimeUs(mLastSlot - mRepeatCount + index);
+    }
+
+    @Override
+    public boolean isDroppedBy(long presentationTimeUs, long otherPresentationTimeUs) {
+        // The grid is unknown until the first frame.
+        if (!mStarted) return false;
+        long slot = getSlot(presentationTimeUs);
+        if (slot <= mLastSlot) return true;
+        // Frames arrive in presentation order, so the earlier frame of a slot wins.
+        return otherPresentationTimeUs < presentationTimeUs && getSlot(otherPresentationTimeUs) == slot;
+    }
+
+    private long getSlot(long presentationTimeUs) {
+        return (long) Math.floor((presentationTimeUs - mFirstUs) / mStepUs + SLOT_BIAS);
+    }
+
+    private long getSlotTimeUs(long slot) {
+        return mFirstUs + Math.round(slot * mStepUs);
+    }
+}
@@ -0,0 +1,55 @@
+package net.ypresto.androidtranscoder.transcode.opengl;
+
+import android.opengl.GLES20;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A 3x3 gaussian blur whose taps are spread by the given radius. It reads neighbour
+ * pixels, so it needs its own pass when it does not come first.
+ */
+public class BlurFilter extends GlFilter {
+    private final float mRadius;
+    private int mRadiusHandle;
+
+    /**
+     * @param radius the distance between taps, in pixels of the decoded frame
+     */
+    public BlurFilter(float radius) {
+        if (radius <= 0) throw new IllegalArgumentException("Radius must be positive.");
+        mRadius = radius;
+    }
+
+    @Override
+    public boolean isPerPixel() {
+        return false;
+    }
+
+    @NonNull
+    @Override
+    public String getDeclarations(@NonNull String prefix) {
+        return "uniform float " + prefix + "radius;";
+    }
+
+    @NonNull
+    @Override
+    public String getColorCode(@NonNull String prefix) {
+        return "    vec2 dx = vec2(uTexelSize.x * " + prefix + "radius, 0.0);\n" +
+                "    vec2 dy = vec2(0.0, uTexelSize.y * " + prefix + "radius);\n" +
+                "    color = color * 0.25\n" +
+                "        + (sampleInput(vTextureCoord - dx) + sampleInput(vTextureCoord + dx)\n" +
+                "        + sampleInput(vTextureCoord - dy) + sampleInput(vTextureCoord + dy)) * 0.125\n" +
+                "        + (sampleInput(vTextureCoord - dx - dy) + sampleInput(vTextureCoord + dx - dy)\n" +
+                "        + sampleInput(vTextureCoord - dx + dy) + sampleInput(vTextureCoord + dx + dy)) * 0.0625;";
+    }
+
+    @Override
+    public void onSetup(int program, @NonNull String prefix) {
+        mRadiusHandle = GLES20.glGetUniformLocation(program, prefix + "radius");
+    }
+
+    @Override
+    public void onDraw(long presentationTimeUs) {
+        GLES20.glUniform1f(mRadiusHandle, mRadius);
+    }
+}
@@ -0,0 +1,62 @@
+package net.ypresto.androidtranscoder.transcode.opengl;
+
+import android.opengl.GLES20;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A per-pixel filter adjusting brightness, contrast and saturation.
+ */
+public class ColorAdjustFilter extends GlFilter {
+    private final float mBrightness;
+    private final float mContrast;
+    private final float mSaturation;
+    private int mBrightnessHandle;
+    private int mContrastHandle;
+    private int mSaturationHandle;
+
+    /**
+     * @param brightness added to each channel, 0 for none
+     * @param contrast multiplies the distance to mid gray, 1 for none
+     * @param saturation multiplies the distance to luma, 1 for none, 0 for grayscale
+     */
+    public ColorAdjustFilter(float brightness, float contrast, float saturation) {
+        if (contrast < 0 || saturation < 0) {
+            throw new IllegalArgumentException("Contrast and saturation must be positive.");
+        }
+        mBrightness = brightness;
+        mContrast = contrast;
+        mSaturation = saturation;
+    }
+
+    @NonNull
+    @Override
+    public String getDeclarations(@NonNull String prefix) {
+        return "uniform float " + prefix + "brightness;\n" +
+                "uniform float " + prefix + "contrast;\n" +
+                "uniform float " + prefix + "saturation;";
+    }
+
+    @NonNull
+    @Override
+    public String getColorCode(@NonNull String prefix) {
+        return "    vec3 rgb = color.rgb + " + prefix + "brightness;\n" +
+                "    rgb = (rgb - 0.5) * " + prefix + "contrast + 0.5;\n" +
+                "    float luma = dot(rgb, vec3(0.299, 0.587, 0.114));\n" +
+                "    color.rgb = clamp(mix(vec3(luma), rgb, " + prefix + "saturation), 0.0, 1.0);";
+    }
+
+    @Override
+    public void onSetup(int program, @NonNull String prefix) {
+        mBrightnessHandle = GLES20.glGetUniformLocation(program, prefix + "brightness");
+        mContrastHandle = GLES20.glGetUniformLocation(program, prefix + "contrast");
+        mSaturationHandle = GLES20.glGetUniformLocation(program, prefix + "saturation");
+    }
+
+    @Override
+    public void onDraw(long presentationTimeUs) {
+        GLES20.glUniform1f(mBrightnessHandle, mBrightness);
+        GLES20.glUniform1f(mContrastHandle, mContrast);
+        GLES20.glUniform1f(mSaturationHandle, mSaturation);
+    }
+}
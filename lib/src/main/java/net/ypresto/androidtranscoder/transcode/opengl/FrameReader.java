@@ -0,0 +1,104 @@
+package net.ypresto.androidtranscoder.transcode.opengl;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads back decoded frames at a reduced size: the frame is drawn into an offscreen
+ * frame buffer of the requested size, then copied with glReadPixels.
+ * All buffers are allocated once, so reading a frame does not allocate.
+ *
+ * Must be created, used and released with the GL context of the decoder output current.
+ */
+public class FrameReader {
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mFramebuffer = new int[1];
+    private final int[] mTexture = new int[1];
+    private final int[] mViewport = new int[4];
+    private final ByteBuffer mPixels;
+    private final byte[] mTopRow;
+    private final byte[] mBottomRow;
+
+    public FrameReader(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mPixels = ByteBuffer.allocateDirect(width * height * BYTES_PER_PIXEL).order(ByteOrder.nativeOrder());
+        mTopRow = new byte[width * BYTES_PER_PIXEL];
+        mBottomRow = new byte[width * BYTES_PER_PIXEL];
+
+        GLES20.glGenTextures(1, mTexture, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        GLES20.glGenFramebuffers(1, mFramebuffer, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTexture[0], 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            release();
+            throw new RuntimeException("Frame buffer not complete: " + status);
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Draws the current image of the decoder output and reads it back.
+     *
+     * @param decoderOutput the decoder output surface, after {@link OutputSurface#awaitNewImage()}
+     * @param mvpMatrix the transform applied when drawing, or null for none
+     * @return RGBA pixels, top row first. The buffer is reused by the next call.
+     */
+    public ByteBuffer read(OutputSurface decoderOutput, float[] mvpMatrix) {
+        GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, mViewport, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer[0]);
+        GLES20.glViewport(0, 0, mWidth, mHeight);
+        decoderOutput.drawImage(mvpMatrix);
+        mPixels.clear();
+        GLES20.glReadPixels(0, 0, mWidth, mHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mPixels);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glViewport(mViewport[0], mViewport[1], mViewport[2], mViewport[3]);
+        flipRows();
+        mPixels.rewind();
+        return mPixels;
+    }
+
+    // GL reads rows bottom up, bitmaps expect them top down.
+    private void flipRows() {
+        int rowSize = mTopRow.length;
+        for (int top = 0, bottom = mHeight - 1; top < bottom; top++, bottom--) {
+            mPixels.position(top * rowSize);
+            mPixels.get(mTopRow);
+            mPixels.position(bottom * rowSize);
+            mPixels.get(mBottomRow);
+            mPixels.position(bottom * rowSize);
+            mPixels.put(mTopRow);
+            mPixels.position(top * rowSize);
+            mPixels.put(mBottomRow);
+        }
+    }
+
+    public void release() {
+        GLES20.glDeleteFramebuffers(1, mFramebuffer, 0);
+        GLES20.glDeleteTextures(1, mTexture, 0);
+    }
+}
@@ -0,0 +1,69 @@
+package net.ypresto.androidtranscoder.transcode.opengl;
+
+import androidx.annotation.NonNull;
+
+/**
+ * An effect applied to video frames while they are drawn to the encoder.
+ *
+ * A filter is a piece of GLSL that updates the {@code vec4 color} variable of a fragment
+ * shader. Per-pixel filters only read {@code color}, so consecutive ones are fused into a
+ * single shader and cost no extra pass. Other filters, like blurs, can read neighbour pixels
+ * of their input with {@code sampleInput(vec2)}, at {@code vTextureCoord} plus multiples of
+ * {@code uTexelSize}; they start a new pass, drawn into an offscreen frame buffer.
+ *
+ * Uniforms must be named with the given prefix, so that fused filters do not collide.
+ * All methods are called on the thread and GL context of the decoder output.
+ */
+public abstract class GlFilter {
+
+    /**
+     * Whether this filter only depends on the color of the current pixel.
+     * Defaults to true.
+     */
+    public boolean isPerPixel() {
+        return true;
+    }
+
+    /**
+     * Returns the GLSL declarations needed by this filter, typically uniforms.
+     *
+     * @param prefix the prefix of uniform names
+     * @return declarations, or an empty string
+     */
+    @NonNull
+    public String getDeclarations(@NonNull String prefix) {
+        return "";
+    }
+
+    /**
+     * Returns the GLSL statements that update {@code color}.
+     *
+     * @param prefix the prefix of uniform names
+     * @return the statements
+     */
+    @NonNull
+    public abstract String getColorCode(@NonNull String prefix);
+
+    /**
+     * Called once the program containing this filter is linked, to look up uniforms.
+     *
+     * @param program the program
+     * @param prefix the prefix of uniform names
+     */
+    public void onSetup(int program, @NonNull String prefix) {
+    }
+
+    /**
+     * Called before each draw, with the program in use, to set uniforms.
+     *
+     * @param presentationTimeUs the input timestamp of the frame
+     */
+    public void onDraw(long presentationTimeUs) {
+    }
+
+    /**
+     * Releases GL resources owned by this filter.
+     */
+    public void release() {
+    }
+}
@@ -0,0 +1,267 @@
+package net.ypresto.androidtranscoder.transcode.opengl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draws frames through a list of {@link GlFilter}s with as few passes as possible.
+ *
+ * Filters are grouped in passes, each one a single generated fragment shader: a new pass
+ * starts at every filter that is not per-pixel. All passes but the last one are drawn
+ * at the frame size into two frame buffers, used in turn as input and output. They only
+ * run once per decoded image, however many times it is drawn. The last pass is drawn
+ * onto the current surface with the model-view-projection matrix of that output, so
+ * with per-pixel filters only there is no offscreen pass at all.
+ */
+class GlFilterChain {
+    private static final int FLOAT_SIZE_BYTES = 4;
+    private static final int VERTICES_DATA_STRIDE_BYTES = 5 * FLOAT_SIZE_BYTES;
+    private static final int VERTICES_DATA_POS_OFFSET = 0;
+    private static final int VERTICES_DATA_UV_OFFSET = 3;
+    private static final float[] VERTICES_DATA = {
+            // X, Y, Z, U, V
+            -1.0f, -1.0f, 0, 0.f, 0.f,
+            1.0f, -1.0f, 0, 1.f, 0.f,
+            -1.0f,  1.0f, 0, 0.f, 1.f,
+            1.0f,  1.0f, 0, 1.f, 1.f,
+    };
+    static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n" +
+                    "uniform mat4 uSTMatrix;\n" +
+                    "attribute vec4 aPosition;\n" +
+                    "attribute vec4 aTextureCoord;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "void main() {\n" +
+                    "  gl_Position = uMVPMatrix * aPosition;\n" +
+                    "  vTextureCoord = (uSTMatrix * aTextureCoord).xy;\n" +
+                    "}\n";
+
+    private static class Pass {
+        private final List<GlFilter> mFilters;
+        private final List<String> mPrefixes;
+        private final boolean mExternal;
+        private int mProgram;
+        private int maPositionHandle;
+        private int maTextureHandle;
+        private int muMVPMatrixHandle;
+        private int muSTMatrixHandle;
+        private int muTexelSizeHandle;
+
+        private Pass(List<GlFilter> filters, List<String> prefixes, boolean external) {
+            mFilters = filters;
+            mPrefixes = prefixes;
+            mExternal = external;
+        }
+    }
+
+    private final List<Pass> mPasses = new ArrayList<>();
+    private final int mWidth;
+    private final int mHeight;
+    private final GlProgramCache mProgramCache;
+    private final FloatBuffer mVertices;
+    private final float[] mIdentityMatrix = new float[16];
+    private final int[] mFramebuffers;
+    private final int[] mTextures;
+    private final int[] mSavedFramebuffer = new int[1];
+    private final int[] mSavedViewport = new int[4];
+    private boolean mOffscreenDone;
+
+    /**
+     * @param filters the filters, in the order they are applied
+     * @param width the width of decoded frames
+     * @param height the height of decoded frames
+     * @param programCache the cache of the current EGL context
+     */
+    GlFilterChain(List<GlFilter> filters, int width, int height, GlProgramCache programCache) {
+        mWidth = width;
+        mHeight = height;
+        mProgramCache = programCache;
+        int index = 0;
+        for (List<GlFilter> group : groupPasses(filters)) {
+            List<String> prefixes = new ArrayList<>();
+            for (int i = 0; i < group.size(); i++) prefixes.add("f" + index++ + "_");
+            mPasses.add(new Pass(group, prefixes, mPasses.isEmpty()));
+        }
+        int offscreenPasses = mPasses.size() - 1;
+        mFramebuffers = new int[Math.min(offscreenPasses, 2)];
+        mTextures = new int[mFramebuffers.length];
+        mVertices = ByteBuffer.allocateDirect(VERTICES_DATA.length * FLOAT_SIZE_BYTES)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mVertices.put(VERTICES_DATA).position(0);
+        Matrix.setIdentityM(mIdentityMatrix, 0);
+    }
+
+    int getPassCount() {
+        return mPasses.size();
+    }
+
+    /**
+     * Builds programs and frame buffers. Must be called with the EGL context current.
+     */
+    void setup() {
+        for (Pass pass : mPasses) {
+            String fragmentShader = buildFragmentShader(pass.mFilters, pass.mPrefixes, pass.mExternal);
+            pass.mProgram = mProgramCache.get(VERTEX_SHADER, fragmentShader);
+            pass.maPositionHandle = GLES20.glGetAttribLocation(pass.mProgram, "aPosition");
+            pass.maTextureHandle = GLES20.glGetAttribLocation(pass.mProgram, "aTextureCoord");
+            pass.muMVPMatrixHandle = GLES20.glGetUniformLocation(pass.mProgram, "uMVPMatrix");
+            pass.muSTMatrixHandle = GLES20.glGetUniformLocation(pass.mProgram, "uSTMatrix");
+            pass.muTexelSizeHandle = GLES20.glGetUniformLocation(pass.mProgram, "uTexelSize");
+            GlProgramCache.checkGlError("glGetUniformLocation");
+            for (int i = 0; i < pass.mFilters.size(); i++) {
+                pass.mFilters.get(i).onSetup(pass.mProgram, pass.mPrefixes.get(i));
+            }
+        }
+        if (mFramebuffers.length == 0) return;
+        GLES20.glGenTextures(mTextures.length, mTextures, 0);
+        GLES20.glGenFramebuffers(mFramebuffers.length, mFramebuffers, 0);
+        GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, mSavedFramebuffer, 0);
+        for (int i = 0; i < mFramebuffers.length; i++) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[i]);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mWidth, mHeight, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffers[i]);
+            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                    GLES20.GL_TEXTURE_2D, mTextures[i], 0);
+            int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+            if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+                GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mSavedFramebuffer[0]);
+                throw new RuntimeException("Frame buffer not complete: " + status);
+            }
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mSavedFramebuffer[0]);
+    }
+
+    /**
+     * Notifies that a new image was latched, so offscreen passes must run again.
+     */
+    void invalidate() {
+        mOffscreenDone = false;
+    }
+
+    /**
+     * Draws the current image onto the current surface.
+     *
+     * @param textureId the external texture of the decoder output
+     * @param stMatrix the transform matrix of the SurfaceTexture
+     * @param mvpMatrix the model-view-projection matrix of this output, or null for identity
+     * @param presentationTimeUs the input timestamp of the image
+     */
+    void draw(int textureId, float[] stMatrix, float[] mvpMatrix, long presentationTimeUs) {
+        int last = mPasses.size() - 1;
+        if (last > 0 && !mOffscreenDone) {
+            GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, mSavedFramebuffer, 0);
+            GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, mSavedViewport, 0);
+            GLES20.glViewport(0, 0, mWidth, mHeight);
+            for (int i = 0; i < last; i++) {
+                GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffers[i % 2]);
+                drawPass(mPasses.get(i), getInputTexture(i, textureId),
+                        i == 0 ? stMatrix : mIdentityMatrix, mIdentityMatrix, presentationTimeUs);
+            }
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mSavedFramebuffer[0]);
+            GLES20.glViewport(mSavedViewport[0], mSavedViewport[1], mSavedViewport[2], mSavedViewport[3]);
+            mOffscreenDone = true;
+        }
+        drawPass(mPasses.get(last), getInputTexture(last, textureId),
+                last == 0 ? stMatrix : mIdentityMatrix, mvpMatrix != null ? mvpMatrix : mIdentityMatrix,
+                presentationTimeUs);
+    }
+
+    // Pass i reads what pass i - 1 wrote.
+    private int getInputTexture(int pass, int textureId) {
+        return pass == 0 ? textureId : mTextures[(pass - 1) % 2];
+    }
+
+    private void drawPass(Pass pass, int textureId, float[] stMatrix, float[] mvpMatrix, long presentationTimeUs) {
+        GLES20.glUseProgram(pass.mProgram);
+        GlProgramCache.checkGlError("glUseProgram");
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(pass.mExternal ? GLES11Ext.GL_TEXTURE_EXTERNAL_OES : GLES20.GL_TEXTURE_2D, textureId);
+        mVertices.position(VERTICES_DATA_POS_OFFSET);
+        GLES20.glVertexAttribPointer(pass.maPositionHandle, 3, GLES20.GL_FLOAT, false,
+                VERTICES_DATA_STRIDE_BYTES, mVertices);
+        GLES20.glEnableVertexAttribArray(pass.maPositionHandle);
+        mVertices.position(VERTICES_DATA_UV_OFFSET);
+        GLES20.glVertexAttribPointer(pass.maTextureHandle, 2, GLES20.GL_FLOAT, false,
+                VERTICES_DATA_STRIDE_BYTES, mVertices);
+        GLES20.glEnableVertexAttribArray(pass.maTextureHandle);
+        GLES20.glUniformMatrix4fv(pass.muMVPMatrixHandle, 1, false, mvpMatrix, 0);
+        GLES20.glUniformMatrix4fv(pass.muSTMatrixHandle, 1, false, stMatrix, 0);
+        GLES20.glUniform2f(pass.muTexelSizeHandle, 1f / mWidth, 1f / mHeight);
+        for (GlFilter filter : pass.mFilters) {
+            filter.onDraw(presentationTimeUs);
+        }
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        GlProgramCache.checkGlError("glDrawArrays");
+    }
+
+    void release() {
+        for (Pass pass : mPasses) {
+            for (GlFilter filter : pass.mFilters) filter.release();
+        }
+        if (mFramebuffers.length > 0) {
+            GLES20.glDeleteFramebuffers(mFramebuffers.length, mFramebuffers, 0);
+            GLES20.glDeleteTextures(mTextures.length, mTextures, 0);
+        }
+    }
+
+    /**
+     * Splits filters in passes: a filter that is not per-pixel starts a new pass,
+     * unless it is the first one. There is always at least one pass.
+     */
+    static List<List<GlFilter>> groupPasses(List<GlFilter> filters) {
+        List<List<GlFilter>> passes = new ArrayList<>();
+        List<GlFilter> current = new ArrayList<>();
+        for (GlFilter filter : filters) {
+            if (!filter.isPerPixel() && !current.isEmpty()) {
+                passes.add(current);
+                current = new ArrayList<>();
+            }
+            current.add(filter);
+        }
+        passes.add(current);
+        return passes;
+    }
+
+    /**
+     * Generates the fragment shader applying the given filters in order.
+     *
+     * @param external whether the input is the external texture of the decoder
+     */
+    static String buildFragmentShader(List<GlFilter> filters, List<String> prefixes, boolean external) {
+        StringBuilder builder = new StringBuilder();
+        if (external) builder.append("#extension GL_OES_EGL_image_external : require\n");
+        builder.append("precision mediump float;\n")
+                .append("varying vec2 vTextureCoord;\n")
+                .append("uniform ").append(external ? "samplerExternalOES" : "sampler2D").append(" sTexture;\n")
+                .append("uniform vec2 uTexelSize;\n");
+        for (int i = 0; i < filters.size(); i++) {
+            builder.append(filters.get(i).getDeclarations(prefixes.get(i))).append('\n');
+        }
+        builder.append("vec4 sampleInput(vec2 coord) {\n")
+                .append("  return texture2D(sTexture, coord);\n")
+                .append("}\n")
+                .append("void main() {\n")
+                .append("  vec4 color = sampleInput(vTextureCoord);\n");
+        for (int i = 0; i < filters.size(); i++) {
+            builder.append("  {\n")
+                    .append(filters.get(i).getColorCode(prefixes.get(i))).append('\n')
+                    .append("  }\n");
+        }
+        builder.append("  gl_FragColor = color;\n")
+                .append("}\n");
+        return builder.toString();
+    }
+}
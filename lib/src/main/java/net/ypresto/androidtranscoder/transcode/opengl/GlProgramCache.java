@@ -0,0 +1,106 @@
+package net.ypresto.androidtranscoder.transcode.opengl;
+
+import android.opengl.GLES20;
+
+import net.ypresto.androidtranscoder.utils.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles and links GL programs, reusing the ones already built from the same sources.
+ * Programs are shared by all surfaces of the same EGL context.
+ */
+class GlProgramCache {
+    private static final String TAG = "GlProgramCache";
+    private static final Logger LOG = new Logger(TAG);
+
+    private final Map<String, Integer> mPrograms = new HashMap<>();
+
+    /**
+     * Returns a linked program for the given sources.
+     *
+     * @throws RuntimeException if compiling or linking fails
+     */
+    int get(String vertexSource, String fragmentSource) {
+        String key = vertexSource + '\0' + fragmentSource;
+        Integer program = mPrograms.get(key);
+        if (program == null) {
+            program = createProgram(vertexSource, fragmentSource);
+            if (program == 0) {
+                throw new RuntimeException("failed creating program");
+            }
+            mPrograms.put(key, program);
+        }
+        return program;
+    }
+
+    int size() {
+        return mPrograms.size();
+    }
+
+    void release() {
+        for (int program : mPrograms.values()) {
+            GLES20.glDeleteProgram(program);
+        }
+        mPrograms.clear();
+    }
+
+    private static int loadShader(int shaderType, String source) {
+        int shader = GLES20.glCreateShader(shaderType);
+        checkGlError("glCreateShader type=" + shaderType);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] compiled = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        if (compiled[0] == 0) {
+            LOG.e("Could not compile shader " + shaderType + ":");
+            LOG.e(" " + GLES20.glGetShaderInfoLog(shader));
+            GLES20.glDeleteShader(shader);
+            shader = 0;
+        }
+        return shader;
+    }
+
+    private static int createProgram(String vertexSource, String fragmentSource) {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        if (vertexShader == 0) {
+            return 0;
+        }
+        int pixelShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        if (pixelShader == 0) {
+            GLES20.glDeleteShader(vertexShader);
+            return 0;
+        }
+        int program = GLES20.glCreateProgram();
+        checkGlError("glCreateProgram");
+        if (program == 0) {
+            LOG.e("Could not create program");
+        }
+        GLES20.glAttachShader(program, vertexShader);
+        checkGlError("glAttachShader");
+        GLES20.glAttachShader(program, pixelShader);
+        checkGlError("glAttachShader");
+        GLES20.glLinkProgram(program);
+        // Shaders are kept alive by the program until it is deleted.
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(pixelShader);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            LOG.e("Could not link program: ");
+            LOG.e(GLES20.glGetProgramInfoLog(program));
+            GLES20.glDeleteProgram(program);
+            program = 0;
+        }
+        return program;
+    }
+
+    static void checkGlError(String op) {
+        int error;
+        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+            LOG.e(op + ": glError " + error);
+            throw new RuntimeException(op + ": glError " + error);
+        }
+    }
+}
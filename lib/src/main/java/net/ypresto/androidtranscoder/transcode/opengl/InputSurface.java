@@ -37,6 +37,8 @@ public class InputSurface {
     private EGLDisplay mEGLDisplay = EGL14.EGL_NO_DISPLAY;
     private EGLContext mEGLContext = EGL14.EGL_NO_CONTEXT;
     private EGLSurface mEGLSurface = EGL14.EGL_NO_SURFACE;
+    private EGLConfig mEGLConfig;
+    private boolean mOwnsContext;
     private Surface mSurface;
     /**
      * Creates an InputSurface from a Surface.
@@ -46,8 +48,24 @@ public class InputSurface {
             throw new NullPointerException();
         }
         mSurface = surface;
+        mOwnsContext = true;
         eglSetup();
     }
+    /**
+     * Creates an InputSurface from a Surface, using the EGL context of another InputSurface.
+     * Textures of that context, like the decoder output, can be drawn onto both surfaces.
+     * Must be released before the other InputSurface.
+     */
+    public InputSurface(Surface surface, InputSurface sharedContext) {
+        if (surface == null) {
+            throw new NullPointerException();
+        }
+        mSurface = surface;
+        mEGLDisplay = sharedContext.mEGLDisplay;
+        mEGLContext = sharedContext.mEGLContext;
+        mEGLConfig = sharedContext.mEGLConfig;
+        createWindowSurface();
+    }
     /**
      * Prepares EGL.  We want a GLES 2.0 context and a surface that supports recording.
      */
@@ -77,6 +95,7 @@ public class InputSurface {
                 numConfigs, 0)) {
             throw new RuntimeException("unable to find RGB888+recordable ES2 EGL config");
         }
+        mEGLConfig = configs[0];
         // Configure context for OpenGL ES 2.0.
         int[] attrib_list = {
                 EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
@@ -88,11 +107,16 @@ public class InputSurface {
         if (mEGLContext == null) {
             throw new RuntimeException("null context");
         }
-        // Create a window surface, and attach it to the Surface we received.
+        createWindowSurface();
+    }
+    /**
+     * Creates a window surface, and attaches it to the Surface we received.
+     */
+    private void createWindowSurface() {
         int[] surfaceAttribs = {
                 EGL14.EGL_NONE
         };
-        mEGLSurface = EGL14.eglCreateWindowSurface(mEGLDisplay, configs[0], mSurface,
+        mEGLSurface = EGL14.eglCreateWindowSurface(mEGLDisplay, mEGLConfig, mSurface,
                 surfaceAttribs, 0);
         checkEglError("eglCreateWindowSurface");
         if (mEGLSurface == null) {
@@ -106,9 +130,11 @@ public class InputSurface {
     public void release() {
         if (mEGLDisplay != EGL14.EGL_NO_DISPLAY) {
             EGL14.eglDestroySurface(mEGLDisplay, mEGLSurface);
-            EGL14.eglDestroyContext(mEGLDisplay, mEGLContext);
-            EGL14.eglReleaseThread();
-            EGL14.eglTerminate(mEGLDisplay);
+            if (mOwnsContext) {
+                EGL14.eglDestroyContext(mEGLDisplay, mEGLContext);
+                EGL14.eglReleaseThread();
+                EGL14.eglTerminate(mEGLDisplay);
+            }
         }
         mSurface.release();
         mEGLDisplay = EGL14.EGL_NO_DISPLAY;
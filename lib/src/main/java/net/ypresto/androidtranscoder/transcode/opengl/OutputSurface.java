@@ -16,6 +16,7 @@
 // from: https://android.googlesource.com/platform/cts/+/lollipop-release/tests/tests/media/src/android/media/cts/OutputSurface.java
 // blob: fc8ad9cd390c5c311f015d3b7c1359e4d295bc52
 // modified: change TIMEOUT_MS from 500 to 10000
+// modified: support GlFilter chains, release GL resources of TextureRender
 package net.ypresto.androidtranscoder.transcode.opengl;
 import android.graphics.SurfaceTexture;
 import android.opengl.EGL14;
@@ -26,6 +27,8 @@ import android.opengl.EGLSurface;
 import android.util.Log;
 import android.view.Surface;
 
+import java.util.List;
+
 import net.ypresto.androidtranscoder.utils.Logger;
 
 /**
@@ -158,6 +161,7 @@ public class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
      * Discard all resources held by this class, notably the EGL context.
      */
     public void release() {
+        mTextureRender.release();
         if (mEGLDisplay != EGL14.EGL_NO_DISPLAY) {
             EGL14.eglDestroySurface(mEGLDisplay, mEGLSurface);
             EGL14.eglDestroyContext(mEGLDisplay, mEGLContext);
@@ -189,6 +193,12 @@ public class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
     public Surface getSurface() {
         return mSurface;
     }
+    /**
+     * Draws images through the given filters, applied at the size of decoded frames.
+     */
+    public void setFilters(List<GlFilter> filters, int width, int height) {
+        mTextureRender.setFilters(filters, width, height);
+    }
     /**
      * Replaces the fragment shader.
      */
@@ -222,6 +232,7 @@ public class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
         // Latch the data.
         mTextureRender.checkGlError("before updateTexImage");
         mSurfaceTexture.updateTexImage();
+        mTextureRender.onNewImage();
     }
     /**
      * Wait up to given timeout until new image become available.
@@ -248,13 +259,21 @@ public class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
         // Latch the data.
         mTextureRender.checkGlError("before updateTexImage");
         mSurfaceTexture.updateTexImage();
+        mTextureRender.onNewImage();
         return true;
     }
     /**
      * Draws the data from SurfaceTexture onto the current EGL surface.
      */
     public void drawImage() {
-        mTextureRender.drawFrame(mSurfaceTexture);
+        mTextureRender.drawFrame(mSurfaceTexture, null);
+    }
+    /**
+     * Draws the data from SurfaceTexture onto the current EGL surface, transformed by the
+     * given model-view-projection matrix.
+     */
+    public void drawImage(float[] mvpMatrix) {
+        mTextureRender.drawFrame(mSurfaceTexture, mvpMatrix);
     }
     @Override
     public void onFrameAvailable(SurfaceTexture st) {
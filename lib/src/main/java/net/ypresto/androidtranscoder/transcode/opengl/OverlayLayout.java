@@ -0,0 +1,61 @@
+package net.ypresto.androidtranscoder.transcode.opengl;
+
+import java.util.Arrays;
+
+/**
+ * Places overlays in output pixels and converts the result to a matrix for the unit quad.
+ */
+class OverlayLayout {
+
+    /**
+     * Resolves the requested size against the natural one, keeping the aspect ratio
+     * when only one dimension is given.
+     *
+     * @param size receives width and height
+     */
+    static void resolveSize(int width, int height, int naturalWidth, int naturalHeight, int[] size) {
+        if (width == 0 && height == 0) {
+            width = naturalWidth;
+            height = naturalHeight;
+        } else if (width == 0) {
+            width = Math.round((float) height * naturalWidth / naturalHeight);
+        } else if (height == 0) {
+            height = Math.round((float) width * naturalHeight / naturalWidth);
+        }
+        size[0] = width;
+        size[1] = height;
+    }
+
+    /**
+     * Returns the offset of the overlay along one axis, from the left or top edge.
+     *
+     * @param gravity 0 for the start edge, 1 for the end edge
+     * @param margin the margin from the aligned edge
+     */
+    static int position(float gravity, int margin, int size, int outputSize) {
+        return Math.round(gravity * (outputSize - size) + margin * (1 - 2 * gravity));
+    }
+
+    /**
+     * Fills a matrix mapping the unit quad to the given rectangle, in pixels from the
+     * top left corner of the output.
+     */
+    static void setMatrix(float[] matrix, int left, int top, int width, int height,
+                          int outputWidth, int outputHeight) {
+        float ndcLeft = 2F * left / outputWidth - 1;
+        float ndcRight = 2F * (left + width) / outputWidth - 1;
+        float ndcTop = 1 - 2F * top / outputHeight;
+        float ndcBottom = 1 - 2F * (top + height) / outputHeight;
+        Arrays.fill(matrix, 0, 16, 0F);
+        matrix[0] = (ndcRight - ndcLeft) / 2;
+        matrix[5] = (ndcTop - ndcBottom) / 2;
+        matrix[12] = (ndcRight + ndcLeft) / 2;
+        matrix[13] = (ndcTop + ndcBottom) / 2;
+        matrix[10] = 1;
+        matrix[15] = 1;
+    }
+
+    private OverlayLayout() {
+        throw new RuntimeException();
+    }
+}
@@ -0,0 +1,204 @@
+package net.ypresto.androidtranscoder.transcode.opengl;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import net.ypresto.androidtranscoder.Overlay;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Composites {@link Overlay}s over the frame that was just drawn to an output.
+ *
+ * Each overlay has its own texture, uploaded once for images and whenever the text
+ * changes for texts. Textures are shared by all outputs, which only differ in layout.
+ * Must be created, used and released with the GL context of the decoder output current.
+ */
+public class OverlayRenderer {
+    private static final int FLOAT_SIZE_BYTES = 4;
+    private static final int VERTICES_DATA_STRIDE_BYTES = 4 * FLOAT_SIZE_BYTES;
+    private static final int VERTICES_DATA_POS_OFFSET = 0;
+    private static final int VERTICES_DATA_UV_OFFSET = 2;
+    // Bitmaps are uploaded top row first, so V is flipped.
+    private static final float[] VERTICES_DATA = {
+            // X, Y, U, V
+            -1.0f, -1.0f, 0.f, 1.f,
+            1.0f, -1.0f, 1.f, 1.f,
+            -1.0f,  1.0f, 0.f, 0.f,
+            1.0f,  1.0f, 1.f, 0.f,
+    };
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n" +
+                    "attribute vec4 aPosition;\n" +
+                    "attribute vec2 aTextureCoord;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "void main() {\n" +
+                    "  gl_Position = uMVPMatrix * aPosition;\n" +
+                    "  vTextureCoord = aTextureCoord;\n" +
+                    "}\n";
+    // Bitmaps are premultiplied, so is the result.
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "uniform sampler2D sTexture;\n" +
+                    "uniform float uAlpha;\n" +
+                    "void main() {\n" +
+                    "  gl_FragColor = texture2D(sTexture, vTextureCoord) * uAlpha;\n" +
+                    "}\n";
+
+    private static class Layer {
+        private final Overlay mOverlay;
+        private int mTexture;
+        private int mWidth;
+        private int mHeight;
+        private String mText;
+        private Bitmap mTextBitmap;
+        private long mTextTimeUs = Long.MIN_VALUE;
+
+        private Layer(Overlay overlay) {
+            mOverlay = overlay;
+        }
+    }
+
+    private final List<Layer> mLayers = new ArrayList<>();
+    private final GlProgramCache mProgramCache = new GlProgramCache();
+    private final FloatBuffer mVertices;
+    private final float[] mMatrix = new float[16];
+    private final int[] mSize = new int[2];
+    private int mProgram;
+    private int maPositionHandle;
+    private int maTextureHandle;
+    private int muMVPMatrixHandle;
+    private int muAlphaHandle;
+
+    public OverlayRenderer(List<Overlay> overlays) {
+        for (Overlay overlay : overlays) mLayers.add(new Layer(overlay));
+        mVertices = ByteBuffer.allocateDirect(VERTICES_DATA.length * FLOAT_SIZE_BYTES)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mVertices.put(VERTICES_DATA).position(0);
+    }
+
+    /**
+     * Builds the program and uploads images.
+     */
+    public void setup() {
+        mProgram = mProgramCache.get(VERTEX_SHADER, FRAGMENT_SHADER);
+        maPositionHandle = GLES20.glGetAttribLocation(mProgram, "aPosition");
+        maTextureHandle = GLES20.glGetAttribLocation(mProgram, "aTextureCoord");
+        muMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
+        muAlphaHandle = GLES20.glGetUniformLocation(mProgram, "uAlpha");
+        GlProgramCache.checkGlError("glGetUniformLocation");
+        int[] textures = new int[1];
+        for (Layer layer : mLayers) {
+            GLES20.glGenTextures(1, textures, 0);
+            layer.mTexture = textures[0];
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, layer.mTexture);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            if (layer.mOverlay.bitmap != null) {
+                GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, layer.mOverlay.bitmap, 0);
+                layer.mWidth = layer.mOverlay.bitmap.getWidth();
+                layer.mHeight = layer.mOverlay.bitmap.getHeight();
+            }
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GlProgramCache.checkGlError("texImage2D");
+    }
+
+    /**
+     * Draws all overlays onto the current surface, over what is already there.
+     *
+     * @param presentationTimeUs the output timestamp of the frame
+     * @param outputWidth the width of the current surface
+     * @param outputHeight the height of the current surface
+     */
+    public void draw(long presentationTimeUs, int outputWidth, int outputHeight) {
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        GLES20.glUseProgram(mProgram);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        mVertices.position(VERTICES_DATA_POS_OFFSET);
+        GLES20.glVertexAttribPointer(maPositionHandle, 2, GLES20.GL_FLOAT, false,
+                VERTICES_DATA_STRIDE_BYTES, mVertices);
+        GLES20.glEnableVertexAttribArray(maPositionHandle);
+        mVertices.position(VERTICES_DATA_UV_OFFSET);
+        GLES20.glVertexAttribPointer(maTextureHandle, 2, GLES20.GL_FLOAT, false,
+                VERTICES_DATA_STRIDE_BYTES, mVertices);
+        GLES20.glEnableVertexAttribArray(maTextureHandle);
+        for (Layer layer : mLayers) {
+            Overlay overlay = layer.mOverlay;
+            if (overlay.textProvider != null) updateText(layer, presentationTimeUs);
+            if (layer.mWidth == 0 || layer.mHeight == 0) continue;
+            OverlayLayout.resolveSize(overlay.width, overlay.height, layer.mWidth, layer.mHeight, mSize);
+            int left = OverlayLayout.position(overlay.gravityX, overlay.marginX, mSize[0], outputWidth);
+            int top = OverlayLayout.position(overlay.gravityY, overlay.marginY, mSize[1], outputHeight);
+            OverlayLayout.setMatrix(mMatrix, left, top, mSize[0], mSize[1], outputWidth, outputHeight);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, layer.mTexture);
+            GLES20.glUniformMatrix4fv(muMVPMatrixHandle, 1, false, mMatrix, 0);
+            GLES20.glUniform1f(muAlphaHandle, overlay.alpha);
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glDisable(GLES20.GL_BLEND);
+        GlProgramCache.checkGlError("draw overlays");
+    }
+
+    // Asks for the text once per frame, and draws it again only if it changed.
+    private void updateText(Layer layer, long presentationTimeUs) {
+        if (layer.mTextTimeUs == presentationTimeUs) return;
+        layer.mTextTimeUs = presentationTimeUs;
+        String text = layer.mOverlay.textProvider.getText(presentationTimeUs);
+        if (text == null || text.isEmpty()) {
+            layer.mText = null;
+            layer.mWidth = 0;
+            layer.mHeight = 0;
+            return;
+        }
+        if (text.equals(layer.mText)) return;
+        layer.mText = text;
+        Paint paint = layer.mOverlay.textPaint;
+        int width = (int) Math.ceil(paint.measureText(text));
+        int height = (int) Math.ceil(paint.descent() - paint.ascent());
+        if (width <= 0 || height <= 0) {
+            layer.mWidth = 0;
+            layer.mHeight = 0;
+            return;
+        }
+        Bitmap bitmap = layer.mTextBitmap;
+        if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            if (bitmap != null) bitmap.recycle();
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            layer.mTextBitmap = bitmap;
+        }
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        canvas.drawText(text, 0, -paint.ascent(), paint);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, layer.mTexture);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        layer.mWidth = width;
+        layer.mHeight = height;
+    }
+
+    public void release() {
+        int[] textures = new int[1];
+        for (Layer layer : mLayers) {
+            textures[0] = layer.mTexture;
+            if (layer.mTexture != 0) GLES20.glDeleteTextures(1, textures, 0);
+            if (layer.mTextBitmap != null) layer.mTextBitmap.recycle();
+            layer.mTexture = 0;
+            layer.mTextBitmap = null;
+        }
+        mProgramCache.release();
+    }
+}
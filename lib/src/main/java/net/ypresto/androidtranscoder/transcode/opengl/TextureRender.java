@@ -17,6 +17,8 @@
 // blob: 4125dcfcfed6ed7fddba5b71d657dec0d433da6a
 // modified: removed unused method bodies
 // modified: use GL_LINEAR for GL_TEXTURE_MIN_FILTER to improve quality.
+// modified: accept a model-view-projection matrix, clear to black.
+// modified: build programs through GlProgramCache, draw through an optional GlFilterChain.
 package net.ypresto.androidtranscoder.transcode.opengl;
 import android.graphics.SurfaceTexture;
 import android.opengl.GLES11Ext;
@@ -29,6 +31,7 @@ import net.ypresto.androidtranscoder.utils.Logger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.List;
 /**
  * Code for rendering a texture onto a surface using OpenGL ES 2.0.
  */
@@ -74,6 +77,8 @@ class TextureRender {
     private int muSTMatrixHandle;
     private int maPositionHandle;
     private int maTextureHandle;
+    private final GlProgramCache mProgramCache = new GlProgramCache();
+    private GlFilterChain mFilterChain;
     public TextureRender() {
         mTriangleVertices = ByteBuffer.allocateDirect(
                 mTriangleVerticesData.length * FLOAT_SIZE_BYTES)
@@ -84,11 +89,22 @@ class TextureRender {
     public int getTextureId() {
         return mTextureID;
     }
-    public void drawFrame(SurfaceTexture st) {
+    /**
+     * Draws the current image of the SurfaceTexture.
+     *
+     * @param mvpMatrix the model-view-projection matrix, or null for identity
+     */
+    public void drawFrame(SurfaceTexture st, float[] mvpMatrix) {
         checkGlError("onDrawFrame start");
         st.getTransformMatrix(mSTMatrix);
-        GLES20.glClearColor(0.0f, 1.0f, 0.0f, 1.0f);
+        // Visible where the transformed frame does not cover the surface.
+        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
         GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
+        if (mFilterChain != null) {
+            mFilterChain.draw(mTextureID, mSTMatrix, mvpMatrix, st.getTimestamp() / 1000);
+            GLES20.glFinish();
+            return;
+        }
         GLES20.glUseProgram(mProgram);
         checkGlError("glUseProgram");
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
@@ -105,7 +121,11 @@ class TextureRender {
         checkGlError("glVertexAttribPointer maTextureHandle");
         GLES20.glEnableVertexAttribArray(maTextureHandle);
         checkGlError("glEnableVertexAttribArray maTextureHandle");
-        Matrix.setIdentityM(mMVPMatrix, 0);
+        if (mvpMatrix != null) {
+            System.arraycopy(mvpMatrix, 0, mMVPMatrix, 0, mMVPMatrix.length);
+        } else {
+            Matrix.setIdentityM(mMVPMatrix, 0);
+        }
         GLES20.glUniformMatrix4fv(muMVPMatrixHandle, 1, false, mMVPMatrix, 0);
         GLES20.glUniformMatrix4fv(muSTMatrixHandle, 1, false, mSTMatrix, 0);
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
@@ -116,10 +136,7 @@ class TextureRender {
      * Initializes GL state.  Call this after the EGL surface has been created and made current.
      */
     public void surfaceCreated() {
-        mProgram = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
-        if (mProgram == 0) {
-            throw new RuntimeException("failed creating program");
-        }
+        mProgram = mProgramCache.get(VERTEX_SHADER, FRAGMENT_SHADER);
         maPositionHandle = GLES20.glGetAttribLocation(mProgram, "aPosition");
         checkGlError("glGetAttribLocation aPosition");
         if (maPositionHandle == -1) {
@@ -156,61 +173,41 @@ class TextureRender {
         checkGlError("glTexParameter");
     }
     /**
-     * Replaces the fragment shader.
+     * Draws frames through the given filters from now on. Call after {@link #surfaceCreated()}.
+     *
+     * @param width the width of decoded frames
+     * @param height the height of decoded frames
      */
-    public void changeFragmentShader(String fragmentShader) {
-        throw new UnsupportedOperationException("Not implemented");
+    public void setFilters(List<GlFilter> filters, int width, int height) {
+        if (mFilterChain != null) mFilterChain.release();
+        mFilterChain = new GlFilterChain(filters, width, height, mProgramCache);
+        mFilterChain.setup();
     }
-    private int loadShader(int shaderType, String source) {
-        int shader = GLES20.glCreateShader(shaderType);
-        checkGlError("glCreateShader type=" + shaderType);
-        GLES20.glShaderSource(shader, source);
-        GLES20.glCompileShader(shader);
-        int[] compiled = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
-        if (compiled[0] == 0) {
-            LOG.e("Could not compile shader " + shaderType + ":");
-            LOG.e(" " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
-            shader = 0;
-        }
-        return shader;
+    /**
+     * Notifies that a new image was latched into the texture.
+     */
+    public void onNewImage() {
+        if (mFilterChain != null) mFilterChain.invalidate();
     }
-    private int createProgram(String vertexSource, String fragmentSource) {
-        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
-        if (vertexShader == 0) {
-            return 0;
-        }
-        int pixelShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
-        if (pixelShader == 0) {
-            return 0;
-        }
-        int program = GLES20.glCreateProgram();
-        checkGlError("glCreateProgram");
-        if (program == 0) {
-            LOG.e("Could not create program");
-        }
-        GLES20.glAttachShader(program, vertexShader);
-        checkGlError("glAttachShader");
-        GLES20.glAttachShader(program, pixelShader);
-        checkGlError("glAttachShader");
-        GLES20.glLinkProgram(program);
-        int[] linkStatus = new int[1];
-        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
-        if (linkStatus[0] != GLES20.GL_TRUE) {
-            LOG.e("Could not link program: ");
-            LOG.e(GLES20.glGetProgramInfoLog(program));
-            GLES20.glDeleteProgram(program);
-            program = 0;
+    /**
+     * Releases programs, textures and frame buffers.  The EGL context must be current.
+     */
+    public void release() {
+        if (mFilterChain != null) {
+            mFilterChain.release();
+            mFilterChain = null;
         }
-        return program;
+        mProgramCache.release();
+        GLES20.glDeleteTextures(1, new int[]{mTextureID}, 0);
+    }
+    /**
+     * Replaces the fragment shader.
+     */
+    public void changeFragmentShader(String fragmentShader) {
+        throw new UnsupportedOperationException("Not implemented");
     }
     public void checkGlError(String op) {
-        int error;
-        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-            LOG.e(op + ": glError " + error);
-            throw new RuntimeException(op + ": glError " + error);
-        }
+        GlProgramCache.checkGlError(op);
     }
     /**
      * Saves the current frame to disk as a PNG image.  Frame starts from (0,0).
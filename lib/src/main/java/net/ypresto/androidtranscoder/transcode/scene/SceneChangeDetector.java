@@ -0,0 +1,69 @@
+package net.ypresto.androidtranscoder.transcode.scene;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detects scene cuts by comparing the luma histograms of consecutive frames.
+ *
+ * Frames are expected to be tiny RGBA copies, like 32x32, so this costs a few
+ * microseconds per frame. The difference is half the sum of absolute differences of
+ * the normalized histograms: 0 for identical histograms, 1 for disjoint ones.
+ */
+public class SceneChangeDetector {
+    private static final int BINS = 32;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final float mThreshold;
+    private final long mMinIntervalUs;
+    private int[] mHistogram = new int[BINS];
+    private int[] mPreviousHistogram = new int[BINS];
+    private boolean mHasPrevious;
+    private long mLastCutUs = Long.MIN_VALUE;
+
+    /**
+     * @param threshold the histogram difference, between 0 and 1, above which frames are cuts
+     * @param minIntervalUs the minimum distance between two cuts, so flashes do not
+     *                      produce many key frames
+     */
+    public SceneChangeDetector(float threshold, long minIntervalUs) {
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("Invalid threshold: " + threshold);
+        }
+        mThreshold = threshold;
+        mMinIntervalUs = minIntervalUs;
+    }
+
+    /**
+     * @param rgba the pixels, from position 0, left unchanged
+     * @param pixelCount the number of pixels
+     * @param presentationTimeUs the timestamp of the frame
+     * @return true if this frame starts a new scene
+     */
+    public boolean onFrame(ByteBuffer rgba, int pixelCount, long presentationTimeUs) {
+        int[] histogram = mHistogram;
+        for (int i = 0; i < BINS; i++) histogram[i] = 0;
+        for (int i = 0, offset = 0; i < pixelCount; i++, offset += BYTES_PER_PIXEL) {
+            int r = rgba.get(offset) & 0xff;
+            int g = rgba.get(offset + 1) & 0xff;
+            int b = rgba.get(offset + 2) & 0xff;
+            int luma = (77 * r + 150 * g + 29 * b) >> 8;
+            histogram[luma * BINS >> 8]++;
+        }
+        boolean cut = false;
+        if (mHasPrevious && pixelCount > 0) {
+            cut = getDifference(histogram, mPreviousHistogram, pixelCount) > mThreshold
+                    && (mLastCutUs == Long.MIN_VALUE || presentationTimeUs - mLastCutUs >= mMinIntervalUs);
+        }
+        if (cut) mLastCutUs = presentationTimeUs;
+        mHistogram = mPreviousHistogram;
+        mPreviousHistogram = histogram;
+        mHasPrevious = true;
+        return cut;
+    }
+
+    static float getDifference(int[] histogram, int[] other, int pixelCount) {
+        long sum = 0;
+        for (int i = 0; i < BINS; i++) sum += Math.abs(histogram[i] - other[i]);
+        return sum / (2F * pixelCount);
+    }
+}
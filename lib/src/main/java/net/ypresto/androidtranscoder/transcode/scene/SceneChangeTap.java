@@ -0,0 +1,48 @@
+package net.ypresto.androidtranscoder.transcode.scene;
+
+import net.ypresto.androidtranscoder.transcode.opengl.FrameReader;
+import net.ypresto.androidtranscoder.transcode.opengl.OutputSurface;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Runs a {@link SceneChangeDetector} on a 32x32 copy of each rendered frame, drawn and read
+ * back on the GPU. Must be used with the GL context of the decoder output current.
+ */
+public class SceneChangeTap {
+    private static final int SIZE = 32;
+    // About the shortest shot worth its own key frame.
+    private static final long MIN_INTERVAL_US = 500000;
+
+    private final SceneChangeDetector mDetector;
+    private FrameReader mReader;
+
+    /**
+     * @param threshold the histogram difference above which frames are cuts, see {@link SceneChangeDetector}
+     */
+    public SceneChangeTap(float threshold) {
+        mDetector = new SceneChangeDetector(threshold, MIN_INTERVAL_US);
+    }
+
+    public void setup() {
+        mReader = new FrameReader(SIZE, SIZE);
+    }
+
+    /**
+     * @param presentationTimeUs the output timestamp of the frame
+     * @param decoderOutput the decoder output surface, after {@link OutputSurface#awaitNewImage()}
+     * @param mvpMatrix the transform of the main output, or null for none
+     * @return true if the frame starts a new scene
+     */
+    public boolean onFrame(long presentationTimeUs, OutputSurface decoderOutput, float[] mvpMatrix) {
+        ByteBuffer pixels = mReader.read(decoderOutput, mvpMatrix);
+        return mDetector.onFrame(pixels, SIZE * SIZE, presentationTimeUs);
+    }
+
+    public void release() {
+        if (mReader != null) {
+            mReader.release();
+            mReader = null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package net.ypresto.androidtranscoder.transcode.thumbnail;
+
+import java.util.Arrays;
+
+/**
+ * Decides which rendered frames are captured as thumbnails: the first frame at or after
+ * each requested timestamp, either given explicitly or at a regular interval.
+ * When frames are sparse, a single frame covers all the requested timestamps it passes.
+ */
+public class ThumbnailSchedule {
+    private final long[] mTimesUs;
+    private final long mIntervalUs;
+    private final int mMaxCount;
+    private int mIndex;
+    private long mNextUs;
+    private int mCount;
+
+    /**
+     * @param timesUs the requested timestamps, in any order
+     * @param maxCount the maximum number of thumbnails
+     */
+    public ThumbnailSchedule(long[] timesUs, int maxCount) {
+        mTimesUs = Arrays.copyOf(timesUs, timesUs.length);
+        Arrays.sort(mTimesUs);
+        mIntervalUs = 0;
+        mMaxCount = maxCount;
+        mNextUs = mTimesUs.length > 0 ? mTimesUs[0] : Long.MAX_VALUE;
+    }
+
+    /**
+     * @param intervalUs the interval between requested timestamps, starting at 0
+     * @param maxCount the maximum number of thumbnails
+     */
+    public ThumbnailSchedule(long intervalUs, int maxCount) {
+        if (intervalUs <= 0) throw new IllegalArgumentException("Invalid interval: " + intervalUs);
+        mTimesUs = null;
+        mIntervalUs = intervalUs;
+        mMaxCount = maxCount;
+        mNextUs = 0;
+    }
+
+    /**
+     * Processes the next rendered frame. Frames must be passed in presentation order.
+     *
+     * @param presentationTimeUs the frame timestamp
+     * @return true if the frame should be captured
+     */
+    public boolean onFrame(long presentationTimeUs) {
+        if (isDone() || presentationTimeUs < mNextUs) return false;
+        mCount++;
+        if (mTimesUs != null) {
+            while (mIndex < mTimesUs.length && mTimesUs[mIndex] <= presentationTimeUs) mIndex++;
+            mNextUs = mIndex < mTimesUs.length ? mTimesUs[mIndex] : Long.MAX_VALUE;
+        } else {
+            mNextUs = (presentationTimeUs / mIntervalUs + 1) * mIntervalUs;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if no more frames will be captured
+     */
+    public boolean isDone() {
+        return mCount >= mMaxCount || mNextUs == Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the number of frames captured so far
+     */
+    public int getCount() {
+        return mCount;
+    }
+}
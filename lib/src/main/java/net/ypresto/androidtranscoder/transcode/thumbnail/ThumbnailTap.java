@@ -0,0 +1,122 @@
+package net.ypresto.androidtranscoder.transcode.thumbnail;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import net.ypresto.androidtranscoder.Thumbnails;
+import net.ypresto.androidtranscoder.transcode.opengl.FrameReader;
+import net.ypresto.androidtranscoder.transcode.opengl.OutputSurface;
+import net.ypresto.androidtranscoder.utils.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Captures thumbnails from the frames rendered by
+ * {@link net.ypresto.androidtranscoder.transcode.VideoTrackTranscoder}, following
+ * the {@link Thumbnails} settings. Must be used with the GL context of the decoder output current.
+ */
+public class ThumbnailTap {
+    private static final String TAG = "ThumbnailTap";
+    private static final Logger LOG = new Logger(TAG);
+
+    private final Thumbnails mThumbnails;
+    private final ThumbnailSchedule mSchedule;
+    private final boolean mSpriteSheet;
+    private FrameReader mReader;
+    private Bitmap mTile;
+    private Bitmap mSheet;
+    private Canvas mSheetCanvas;
+    private long[] mSheetTimesUs;
+
+    public ThumbnailTap(@NonNull Thumbnails thumbnails) {
+        mThumbnails = thumbnails;
+        mSpriteSheet = thumbnails.spriteColumns > 0 && thumbnails.spriteRows > 0;
+        int maxCount = mSpriteSheet ? thumbnails.spriteColumns * thumbnails.spriteRows : Integer.MAX_VALUE;
+        mSchedule = thumbnails.timesUs != null
+                ? new ThumbnailSchedule(thumbnails.timesUs, maxCount)
+                : new ThumbnailSchedule(thumbnails.intervalUs, maxCount);
+    }
+
+    /**
+     * Allocates the GL and bitmap resources.
+     *
+     * @param frameWidth the width of rendered frames, for the aspect ratio
+     * @param frameHeight the height of rendered frames, for the aspect ratio
+     */
+    public void setup(int frameWidth, int frameHeight) {
+        int width = mThumbnails.width;
+        int height = mThumbnails.height;
+        if (height == 0) height = Math.max(1, Math.round((float) width * frameHeight / frameWidth));
+        mReader = new FrameReader(width, height);
+        if (mSpriteSheet) {
+            mTile = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mSheet = Bitmap.createBitmap(width * mThumbnails.spriteColumns,
+                    height * mThumbnails.spriteRows, Bitmap.Config.ARGB_8888);
+            mSheetCanvas = new Canvas(mSheet);
+            mSheetTimesUs = new long[mThumbnails.spriteColumns * mThumbnails.spriteRows];
+        } else if (mThumbnails.reuseBitmap) {
+            mTile = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    /**
+     * Captures the current decoder image if requested by the schedule.
+     *
+     * @param presentationTimeUs the input timestamp of the frame
+     * @param decoderOutput the decoder output surface
+     * @param mvpMatrix the transform of the main output, or null for none
+     */
+    public void onFrame(long presentationTimeUs, OutputSurface decoderOutput, float[] mvpMatrix) {
+        if (!mSchedule.onFrame(presentationTimeUs)) return;
+        ByteBuffer pixels = mReader.read(decoderOutput, mvpMatrix);
+        if (!mSpriteSheet) {
+            // Without reuse, the bitmap is handed over to the listener.
+            Bitmap bitmap = mTile != null ? mTile
+                    : Bitmap.createBitmap(mReader.getWidth(), mReader.getHeight(), Bitmap.Config.ARGB_8888);
+            bitmap.copyPixelsFromBuffer(pixels);
+            mThumbnails.listener.onThumbnail(presentationTimeUs, bitmap);
+            return;
+        }
+        int index = mSchedule.getCount() - 1;
+        int column = index % mThumbnails.spriteColumns;
+        int row = index / mThumbnails.spriteColumns;
+        mTile.copyPixelsFromBuffer(pixels);
+        mSheetCanvas.drawBitmap(mTile, column * mReader.getWidth(), row * mReader.getHeight(), null);
+        mSheetTimesUs[index] = presentationTimeUs;
+        if (mSchedule.isDone()) finish();
+    }
+
+    /**
+     * Delivers the sprite sheet, if any and not delivered yet. Called at the end of the video track.
+     */
+    public void finish() {
+        if (mSheet == null) return;
+        int count = mSchedule.getCount();
+        if (count > 0) {
+            LOG.v("Delivering sprite sheet with " + count + " thumbnails.");
+            mThumbnails.listener.onSpriteSheet(mSheet, Arrays.copyOf(mSheetTimesUs, count));
+        } else {
+            mSheet.recycle();
+        }
+        mSheet = null;
+        mSheetCanvas = null;
+    }
+
+    public void release() {
+        if (mReader != null) {
+            mReader.release();
+            mReader = null;
+        }
+        if (mTile != null) {
+            mTile.recycle();
+            mTile = null;
+        }
+        if (mSheet != null) {
+            mSheet.recycle();
+            mSheet = null;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package net.ypresto.androidtranscoder.transcode.transform;
+
+/**
+ * Computes the {@link VideoTransform} that draws a decoded frame onto the output:
+ * rotation by a multiple of 90 degrees, then scaling to the output size with one of
+ * the scale modes. Pure math, the matrix is computed once per transcoding.
+ *
+ * The frame is drawn as a quad covering the whole output in normalized device coordinates.
+ * Rotating it by 90 degrees keeps it covering the output, so only the final scale
+ * depends on the aspect ratios.
+ */
+public class TransformPlanner {
+    /**
+     * The frame fills the output, the aspect ratio is not kept.
+     */
+    public static final int SCALE_STRETCH = 0;
+
+    /**
+     * The frame covers the output and keeps its aspect ratio. Exceeding parts are cropped.
+     */
+    public static final int SCALE_CROP = 1;
+
+    /**
+     * The frame fits in the output and keeps its aspect ratio. Free parts are black.
+     */
+    public static final int SCALE_FIT = 2;
+
+    /**
+     * @param inWidth the decoded frame width
+     * @param inHeight the decoded frame height
+     * @param rotation the clockwise rotation to apply, a multiple of 90 degrees
+     * @param outWidth the output width
+     * @param outHeight the output height
+     * @param scaleMode one of {@link #SCALE_STRETCH}, {@link #SCALE_CROP} or {@link #SCALE_FIT}
+     * @return the transform
+     */
+    public static VideoTransform plan(int inWidth, int inHeight, int rotation,
+                                      int outWidth, int outHeight, int scaleMode) {
+        rotation = normalizeRotation(rotation);
+        boolean swap = rotation == 90 || rotation == 270;
+        // Size of the frame as it should be displayed.
+        float width = swap ? inHeight : inWidth;
+        float height = swap ? inWidth : inHeight;
+
+        float scaleX = 1F, scaleY = 1F;
+        if (scaleMode != SCALE_STRETCH) {
+            float widthRatio = outWidth / width;
+            float heightRatio = outHeight / height;
+            float scale = scaleMode == SCALE_CROP
+                    ? Math.max(widthRatio, heightRatio)
+                    : Math.min(widthRatio, heightRatio);
+            scaleX = width * scale / outWidth;
+            scaleY = height * scale / outHeight;
+        }
+
+        // Clockwise on screen is a negative angle, with the y axis going up.
+        double radians = Math.toRadians(-rotation);
+        float cos = (float) Math.round(Math.cos(radians));
+        float sin = (float) Math.round(Math.sin(radians));
+        // Scale * Rotation, column-major.
+        float[] matrix = new float[16];
+        matrix[0] = scaleX * cos;
+        matrix[1] = scaleY * sin;
+        matrix[4] = -scaleX * sin;
+        matrix[5] = scaleY * cos;
+        matrix[10] = 1F;
+        matrix[15] = 1F;
+        return new VideoTransform(rotation, matrix);
+    }
+
+    /**
+     * @param degrees any multiple of 90 degrees, possibly negative
+     * @return the same rotation in [0, 360)
+     */
+    public static int normalizeRotation(int degrees) {
+        if (degrees % 90 != 0) throw new IllegalArgumentException("Invalid rotation: " + degrees);
+        return ((degrees % 360) + 360) % 360;
+    }
+
+    private TransformPlanner() {
+        throw new RuntimeException();
+    }
+}
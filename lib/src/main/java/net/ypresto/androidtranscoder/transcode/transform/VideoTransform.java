@@ -0,0 +1,23 @@
+package net.ypresto.androidtranscoder.transcode.transform;
+
+/**
+ * A transform applied to decoded frames when drawing them to the encoder, in the vertex
+ * stage, so it comes at no extra cost. Created by {@link TransformPlanner}.
+ */
+public class VideoTransform {
+    /**
+     * The clockwise rotation applied to frames, in degrees. When not 0, the output
+     * should not carry the input rotation as orientation hint anymore.
+     */
+    public final int rotation;
+
+    /**
+     * The model-view-projection matrix, 4x4 in column-major order, as used by GL.
+     */
+    public final float[] mvpMatrix;
+
+    VideoTransform(int rotation, float[] mvpMatrix) {
+        this.rotation = rotation;
+        this.mvpMatrix = mvpMatrix;
+    }
+}
@@ -0,0 +1,118 @@
+package net.ypresto.androidtranscoder.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the RBSP of a H.264 NAL unit bit by bit, as described in ITU-T H.264, 7.2 and 9.1.
+ * Emulation prevention bytes are skipped while reading, so nothing is copied, and only
+ * absolute reads are used so the buffer is not changed.
+ *
+ * Reading past the end, or an exp-Golomb code too long for an int, does not throw:
+ * zeros are returned and {@link #isOverflow()} becomes true. Callers check it once the
+ * fields they need have been read. Instances can be reused with {@link #reset}.
+ */
+class AvcBitReader {
+    // Longest exp-Golomb prefix whose value fits a positive int.
+    private static final int MAX_LEADING_ZEROS = 30;
+
+    private ByteBuffer mBuffer;
+    private int mPosition;
+    private int mLimit;
+    private int mBitOffset;
+    private int mZeros;
+    private boolean mOverflow;
+
+    void reset(ByteBuffer buffer, int offset, int size) {
+        mBuffer = buffer;
+        mPosition = offset;
+        mLimit = offset + size;
+        mBitOffset = 0;
+        mZeros = 0;
+        mOverflow = false;
+    }
+
+    boolean isOverflow() {
+        return mOverflow;
+    }
+
+    int readBit() {
+        if (mPosition >= mLimit) {
+            mOverflow = true;
+            return 0;
+        }
+        int bit = (mBuffer.get(mPosition) >> (7 - mBitOffset)) & 1;
+        if (++mBitOffset == 8) nextByte();
+        return bit;
+    }
+
+    boolean readFlag() {
+        return readBit() == 1;
+    }
+
+    /**
+     * Reads an unsigned value of up to 31 bits, most significant first.
+     */
+    int readBits(int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            value = (value << 1) | readBit();
+        }
+        return value;
+    }
+
+    long readUnsignedInt() {
+        return ((long) readBits(16) << 16) | readBits(16);
+    }
+
+    void skipBits(int count) {
+        for (int i = 0; i < count; i++) {
+            readBit();
+        }
+    }
+
+    /**
+     * Reads an unsigned exp-Golomb code, ue(v).
+     */
+    int readUnsignedExpGolomb() {
+        int leadingZeros = 0;
+        while (readBit() == 0) {
+            if (mOverflow) return 0;
+            if (++leadingZeros > MAX_LEADING_ZEROS) {
+                mOverflow = true;
+                return 0;
+            }
+        }
+        return (1 << leadingZeros) - 1 + readBits(leadingZeros);
+    }
+
+    /**
+     * Reads a signed exp-Golomb code, se(v).
+     */
+    int readSignedExpGolomb() {
+        int codeNum = readUnsignedExpGolomb();
+        return (codeNum & 1) == 1 ? (codeNum + 1) / 2 : -(codeNum / 2);
+    }
+
+    /**
+     * Whether there is data before the RBSP stop bit, the last bit set in the unit.
+     * This is more_rbsp_data() of the specification.
+     */
+    boolean hasMoreRbspData() {
+        int last = mLimit - 1;
+        while (last >= mPosition && mBuffer.get(last) == 0) last--;
+        if (last < mPosition) return false;
+        int stopBit = 7 - Integer.numberOfTrailingZeros(mBuffer.get(last) & 0xFF);
+        return last > mPosition || mBitOffset < stopBit;
+    }
+
+    private void nextByte() {
+        mBitOffset = 0;
+        mZeros = mBuffer.get(mPosition) == 0 ? mZeros + 1 : 0;
+        mPosition++;
+        // emulation_prevention_three_byte, inserted after two zeros.
+        if (mZeros >= 2 && mPosition < mLimit && mBuffer.get(mPosition) == 3) {
+            mPosition++;
+            mZeros = 0;
+        }
+    }
+}
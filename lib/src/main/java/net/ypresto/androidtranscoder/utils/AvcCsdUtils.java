@@ -18,13 +18,10 @@ package net.ypresto.androidtranscoder.utils;
 import android.media.MediaFormat;
 
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 public class AvcCsdUtils {
     // Refer: https://android.googlesource.com/platform/frameworks/av/+/lollipop-release/media/libstagefright/MediaCodec.cpp#2198
     // Refer: http://stackoverflow.com/a/2861340
-    private static final byte[] AVC_START_CODE_3 = {0x00, 0x00, 0x01};
-    private static final byte[] AVC_START_CODE_4 = {0x00, 0x00, 0x00, 0x01};
     // Refer: http://www.cardinalpeak.com/blog/the-h-264-sequence-parameter-set/
     private static final byte AVC_SPS_NAL = 103; // 0<<7 + 3<<5 + 7<<0
     // https://tools.ietf.org/html/rfc6184
@@ -32,33 +29,58 @@ public class AvcCsdUtils {
     private static final byte AVC_SPS_NAL_3 = 71; // 0<<7 + 2<<5 + 7<<0
 
     /**
-     * @return ByteBuffer contains SPS without NAL header.
+     * @return ByteBuffer contains SPS without NAL header. It is a read only view
+     * of the format buffer, nothing is copied.
      */
     public static ByteBuffer getSpsBuffer(MediaFormat format) {
         ByteBuffer sourceBuffer = format.getByteBuffer(MediaFormatConstants.KEY_AVC_SPS).asReadOnlyBuffer(); // might be direct buffer
-        ByteBuffer prefixedSpsBuffer = ByteBuffer.allocate(sourceBuffer.limit()).order(sourceBuffer.order());
-        prefixedSpsBuffer.put(sourceBuffer);
-        prefixedSpsBuffer.flip();
-
-        skipStartCode(prefixedSpsBuffer);
+        int header = skipStartCode(sourceBuffer, sourceBuffer.position(), sourceBuffer.limit());
+        if (header < 0 || header >= sourceBuffer.limit()) {
+            throw new IllegalStateException("AVC NAL start code not found in csd.");
+        }
 
-        byte spsNalData = prefixedSpsBuffer.get();
+        byte spsNalData = sourceBuffer.get(header);
         if (spsNalData != AVC_SPS_NAL && spsNalData != AVC_SPS_NAL_2 && spsNalData != AVC_SPS_NAL_3) {
             throw new IllegalStateException("Got non SPS NAL data.");
         }
 
-        return prefixedSpsBuffer.slice();
+        sourceBuffer.position(header + 1);
+        return sourceBuffer.slice();
+    }
+
+    /**
+     * Returns the index of the header of the first NAL unit after a start code,
+     * or -1. Only absolute reads are used.
+     */
+    static int findNalHeader(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i + 2 < to; i++) {
+            int header = skipStartCode(buffer, i, to);
+            if (header >= 0) return header < to ? header : -1;
+        }
+        return -1;
     }
 
-    private static void skipStartCode(ByteBuffer prefixedSpsBuffer) {
-        byte[] prefix3 = new byte[3];
-        prefixedSpsBuffer.get(prefix3);
-        if (Arrays.equals(prefix3, AVC_START_CODE_3)) return;
+    /**
+     * Returns the end of the NAL unit whose header is at the given index: the
+     * next start code, or the given limit.
+     */
+    static int findNalEnd(ByteBuffer buffer, int header, int to) {
+        for (int i = header + 1; i + 1 < to; i++) {
+            if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && (i + 2 == to || (buffer.get(i + 2) & 0xFF) <= 1)) {
+                // 00 00 00 and 00 00 01 never appear inside a unit, nor do trailing zeros.
+                return i;
+            }
+        }
+        return to;
+    }
 
-        byte[] prefix4 = Arrays.copyOf(prefix3, 4);
-        prefix4[3] = prefixedSpsBuffer.get();
-        if (Arrays.equals(prefix4, AVC_START_CODE_4)) return;
-        throw new IllegalStateException("AVC NAL start code not found in csd.");
+    // Returns the index after the 3 or 4 byte start code at the given index, or -1.
+    private static int skipStartCode(ByteBuffer buffer, int index, int to) {
+        if (index + 3 <= to && buffer.get(index) == 0 && buffer.get(index + 1) == 0) {
+            if (buffer.get(index + 2) == 1) return index + 3;
+            if (index + 4 <= to && buffer.get(index + 2) == 0 && buffer.get(index + 3) == 1) return index + 4;
+        }
+        return -1;
     }
 
     private AvcCsdUtils() {
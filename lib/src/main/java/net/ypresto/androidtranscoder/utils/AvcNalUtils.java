@@ -0,0 +1,92 @@
+package net.ypresto.androidtranscoder.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Inspects the NAL unit headers of H.264 access units, as returned by the extractor.
+ * Only absolute reads are used: nothing is copied, and the buffer position and limit
+ * are not changed.
+ */
+public class AvcNalUtils {
+    // Refer: ITU-T H.264, 7.3.1 NAL unit syntax and Table 7-1.
+    public static final int NAL_TYPE_SLICE = 1;
+    public static final int NAL_TYPE_IDR_SLICE = 5;
+
+    private static final int LENGTH_PREFIX_SIZE = 4;
+
+    /**
+     * Whether the given access unit is not used as a reference by other frames, so it
+     * can be dropped without affecting the decoding of the rest of the stream. This is
+     * the case when its slices have nal_ref_idc == 0, which is the same for all slices of
+     * a picture, so only the first one is checked.
+     *
+     * Both Annex B (start codes) and 4 byte length prefixed NAL units are supported.
+     *
+     * @param buffer the buffer holding the access unit
+     * @param offset position of the access unit in the buffer
+     * @param size size of the access unit
+     * @return true if the access unit has slices and they are not referenced
+     */
+    public static boolean isNonReferenceFrame(ByteBuffer buffer, int offset, int size) {
+        int header = isAnnexB(buffer, offset, size)
+                ? findFirstSliceAnnexB(buffer, offset, offset + size)
+                : findFirstSliceLengthPrefixed(buffer, offset, offset + size);
+        if (header < 0) return false;
+        return getRefIdc(buffer.get(header)) == 0;
+    }
+
+    private static boolean isAnnexB(ByteBuffer buffer, int offset, int size) {
+        if (size >= 3 && buffer.get(offset) == 0 && buffer.get(offset + 1) == 0 && buffer.get(offset + 2) == 1) {
+            return true;
+        }
+        return size >= 4 && buffer.get(offset) == 0 && buffer.get(offset + 1) == 0
+                && buffer.get(offset + 2) == 0 && buffer.get(offset + 3) == 1;
+    }
+
+    // Returns the index of the first slice NAL header, or -1.
+    private static int findFirstSliceAnnexB(ByteBuffer buffer, int from, int to) {
+        int zeros = 0;
+        for (int i = from; i < to - 1; i++) {
+            byte value = buffer.get(i);
+            if (value == 0) {
+                zeros++;
+                continue;
+            }
+            if (value == 1 && zeros >= 2 && isSlice(buffer.get(i + 1))) return i + 1;
+            zeros = 0;
+        }
+        return -1;
+    }
+
+    // Returns the index of the first slice NAL header, or -1.
+    private static int findFirstSliceLengthPrefixed(ByteBuffer buffer, int from, int to) {
+        int position = from;
+        while (position + LENGTH_PREFIX_SIZE < to) {
+            int length = getLength(buffer, position);
+            int header = position + LENGTH_PREFIX_SIZE;
+            if (length <= 0 || length > to - header) return -1;
+            if (isSlice(buffer.get(header))) return header;
+            position = header + length;
+        }
+        return -1;
+    }
+
+    // Lengths are big endian, but codec buffers are in native order, so getInt() can't be used.
+    private static int getLength(ByteBuffer buffer, int position) {
+        return (buffer.get(position) & 0xFF) << 24 | (buffer.get(position + 1) & 0xFF) << 16
+                | (buffer.get(position + 2) & 0xFF) << 8 | (buffer.get(position + 3) & 0xFF);
+    }
+
+    private static boolean isSlice(byte header) {
+        int type = header & 0x1F;
+        return type >= NAL_TYPE_SLICE && type <= NAL_TYPE_IDR_SLICE;
+    }
+
+    private static int getRefIdc(byte header) {
+        return (header >> 5) & 0x03;
+    }
+
+    private AvcNalUtils() {
+        throw new RuntimeException();
+    }
+}
@@ -0,0 +1,164 @@
+package net.ypresto.androidtranscoder.utils;
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A H.264 picture parameter set, as described in ITU-T H.264, 7.3.2.2.
+ * Only the fields that tell which coding tools a stream uses are kept.
+ *
+ * Parsing does not copy nor allocate, so instances can be reused with {@link #parse}.
+ * Malformed data makes it return false. Not thread safe.
+ */
+public class AvcPps {
+    public static final int NAL_TYPE_PPS = 8;
+
+    private static final int MAX_PPS_ID = 255;
+    private static final int MAX_SPS_ID = 31;
+    private static final int MAX_SLICE_GROUPS = 8;
+    private static final int MAX_REF_IDX = 32;
+    // MaxFS of the highest level, in macroblocks.
+    private static final int MAX_MAP_UNITS = 139264;
+
+    private final AvcBitReader mReader = new AvcBitReader();
+
+    private int mPpsId;
+    private int mSpsId;
+    private boolean mCabac;
+    private int mNumSliceGroups;
+    private int mNumRefIdxL0DefaultActive;
+    private int mNumRefIdxL1DefaultActive;
+    private boolean mWeightedPrediction;
+    private int mWeightedBipredictionIdc;
+    private boolean mTransform8x8Mode;
+
+    /**
+     * Parses the PPS in csd-1 of the given AVC format.
+     *
+     * @return true if it was found and is valid
+     */
+    public boolean parse(@NonNull MediaFormat format) {
+        ByteBuffer csd = format.getByteBuffer(MediaFormatConstants.KEY_AVC_PPS);
+        if (csd == null) return false;
+        int header = AvcCsdUtils.findNalHeader(csd, csd.position(), csd.limit());
+        if (header < 0) return false;
+        return parse(csd, header, AvcCsdUtils.findNalEnd(csd, header, csd.limit()) - header);
+    }
+
+    /**
+     * Parses a PPS NAL unit. The buffer position and limit are not changed.
+     *
+     * @param buffer the buffer holding the unit
+     * @param offset position of the NAL header in the buffer
+     * @param size size of the unit, header included, without start code
+     * @return true if the unit is a valid PPS
+     */
+    public boolean parse(@NonNull ByteBuffer buffer, int offset, int size) {
+        if (size < 1 || (buffer.get(offset) & 0x1F) != NAL_TYPE_PPS) return false;
+        AvcBitReader reader = mReader;
+        reader.reset(buffer, offset + 1, size - 1);
+        mPpsId = reader.readUnsignedExpGolomb();
+        mSpsId = reader.readUnsignedExpGolomb();
+        if (mPpsId > MAX_PPS_ID || mSpsId > MAX_SPS_ID) return false;
+        mCabac = reader.readFlag(); // entropy_coding_mode_flag
+        reader.skipBits(1); // bottom_field_pic_order_in_frame_present_flag
+        mNumSliceGroups = reader.readUnsignedExpGolomb() + 1;
+        if (mNumSliceGroups > MAX_SLICE_GROUPS) return false;
+        if (mNumSliceGroups > 1 && !skipSliceGroups(reader, mNumSliceGroups)) return false;
+        mNumRefIdxL0DefaultActive = reader.readUnsignedExpGolomb() + 1;
+        mNumRefIdxL1DefaultActive = reader.readUnsignedExpGolomb() + 1;
+        if (mNumRefIdxL0DefaultActive > MAX_REF_IDX || mNumRefIdxL1DefaultActive > MAX_REF_IDX) return false;
+        mWeightedPrediction = reader.readFlag();
+        mWeightedBipredictionIdc = reader.readBits(2);
+        reader.readSignedExpGolomb(); // pic_init_qp_minus26
+        reader.readSignedExpGolomb(); // pic_init_qs_minus26
+        reader.readSignedExpGolomb(); // chroma_qp_index_offset
+        reader.skipBits(3); // deblocking_filter_control_present_flag, constrained_intra_pred_flag, redundant_pic_cnt_present_flag
+        // The rest is present in High profiles only.
+        mTransform8x8Mode = reader.hasMoreRbspData() && reader.readFlag();
+        return !reader.isOverflow();
+    }
+
+    private static boolean skipSliceGroups(AvcBitReader reader, int numSliceGroups) {
+        int mapType = reader.readUnsignedExpGolomb();
+        switch (mapType) {
+            case 0:
+                for (int i = 0; i < numSliceGroups; i++) {
+                    reader.readUnsignedExpGolomb(); // run_length_minus1
+                }
+                return true;
+            case 1:
+                return true;
+            case 2:
+                for (int i = 0; i < numSliceGroups - 1; i++) {
+                    reader.readUnsignedExpGolomb(); // top_left
+                    reader.readUnsignedExpGolomb(); // bottom_right
+                }
+                return true;
+            case 3: case 4: case 5:
+                reader.skipBits(1); // slice_group_change_direction_flag
+                reader.readUnsignedExpGolomb(); // slice_group_change_rate_minus1
+                return true;
+            case 6:
+                int mapUnits = reader.readUnsignedExpGolomb() + 1;
+                if (mapUnits > MAX_MAP_UNITS) return false;
+                int bits = 32 - Integer.numberOfLeadingZeros(numSliceGroups - 1);
+                for (int i = 0; i < mapUnits && !reader.isOverflow(); i++) {
+                    reader.skipBits(bits); // slice_group_id
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public int getPpsId() {
+        return mPpsId;
+    }
+
+    public int getSpsId() {
+        return mSpsId;
+    }
+
+    /**
+     * Whether entropy coding is CABAC rather than CAVLC. CABAC is not allowed
+     * in Baseline profile.
+     */
+    public boolean isCabac() {
+        return mCabac;
+    }
+
+    /**
+     * Returns the number of slice groups, or 1. Slice groups (FMO) are only
+     * allowed in Baseline and Extended profiles.
+     */
+    public int getNumSliceGroups() {
+        return mNumSliceGroups;
+    }
+
+    public int getNumRefIdxL0DefaultActive() {
+        return mNumRefIdxL0DefaultActive;
+    }
+
+    public int getNumRefIdxL1DefaultActive() {
+        return mNumRefIdxL1DefaultActive;
+    }
+
+    public boolean isWeightedPrediction() {
+        return mWeightedPrediction;
+    }
+
+    public int getWeightedBipredictionIdc() {
+        return mWeightedBipredictionIdc;
+    }
+
+    /**
+     * Whether 8x8 transforms are used, which is allowed in High profiles only.
+     */
+    public boolean isTransform8x8Mode() {
+        return mTransform8x8Mode;
+    }
+}
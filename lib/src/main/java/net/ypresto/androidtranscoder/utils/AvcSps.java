@@ -0,0 +1,384 @@
+package net.ypresto.androidtranscoder.utils;
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A H.264 sequence parameter set, as described in ITU-T H.264, 7.3.2.1.1 and Annex E.
+ * It tells the profile, level, size and frame rate of a stream without starting a decoder.
+ *
+ * Parsing does not copy nor allocate, so instances can be reused with {@link #parse}.
+ * Malformed data makes it return false. Not thread safe.
+ */
+public class AvcSps {
+    public static final int NAL_TYPE_SPS = 7;
+
+    public static final int CHROMA_FORMAT_MONOCHROME = 0;
+    public static final int CHROMA_FORMAT_420 = 1;
+    public static final int CHROMA_FORMAT_422 = 2;
+    public static final int CHROMA_FORMAT_444 = 3;
+
+    public static final int LEVEL_IDC_1B = 9;
+    public static final float FRAME_RATE_UNKNOWN = -1;
+
+    private static final int EXTENDED_SAR = 255;
+    private static final int MAX_SPS_ID = 31;
+    private static final int MAX_CPB_COUNT = 32;
+    private static final int MAX_REF_FRAMES_IN_CYCLE = 255;
+    private static final int MAX_LOG2 = 12;
+    private static final int MAX_BIT_DEPTH_MINUS_8 = 6;
+    private static final int MAX_DPB_FRAMES = 16;
+
+    private final AvcBitReader mReader = new AvcBitReader();
+
+    private int mProfileIdc;
+    private int mConstraintFlags;
+    private int mLevelIdc;
+    private int mSpsId;
+    private int mChromaFormatIdc;
+    private int mBitDepthLuma;
+    private int mBitDepthChroma;
+    private int mMaxNumRefFrames;
+    private boolean mFrameMbsOnly;
+    private int mWidth;
+    private int mHeight;
+    private int mSarWidth;
+    private int mSarHeight;
+    private long mNumUnitsInTick;
+    private long mTimeScale;
+    private boolean mFixedFrameRate;
+    private int mMaxNumReorderFrames;
+    private int mMaxDecFrameBuffering;
+
+    /**
+     * Parses the SPS in csd-0 of the given AVC format.
+     *
+     * @return true if it was found and is valid
+     */
+    public boolean parse(@NonNull MediaFormat format) {
+        ByteBuffer csd = format.getByteBuffer(MediaFormatConstants.KEY_AVC_SPS);
+        if (csd == null) return false;
+        int header = AvcCsdUtils.findNalHeader(csd, csd.position(), csd.limit());
+        if (header < 0) return false;
+        return parse(csd, header, AvcCsdUtils.findNalEnd(csd, header, csd.limit()) - header);
+    }
+
+    /**
+     * Parses a SPS NAL unit. The buffer position and limit are not changed.
+     *
+     * @param buffer the buffer holding the unit
+     * @param offset position of the NAL header in the buffer
+     * @param size size of the unit, header included, without start code
+     * @return true if the unit is a valid SPS
+     */
+    public boolean parse(@NonNull ByteBuffer buffer, int offset, int size) {
+        if (size < 1 || (buffer.get(offset) & 0x1F) != NAL_TYPE_SPS) return false;
+        AvcBitReader reader = mReader;
+        reader.reset(buffer, offset + 1, size - 1);
+        mProfileIdc = reader.readBits(8);
+        mConstraintFlags = reader.readBits(8);
+        mLevelIdc = reader.readBits(8);
+        mSpsId = reader.readUnsignedExpGolomb();
+        if (mSpsId > MAX_SPS_ID) return false;
+
+        boolean separateColourPlanes = false;
+        mChromaFormatIdc = CHROMA_FORMAT_420;
+        mBitDepthLuma = 8;
+        mBitDepthChroma = 8;
+        if (hasChromaInfo(mProfileIdc)) {
+            mChromaFormatIdc = reader.readUnsignedExpGolomb();
+            if (mChromaFormatIdc > CHROMA_FORMAT_444) return false;
+            if (mChromaFormatIdc == CHROMA_FORMAT_444) separateColourPlanes = reader.readFlag();
+            int bitDepthLumaMinus8 = reader.readUnsignedExpGolomb();
+            int bitDepthChromaMinus8 = reader.readUnsignedExpGolomb();
+            if (bitDepthLumaMinus8 > MAX_BIT_DEPTH_MINUS_8 || bitDepthChromaMinus8 > MAX_BIT_DEPTH_MINUS_8) return false;
+            mBitDepthLuma = 8 + bitDepthLumaMinus8;
+            mBitDepthChroma = 8 + bitDepthChromaMinus8;
+            reader.skipBits(1); // qpprime_y_zero_transform_bypass_flag
+            if (reader.readFlag()) { // seq_scaling_matrix_present_flag
+                int count = mChromaFormatIdc != CHROMA_FORMAT_444 ? 8 : 12;
+                for (int i = 0; i < count && !reader.isOverflow(); i++) {
+                    if (reader.readFlag()) skipScalingList(reader, i < 6 ? 16 : 64);
+                }
+            }
+        }
+
+        if (reader.readUnsignedExpGolomb() > MAX_LOG2) return false; // log2_max_frame_num_minus4
+        int picOrderCntType = reader.readUnsignedExpGolomb();
+        if (picOrderCntType == 0) {
+            if (reader.readUnsignedExpGolomb() > MAX_LOG2) return false; // log2_max_pic_order_cnt_lsb_minus4
+        } else if (picOrderCntType == 1) {
+            reader.skipBits(1); // delta_pic_order_always_zero_flag
+            reader.readSignedExpGolomb(); // offset_for_non_ref_pic
+            reader.readSignedExpGolomb(); // offset_for_top_to_bottom_field
+            int cycle = reader.readUnsignedExpGolomb();
+            if (cycle > MAX_REF_FRAMES_IN_CYCLE) return false;
+            for (int i = 0; i < cycle && !reader.isOverflow(); i++) {
+                reader.readSignedExpGolomb(); // offset_for_ref_frame
+            }
+        } else if (picOrderCntType != 2) {
+            return false;
+        }
+        mMaxNumRefFrames = reader.readUnsignedExpGolomb();
+        if (mMaxNumRefFrames > MAX_DPB_FRAMES) return false;
+        reader.skipBits(1); // gaps_in_frame_num_value_allowed_flag
+
+        int widthInMbs = reader.readUnsignedExpGolomb() + 1;
+        int heightInMapUnits = reader.readUnsignedExpGolomb() + 1;
+        mFrameMbsOnly = reader.readFlag();
+        if (!mFrameMbsOnly) reader.skipBits(1); // mb_adaptive_frame_field_flag
+        reader.skipBits(1); // direct_8x8_inference_flag
+        int heightInMbs = (mFrameMbsOnly ? 1 : 2) * heightInMapUnits;
+        // Checked here so that the products below can not overflow.
+        if (widthInMbs > Short.MAX_VALUE || heightInMbs > Short.MAX_VALUE) return false;
+        mWidth = widthInMbs * 16;
+        mHeight = heightInMbs * 16;
+        if (reader.readFlag()) { // frame_cropping_flag
+            int chromaArrayType = separateColourPlanes ? CHROMA_FORMAT_MONOCHROME : mChromaFormatIdc;
+            int cropUnitX = 1;
+            int cropUnitY = mFrameMbsOnly ? 1 : 2;
+            if (chromaArrayType != CHROMA_FORMAT_MONOCHROME) {
+                cropUnitX *= chromaArrayType == CHROMA_FORMAT_444 ? 1 : 2;
+                cropUnitY *= chromaArrayType == CHROMA_FORMAT_420 ? 2 : 1;
+            }
+            long cropX = (long) reader.readUnsignedExpGolomb() + reader.readUnsignedExpGolomb();
+            long cropY = (long) reader.readUnsignedExpGolomb() + reader.readUnsignedExpGolomb();
+            if (cropX * cropUnitX >= mWidth || cropY * cropUnitY >= mHeight) return false;
+            mWidth -= cropX * cropUnitX;
+            mHeight -= cropY * cropUnitY;
+        }
+
+        mSarWidth = 0;
+        mSarHeight = 0;
+        mNumUnitsInTick = 0;
+        mTimeScale = 0;
+        mFixedFrameRate = false;
+        mMaxNumReorderFrames = -1;
+        mMaxDecFrameBuffering = -1;
+        if (reader.readFlag() && !parseVui(reader)) return false; // vui_parameters_present_flag
+        if (reader.isOverflow()) return false;
+        if (mMaxNumReorderFrames < 0) {
+            // Inferred as in E.2.1.
+            mMaxDecFrameBuffering = isIntraProfile() ? 0 : getMaxDpbFrames(widthInMbs, heightInMbs);
+            mMaxNumReorderFrames = mProfileIdc == AvcSpsUtils.PROFILE_IDC_BASELINE ? 0 : mMaxDecFrameBuffering;
+        }
+        return true;
+    }
+
+    private boolean parseVui(AvcBitReader reader) {
+        if (reader.readFlag()) { // aspect_ratio_info_present_flag
+            int aspectRatioIdc = reader.readBits(8);
+            if (aspectRatioIdc == EXTENDED_SAR) {
+                mSarWidth = reader.readBits(16);
+                mSarHeight = reader.readBits(16);
+            }
+        }
+        if (reader.readFlag()) reader.skipBits(1); // overscan_info_present_flag, overscan_appropriate_flag
+        if (reader.readFlag()) { // video_signal_type_present_flag
+            reader.skipBits(4); // video_format, video_full_range_flag
+            if (reader.readFlag()) reader.skipBits(24); // colour_description_present_flag, colour_primaries...
+        }
+        if (reader.readFlag()) { // chroma_loc_info_present_flag
+            reader.readUnsignedExpGolomb();
+            reader.readUnsignedExpGolomb();
+        }
+        if (reader.readFlag()) { // timing_info_present_flag
+            mNumUnitsInTick = reader.readUnsignedInt();
+            mTimeScale = reader.readUnsignedInt();
+            mFixedFrameRate = reader.readFlag();
+        }
+        boolean nalHrd = reader.readFlag();
+        if (nalHrd && !skipHrd(reader)) return false;
+        boolean vclHrd = reader.readFlag();
+        if (vclHrd && !skipHrd(reader)) return false;
+        if (nalHrd || vclHrd) reader.skipBits(1); // low_delay_hrd_flag
+        reader.skipBits(1); // pic_struct_present_flag
+        if (reader.readFlag()) { // bitstream_restriction_flag
+            reader.skipBits(1); // motion_vectors_over_pic_boundaries_flag
+            reader.readUnsignedExpGolomb(); // max_bytes_per_pic_denom
+            reader.readUnsignedExpGolomb(); // max_bits_per_mb_denom
+            reader.readUnsignedExpGolomb(); // log2_max_mv_length_horizontal
+            reader.readUnsignedExpGolomb(); // log2_max_mv_length_vertical
+            mMaxNumReorderFrames = reader.readUnsignedExpGolomb();
+            mMaxDecFrameBuffering = reader.readUnsignedExpGolomb();
+            if (mMaxDecFrameBuffering > MAX_DPB_FRAMES || mMaxNumReorderFrames > mMaxDecFrameBuffering) return false;
+        }
+        return true;
+    }
+
+    private static boolean skipHrd(AvcBitReader reader) {
+        int cpbCount = reader.readUnsignedExpGolomb() + 1;
+        if (cpbCount > MAX_CPB_COUNT) return false;
+        reader.skipBits(8); // bit_rate_scale, cpb_size_scale
+        for (int i = 0; i < cpbCount && !reader.isOverflow(); i++) {
+            reader.readUnsignedExpGolomb(); // bit_rate_value_minus1
+            reader.readUnsignedExpGolomb(); // cpb_size_value_minus1
+            reader.skipBits(1); // cbr_flag
+        }
+        reader.skipBits(20); // four delay and length fields
+        return true;
+    }
+
+    private static void skipScalingList(AvcBitReader reader, int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int i = 0; i < size && !reader.isOverflow(); i++) {
+            if (nextScale != 0) {
+                nextScale = (lastScale + reader.readSignedExpGolomb() + 256) % 256;
+            }
+            if (nextScale != 0) lastScale = nextScale;
+        }
+    }
+
+    private static boolean hasChromaInfo(int profileIdc) {
+        switch (profileIdc) {
+            case 100: case 110: case 122: case 244: case 44:
+            case 83: case 86: case 118: case 128: case 138: case 139: case 134: case 135:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // The intra profiles, signaled by constraint_set3_flag, have no inter prediction.
+    private boolean isIntraProfile() {
+        boolean intra = (mConstraintFlags & 0x10) != 0;
+        switch (mProfileIdc) {
+            case 44: return true;
+            case 86: case 100: case 110: case 122: case 244: return intra;
+            default: return false;
+        }
+    }
+
+    // Refer: ITU-T H.264, A.3.1 and Table A-1.
+    private int getMaxDpbFrames(int widthInMbs, int heightInMbs) {
+        int maxDpbMbs;
+        switch (getLevel()) {
+            case LEVEL_IDC_1B: case 10: maxDpbMbs = 396; break;
+            case 11: maxDpbMbs = 900; break;
+            case 12: case 13: case 20: maxDpbMbs = 2376; break;
+            case 21: maxDpbMbs = 4752; break;
+            case 22: case 30: maxDpbMbs = 8100; break;
+            case 31: maxDpbMbs = 18000; break;
+            case 32: maxDpbMbs = 20480; break;
+            case 40: case 41: maxDpbMbs = 32768; break;
+            case 42: maxDpbMbs = 34816; break;
+            case 50: maxDpbMbs = 110400; break;
+            case 51: case 52: maxDpbMbs = 184320; break;
+            default: return MAX_DPB_FRAMES;
+        }
+        return Math.min(maxDpbMbs / (widthInMbs * heightInMbs), MAX_DPB_FRAMES);
+    }
+
+    public int getProfileIdc() {
+        return mProfileIdc;
+    }
+
+    /**
+     * Returns the constraint_set0_flag to constraint_set5_flag byte, first flag in the
+     * most significant bit.
+     */
+    public int getConstraintFlags() {
+        return mConstraintFlags;
+    }
+
+    /**
+     * Returns level_idc, e.g. 31 for level 3.1. Level 1b, which is signaled with
+     * constraint_set3_flag in Baseline, Main and Extended profiles, is returned as
+     * {@link #LEVEL_IDC_1B}.
+     */
+    public int getLevel() {
+        if (mLevelIdc == 11 && (mConstraintFlags & 0x10) != 0 && !hasChromaInfo(mProfileIdc)) {
+            return LEVEL_IDC_1B;
+        }
+        return mLevelIdc;
+    }
+
+    public int getSpsId() {
+        return mSpsId;
+    }
+
+    /**
+     * @return one of the CHROMA_FORMAT constants
+     */
+    public int getChromaFormatIdc() {
+        return mChromaFormatIdc;
+    }
+
+    public int getBitDepthLuma() {
+        return mBitDepthLuma;
+    }
+
+    public int getBitDepthChroma() {
+        return mBitDepthChroma;
+    }
+
+    public int getMaxNumRefFrames() {
+        return mMaxNumRefFrames;
+    }
+
+    public boolean isInterlaced() {
+        return !mFrameMbsOnly;
+    }
+
+    /**
+     * Returns the width of the displayed frame, after cropping.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Returns the height of the displayed frame, after cropping.
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the width of the sample aspect ratio, if given explicitly, or 0.
+     */
+    public int getSarWidth() {
+        return mSarWidth;
+    }
+
+    /**
+     * Returns the height of the sample aspect ratio, if given explicitly, or 0.
+     */
+    public int getSarHeight() {
+        return mSarHeight;
+    }
+
+    /**
+     * Returns the frame rate from the VUI timing info, or {@link #FRAME_RATE_UNKNOWN}.
+     * If {@link #isFixedFrameRate()} is false, this is only the maximum.
+     */
+    public float getFrameRate() {
+        if (mNumUnitsInTick == 0 || mTimeScale == 0) return FRAME_RATE_UNKNOWN;
+        return (float) (mTimeScale / (2D * mNumUnitsInTick));
+    }
+
+    public boolean isFixedFrameRate() {
+        return mFixedFrameRate;
+    }
+
+    /**
+     * Returns the maximum number of frames that precede a frame in decoding order and
+     * follow it in output order: 0 if there are no B frames to reorder. Inferred from
+     * the level if the stream has no bitstream restrictions.
+     */
+    public int getMaxNumReorderFrames() {
+        return mMaxNumReorderFrames;
+    }
+
+    /**
+     * Returns the number of frames the decoder must hold, or inferred from the level
+     * if the stream has no bitstream restrictions.
+     */
+    public int getMaxDecFrameBuffering() {
+        return mMaxDecFrameBuffering;
+    }
+}
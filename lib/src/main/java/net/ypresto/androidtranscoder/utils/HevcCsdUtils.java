@@ -0,0 +1,119 @@
+package net.ypresto.androidtranscoder.utils;
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Reads the parameter sets of HEVC formats. Unlike AVC, codecs put the VPS, SPS and PPS
+ * together in csd-0, each with an Annex B start code. MediaMuxer converts them to the
+ * hvcC box, so they only need to be present and well formed.
+ */
+public class HevcCsdUtils {
+    // Refer: ITU-T H.265, Table 7-1.
+    public static final int NAL_TYPE_VPS = 32;
+    public static final int NAL_TYPE_SPS = 33;
+    public static final int NAL_TYPE_PPS = 34;
+
+    // Refer: ITU-T H.265, Annex A.
+    public static final int PROFILE_IDC_MAIN = 1;
+    public static final int PROFILE_IDC_MAIN_10 = 2;
+    public static final int PROFILE_IDC_MAIN_STILL_PICTURE = 3;
+    public static final int PROFILE_IDC_RANGE_EXTENSIONS = 4;
+
+    private static final int NAL_HEADER_SIZE = 2;
+
+    /**
+     * Returns the given parameter set of the format.
+     *
+     * @param type one of {@link #NAL_TYPE_VPS}, {@link #NAL_TYPE_SPS} or {@link #NAL_TYPE_PPS}
+     * @return the NAL unit, header included, without start code
+     * @throws IllegalStateException if it is missing
+     */
+    @NonNull
+    public static ByteBuffer getParameterSet(@NonNull MediaFormat format, int type) {
+        ByteBuffer csd = format.getByteBuffer(MediaFormatConstants.KEY_HEVC_CSD);
+        if (csd == null) throw new IllegalStateException("HEVC format has no csd-0.");
+        ByteBuffer nal = findNal(csd, type);
+        if (nal == null) throw new IllegalStateException("HEVC csd-0 has no NAL unit of type " + type);
+        return nal;
+    }
+
+    /**
+     * Returns the first NAL unit of the given type in an Annex B buffer, between
+     * its position and limit, which are not changed.
+     *
+     * @return a view of the NAL unit, header included, or null
+     */
+    @Nullable
+    public static ByteBuffer findNal(@NonNull ByteBuffer buffer, int type) {
+        for (ByteBuffer nal : splitNals(buffer)) {
+            if (nal.remaining() >= NAL_HEADER_SIZE && getNalType(nal.get(nal.position())) == type) return nal;
+        }
+        return null;
+    }
+
+    /**
+     * Splits an Annex B buffer into views of its NAL units, without start codes.
+     */
+    @NonNull
+    public static List<ByteBuffer> splitNals(@NonNull ByteBuffer buffer) {
+        List<ByteBuffer> nals = new ArrayList<>();
+        int limit = buffer.limit();
+        int start = -1;
+        int i = buffer.position();
+        while (i + 2 < limit) {
+            if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1) {
+                if (start >= 0) {
+                    // The zero of a 4 byte start code is not part of the previous unit.
+                    int end = i > start && buffer.get(i - 1) == 0 ? i - 1 : i;
+                    nals.add(view(buffer, start, end));
+                }
+                i += 3;
+                start = i;
+            } else {
+                i++;
+            }
+        }
+        if (start >= 0 && start < limit) nals.add(view(buffer, start, limit));
+        return nals;
+    }
+
+    public static int getNalType(byte header) {
+        return (header >> 1) & 0x3F;
+    }
+
+    /**
+     * Returns general_profile_idc, which follows the NAL header and one byte of the SPS.
+     *
+     * @param sps the SPS, header included
+     */
+    public static int getProfileIdc(@NonNull ByteBuffer sps) {
+        return sps.get(sps.position() + NAL_HEADER_SIZE + 1) & 0x1F;
+    }
+
+    public static String getProfileName(int profileIdc) {
+        switch (profileIdc) {
+            case PROFILE_IDC_MAIN: return "Main Profile";
+            case PROFILE_IDC_MAIN_10: return "Main 10 Profile";
+            case PROFILE_IDC_MAIN_STILL_PICTURE: return "Main Still Picture Profile";
+            case PROFILE_IDC_RANGE_EXTENSIONS: return "Range Extensions Profile";
+            default: return "Unknown Profile (" + profileIdc + ")";
+        }
+    }
+
+    private static ByteBuffer view(ByteBuffer buffer, int start, int end) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(end).position(start);
+        return view.slice();
+    }
+
+    private HevcCsdUtils() {
+        throw new RuntimeException();
+    }
+}
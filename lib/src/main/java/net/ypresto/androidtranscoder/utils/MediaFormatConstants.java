@@ -32,6 +32,8 @@ public class MediaFormatConstants {
     public static final String KEY_AVC_SPS = "csd-0";
     /** Included in MediaFormat from {@link android.media.MediaExtractor#getTrackFormat(int)}. Value is {@link java.nio.ByteBuffer}. */
     public static final String KEY_AVC_PPS = "csd-1";
+    /** For HEVC, VPS, SPS and PPS with start codes, all in one {@link java.nio.ByteBuffer}. */
+    public static final String KEY_HEVC_CSD = "csd-0";
 
     /**
      * For decoder parameter and included in MediaFormat from {@link android.media.MediaExtractor#getTrackFormat(int)}.
@@ -40,9 +42,25 @@ public class MediaFormatConstants {
      */
     public static final String KEY_ROTATION_DEGREES = "rotation-degrees";
 
+    // from MediaFormat of API level >= 23, ignored by older codecs.
+    /**
+     * For codec parameter. The rate at which the codec is expected to run, in frames per
+     * second for video and samples per second for audio. A high value requests full speed.
+     */
+    public static final String KEY_OPERATING_RATE = "operating-rate";
+    /** For codec parameter. 0 for realtime priority, 1 for best effort. */
+    public static final String KEY_PRIORITY = "priority";
+    public static final int PRIORITY_REALTIME = 0;
+    public static final int PRIORITY_NON_REALTIME = 1;
+
+    // from MediaFormat of API level >= 29, ignored by older codecs.
+    /** For encoder parameter. The maximum number of B-frames between reference frames, 0 for none. */
+    public static final String KEY_MAX_B_FRAMES = "max-bframes";
+
     // Video formats
     // from MediaFormat of API level >= 21
     public static final String MIMETYPE_VIDEO_AVC = "video/avc";
+    public static final String MIMETYPE_VIDEO_HEVC = "video/hevc";
     public static final String MIMETYPE_VIDEO_H263 = "video/3gpp";
     public static final String MIMETYPE_VIDEO_VP8 = "video/x-vnd.on2.vp8";
 
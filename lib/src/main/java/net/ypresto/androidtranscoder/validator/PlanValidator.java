@@ -0,0 +1,32 @@
+package net.ypresto.androidtranscoder.validator;
+
+import net.ypresto.androidtranscoder.engine.TrackStatus;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A {@link Validator} that decides from the whole {@link TranscodePlan} rather than
+ * from the track status only. The engine calls {@link #validate(TranscodePlan)} instead of
+ * {@link #validate(TrackStatus, TrackStatus)}, measuring the input bit rate if needed,
+ * and reports the outcome of transcodes that completed, so that the validator can learn.
+ */
+public interface PlanValidator extends Validator {
+
+    /**
+     * Return true if the transcoding should proceed, false otherwise.
+     *
+     * @param plan the formats and duration
+     * @return true to proceed
+     */
+    boolean validate(@NonNull TranscodePlan plan);
+
+    /**
+     * Called after a transcode that was validated completes successfully.
+     *
+     * @param plan the plan that was validated
+     * @param videoBytes the size of the output video track, or 0 if it was not compressed
+     * @param videoFrames the number of encoded video frames
+     * @param elapsedUs the time spent transcoding
+     */
+    void onTranscodeCompleted(@NonNull TranscodePlan plan, long videoBytes, int videoFrames, long elapsedUs);
+}
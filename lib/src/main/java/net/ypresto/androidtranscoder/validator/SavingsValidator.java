@@ -0,0 +1,112 @@
+package net.ypresto.androidtranscoder.validator;
+
+import android.media.MediaFormat;
+
+import net.ypresto.androidtranscoder.engine.TrackStatus;
+import net.ypresto.androidtranscoder.utils.Logger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A {@link PlanValidator} that aborts transcodes which are not worth their cost:
+ * those whose output is predicted to be smaller than the input by less than the given
+ * fraction, or to save too few bytes for each second spent encoding.
+ *
+ * Predictions come from a {@link TranscodeCostModel}, which learns from each completed
+ * transcode, so the model should be shared by all transcodes on the device.
+ * Tracks are first checked by a {@link DefaultValidator}. If the input size is unknown,
+ * or the video is not compressed, there is nothing to predict and the transcode proceeds.
+ */
+public class SavingsValidator implements PlanValidator {
+    private static final String TAG = "SavingsValidator";
+    private static final Logger LOG = new Logger(TAG);
+
+    private final Validator mStatusValidator = new DefaultValidator();
+    private final TranscodeCostModel mModel;
+    private final float mMinSaving;
+    private final long mMinSavedBytesPerSecond;
+
+    /**
+     * @param model the cost model
+     * @param minSaving the minimum fraction of the input size to be saved, e.g. 0.2
+     */
+    public SavingsValidator(@NonNull TranscodeCostModel model, float minSaving) {
+        this(model, minSaving, 0);
+    }
+
+    /**
+     * @param model the cost model
+     * @param minSaving the minimum fraction of the input size to be saved, e.g. 0.2
+     * @param minSavedBytesPerSecond the minimum number of bytes saved for each second
+     *                               of predicted encode time, or 0
+     */
+    public SavingsValidator(@NonNull TranscodeCostModel model, float minSaving, long minSavedBytesPerSecond) {
+        if (minSaving < 0 || minSaving >= 1) throw new IllegalArgumentException("Invalid saving: " + minSaving);
+        if (minSavedBytesPerSecond < 0) throw new IllegalArgumentException("Invalid rate: " + minSavedBytesPerSecond);
+        mModel = model;
+        mMinSaving = minSaving;
+        mMinSavedBytesPerSecond = minSavedBytesPerSecond;
+    }
+
+    @Override
+    public boolean validate(TrackStatus videoStatus, TrackStatus audioStatus) {
+        return mStatusValidator.validate(videoStatus, audioStatus);
+    }
+
+    @Override
+    public boolean validate(@NonNull TranscodePlan plan) {
+        if (!validate(plan.videoStatus, plan.audioStatus)) return false;
+        if (plan.videoStatus != TrackStatus.COMPRESSING) return true;
+        if (plan.inputDurationUs <= 0 || plan.outputDurationUs <= 0) return true;
+        long inputVideoBytes = getBytes(plan.videoInputFormat, plan.inputDurationUs);
+        if (inputVideoBytes <= 0) {
+            LOG.i("Input video size is unknown, proceeding.");
+            return true;
+        }
+        long inputAudioBytes = getBytes(plan.audioInputFormat, plan.inputDurationUs);
+        long inputBytes = inputVideoBytes + inputAudioBytes;
+
+        MediaFormat videoFormat = plan.videoOutputFormat;
+        int width = videoFormat.getInteger(MediaFormat.KEY_WIDTH);
+        int height = videoFormat.getInteger(MediaFormat.KEY_HEIGHT);
+        int bitRate = getInteger(videoFormat, MediaFormat.KEY_BIT_RATE);
+        int frameRate = getInteger(videoFormat, MediaFormat.KEY_FRAME_RATE);
+        long outputBytes = mModel.predictVideoBytes(width, height, bitRate, plan.outputDurationUs);
+        // If the input audio size is unknown, compare video only.
+        if (plan.audioStatus == TrackStatus.PASS_THROUGH) {
+            outputBytes += inputAudioBytes;
+        } else if (plan.audioStatus == TrackStatus.COMPRESSING && inputAudioBytes > 0) {
+            outputBytes += getBytes(plan.audioOutputFormat, plan.outputDurationUs);
+        }
+        long encodeTimeUs = mModel.predictEncodeTimeUs(width, height, frameRate, plan.outputDurationUs);
+
+        long savedBytes = inputBytes - outputBytes;
+        float saving = (float) savedBytes / inputBytes;
+        LOG.i("Predicted output: " + outputBytes + " bytes from " + inputBytes + " (saving " + saving
+                + "), encode time: " + encodeTimeUs + "us, model samples: " + mModel.getSampleCount());
+        if (saving < mMinSaving) return false;
+        if (mMinSavedBytesPerSecond > 0 && encodeTimeUs > 0) {
+            return savedBytes / (encodeTimeUs / 1000000D) >= mMinSavedBytesPerSecond;
+        }
+        return true;
+    }
+
+    @Override
+    public void onTranscodeCompleted(@NonNull TranscodePlan plan, long videoBytes, int videoFrames, long elapsedUs) {
+        if (plan.videoStatus != TrackStatus.COMPRESSING) return;
+        MediaFormat format = plan.videoOutputFormat;
+        mModel.onVideoEncoded(format.getInteger(MediaFormat.KEY_WIDTH), format.getInteger(MediaFormat.KEY_HEIGHT),
+                getInteger(format, MediaFormat.KEY_BIT_RATE), plan.outputDurationUs,
+                videoBytes, videoFrames, elapsedUs);
+    }
+
+    private static long getBytes(@Nullable MediaFormat format, long durationUs) {
+        if (format == null || !format.containsKey(MediaFormat.KEY_BIT_RATE)) return 0;
+        return (long) (format.getInteger(MediaFormat.KEY_BIT_RATE) / 8D * durationUs / 1000000D);
+    }
+
+    private static int getInteger(@NonNull MediaFormat format, @NonNull String key) {
+        return format.containsKey(key) ? format.getInteger(key) : 0;
+    }
+}
@@ -0,0 +1,180 @@
+package net.ypresto.androidtranscoder.validator;
+
+import net.ypresto.androidtranscoder.utils.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Predicts the size and the encode time of a video output, learning from the
+ * transcodes that completed on this device.
+ *
+ * Sizes are predicted from the requested bit rate, corrected by how much the encoder
+ * usually misses it, or from the bytes per pixel-second when there is no bit rate.
+ * Encode time is predicted from the pixel throughput, in pixels per second.
+ * Each completed transcode moves the estimates towards the measured values.
+ *
+ * Can be saved to a file, so that the model survives the process. Thread safe.
+ */
+public class TranscodeCostModel {
+    private static final String TAG = "TranscodeCostModel";
+    private static final Logger LOG = new Logger(TAG);
+
+    // About what DefaultVideoStrategy estimates for 30fps.
+    static final double DEFAULT_BYTES_PER_PIXEL_SECOND = 0.07 * 2 * 30 / 8;
+    // Realtime 1080p, which most hardware encoders can do.
+    static final double DEFAULT_PIXEL_RATE = 1920 * 1080 * 30;
+    // The weight of new measures once there are enough of them.
+    private static final double MIN_WEIGHT = 0.2;
+
+    private static final String KEY_SIZE_RATIO = "sizeRatio";
+    private static final String KEY_BYTES_PER_PIXEL_SECOND = "bytesPerPixelSecond";
+    private static final String KEY_PIXEL_RATE = "pixelRate";
+    private static final String KEY_SAMPLES = "samples";
+
+    private double mSizeRatio = 1;
+    private double mBytesPerPixelSecond = DEFAULT_BYTES_PER_PIXEL_SECOND;
+    private double mPixelRate = DEFAULT_PIXEL_RATE;
+    private int mSamples;
+    private final File mFile;
+
+    /**
+     * Creates a model with default estimates, kept in memory only.
+     */
+    public TranscodeCostModel() {
+        this(null);
+    }
+
+    private TranscodeCostModel(@Nullable File file) {
+        mFile = file;
+    }
+
+    /**
+     * Loads a model from the given file, which is written again after each update.
+     * If the file does not exist or can't be read, the model starts from defaults.
+     *
+     * @param file a file in the app storage
+     * @return the model
+     */
+    @NonNull
+    public static TranscodeCostModel fromFile(@NonNull File file) {
+        TranscodeCostModel model = new TranscodeCostModel(file);
+        if (!file.exists()) return model;
+        InputStream stream = null;
+        try {
+            stream = new FileInputStream(file);
+            Properties properties = new Properties();
+            properties.load(stream);
+            model.mSizeRatio = Double.parseDouble(properties.getProperty(KEY_SIZE_RATIO));
+            model.mBytesPerPixelSecond = Double.parseDouble(properties.getProperty(KEY_BYTES_PER_PIXEL_SECOND));
+            model.mPixelRate = Double.parseDouble(properties.getProperty(KEY_PIXEL_RATE));
+            model.mSamples = Integer.parseInt(properties.getProperty(KEY_SAMPLES));
+        } catch (IOException | RuntimeException e) {
+            LOG.w("Could not load the cost model, using defaults.", e);
+            model.reset();
+        } finally {
+            close(stream);
+        }
+        return model;
+    }
+
+    /**
+     * Predicts the size of a video track.
+     *
+     * @param bitRate the requested bit rate, or 0 if unknown
+     * @param durationUs the output duration
+     * @return the size in bytes
+     */
+    public synchronized long predictVideoBytes(int width, int height, int bitRate, long durationUs) {
+        if (bitRate > 0) return (long) (bitRate / 8D * durationUs / 1000000D * mSizeRatio);
+        return (long) (mBytesPerPixelSecond * width * height * durationUs / 1000000D);
+    }
+
+    /**
+     * Predicts the time needed to transcode a video track.
+     *
+     * @param durationUs the output duration
+     * @return the time in microseconds
+     */
+    public synchronized long predictEncodeTimeUs(int width, int height, int frameRate, long durationUs) {
+        double frames = frameRate * durationUs / 1000000D;
+        return (long) ((double) width * height * frames / mPixelRate * 1000000D);
+    }
+
+    /**
+     * Updates the model with the result of a completed transcode.
+     *
+     * @param bitRate the requested bit rate, or 0 if unknown
+     * @param durationUs the output duration
+     * @param bytes the size of the video track
+     * @param frames the number of encoded frames
+     * @param elapsedUs the time it took
+     */
+    public void onVideoEncoded(int width, int height, int bitRate, long durationUs,
+                               long bytes, int frames, long elapsedUs) {
+        if (width <= 0 || height <= 0 || durationUs <= 0 || bytes <= 0 || frames <= 0 || elapsedUs <= 0) return;
+        synchronized (this) {
+            double weight = Math.max(1D / (mSamples + 1), MIN_WEIGHT);
+            if (bitRate > 0) {
+                double ratio = bytes / (bitRate / 8D * durationUs / 1000000D);
+                mSizeRatio += weight * (ratio - mSizeRatio);
+            }
+            double bytesPerPixelSecond = bytes / ((double) width * height * durationUs / 1000000D);
+            mBytesPerPixelSecond += weight * (bytesPerPixelSecond - mBytesPerPixelSecond);
+            double pixelRate = (double) width * height * frames / (elapsedUs / 1000000D);
+            mPixelRate += weight * (pixelRate - mPixelRate);
+            mSamples++;
+            LOG.v("Updated cost model: sizeRatio=" + mSizeRatio + ", bytesPerPixelSecond=" + mBytesPerPixelSecond
+                    + ", pixelRate=" + mPixelRate + ", samples=" + mSamples);
+        }
+        if (mFile != null) save();
+    }
+
+    /**
+     * Returns the number of transcodes this model learned from.
+     */
+    public synchronized int getSampleCount() {
+        return mSamples;
+    }
+
+    private synchronized void reset() {
+        mSizeRatio = 1;
+        mBytesPerPixelSecond = DEFAULT_BYTES_PER_PIXEL_SECOND;
+        mPixelRate = DEFAULT_PIXEL_RATE;
+        mSamples = 0;
+    }
+
+    private synchronized void save() {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_SIZE_RATIO, Double.toString(mSizeRatio));
+        properties.setProperty(KEY_BYTES_PER_PIXEL_SECOND, Double.toString(mBytesPerPixelSecond));
+        properties.setProperty(KEY_PIXEL_RATE, Double.toString(mPixelRate));
+        properties.setProperty(KEY_SAMPLES, Integer.toString(mSamples));
+        OutputStream stream = null;
+        try {
+            stream = new FileOutputStream(mFile);
+            properties.store(stream, null);
+        } catch (IOException e) {
+            LOG.w("Could not save the cost model.", e);
+        } finally {
+            close(stream);
+        }
+    }
+
+    private static void close(@Nullable Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignore) {
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package net.ypresto.androidtranscoder.validator;
+
+import android.media.MediaFormat;
+
+import net.ypresto.androidtranscoder.engine.TrackStatus;
+
+/**
+ * What the engine is about to do, as passed to a {@link PlanValidator}.
+ * Formats are null for absent tracks, and output formats are null unless the
+ * track is being compressed. Input formats declare {@link MediaFormat#KEY_BIT_RATE}
+ * whenever it could be found or measured.
+ */
+@SuppressWarnings("WeakerAccess")
+public class TranscodePlan {
+
+    public TrackStatus videoStatus;
+    public TrackStatus audioStatus;
+    public MediaFormat videoInputFormat;
+    public MediaFormat videoOutputFormat;
+    public MediaFormat audioInputFormat;
+    public MediaFormat audioOutputFormat;
+    // Negative if unknown.
+    public long inputDurationUs;
+    public long outputDurationUs;
+}
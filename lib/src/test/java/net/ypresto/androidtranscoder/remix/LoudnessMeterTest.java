@@ -0,0 +1,93 @@
+package net.ypresto.androidtranscoder.remix;
+
+import junit.framework.TestCase;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Reference signals from EBU Tech 3341 (minimum requirements), synthesized.
+ */
+public class LoudnessMeterTest extends TestCase {
+    private static final int SAMPLE_RATE = 48000;
+    private static final double TOLERANCE = 0.1;
+
+    public void testSine23() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        feedSine(meter, 2, -23, 20);
+        assertEquals(-23, meter.getIntegratedLoudness(), TOLERANCE);
+    }
+
+    public void testSine33() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        feedSine(meter, 2, -33, 20);
+        assertEquals(-33, meter.getIntegratedLoudness(), TOLERANCE);
+    }
+
+    public void testRelativeGate() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        feedSine(meter, 2, -36, 10);
+        feedSine(meter, 2, -23, 60);
+        feedSine(meter, 2, -36, 10);
+        assertEquals(-23, meter.getIntegratedLoudness(), TOLERANCE);
+    }
+
+    public void testAbsoluteGate() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        feedSine(meter, 2, -72, 10);
+        feedSine(meter, 2, -36, 10);
+        feedSine(meter, 2, -23, 60);
+        feedSine(meter, 2, -36, 10);
+        feedSine(meter, 2, -72, 10);
+        assertEquals(-23, meter.getIntegratedLoudness(), TOLERANCE);
+    }
+
+    public void testOtherSampleRate() {
+        LoudnessMeter meter = new LoudnessMeter(44100, 1);
+        // A mono sine has half the energy of a stereo one.
+        feedSine(meter, 1, -20, 10, 44100);
+        assertEquals(-23, meter.getIntegratedLoudness(), TOLERANCE);
+    }
+
+    public void testSilence() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        meter.addSamples(ShortBuffer.allocate(SAMPLE_RATE * 2 * 5));
+        assertTrue(Double.isInfinite(meter.getIntegratedLoudness()));
+        assertEquals(1F, LoudnessMeter.computeGain(meter.getIntegratedLoudness(), -23, 20), 0F);
+    }
+
+    public void testReset() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        feedSine(meter, 2, -10, 5);
+        meter.reset();
+        feedSine(meter, 2, -30, 5);
+        assertEquals(-30, meter.getIntegratedLoudness(), TOLERANCE);
+    }
+
+    public void testComputeGain() {
+        assertEquals(2F, LoudnessMeter.computeGain(-29.0206, -23, 20), 0.001F);
+        assertEquals(0.5F, LoudnessMeter.computeGain(-16.9794, -23, 20), 0.001F);
+        assertEquals(10F, LoudnessMeter.computeGain(-60, -23, 20), 0.001F);
+    }
+
+    private static void feedSine(LoudnessMeter meter, int channels, double dbfs, int seconds) {
+        feedSine(meter, channels, dbfs, seconds, SAMPLE_RATE);
+    }
+
+    // Feeds a 1kHz sine in small chunks, to exercise the streaming state.
+    private static void feedSine(LoudnessMeter meter, int channels, double dbfs, int seconds, int sampleRate) {
+        double amplitude = Math.pow(10, dbfs / 20) * 32767;
+        ShortBuffer buffer = ShortBuffer.allocate(1024 * channels);
+        int frames = seconds * sampleRate;
+        for (int frame = 0; frame < frames; frame++) {
+            short sample = (short) Math.round(amplitude * Math.sin(2 * Math.PI * 1000 * frame / sampleRate));
+            for (int c = 0; c < channels; c++) buffer.put(sample);
+            if (!buffer.hasRemaining()) {
+                buffer.flip();
+                meter.addSamples(buffer);
+                buffer.clear();
+            }
+        }
+        buffer.flip();
+        meter.addSamples(buffer);
+    }
+}
@@ -0,0 +1,114 @@
+package net.ypresto.androidtranscoder.remix;
+
+import junit.framework.TestCase;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SilenceDetectorTest extends TestCase {
+    private static final int SAMPLE_RATE = 48000;
+    private static final long TOLERANCE_US = SilenceDetector.WINDOW_MS * 1000;
+
+    private final List<long[]> mRanges = new ArrayList<>();
+    private final SilenceDetector.Listener mListener = new SilenceDetector.Listener() {
+        @Override
+        public void onSilenceDetected(long startUs, long endUs) {
+            mRanges.add(new long[]{startUs, endUs});
+        }
+    };
+
+    public void testLeadingAndTrailingSilence() {
+        SilenceDetector detector = newDetector(SilenceDetector.MODE_RMS, 2);
+        feedSine(detector, 2, -80, 1000);
+        feedSine(detector, 2, -20, 2000);
+        feedSine(detector, 2, -80, 1500);
+        detector.finish();
+
+        assertEquals(2, mRanges.size());
+        assertRange(0, 1000000, mRanges.get(0));
+        assertRange(3000000, 4500000, mRanges.get(1));
+        assertEquals(4500000, detector.getPositionUs(), TOLERANCE_US);
+    }
+
+    public void testMinDuration() {
+        SilenceDetector detector = newDetector(SilenceDetector.MODE_RMS, 1);
+        feedSine(detector, 1, -20, 1000);
+        feedSine(detector, 1, -80, 200); // Too short.
+        feedSine(detector, 1, -20, 1000);
+        feedSine(detector, 1, -80, 800);
+        feedSine(detector, 1, -20, 1000);
+        detector.finish();
+
+        assertEquals(1, mRanges.size());
+        assertRange(2200000, 3000000, mRanges.get(0));
+    }
+
+    public void testHysteresis() {
+        SilenceDetector detector = newDetector(SilenceDetector.MODE_RMS, 2);
+        // The RMS of a sine is 3 dB under its peak: these are -52, -49.5 and -52 dB RMS.
+        feedSine(detector, 2, -49, 600);
+        feedSine(detector, 2, -46.5, 600);
+        feedSine(detector, 2, -49, 600);
+        detector.finish();
+
+        // Between threshold and threshold + hysteresis: still silent.
+        assertEquals(1, mRanges.size());
+        assertRange(0, 1800000, mRanges.get(0));
+    }
+
+    public void testPeakMode() {
+        SilenceDetector rms = newDetector(SilenceDetector.MODE_RMS, 1);
+        SilenceDetector peak = newDetector(SilenceDetector.MODE_PEAK, 1);
+        // -49 dB peak, -52 dB RMS: silent for RMS only.
+        feedSine(rms, 1, -49, 1000);
+        feedSine(peak, 1, -49, 1000);
+        rms.finish();
+        peak.finish();
+        assertEquals(1, mRanges.size());
+    }
+
+    public void testNoSilence() {
+        SilenceDetector detector = newDetector(SilenceDetector.MODE_PEAK, 2);
+        feedSine(detector, 2, -10, 3000);
+        detector.finish();
+        assertTrue(mRanges.isEmpty());
+    }
+
+    public void testReset() {
+        SilenceDetector detector = newDetector(SilenceDetector.MODE_RMS, 2);
+        feedSine(detector, 2, -80, 1000);
+        detector.reset();
+        feedSine(detector, 2, -20, 1000);
+        detector.finish();
+        assertTrue(mRanges.isEmpty());
+        assertEquals(1000000, detector.getPositionUs(), TOLERANCE_US);
+    }
+
+    private SilenceDetector newDetector(int mode, int channels) {
+        return new SilenceDetector(SAMPLE_RATE, channels, mode, -50, 500000, mListener);
+    }
+
+    private static void assertRange(long expectedStartUs, long expectedEndUs, long[] range) {
+        assertEquals(expectedStartUs, range[0], TOLERANCE_US);
+        assertEquals(expectedEndUs, range[1], TOLERANCE_US);
+    }
+
+    // Feeds a 1kHz sine with the given peak level, in small odd-sized chunks.
+    private static void feedSine(SilenceDetector detector, int channels, double dbfs, int millis) {
+        double amplitude = Math.pow(10, dbfs / 20) * 32767;
+        ShortBuffer buffer = ShortBuffer.allocate(333 * channels);
+        int frames = SAMPLE_RATE * millis / 1000;
+        for (int frame = 0; frame < frames; frame++) {
+            short sample = (short) Math.round(amplitude * Math.sin(2 * Math.PI * 1000 * frame / SAMPLE_RATE));
+            for (int c = 0; c < channels; c++) buffer.put(sample);
+            if (!buffer.hasRemaining()) {
+                buffer.flip();
+                detector.addSamples(buffer);
+                buffer.clear();
+            }
+        }
+        buffer.flip();
+        detector.addSamples(buffer);
+    }
+}
@@ -0,0 +1,79 @@
+package net.ypresto.androidtranscoder.strategy.size;
+
+import junit.framework.TestCase;
+
+public class SizeFitterTest extends TestCase {
+    private static final int NO_LIMIT = Integer.MAX_VALUE;
+
+    private static void assertSize(int width, int height, int[] size) {
+        assertNotNull(size);
+        assertEquals(width, size[0]);
+        assertEquals(height, size[1]);
+    }
+
+    public void testAlignedSizeIsKept() {
+        assertSize(1280, 720, SizeFitter.fit(1280, 720, 16, 16, NO_LIMIT, NO_LIMIT, null));
+        assertSize(720, 1280, SizeFitter.fit(720, 1280, 16, 16, NO_LIMIT, NO_LIMIT, null));
+    }
+
+    public void testAlignment() {
+        int[] size = SizeFitter.fit(1920, 1080, 16, 16, NO_LIMIT, NO_LIMIT, null);
+        assertNotNull(size);
+        assertEquals(0, size[0] % 16);
+        assertEquals(0, size[1] % 16);
+        assertSize(1904, 1072, size);
+        // Odd sizes from other resizers.
+        assertSize(638, 358, SizeFitter.fit(639, 359, 2, 2, NO_LIMIT, NO_LIMIT, null));
+    }
+
+    public void testAspectRatioIsClose() {
+        int[] size = SizeFitter.fit(1000, 562, 16, 16, NO_LIMIT, NO_LIMIT, null);
+        assertNotNull(size);
+        float ratio = (float) size[0] / size[1];
+        assertEquals(1000F / 562, ratio, 0.02F);
+        assertTrue(size[0] <= 1000 && size[1] <= 562);
+    }
+
+    public void testNeverUpscales() {
+        int[] size = SizeFitter.fit(100, 100, 16, 16, NO_LIMIT, NO_LIMIT, null);
+        assertSize(96, 96, size);
+    }
+
+    public void testMaxSize() {
+        assertSize(1920, 1080, SizeFitter.fit(3840, 2160, 2, 2, 1920, 1088, null));
+        assertSize(1080, 1920, SizeFitter.fit(2160, 3840, 2, 2, 1088, 1920, null));
+    }
+
+    public void testConstraint() {
+        // An encoder that only reaches the frame rate up to 1280x720 pixels.
+        SizeFitter.Constraint constraint = new SizeFitter.Constraint() {
+            @Override
+            public boolean accept(int width, int height) {
+                return width * height <= 1280 * 720;
+            }
+        };
+        int[] size = SizeFitter.fit(1920, 1080, 16, 16, NO_LIMIT, NO_LIMIT, constraint);
+        assertNotNull(size);
+        assertTrue(size[0] * size[1] <= 1280 * 720);
+        assertSize(1280, 720, size);
+    }
+
+    public void testNoFit() {
+        SizeFitter.Constraint never = new SizeFitter.Constraint() {
+            @Override
+            public boolean accept(int width, int height) {
+                return false;
+            }
+        };
+        assertNull(SizeFitter.fit(1280, 720, 16, 16, NO_LIMIT, NO_LIMIT, never));
+        assertNull(SizeFitter.fit(8, 8, 16, 16, NO_LIMIT, NO_LIMIT, null));
+    }
+
+    public void testExactSizeKeepsDimensions() {
+        ExactSize size = new ExactSize(720, 1280);
+        assertEquals(720, size.getWidth());
+        assertEquals(1280, size.getHeight());
+        assertEquals(720, size.getMinor());
+        assertEquals(1280, size.getMajor());
+    }
+}
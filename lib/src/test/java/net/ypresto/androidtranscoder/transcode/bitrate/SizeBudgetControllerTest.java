@@ -0,0 +1,81 @@
+package net.ypresto.androidtranscoder.transcode.bitrate;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class SizeBudgetControllerTest extends TestCase {
+    private static final int FRAME_RATE = 30;
+    private static final long DURATION_US = 60000000;
+    private static final long BUDGET = 10 * 1024 * 1024;
+
+    public void testInitialBitRate() {
+        SizeBudgetController controller = new SizeBudgetController(BUDGET, DURATION_US);
+        assertEquals(BUDGET * 8 / 60, controller.getBitRate());
+    }
+
+    public void testAccurateEncoder() {
+        assertWithinBudget(simulate(1F, 1F));
+    }
+
+    public void testOvershootingEncoder() {
+        assertWithinBudget(simulate(1.4F, 1.4F));
+    }
+
+    public void testUndershootingEncoder() {
+        assertWithinBudget(simulate(0.6F, 0.6F));
+    }
+
+    public void testComplexityChange() {
+        // Easy content first, then harder content the encoder can't compress as well.
+        assertWithinBudget(simulate(0.7F, 1.5F));
+    }
+
+    public void testWithoutControllerTheBudgetIsMissed() {
+        long bytes = 0;
+        int bitRate = SizeBudgetController.getBitRate(BUDGET, DURATION_US);
+        for (int frame = 0; frame < DURATION_US * FRAME_RATE / 1000000; frame++) {
+            bytes += (long) (bitRate * 1.4F / 8 / FRAME_RATE);
+        }
+        assertTrue(bytes > BUDGET * 1.3);
+    }
+
+    public void testEstimateVideoBudget() {
+        long target = 16 * 1024 * 1024;
+        long noAudio = SizeBudgetController.estimateVideoBudget(target, DURATION_US, 0, FRAME_RATE);
+        long withAudio = SizeBudgetController.estimateVideoBudget(target, DURATION_US, 128000, FRAME_RATE);
+        assertTrue(noAudio < target);
+        assertTrue(noAudio > target * 0.9);
+        // 128kbps for 60 seconds is 960000 bytes, plus some muxing overhead.
+        assertTrue(noAudio - withAudio > 960000 * 0.97);
+        assertTrue(noAudio - withAudio < 1000000);
+        assertEquals(1, SizeBudgetController.estimateVideoBudget(1000, DURATION_US, 128000, FRAME_RATE));
+    }
+
+    /**
+     * Simulates an encoder whose output is the requested bit rate times a factor, which goes
+     * from the first to the second value halfway. Key frames are bigger than others.
+     */
+    private static long simulate(float firstFactor, float secondFactor) {
+        SizeBudgetController controller = new SizeBudgetController(BUDGET, DURATION_US);
+        Random random = new Random(42);
+        int bitRate = controller.getBitRate();
+        long frameCount = DURATION_US * FRAME_RATE / 1000000;
+        for (int frame = 0; frame < frameCount; frame++) {
+            long timeUs = frame * 1000000L / FRAME_RATE;
+            float factor = frame < frameCount / 2 ? firstFactor : secondFactor;
+            float frameBytes = bitRate * factor / 8 / FRAME_RATE;
+            frameBytes *= frame % 90 == 0 ? 4F : 0.966F;
+            frameBytes *= 0.8F + 0.4F * random.nextFloat();
+            if (controller.onSample((int) frameBytes, timeUs)) {
+                bitRate = controller.getBitRate();
+            }
+        }
+        return controller.getWrittenBytes();
+    }
+
+    private static void assertWithinBudget(long bytes) {
+        assertTrue("Over budget: " + bytes, bytes <= BUDGET * 1.02);
+        assertTrue("Too far under budget: " + bytes, bytes >= BUDGET * 0.9);
+    }
+}
@@ -0,0 +1,163 @@
+package net.ypresto.androidtranscoder.transcode.framerate;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks properties of the converter output on many random inputs:
+ * constant and variable frame rate, jittery and millisecond-rounded timestamps.
+ */
+public class GridFrameRateConverterTest extends TestCase {
+    private static final int RUNS = 200;
+    private static final int[] OUTPUT_RATES = {15, 24, 25, 30, 60};
+
+    public void testOutputIsOnGridAndIncreasing() {
+        Random random = new Random(1);
+        for (int run = 0; run < RUNS; run++) {
+            int outputRate = OUTPUT_RATES[random.nextInt(OUTPUT_RATES.length)];
+            boolean duplicate = random.nextBoolean();
+            long[] input = randomInput(random);
+            List<Long> output = convert(new GridFrameRateConverter(outputRate, duplicate), input, null);
+            double step = 1000000D / outputRate;
+            long last = Long.MIN_VALUE;
+            for (long time : output) {
+                assertTrue("Timestamps must increase", time > last);
+                double slot = (time - input[0]) / step;
+                assertEquals("Timestamp must be on grid", Math.round(slot), slot, 1D / step);
+                last = time;
+            }
+        }
+    }
+
+    public void testOutputIsCloseToSource() {
+        Random random = new Random(2);
+        for (int run = 0; run < RUNS; run++) {
+            int outputRate = OUTPUT_RATES[random.nextInt(OUTPUT_RATES.length)];
+            long[] input = randomInput(random);
+            List<Long> sources = new ArrayList<>();
+            List<Long> output = convert(new GridFrameRateConverter(outputRate), input, sources);
+            double step = 1000000D / outputRate;
+            for (int i = 0; i < output.size(); i++) {
+                long delta = output.get(i) - sources.get(i);
+                assertTrue("Frame moved too much: " + delta,
+                        delta >= -(1 - GridFrameRateConverter.SLOT_BIAS) * step - 1
+                                && delta <= GridFrameRateConverter.SLOT_BIAS * step + 1);
+            }
+        }
+    }
+
+    public void testDropOnlyNeverAddsFrames() {
+        Random random = new Random(3);
+        for (int run = 0; run < RUNS; run++) {
+            int outputRate = OUTPUT_RATES[random.nextInt(OUTPUT_RATES.length)];
+            long[] input = randomInput(random);
+            List<Long> output = convert(new GridFrameRateConverter(outputRate), input, null);
+            assertTrue(output.size() <= input.length);
+            assertEquals("First frame is always rendered", input[0], (long) output.get(0));
+        }
+    }
+
+    public void testDuplicationFillsGrid() {
+        Random random = new Random(4);
+        for (int run = 0; run < RUNS; run++) {
+            int outputRate = OUTPUT_RATES[random.nextInt(OUTPUT_RATES.length)];
+            long[] input = randomInput(random);
+            List<Long> output = convert(new GridFrameRateConverter(outputRate, true), input, null);
+            double step = 1000000D / outputRate;
+            for (int i = 1; i < output.size(); i++) {
+                assertEquals("No gaps", step, output.get(i) - output.get(i - 1), 1);
+            }
+        }
+    }
+
+    public void testConstantRateCount() {
+        Random random = new Random(5);
+        for (int run = 0; run < RUNS; run++) {
+            int inputRate = 20 + random.nextInt(100);
+            int outputRate = OUTPUT_RATES[random.nextInt(OUTPUT_RATES.length)];
+            int frames = 100 + random.nextInt(1000);
+            long[] input = new long[frames];
+            for (int i = 0; i < frames; i++) input[i] = i * 1000000L / inputRate;
+            // Slots until the last frame. Nothing is rendered after it.
+            double lastSlot = (double) input[frames - 1] * outputRate / 1000000D;
+            int slots = (int) Math.floor(lastSlot + GridFrameRateConverter.SLOT_BIAS) + 1;
+
+            int dropOnly = convert(new GridFrameRateConverter(outputRate), input, null).size();
+            assertEquals(inputRate >= outputRate ? slots : frames, dropOnly);
+            int duplicated = convert(new GridFrameRateConverter(outputRate, true), input, null).size();
+            assertEquals(slots, duplicated);
+        }
+    }
+
+    public void testHalvingKeepsEveryOtherFrame() {
+        // 60 fps with timestamps rounded to milliseconds, as in most mp4 files.
+        long[] input = new long[600];
+        for (int i = 0; i < input.length; i++) input[i] = Math.round(i * 1000D / 60) * 1000;
+        List<Long> sources = new ArrayList<>();
+        convert(new GridFrameRateConverter(30), input, sources);
+        assertEquals(300, sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            assertEquals(input[2 * i], (long) sources.get(i));
+        }
+    }
+
+    public void testIsDroppedByIsNeverWrong() {
+        Random random = new Random(6);
+        int predicted = 0;
+        for (int run = 0; run < RUNS; run++) {
+            int outputRate = OUTPUT_RATES[random.nextInt(OUTPUT_RATES.length)];
+            long[] input = randomInput(random);
+            GridFrameRateConverter converter = new GridFrameRateConverter(outputRate, random.nextBoolean());
+            boolean[] dropped = new boolean[input.length];
+            for (int i = 0; i < input.length; i++) {
+                // Ask about a later frame, as the extractor runs ahead of the decoder.
+                int later = Math.min(input.length - 1, i + random.nextInt(8));
+                int other = Math.max(0, later - 1 - random.nextInt(8));
+                if (converter.isDroppedBy(input[later], input[other])) {
+                    if (!dropped[later]) predicted++;
+                    dropped[later] = true;
+                }
+                boolean rendered = converter.onFrame(input[i]);
+                assertFalse("Predicted drop was rendered", dropped[i] && rendered);
+            }
+        }
+        assertTrue(predicted > 0);
+    }
+
+    // Renders the input, returning output timestamps and filling the source timestamps if needed.
+    private static List<Long> convert(FrameRateConverter converter, long[] input, List<Long> sources) {
+        List<Long> output = new ArrayList<>();
+        for (long time : input) {
+            if (converter.onFrame(time)) {
+                for (int i = 0; i < converter.getRepeatCount(); i++) {
+                    output.add(converter.getRepeatTimeUs(i));
+                    if (sources != null) sources.add(sources.get(sources.size() - 1));
+                }
+                output.add(converter.getOutputTimeUs());
+                if (sources != null) sources.add(time);
+            }
+        }
+        return output;
+    }
+
+    // Constant or variable frame rate, with optional jitter or millisecond rounding.
+    private static long[] randomInput(Random random) {
+        int frames = 10 + random.nextInt(500);
+        long[] input = new long[frames];
+        boolean variable = random.nextBoolean();
+        boolean roundToMillis = random.nextBoolean();
+        double interval = 1000000D / (10 + random.nextInt(111));
+        double time = random.nextInt(1000000);
+        for (int i = 0; i < frames; i++) {
+            long value = Math.round(time);
+            if (roundToMillis) value = value / 1000 * 1000;
+            if (i > 0 && value <= input[i - 1]) value = input[i - 1] + 1;
+            input[i] = value;
+            time += variable ? interval * (0.2 + 3 * random.nextDouble()) : interval;
+        }
+        return input;
+    }
+}
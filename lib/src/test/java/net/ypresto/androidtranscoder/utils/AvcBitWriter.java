@@ -0,0 +1,60 @@
+package net.ypresto.androidtranscoder.utils;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Writes H.264 NAL units for tests, inserting emulation prevention bytes.
+ */
+class AvcBitWriter {
+    private final ByteArrayOutputStream mRbsp = new ByteArrayOutputStream();
+    private int mCurrent;
+    private int mBits;
+
+    AvcBitWriter bits(long value, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            mCurrent = (mCurrent << 1) | (int) ((value >> i) & 1);
+            if (++mBits == 8) {
+                mRbsp.write(mCurrent);
+                mCurrent = 0;
+                mBits = 0;
+            }
+        }
+        return this;
+    }
+
+    AvcBitWriter flag(boolean value) {
+        return bits(value ? 1 : 0, 1);
+    }
+
+    AvcBitWriter ue(int value) {
+        long code = value + 1L;
+        int length = 64 - Long.numberOfLeadingZeros(code);
+        bits(0, length - 1);
+        return bits(code, length);
+    }
+
+    AvcBitWriter se(int value) {
+        return ue(value > 0 ? 2 * value - 1 : -2 * value);
+    }
+
+    /**
+     * Adds the stop bit and returns the NAL unit, header included, without start code.
+     */
+    byte[] nal(int header) {
+        bits(1, 1);
+        while (mBits != 0) bits(0, 1);
+        byte[] rbsp = mRbsp.toByteArray();
+        ByteArrayOutputStream nal = new ByteArrayOutputStream();
+        nal.write(header);
+        int zeros = 0;
+        for (byte value : rbsp) {
+            if (zeros >= 2 && (value & 0xFF) <= 3) {
+                nal.write(3);
+                zeros = 0;
+            }
+            nal.write(value);
+            zeros = value == 0 ? zeros + 1 : 0;
+        }
+        return nal.toByteArray();
+    }
+}
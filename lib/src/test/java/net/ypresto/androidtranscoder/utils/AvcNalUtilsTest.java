@@ -0,0 +1,106 @@
+package net.ypresto.androidtranscoder.utils;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class AvcNalUtilsTest extends TestCase {
+    // Access units as written by x264 with B-frames: headers are real, payloads are truncated.
+    private static final byte[] AUD = {0x09, (byte) 0xf0};
+    private static final byte[] SEI = {0x06, 0x05, 0x10, (byte) 0xdc, 0x45, (byte) 0xe9, (byte) 0x80};
+    private static final byte[] SPS = {0x67, 0x64, 0x00, 0x1f, (byte) 0xac, (byte) 0xd9, 0x40, 0x50};
+    private static final byte[] PPS = {0x68, (byte) 0xeb, (byte) 0xe3, (byte) 0xcb, 0x22, (byte) 0xc0};
+    private static final byte[] IDR = {0x65, (byte) 0x88, (byte) 0x84, 0x00, 0x33, (byte) 0xff};
+    private static final byte[] P_REF = {0x41, (byte) 0x9a, 0x21, 0x6c, 0x42, 0x7f};
+    private static final byte[] B_REF = {0x21, (byte) 0x9e, 0x42, 0x78, (byte) 0x85, 0x7f};
+    private static final byte[] B_NON_REF = {0x01, (byte) 0x9e, 0x61, 0x74, 0x42, 0x7f};
+
+    public void testAnnexB() {
+        assertFalse(isNonReference(annexB(AUD, SEI, SPS, PPS, IDR), 0));
+        assertFalse(isNonReference(annexB(AUD, P_REF), 0));
+        assertFalse(isNonReference(annexB(AUD, B_REF), 0));
+        assertTrue(isNonReference(annexB(AUD, B_NON_REF), 0));
+        assertTrue(isNonReference(annexB(B_NON_REF, B_NON_REF), 0));
+    }
+
+    public void testLengthPrefixed() {
+        assertFalse(isNonReference(lengthPrefixed(SEI, SPS, PPS, IDR), 0));
+        assertFalse(isNonReference(lengthPrefixed(P_REF), 0));
+        assertFalse(isNonReference(lengthPrefixed(B_REF), 0));
+        assertTrue(isNonReference(lengthPrefixed(B_NON_REF), 0));
+        assertTrue(isNonReference(lengthPrefixed(SEI, B_NON_REF), 0));
+    }
+
+    public void testLittleEndianBuffer() {
+        // Extractor and codec buffers are in native order, but lengths are still big endian.
+        assertTrue(isNonReference(lengthPrefixed(SEI, B_NON_REF), 0, ByteOrder.LITTLE_ENDIAN));
+        assertFalse(isNonReference(lengthPrefixed(SEI, P_REF), 0, ByteOrder.LITTLE_ENDIAN));
+        assertTrue(isNonReference(lengthPrefixed(SEI, SEI, B_NON_REF), 5, ByteOrder.LITTLE_ENDIAN));
+    }
+
+    public void testOffset() {
+        assertTrue(isNonReference(annexB(AUD, B_NON_REF), 13));
+        assertFalse(isNonReference(annexB(AUD, P_REF), 13));
+        assertTrue(isNonReference(lengthPrefixed(SEI, B_NON_REF), 7));
+        assertFalse(isNonReference(lengthPrefixed(SEI, P_REF), 7));
+    }
+
+    public void testNoSlice() {
+        assertFalse(isNonReference(annexB(AUD, SEI), 0));
+        assertFalse(isNonReference(lengthPrefixed(SPS, PPS), 0));
+        assertFalse(isNonReference(new byte[0], 0));
+        // Truncated: the length points past the end.
+        byte[] truncated = lengthPrefixed(SEI);
+        truncated[3] = 0x7f;
+        assertFalse(isNonReference(truncated, 0));
+    }
+
+    public void testBufferIsUnchanged() {
+        byte[] data = annexB(AUD, B_NON_REF);
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 8);
+        buffer.put(data);
+        buffer.flip();
+        buffer.position(2);
+        assertTrue(AvcNalUtils.isNonReferenceFrame(buffer, 0, data.length));
+        assertEquals(2, buffer.position());
+        assertEquals(data.length, buffer.limit());
+    }
+
+    private static boolean isNonReference(byte[] accessUnit, int offset) {
+        return isNonReference(accessUnit, offset, ByteOrder.BIG_ENDIAN);
+    }
+
+    private static boolean isNonReference(byte[] accessUnit, int offset, ByteOrder order) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(offset + accessUnit.length + 3).order(order);
+        for (int i = 0; i < accessUnit.length; i++) buffer.put(offset + i, accessUnit[i]);
+        return AvcNalUtils.isNonReferenceFrame(buffer, offset, accessUnit.length);
+    }
+
+    private static byte[] annexB(byte[]... units) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (int i = 0; i < units.length; i++) {
+            // The first unit of an access unit has a 4 byte start code.
+            if (i == 0) buffer.put((byte) 0);
+            buffer.put(new byte[]{0, 0, 1});
+            buffer.put(units[i]);
+        }
+        return copy(buffer);
+    }
+
+    private static byte[] lengthPrefixed(byte[]... units) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (byte[] unit : units) {
+            buffer.putInt(unit.length);
+            buffer.put(unit);
+        }
+        return copy(buffer);
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(result);
+        return result;
+    }
+}
@@ -0,0 +1,88 @@
+package net.ypresto.androidtranscoder.utils;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class AvcPpsTest extends TestCase {
+    // Refer: http://www.cardinalpeak.com/blog/the-h-264-sequence-parameter-set/
+    private static final byte[] BASELINE = {0x68, (byte) 0xce, 0x38, (byte) 0x80};
+
+    private final AvcPps mPps = new AvcPps();
+
+    public void testBaseline() {
+        assertTrue(parse(BASELINE));
+        assertEquals(0, mPps.getPpsId());
+        assertEquals(0, mPps.getSpsId());
+        assertFalse(mPps.isCabac());
+        assertEquals(1, mPps.getNumSliceGroups());
+        assertFalse(mPps.isTransform8x8Mode());
+    }
+
+    public void testHigh() {
+        assertTrue(parse(high(true)));
+        assertTrue(mPps.isCabac());
+        assertEquals(3, mPps.getNumRefIdxL0DefaultActive());
+        assertEquals(1, mPps.getNumRefIdxL1DefaultActive());
+        assertTrue(mPps.isWeightedPrediction());
+        assertEquals(2, mPps.getWeightedBipredictionIdc());
+        assertTrue(mPps.isTransform8x8Mode());
+    }
+
+    public void testMain() {
+        // Same fields, but no High profile extension.
+        assertTrue(parse(high(false)));
+        assertTrue(mPps.isCabac());
+        assertFalse(mPps.isTransform8x8Mode());
+    }
+
+    public void testSliceGroups() {
+        byte[] pps = new AvcBitWriter()
+                .ue(1).ue(0).flag(false).flag(false)
+                .ue(2).ue(6).ue(3).bits(0, 2).bits(1, 2).bits(2, 2).bits(1, 2) // explicit map, 3 groups
+                .ue(0).ue(0).flag(false).bits(0, 2).se(0).se(0).se(0)
+                .flag(true).flag(false).flag(false)
+                .nal(0x68);
+        assertTrue(parse(pps));
+        assertEquals(1, mPps.getPpsId());
+        assertEquals(3, mPps.getNumSliceGroups());
+    }
+
+    public void testInvalid() {
+        assertFalse(parse(new byte[0]));
+        assertFalse(parse(new byte[]{0x67, (byte) 0xce, 0x38, (byte) 0x80}));
+        assertFalse(parse(new byte[]{0x68}));
+    }
+
+    public void testFuzz() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            byte[] data = new byte[1 + random.nextInt(20)];
+            random.nextBytes(data);
+            data[0] = 0x68;
+            if (parse(data)) {
+                assertTrue(mPps.getNumSliceGroups() >= 1);
+                assertTrue(mPps.getNumRefIdxL0DefaultActive() >= 1);
+            }
+        }
+    }
+
+    private boolean parse(byte[] pps) {
+        return mPps.parse(ByteBuffer.wrap(pps), 0, pps.length);
+    }
+
+    private static byte[] high(boolean extension) {
+        AvcBitWriter writer = new AvcBitWriter()
+                .ue(0).ue(0) // pic_parameter_set_id, seq_parameter_set_id
+                .flag(true) // entropy_coding_mode_flag
+                .flag(false)
+                .ue(0) // num_slice_groups_minus1
+                .ue(2).ue(0) // num_ref_idx_l0/l1_default_active_minus1
+                .flag(true).bits(2, 2) // weighted_pred_flag, weighted_bipred_idc
+                .se(-3).se(0).se(-2)
+                .flag(true).flag(false).flag(false);
+        if (extension) writer.flag(true).flag(false).se(-2);
+        return writer.nal(0x68);
+    }
+}
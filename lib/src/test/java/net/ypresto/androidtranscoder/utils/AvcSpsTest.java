@@ -0,0 +1,165 @@
+package net.ypresto.androidtranscoder.utils;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class AvcSpsTest extends TestCase {
+    // Refer: http://www.cardinalpeak.com/blog/the-h-264-sequence-parameter-set/
+    private static final byte[] BASELINE_128x96 = {0x67, 0x42, 0x00, 0x0a, (byte) 0xf8, 0x41, (byte) 0xa2};
+
+    private final AvcSps mSps = new AvcSps();
+
+    public void testBaseline() {
+        assertTrue(parse(BASELINE_128x96));
+        assertEquals(AvcSpsUtils.PROFILE_IDC_BASELINE, mSps.getProfileIdc());
+        assertEquals(10, mSps.getLevel());
+        assertEquals(128, mSps.getWidth());
+        assertEquals(96, mSps.getHeight());
+        assertEquals(AvcSps.CHROMA_FORMAT_420, mSps.getChromaFormatIdc());
+        assertEquals(8, mSps.getBitDepthLuma());
+        assertFalse(mSps.isInterlaced());
+        assertEquals(0, mSps.getMaxNumReorderFrames());
+        assertEquals(AvcSps.FRAME_RATE_UNKNOWN, mSps.getFrameRate());
+    }
+
+    public void testHighWithCroppingAndVui() {
+        // 1920x1080: 68 macroblock rows, cropped by 4 * 2 lines.
+        byte[] sps = high(31, 120, 68, 4, true);
+        assertTrue(parse(sps));
+        assertEquals(AvcSpsUtils.PROFILE_IDC_HIGH, mSps.getProfileIdc());
+        assertEquals(31, mSps.getLevel());
+        assertEquals(1920, mSps.getWidth());
+        assertEquals(1080, mSps.getHeight());
+        assertEquals(30F, mSps.getFrameRate());
+        assertTrue(mSps.isFixedFrameRate());
+        assertEquals(2, mSps.getMaxNumReorderFrames());
+        assertEquals(4, mSps.getMaxDecFrameBuffering());
+        assertEquals(4, mSps.getSarWidth());
+        assertEquals(3, mSps.getSarHeight());
+    }
+
+    public void testInferredReorderFrames() {
+        // No bitstream restrictions: 18000 / (80 * 45) = 5 frames at level 3.1.
+        assertTrue(parse(high(31, 80, 45, 0, false)));
+        assertEquals(1280, mSps.getWidth());
+        assertEquals(720, mSps.getHeight());
+        assertEquals(5, mSps.getMaxNumReorderFrames());
+        assertEquals(AvcSps.FRAME_RATE_UNKNOWN, mSps.getFrameRate());
+    }
+
+    public void testEmulationPrevention() {
+        byte[] sps = high(31, 120, 68, 4, true);
+        boolean escaped = false;
+        for (int i = 2; i < sps.length; i++) {
+            if (sps[i - 2] == 0 && sps[i - 1] == 0 && sps[i] == 3) escaped = true;
+        }
+        // The 32 bit timing fields hold enough zeros.
+        assertTrue(escaped);
+        assertTrue(parse(sps));
+        assertEquals(30F, mSps.getFrameRate());
+    }
+
+    public void testOffsetAndMediaFormatLayout() {
+        byte[] sps = high(40, 120, 68, 4, true);
+        byte[] csd = new byte[sps.length + 6];
+        csd[3] = 1;
+        System.arraycopy(sps, 0, csd, 4, sps.length);
+        ByteBuffer buffer = ByteBuffer.wrap(csd);
+        int header = AvcCsdUtils.findNalHeader(buffer, 0, csd.length);
+        assertEquals(4, header);
+        // Trailing zeros are not part of the unit.
+        assertEquals(4 + sps.length, AvcCsdUtils.findNalEnd(buffer, header, csd.length));
+        assertTrue(mSps.parse(buffer, header, sps.length));
+        assertEquals(40, mSps.getLevel());
+        assertEquals(0, buffer.position());
+        assertEquals(csd.length, buffer.limit());
+    }
+
+    public void testLevel1b() {
+        byte[] sps = BASELINE_128x96.clone();
+        sps[2] = 0x10; // constraint_set3_flag
+        sps[3] = 11;
+        assertTrue(parse(sps));
+        assertEquals(AvcSps.LEVEL_IDC_1B, mSps.getLevel());
+    }
+
+    public void testInvalid() {
+        assertFalse(parse(new byte[0]));
+        assertFalse(parse(new byte[]{0x68, 0x42, 0x00, 0x0a}));
+        // Truncated.
+        assertFalse(parse(new byte[]{0x67, 0x42, 0x00}));
+        byte[] sps = high(31, 120, 68, 4, true);
+        byte[] truncated = new byte[sps.length - 4];
+        System.arraycopy(sps, 0, truncated, 0, truncated.length);
+        assertFalse(parse(truncated));
+    }
+
+    public void testFuzz() {
+        Random random = new Random(42);
+        byte[][] seeds = {BASELINE_128x96, high(31, 120, 68, 4, true), high(51, 240, 135, 0, false)};
+        for (int i = 0; i < 20000; i++) {
+            byte[] data;
+            if (i % 2 == 0) {
+                data = new byte[1 + random.nextInt(40)];
+                random.nextBytes(data);
+                data[0] = 0x67;
+            } else {
+                data = seeds[random.nextInt(seeds.length)].clone();
+                for (int j = 0; j < 3; j++) {
+                    data[1 + random.nextInt(data.length - 1)] ^= 1 << random.nextInt(8);
+                }
+            }
+            if (parse(data)) {
+                assertTrue(mSps.getWidth() > 0);
+                assertTrue(mSps.getHeight() > 0);
+                assertTrue(mSps.getMaxNumReorderFrames() >= 0);
+            }
+        }
+    }
+
+    private boolean parse(byte[] sps) {
+        return mSps.parse(ByteBuffer.wrap(sps), 0, sps.length);
+    }
+
+    // A High profile SPS with scaling lists and optional VUI, as written by x264.
+    private static byte[] high(int level, int widthInMbs, int heightInMbs, int cropBottom, boolean vui) {
+        AvcBitWriter writer = new AvcBitWriter()
+                .bits(AvcSpsUtils.PROFILE_IDC_HIGH, 8).bits(0, 8).bits(level, 8)
+                .ue(0) // seq_parameter_set_id
+                .ue(1) // chroma_format_idc
+                .ue(0).ue(0) // bit_depth_luma_minus8, bit_depth_chroma_minus8
+                .flag(false) // qpprime_y_zero_transform_bypass_flag
+                .flag(true); // seq_scaling_matrix_present_flag
+        writer.flag(true).se(8).se(-3); // a 4x4 scaling list of 16 deltas
+        for (int i = 2; i < 16; i++) writer.se(0);
+        for (int i = 1; i < 8; i++) writer.flag(false);
+        writer.ue(0) // log2_max_frame_num_minus4
+                .ue(0).ue(2) // pic_order_cnt_type, log2_max_pic_order_cnt_lsb_minus4
+                .ue(4) // max_num_ref_frames
+                .flag(false)
+                .ue(widthInMbs - 1).ue(heightInMbs - 1)
+                .flag(true) // frame_mbs_only_flag
+                .flag(true) // direct_8x8_inference_flag
+                .flag(cropBottom > 0);
+        if (cropBottom > 0) writer.ue(0).ue(0).ue(0).ue(cropBottom);
+        writer.flag(vui);
+        if (vui) {
+            writer.flag(true).bits(255, 8).bits(4, 16).bits(3, 16) // extended sample aspect ratio
+                    .flag(false) // overscan_info_present_flag
+                    .flag(true).bits(5, 3).flag(false).flag(true).bits(1, 8).bits(1, 8).bits(1, 8)
+                    .flag(false) // chroma_loc_info_present_flag
+                    .flag(true).bits(1, 32).bits(60, 32).flag(true) // 30 fps
+                    .flag(true) // nal_hrd_parameters_present_flag
+                    .ue(0).bits(4, 4).bits(6, 4).ue(62499).ue(62499).flag(false)
+                    .bits(23, 5).bits(23, 5).bits(23, 5).bits(24, 5)
+                    .flag(false) // vcl_hrd_parameters_present_flag
+                    .flag(false) // low_delay_hrd_flag
+                    .flag(false) // pic_struct_present_flag
+                    .flag(true).flag(true).ue(0).ue(0).ue(11).ue(11)
+                    .ue(2).ue(4); // max_num_reorder_frames, max_dec_frame_buffering
+        }
+        return writer.nal(0x67);
+    }
+}